@@ -0,0 +1,147 @@
+package batchrequests;
+
+import lombok.Getter;
+
+/**
+ * When to add and remove polling workers for a queue of a {@link BatchRequestsFactory}.  A queue gets another poller
+ * when it is backed up, either by depth or by how long its oldest request has waited, and loses one after it has been
+ * empty for a while.
+ *
+ * Create a policy using {@link AutoscalingPolicyBuilder}.
+ */
+@Getter
+public class AutoscalingPolicy {
+
+    /** Value: {@value #DEFAULT_MIN_POLLERS_PER_QUEUE} */
+    public static final int DEFAULT_MIN_POLLERS_PER_QUEUE = 1;
+
+    /** Value: {@value #DEFAULT_MAX_POLLERS_PER_QUEUE} */
+    public static final int DEFAULT_MAX_POLLERS_PER_QUEUE = 8;
+
+    /** Value: {@value #DEFAULT_SCALE_DOWN_IDLE_TIME_MS} */
+    public static final long DEFAULT_SCALE_DOWN_IDLE_TIME_MS = 60_000L;
+
+    /** Value: {@value #DEFAULT_CHECK_INTERVAL_MS} */
+    public static final long DEFAULT_CHECK_INTERVAL_MS = 1000L;
+
+    private final int minPollersPerQueue;
+    private final int maxPollersPerQueue;
+    /** Null to use four times the factory's batch size */
+    private final Integer scaleUpQueueDepth;
+    /** Null to use twice the factory's max buffer time */
+    private final Long scaleUpWaitTimeMs;
+    private final long scaleDownIdleTimeMs;
+    private final long checkIntervalMs;
+
+    private AutoscalingPolicy(int minPollersPerQueue,
+                              int maxPollersPerQueue,
+                              Integer scaleUpQueueDepth,
+                              Long scaleUpWaitTimeMs,
+                              long scaleDownIdleTimeMs,
+                              long checkIntervalMs) {
+        if (minPollersPerQueue < 1) {
+            throw new IllegalArgumentException("Need a positive minimum number of pollers.  Got: " + minPollersPerQueue);
+        }
+        if (maxPollersPerQueue < minPollersPerQueue) {
+            throw new IllegalArgumentException("Need a maximum number of pollers of at least " + minPollersPerQueue
+                    + ".  Got: " + maxPollersPerQueue);
+        }
+        if (scaleUpQueueDepth != null && scaleUpQueueDepth < 1) {
+            throw new IllegalArgumentException("Need a positive scale up queue depth.  Got: " + scaleUpQueueDepth);
+        }
+        if (scaleUpWaitTimeMs != null && scaleUpWaitTimeMs < 1) {
+            throw new IllegalArgumentException("Need a positive scale up wait time.  Got: " + scaleUpWaitTimeMs);
+        }
+        if (scaleDownIdleTimeMs < 1) {
+            throw new IllegalArgumentException("Need a positive scale down idle time.  Got: " + scaleDownIdleTimeMs);
+        }
+        if (checkIntervalMs < 1) {
+            throw new IllegalArgumentException("Need a positive check interval.  Got: " + checkIntervalMs);
+        }
+        this.minPollersPerQueue = minPollersPerQueue;
+        this.maxPollersPerQueue = maxPollersPerQueue;
+        this.scaleUpQueueDepth = scaleUpQueueDepth;
+        this.scaleUpWaitTimeMs = scaleUpWaitTimeMs;
+        this.scaleDownIdleTimeMs = scaleDownIdleTimeMs;
+        this.checkIntervalMs = checkIntervalMs;
+    }
+
+    /**
+     * A builder with every parameter optional.
+     */
+    public static class AutoscalingPolicyBuilder {
+        private int builderMinPollersPerQueue = DEFAULT_MIN_POLLERS_PER_QUEUE;
+        private int builderMaxPollersPerQueue = DEFAULT_MAX_POLLERS_PER_QUEUE;
+        private Integer builderScaleUpQueueDepth;
+        private Long builderScaleUpWaitTimeMs;
+        private long builderScaleDownIdleTimeMs = DEFAULT_SCALE_DOWN_IDLE_TIME_MS;
+        private long builderCheckIntervalMs = DEFAULT_CHECK_INTERVAL_MS;
+
+        /**
+         * @param minPollersPerQueue Pollers are never removed below this number.
+         *                           Defaults to {@link #DEFAULT_MIN_POLLERS_PER_QUEUE}.
+         * @return {@link AutoscalingPolicyBuilder}
+         */
+        public AutoscalingPolicyBuilder withMinPollersPerQueue(int minPollersPerQueue) {
+            this.builderMinPollersPerQueue = minPollersPerQueue;
+            return this;
+        }
+
+        /**
+         * @param maxPollersPerQueue Pollers are never added above this number.
+         *                           Defaults to {@link #DEFAULT_MAX_POLLERS_PER_QUEUE}.
+         * @return {@link AutoscalingPolicyBuilder}
+         */
+        public AutoscalingPolicyBuilder withMaxPollersPerQueue(int maxPollersPerQueue) {
+            this.builderMaxPollersPerQueue = maxPollersPerQueue;
+            return this;
+        }
+
+        /**
+         * @param scaleUpQueueDepth A poller is added when a queue holds at least this many requests.
+         *                          Defaults to four times the factory's batch size.
+         * @return {@link AutoscalingPolicyBuilder}
+         */
+        public AutoscalingPolicyBuilder withScaleUpQueueDepth(int scaleUpQueueDepth) {
+            this.builderScaleUpQueueDepth = scaleUpQueueDepth;
+            return this;
+        }
+
+        /**
+         * @param scaleUpWaitTimeMs A poller is added when the oldest request in a queue has waited at least this long.
+         *                          Defaults to twice the factory's max buffer time.
+         * @return {@link AutoscalingPolicyBuilder}
+         */
+        public AutoscalingPolicyBuilder withScaleUpWaitTimeMs(long scaleUpWaitTimeMs) {
+            this.builderScaleUpWaitTimeMs = scaleUpWaitTimeMs;
+            return this;
+        }
+
+        /**
+         * @param scaleDownIdleTimeMs A poller is removed each time a queue has been empty for this long.
+         *                            Defaults to {@link #DEFAULT_SCALE_DOWN_IDLE_TIME_MS}.
+         * @return {@link AutoscalingPolicyBuilder}
+         */
+        public AutoscalingPolicyBuilder withScaleDownIdleTimeMs(long scaleDownIdleTimeMs) {
+            this.builderScaleDownIdleTimeMs = scaleDownIdleTimeMs;
+            return this;
+        }
+
+        /**
+         * @param checkIntervalMs How often the queues are checked.  Defaults to {@link #DEFAULT_CHECK_INTERVAL_MS}.
+         * @return {@link AutoscalingPolicyBuilder}
+         */
+        public AutoscalingPolicyBuilder withCheckIntervalMs(long checkIntervalMs) {
+            this.builderCheckIntervalMs = checkIntervalMs;
+            return this;
+        }
+
+        /**
+         * @return {@link AutoscalingPolicy} with the provided options.
+         */
+        public AutoscalingPolicy build() {
+            return new AutoscalingPolicy(builderMinPollersPerQueue, builderMaxPollersPerQueue, builderScaleUpQueueDepth,
+                    builderScaleUpWaitTimeMs, builderScaleDownIdleTimeMs, builderCheckIntervalMs);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package batchrequests;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ServiceLoader;
+
+/**
+ * Compresses an encoded batch before it is handed to a {@link CompressedBatchWriter}.  Compression runs on the
+ * polling thread that cut the batch, so implementations should reuse their compression state and output buffers per
+ * thread instead of allocating them for every batch.
+ *
+ * Implementations other than the built-in {@link GzipBatchCompressor} can be registered as a service provider (in
+ * {@code META-INF/services/batchrequests.BatchCompressor}) and looked up with {@link #forEncoding(String)}.
+ */
+public interface BatchCompressor extends Closeable {
+
+    /**
+     * @return The name of the compression format, e.g. {@code "gzip"}, as it would appear in a Content-Encoding header.
+     */
+    String getEncoding();
+
+    /**
+     * Compress the concatenation of the given buffers.
+     * @param input The buffers to compress, in order.  Their positions may be advanced.
+     * @return A buffer holding the compressed bytes.  It may be owned and reused by the compressor, so it is only
+     *         valid until the next call to this method on the same thread.
+     */
+    ByteBuffer compress(ByteBuffer[] input);
+
+    /**
+     * Release whatever the compressor holds outside of the heap, e.g. native compression state.  Must only be called
+     * once no batch is being compressed.  Does nothing by default.
+     */
+    @Override
+    default void close() {
+    }
+
+    /**
+     * @param encoding The name of the compression format (case-insensitive).
+     * @return A new {@link GzipBatchCompressor} for {@code "gzip"}, otherwise the first service provider with a
+     *         matching {@link #getEncoding()}.
+     */
+    static BatchCompressor forEncoding(String encoding) {
+        if (GzipBatchCompressor.ENCODING.equalsIgnoreCase(encoding)) {
+            return new GzipBatchCompressor();
+        }
+        for (BatchCompressor compressor : ServiceLoader.load(BatchCompressor.class)) {
+            if (compressor.getEncoding().equalsIgnoreCase(encoding)) {
+                return compressor;
+            }
+        }
+        throw new IllegalArgumentException("No BatchCompressor available for encoding: " + encoding);
+    }
+}
@@ -0,0 +1,21 @@
+package batchrequests;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * The bulk lookup that a {@link BatchedLoader} performs for each batch of keys.  To be implemented by the client,
+ * e.g. with a bulk-get API.
+ * @param <K> Type of key
+ * @param <V> Type of value
+ */
+@FunctionalInterface
+public interface BatchLoader<K, V> {
+
+    /**
+     * Look up a batch of keys.  An exception fails the load of every key in the batch.
+     * @param keys The distinct keys that have been batched.
+     * @return The values that were found, by key.  Keys that are missing from the map are loaded as null.
+     */
+    Map<K, V> load(Collection<K> keys);
+}
@@ -0,0 +1,178 @@
+package batchrequests;
+
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * A {@link BatchWriter} that is also a Reactive Streams {@link Publisher} of the result of every batch.  Each batch is
+ * passed to a batch operation (e.g. the actual batch call), and its result is published once the subscriber has
+ * requested it.  Until then, the poller that wrote the batch waits, so a slow subscriber slows down polling instead of
+ * buffering results without bound.  Empty batches are not published.
+ *
+ * Only one subscriber is supported.  Results of batches that are written after the subscriber cancels, or after
+ * {@link #complete()}, are dropped.  On Java 9 and later, use {@code org.reactivestreams.FlowAdapters#toFlowPublisher}
+ * to get a {@code java.util.concurrent.Flow.Publisher}.
+ *
+ * This class requires the optional {@code org.reactivestreams:reactive-streams} dependency.
+ * @param <T> Type of request
+ * @param <R> Type of the result of a batch
+ */
+@Slf4j
+public class BatchPublisher<T, R> implements BatchWriter<T>, Publisher<R> {
+
+    private final Function<? super List<T>, ? extends R> batchOperation;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition demandAvailable = lock.newCondition();
+    // Guarded by lock
+    private Subscriber<? super R> subscriber;
+    private long demand;
+    private boolean cancelled;
+    private boolean completed;
+
+    /**
+     * @param batchOperation A non-null operation to perform on every batch.  Like {@link BatchWriter#write(Collection)},
+     *                       it should handle its own exceptions.
+     */
+    public BatchPublisher(Function<? super List<T>, ? extends R> batchOperation) {
+        if (batchOperation == null) {
+            throw new IllegalArgumentException("Need a non-null batch operation");
+        }
+        this.batchOperation = batchOperation;
+    }
+
+    /**
+     * @return A publisher of the batches themselves, for a subscriber that performs the batch call.
+     */
+    public static <T> BatchPublisher<T, List<T>> ofBatches() {
+        return new BatchPublisher<>(batch -> batch);
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super R> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber must be non-null");
+        }
+        lock.lock();
+        try {
+            if (this.subscriber != null) {
+                subscriber.onSubscribe(new Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("BatchPublisher only supports one subscriber"));
+                return;
+            }
+            this.subscriber = subscriber;
+            subscriber.onSubscribe(new BatchSubscription());
+            if (completed) {
+                subscriber.onComplete();
+            }
+            demandAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Perform the batch operation, then wait until the subscriber requests the result and publish it.
+     */
+    @Override
+    public void write(Collection<T> batchRequests) {
+        if (batchRequests.isEmpty()) {
+            return;
+        }
+        R result = batchOperation.apply(Collections.unmodifiableList(new ArrayList<>(batchRequests)));
+        lock.lock();
+        try {
+            while (!cancelled && !completed && (subscriber == null || demand == 0)) {
+                demandAvailable.await();
+            }
+            if (cancelled || completed) {
+                log.warn("Dropping the result of a batch of {} requests because the publisher is no longer publishing",
+                        batchRequests.size());
+                return;
+            }
+            demand--;
+            subscriber.onNext(result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for demand, dropping the result of a batch of {} requests",
+                    batchRequests.size(), e);
+        } catch (RuntimeException e) {
+            // Subscribers must not throw (rule 2.13), so treat it as a cancellation
+            cancelled = true;
+            log.warn("Subscriber failed to handle a batch result, cancelling its subscription", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Signal the subscriber that no more results will be published, e.g. after shutting down the
+     * {@link BatchRequestsFactory} this publisher writes for.
+     */
+    public void complete() {
+        lock.lock();
+        try {
+            if (completed) {
+                return;
+            }
+            completed = true;
+            if (subscriber != null && !cancelled) {
+                subscriber.onComplete();
+            }
+            demandAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private class BatchSubscription implements Subscription {
+
+        @Override
+        public void request(long n) {
+            lock.lock();
+            try {
+                if (cancelled || completed) {
+                    return;
+                }
+                if (n < 1) {
+                    // Rule 3.9
+                    cancelled = true;
+                    subscriber.onError(new IllegalArgumentException("Need a positive number of results to request.  Got: " + n));
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+                demandAvailable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            lock.lock();
+            try {
+                cancelled = true;
+                demandAvailable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -3,8 +3,16 @@ package batchrequests;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 /**
  * Convenience factory to generate a {@link BatchSubmitter}.
@@ -17,13 +25,24 @@ import java.util.concurrent.locks.ReentrantLock;
 public class BatchRequestsFactory<T> {
 
     @Getter private final BatchWriter<T> batchWriter;
-    @Getter private final List<QueueAndLock<T>> queueAndLocks;
+    /** An unmodifiable snapshot that is replaced whenever queues are added or removed */
+    @Getter private volatile List<QueueAndLock<T>> queueAndLocks;
     @Getter private final int batchSize;
     @Getter private final int numPollingWorkersPerQueue;
     @Getter private final long maxBufferTimeMs;
+    @Getter private final BatchWeightLimit<T> batchWeightLimit;
+    @Getter private final KeyOrdering<T> keyOrdering;
+    @Getter private final boolean smartBatching;
+    @Getter private final WaitStrategy waitStrategy;
+    @Getter private final long idleTimeoutMs;
+    @Getter private final boolean batchReuse;
 
-    private final List<PollingQueueWorker<T>> pollingQueueWorkers;
+    /** An unmodifiable snapshot with one worker per queue, in the same order as {@link #queueAndLocks} */
+    private volatile List<PollingQueueWorker<T>> pollingQueueWorkers;
     private final BatchSubmitter<T> batchSubmitter;
+    private ScheduledExecutorService autoscalingScheduler;
+    /** Creates the queue for each {@link QueueAndLock} that is added.  Guarded by this. */
+    private Supplier<Queue<T>> queueSupplier = LinkedList::new;
 
     /** Value: {@value #DEFAULT_NUM_QUEUES} */
     public static final int DEFAULT_NUM_QUEUES = 1;
@@ -50,6 +69,25 @@ public class BatchRequestsFactory<T> {
                                 int batchSize,
                                 int numPollingWorkersPerQueue,
                                 long maxBufferTimeMs) {
+        this(batchWriter, queueAndLocks, new BatchRequestsFactoryBuilder<>(batchWriter)
+                .withBatchSize(batchSize)
+                .withNumPollingWorkersPerQueue(numPollingWorkersPerQueue)
+                .withMaxBufferTimeMs(maxBufferTimeMs));
+    }
+
+    /**
+     * Constructor with validation, for the options that are only set through {@link BatchRequestsFactoryBuilder}.
+     * @param batchWriter A non-null {@link BatchWriter}, which may wrap the one the builder was created with
+     * @param queueAndLocks A  non-null, non-empty {@link RandomAccess} list of {@link QueueAndLock}, that will be converted into an unmodifiable list
+     * @param options Every other option.  The builder's number of queues, autoscaling policy and spill policy are
+     *                applied by {@link BatchRequestsFactoryBuilder#build()} instead.
+     */
+    BatchRequestsFactory(BatchWriter<T> batchWriter,
+                         List<QueueAndLock<T>> queueAndLocks,
+                         BatchRequestsFactoryBuilder<T> options) {
+        int batchSize = options.builderBatchSize;
+        int numPollingWorkersPerQueue = options.builderNumPollingWorkersPerQueue;
+        long maxBufferTimeMs = options.builderMaxBufferTimeMs;
         if (batchWriter == null) {
             throw new IllegalArgumentException("Need a non-null BatchWriter");
         }
@@ -65,20 +103,31 @@ public class BatchRequestsFactory<T> {
         if (maxBufferTimeMs < 1) {
             throw new IllegalArgumentException("Need a positive max buffer time.  Got: " + maxBufferTimeMs);
         }
+        if (options.builderWaitStrategy == null) {
+            throw new IllegalArgumentException("Need a non-null WaitStrategy");
+        }
+        if (options.builderIdleTimeoutMs < 0) {
+            throw new IllegalArgumentException("Need a non-negative idle timeout.  Got: " + options.builderIdleTimeoutMs);
+        }
 
         this.batchWriter = batchWriter;
         this.queueAndLocks = Collections.unmodifiableList(queueAndLocks);
         this.batchSize = batchSize;
         this.numPollingWorkersPerQueue = numPollingWorkersPerQueue;
         this.maxBufferTimeMs = maxBufferTimeMs;
+        this.batchWeightLimit = options.builderBatchWeightLimit;
+        this.keyOrdering = options.builderKeyOrdering;
+        this.smartBatching = options.builderSmartBatching;
+        this.waitStrategy = options.builderWaitStrategy;
+        this.idleTimeoutMs = options.builderIdleTimeoutMs;
+        this.batchReuse = options.builderBatchReuse;
 
-        this.pollingQueueWorkers = new ArrayList<>(queueAndLocks.size());
+        List<PollingQueueWorker<T>> workers = new ArrayList<>(queueAndLocks.size());
         for (int i = 0; i < queueAndLocks.size(); i++) {
-            PollingQueueWorker<T> workerForQueue =
-                    new PollingQueueWorker<>(queueAndLocks.get(i), batchWriter, batchSize, numPollingWorkersPerQueue, maxBufferTimeMs);
-            this.pollingQueueWorkers.add(workerForQueue);
+            workers.add(newWorker(queueAndLocks.get(i)));
         }
-        this.batchSubmitter = new BatchSubmitter<>(queueAndLocks);
+        this.pollingQueueWorkers = Collections.unmodifiableList(workers);
+        this.batchSubmitter = new BatchSubmitter<>(queueAndLocks, keyOrdering);
 
         log.info("Initialized BatchSubmitter with {} queueAndLocks and queue workers, each with {} pollers per queue and a {}ms buffer time",
                 pollingQueueWorkers.size(), numPollingWorkersPerQueue, maxBufferTimeMs);
@@ -91,6 +140,187 @@ public class BatchRequestsFactory<T> {
         return batchSubmitter;
     }
 
+    /**
+     * Add a queue, with {@link #getNumPollingWorkersPerQueue()} pollers, that the {@link BatchSubmitter} will start
+     * sending requests to right away.
+     * @throws IllegalStateException If requests are ordered by key
+     */
+    public synchronized void addQueue() {
+        checkQueuesCanBeResized();
+        QueueAndLock<T> queueAndLock = new QueueAndLock<>(queueSupplier.get(), new ReentrantLock(), batchWeightLimit,
+                keyOrdering);
+        PollingQueueWorker<T> worker = newWorker(queueAndLock);
+        List<QueueAndLock<T>> newQueueAndLocks = new ArrayList<>(queueAndLocks);
+        newQueueAndLocks.add(queueAndLock);
+        List<PollingQueueWorker<T>> newWorkers = new ArrayList<>(pollingQueueWorkers);
+        newWorkers.add(worker);
+
+        this.pollingQueueWorkers = Collections.unmodifiableList(newWorkers);
+        this.queueAndLocks = Collections.unmodifiableList(newQueueAndLocks);
+        batchSubmitter.setQueueAndLocks(this.queueAndLocks);
+        log.info("Added a queue, now using {} queues", newQueueAndLocks.size());
+    }
+
+    /**
+     * Retire the most recently added queue without losing any of its requests.  The {@link BatchSubmitter} stops
+     * sending requests to it, its pollers write the batches they are working on, and anything still left in it is
+     * moved to the first queue.
+     * @param graceTimeMs The time to wait for the queue's pollers to finish their current batches.  Pollers that take
+     *                    longer are cancelled, which interrupts their writes.
+     * @throws InterruptedException If interrupted while waiting for the pollers to finish
+     * @throws IllegalStateException If there is only one queue left, or if requests are ordered by key
+     */
+    public synchronized void removeQueue(long graceTimeMs) throws InterruptedException {
+        checkQueuesCanBeResized();
+        if (queueAndLocks.size() <= 1) {
+            throw new IllegalStateException("Can't remove the last queue");
+        }
+        int lastIndex = queueAndLocks.size() - 1;
+        QueueAndLock<T> retiredQueueAndLock = queueAndLocks.get(lastIndex);
+        PollingQueueWorker<T> retiredWorker = pollingQueueWorkers.get(lastIndex);
+
+        this.queueAndLocks = Collections.unmodifiableList(new ArrayList<>(queueAndLocks.subList(0, lastIndex)));
+        batchSubmitter.setQueueAndLocks(this.queueAndLocks);
+        // Nothing can be added to the retired queue anymore, so whatever is left after its pollers stop is final
+        retiredWorker.drainAndShutdown(graceTimeMs);
+        this.pollingQueueWorkers = Collections.unmodifiableList(new ArrayList<>(pollingQueueWorkers.subList(0, lastIndex)));
+        int numMoved = retiredQueueAndLock.transferTo(queueAndLocks.get(0));
+        closeQueue(retiredQueueAndLock);
+        log.info("Removed a queue and moved its {} remaining requests, now using {} queues", numMoved, lastIndex);
+    }
+
+    /**
+     * Start another poller for one of the queues.
+     * @param queueIndex The index of the queue in {@link #getQueueAndLocks()}
+     */
+    public synchronized void addPollingWorker(int queueIndex) {
+        pollingQueueWorkers.get(queueIndex).addPollingThread();
+    }
+
+    /**
+     * Stop one of the pollers of one of the queues, after it writes the batch it is working on.  A queue always keeps
+     * at least one poller.
+     * @param queueIndex The index of the queue in {@link #getQueueAndLocks()}
+     * @return True if a poller was stopped
+     */
+    public synchronized boolean removePollingWorker(int queueIndex) {
+        return pollingQueueWorkers.get(queueIndex).removePollingThread();
+    }
+
+    /**
+     * Like {@link #addPollingWorker(int)}, for a worker that was looked up without holding this factory's monitor.
+     * @return True if a poller was started, or false if the worker's queue has been removed since
+     */
+    synchronized boolean addPollingWorker(PollingQueueWorker<T> worker) {
+        return pollingQueueWorkers.contains(worker) && worker.addPollingThread();
+    }
+
+    /**
+     * Like {@link #removePollingWorker(int)}, for a worker that was looked up without holding this factory's monitor.
+     * @return True if a poller was stopped, or false if not, including if the worker's queue has been removed since
+     */
+    synchronized boolean removePollingWorker(PollingQueueWorker<T> worker) {
+        return pollingQueueWorkers.contains(worker) && worker.removePollingThread();
+    }
+
+    /**
+     * @param queueIndex The index of the queue in {@link #getQueueAndLocks()}
+     * @return The number of pollers currently running for the queue.
+     */
+    public synchronized int getNumPollingWorkers(int queueIndex) {
+        return pollingQueueWorkers.get(queueIndex).getNumPollingThreads();
+    }
+
+    /**
+     * Start adding and removing pollers automatically.  Replaces any policy that was enabled before.
+     * @param autoscalingPolicy A non-null {@link AutoscalingPolicy}
+     */
+    public synchronized void enableAutoscaling(AutoscalingPolicy autoscalingPolicy) {
+        if (autoscalingPolicy == null) {
+            throw new IllegalArgumentException("Need a non-null AutoscalingPolicy");
+        }
+        disableAutoscaling();
+        autoscalingScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "batchrequests-autoscaler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        autoscalingScheduler.scheduleWithFixedDelay(new PollerAutoscaler<>(this, autoscalingPolicy),
+                autoscalingPolicy.getCheckIntervalMs(), autoscalingPolicy.getCheckIntervalMs(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop adding and removing pollers automatically.  The current pollers keep running.
+     */
+    public synchronized void disableAutoscaling() {
+        if (autoscalingScheduler != null) {
+            autoscalingScheduler.shutdownNow();
+            autoscalingScheduler = null;
+        }
+    }
+
+    /**
+     * Stop all pollers after they write the batches they are working on.  Requests that are still queued afterwards
+     * are not written, and any spill files (see {@link BatchRequestsFactoryBuilder#withSpillPolicy(SpillPolicy)}) are
+     * deleted.
+     * @param graceTimeMs The time to wait for each queue's pollers to finish
+     * @return True if every poller finished within the grace time
+     * @throws InterruptedException If interrupted while waiting for the pollers to finish
+     */
+    public synchronized boolean shutdown(long graceTimeMs) throws InterruptedException {
+        disableAutoscaling();
+        boolean allFinished = true;
+        for (PollingQueueWorker<T> worker : pollingQueueWorkers) {
+            allFinished &= worker.drainAndShutdown(graceTimeMs);
+        }
+        for (QueueAndLock<T> queueAndLock : queueAndLocks) {
+            closeQueue(queueAndLock);
+        }
+        return allFinished;
+    }
+
+    synchronized void setQueueSupplier(Supplier<Queue<T>> queueSupplier) {
+        this.queueSupplier = queueSupplier;
+    }
+
+    List<PollingQueueWorker<T>> getPollingQueueWorkers() {
+        return pollingQueueWorkers;
+    }
+
+    private PollingQueueWorker<T> newWorker(QueueAndLock<T> queueAndLock) {
+        return new PollingQueueWorker.PollingQueueWorkerBuilder<>(queueAndLock, batchWriter, batchSize)
+                .setNumPollingThreads(numPollingWorkersPerQueue)
+                .setMaxBufferTime(maxBufferTimeMs)
+                .setSmartBatching(smartBatching)
+                .setWaitStrategy(waitStrategy)
+                .setIdleTimeoutMs(idleTimeoutMs)
+                .setBatchReuse(batchReuse)
+                .build();
+    }
+
+    /**
+     * Release whatever the queue holds outside of the heap, e.g. spill files.
+     */
+    private static <T> void closeQueue(QueueAndLock<T> queueAndLock) {
+        if (!(queueAndLock.getQueue() instanceof Closeable)) {
+            return;
+        }
+        queueAndLock.getLock().lock();
+        try {
+            ((Closeable) queueAndLock.getQueue()).close();
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Couldn't close queue {}", queueAndLock.getQueueId(), e);
+        } finally {
+            queueAndLock.getLock().unlock();
+        }
+    }
+
+    private void checkQueuesCanBeResized() {
+        if (keyOrdering != null) {
+            throw new IllegalStateException("Queues can't be added or removed when requests are ordered by key");
+        }
+    }
+
     /**
      * A builder with the required parameters as constructor arguments and the optional parameter as builder setters.
      * @param <T> Type of request
@@ -101,6 +331,14 @@ public class BatchRequestsFactory<T> {
         private int builderBatchSize = DEFAULT_MAX_BATCH_SIZE;
         private Integer builderNumQueues;
         private long builderMaxBufferTimeMs = DEFAULT_MAX_BUFFER_TIME_MS;
+        private BatchWeightLimit<T> builderBatchWeightLimit;
+        private AutoscalingPolicy builderAutoscalingPolicy;
+        private KeyOrdering<T> builderKeyOrdering;
+        private boolean builderSmartBatching;
+        private WaitStrategy builderWaitStrategy = WaitStrategy.blocking();
+        private long builderIdleTimeoutMs;
+        private boolean builderBatchReuse;
+        private SpillPolicy<T> builderSpillPolicy;
 
         public BatchRequestsFactoryBuilder(BatchWriter<T> batchWriter) {
             this.builderBatchWriter = batchWriter;
@@ -151,10 +389,130 @@ public class BatchRequestsFactory<T> {
             return this;
         }
 
+        /**
+         * @param batchWeightLimit Cuts batches by weight (e.g. bytes) in addition to {@link #withBatchSize(int)}, so
+         *                         that a batch is sent once it is heavy enough even if it isn't full.
+         *                         Defaults to no weight limit.
+         * @return {@link BatchRequestsFactoryBuilder}
+         */
+        public BatchRequestsFactoryBuilder<T> withBatchWeightLimit(BatchWeightLimit<T> batchWeightLimit) {
+            this.builderBatchWeightLimit = batchWeightLimit;
+            return this;
+        }
+
+        /**
+         * @param autoscalingPolicy Adds pollers to queues that are backed up and removes them from queues that are idle.
+         *                          Defaults to a fixed number of pollers (see {@link #withNumPollingWorkersPerQueue(int)}).
+         * @return {@link BatchRequestsFactoryBuilder}
+         */
+        public BatchRequestsFactoryBuilder<T> withAutoscalingPolicy(AutoscalingPolicy autoscalingPolicy) {
+            this.builderAutoscalingPolicy = autoscalingPolicy;
+            return this;
+        }
+
+        /**
+         * @param keyOrdering Writes requests with the same key in the order they were submitted, with at most one
+         *                    batch per key group being written at a time.  Defaults to no ordering.
+         * @return {@link BatchRequestsFactoryBuilder}
+         */
+        public BatchRequestsFactoryBuilder<T> withKeyOrdering(KeyOrdering<T> keyOrdering) {
+            this.builderKeyOrdering = keyOrdering;
+            return this;
+        }
+
+        /**
+         * @param smartBatching If true, a partial batch is sent as soon as no batch from its queue is being written,
+         *                      so that batches only grow while the writer is busy.  Low traffic then gets the lowest
+         *                      latency and high traffic gets full batches, without tuning
+         *                      {@link #withMaxBufferTimeMs(long)}, which still caps how long a batch grows.
+         *                      Defaults to false.
+         * @return {@link BatchRequestsFactoryBuilder}
+         */
+        public BatchRequestsFactoryBuilder<T> withSmartBatching(boolean smartBatching) {
+            this.builderSmartBatching = smartBatching;
+            return this;
+        }
+
+        /**
+         * @param waitStrategy How idle pollers wait for requests.  Spinning or parking cuts the time a poller takes to
+         *                     notice a full batch or the first request to an empty queue at the cost of CPU, even
+         *                     while the queue is empty (see {@link #withIdleTimeoutMs(long)}).
+         *                     Defaults to {@link WaitStrategy#blocking()}.
+         * @return {@link BatchRequestsFactoryBuilder}
+         */
+        public BatchRequestsFactoryBuilder<T> withWaitStrategy(WaitStrategy waitStrategy) {
+            this.builderWaitStrategy = waitStrategy;
+            return this;
+        }
+
+        /**
+         * @param idleTimeoutMs If positive, pollers are started by the first request to their queue instead of when
+         *                      the factory is built, and are stopped again, releasing their threads, once the queue
+         *                      has been empty for this long.  Useful when many factories are mostly idle.
+         *                      Defaults to 0, which keeps pollers running until shutdown.
+         * @return {@link BatchRequestsFactoryBuilder}
+         */
+        public BatchRequestsFactoryBuilder<T> withIdleTimeoutMs(long idleTimeoutMs) {
+            this.builderIdleTimeoutMs = idleTimeoutMs;
+            return this;
+        }
+
+        /**
+         * @param batchReuse If true, each poller fills the same list with every batch it writes, instead of allocating
+         *                   a new one, so the {@link BatchWriter} must not keep a reference to the batch after
+         *                   {@link BatchWriter#write(Collection)} returns.  Defaults to false.
+         * @return {@link BatchRequestsFactoryBuilder}
+         */
+        public BatchRequestsFactoryBuilder<T> withBatchReuse(boolean batchReuse) {
+            this.builderBatchReuse = batchReuse;
+            return this;
+        }
+
+        /**
+         * @param spillPolicy Once the requests buffered by every queue weigh more than the policy's memory budget,
+         *                    new requests are spilled to disk and read back in order as the writer catches up, instead
+         *                    of growing the heap.  Defaults to buffering every request in memory.
+         * @return {@link BatchRequestsFactoryBuilder}
+         */
+        public BatchRequestsFactoryBuilder<T> withSpillPolicy(SpillPolicy<T> spillPolicy) {
+            this.builderSpillPolicy = spillPolicy;
+            return this;
+        }
+
         /**
          * @return {@link BatchRequestsFactory} with the provided options.
          */
         public BatchRequestsFactory<T> build() {
+            return build(UnaryOperator.identity());
+        }
+
+        boolean hasSpillPolicy() {
+            return builderSpillPolicy != null;
+        }
+
+        /**
+         * @param batchWriterDecorator Wraps the {@link BatchWriter} the builder was created with, e.g. to observe
+         *                             writer progress.
+         * @return {@link BatchRequestsFactory} with the provided options.
+         */
+        BatchRequestsFactory<T> build(UnaryOperator<BatchWriter<T>> batchWriterDecorator) {
+            if (builderSpillPolicy == null) {
+                return build(batchWriterDecorator, LinkedList::new);
+            }
+            SpillPolicy<T> spillPolicy = builderSpillPolicy;
+            // One budget for every queue, including those added later
+            MemoryBudget memoryBudget = new MemoryBudget(spillPolicy.getMemoryBudgetBytes());
+            return build(batchWriterDecorator, () -> new SpillingQueue<>(spillPolicy, memoryBudget));
+        }
+
+        /**
+         * @param batchWriterDecorator Wraps the {@link BatchWriter} the builder was created with, e.g. to observe
+         *                             writer progress.
+         * @param queueSupplier Creates the queue for each {@link QueueAndLock}, including those added later
+         * @return {@link BatchRequestsFactory} with the provided options.
+         */
+        BatchRequestsFactory<T> build(UnaryOperator<BatchWriter<T>> batchWriterDecorator,
+                                      Supplier<Queue<T>> queueSupplier) {
             int numQueues = DEFAULT_NUM_QUEUES;
             if (this.builderNumQueues != null) {
                 if (this.builderNumQueues < 1) {
@@ -165,10 +523,17 @@ public class BatchRequestsFactory<T> {
 
             List<QueueAndLock<T>> listOfQueues = new ArrayList<>();
             for (int i = 0; i < numQueues; i++) {
-                listOfQueues.add(new QueueAndLock<>(new LinkedList<>(), new ReentrantLock()));
+                listOfQueues.add(new QueueAndLock<>(queueSupplier.get(), new ReentrantLock(), builderBatchWeightLimit,
+                        builderKeyOrdering));
+            }
+            BatchRequestsFactory<T> factory = new BatchRequestsFactory<>(
+                    builderBatchWriter == null ? null : batchWriterDecorator.apply(builderBatchWriter), listOfQueues,
+                    this);
+            factory.setQueueSupplier(queueSupplier);
+            if (builderAutoscalingPolicy != null) {
+                factory.enableAutoscaling(builderAutoscalingPolicy);
             }
-            return new BatchRequestsFactory<>(builderBatchWriter, listOfQueues, builderBatchSize,
-                    builderNumPollingWorkersPerQueue, builderMaxBufferTimeMs);
+            return factory;
         }
     }
 }
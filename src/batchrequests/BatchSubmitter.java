@@ -2,6 +2,7 @@ package batchrequests;
 
 import java.util.List;
 import java.util.RandomAccess;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main interface for submitting a record to be batched.  This class is thread-safe.
@@ -19,31 +20,94 @@ public class BatchSubmitter<T> {
      */
 
     private List<QueueAndLock<T>> queueAndLocks;
+    private final KeyOrdering<T> keyOrdering;
     private int currentIndex;
+    private int numSubmitsSinceSample;
 
     /**
      * @param queueAndLocks Should be a {@link java.util.RandomAccess} list containing {@link QueueAndLock}
      */
     public BatchSubmitter(List<QueueAndLock<T>> queueAndLocks) {
+        this(queueAndLocks, null);
+    }
+
+    /**
+     * @param queueAndLocks Should be a {@link java.util.RandomAccess} list containing {@link QueueAndLock}
+     * @param keyOrdering If non-null, each request is sent to the queue of its key group instead of round-robin, so
+     *                    that requests with the same key stay in order.  Pollers must use the same ordering.
+     */
+    public BatchSubmitter(List<QueueAndLock<T>> queueAndLocks, KeyOrdering<T> keyOrdering) {
+        validate(queueAndLocks);
+        this.queueAndLocks = queueAndLocks;
+        this.keyOrdering = keyOrdering;
+        this.currentIndex = 0;
+    }
+
+    /**
+     * Replace the queues that requests are submitted to.  Once this returns, no request is being (or will be) added to
+     * a queue that isn't in the new list, so a removed queue can safely be drained.
+     * @param queueAndLocks Should be a {@link java.util.RandomAccess} list containing {@link QueueAndLock}
+     */
+    synchronized void setQueueAndLocks(List<QueueAndLock<T>> queueAndLocks) {
+        validate(queueAndLocks);
+        if (keyOrdering != null && queueAndLocks.size() != this.queueAndLocks.size()) {
+            throw new IllegalStateException("Queues can't be added or removed when requests are ordered by key");
+        }
         this.queueAndLocks = queueAndLocks;
+        this.currentIndex = currentIndex % queueAndLocks.size();
+    }
+
+    private static void validate(List<?> queueAndLocks) {
         if (queueAndLocks == null || queueAndLocks.size() < 1) {
             throw new IllegalArgumentException("List of queues must be non-empty");
         }
         if (!(queueAndLocks instanceof RandomAccess)) {
             throw new IllegalArgumentException("The provided queues should be in a RandomAccess list");
         }
-        this.currentIndex = 0;
     }
 
     /**
      * @param requestItem An request to be collect into a batch.  When the batch is full, it will be sent to a
      *                    {@link BatchWriter}.
      */
-    public synchronized void put(T requestItem) {
-        QueueAndLock<T> queueAndLock = queueAndLocks.get(currentIndex);
+    public void put(T requestItem) {
+        enqueue(requestItem, EnqueueTimeline.NO_DEADLINE);
+    }
+
+    /**
+     * Like {@link #put(Object)}, but for requests that can't wait as long as the factory's max buffer time.  The batch
+     * containing this request will be sent no later than the given time after this call, even if it isn't full.
+     * @param requestItem An request to be collect into a batch.
+     * @param maxBufferTimeMs A positive time after which the request's batch should be sent.  Has no effect if it is
+     *                        longer than the factory's max buffer time.
+     */
+    public void put(T requestItem, long maxBufferTimeMs) {
+        if (maxBufferTimeMs < 1) {
+            throw new IllegalArgumentException("Need a positive max buffer time.  Got: " + maxBufferTimeMs);
+        }
+        enqueue(requestItem, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxBufferTimeMs));
+    }
+
+    private synchronized void enqueue(T requestItem, long deadlineNanos) {
+        QueueAndLock<T> queueAndLock = keyOrdering == null ? queueAndLocks.get(currentIndex)
+                : queueAndLocks.get(keyOrdering.keyGroupOf(requestItem) % queueAndLocks.size());
+        BatchingEvents events = BatchingEvents.get();
+        boolean sampled = events.isRecording() && ++numSubmitsSinceSample >= BatchingEvents.SUBMIT_SAMPLE_INTERVAL;
+        long lockStartNanos = sampled ? System.nanoTime() : 0;
         queueAndLock.getLock().lock();
-        queueAndLock.getQueue().add(requestItem);
-        queueAndLock.getLock().unlock();
+        if (sampled) {
+            numSubmitsSinceSample = 0;
+            events.submitted(queueAndLock.getQueueId(), System.nanoTime() - lockStartNanos);
+        }
+        boolean pollersStopped;
+        try {
+            pollersStopped = queueAndLock.enqueue(requestItem, deadlineNanos);
+        } finally {
+            queueAndLock.getLock().unlock();
+        }
+        if (pollersStopped) {
+            queueAndLock.startPollers();
+        }
         currentIndex = (currentIndex + 1) % queueAndLocks.size();
     }
 }
@@ -0,0 +1,51 @@
+package batchrequests;
+
+import lombok.Getter;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the total weight of a batch in addition to the number of requests in it.  A batch is cut as soon as the
+ * next request would push it over the limit, although a single request that is heavier than the limit is still sent
+ * on its own.
+ * @param <T> Type of the request that will be weighed.
+ */
+public class BatchWeightLimit<T> {
+
+    @Getter private final Weigher<T> weigher;
+    private final LongSupplier maxBatchWeight;
+
+    /**
+     * @param weigher A non-null {@link Weigher} for each request
+     * @param maxBatchWeight A positive maximum weight per batch
+     */
+    public BatchWeightLimit(Weigher<T> weigher, long maxBatchWeight) {
+        this(weigher, () -> maxBatchWeight);
+        if (maxBatchWeight < 1) {
+            throw new IllegalArgumentException("Need a positive max batch weight.  Got: " + maxBatchWeight);
+        }
+    }
+
+    /**
+     * @param weigher A non-null {@link Weigher} for each request
+     * @param maxBatchWeight A non-null supplier that is asked for the limit before every batch, for limits that are
+     *                       adjusted while running (see {@link CompressingBatchWriter#getBatchWeightLimit()})
+     */
+    public BatchWeightLimit(Weigher<T> weigher, LongSupplier maxBatchWeight) {
+        if (weigher == null) {
+            throw new IllegalArgumentException("Need a non-null Weigher");
+        }
+        if (maxBatchWeight == null) {
+            throw new IllegalArgumentException("Need a non-null max batch weight supplier");
+        }
+        this.weigher = weigher;
+        this.maxBatchWeight = maxBatchWeight;
+    }
+
+    /**
+     * @return The current maximum weight of a batch.
+     */
+    public long getMaxBatchWeight() {
+        return maxBatchWeight.getAsLong();
+    }
+}
@@ -12,7 +12,8 @@ public interface BatchWriter<T> {
     /**
      * Write the collected batch to the desired source.
      * Ensure that all exceptions (checked or unchecked) are caught and handled appropriately.
-     * @param batchRequests The requests that have been batched, to be written by this method.
+     * @param batchRequests The requests that have been batched, to be written by this method.  Pollers never write
+     *                      empty batches.
      */
     void write(Collection<T> batchRequests);
 }
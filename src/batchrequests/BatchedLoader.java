@@ -0,0 +1,238 @@
+package batchrequests;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Batches individual lookups into bulk lookups, the way a {@link BatchRequestsFactory} batches writes.  Keys are
+ * gathered with the same queues and pollers, so a bulk lookup is made once a batch is full or its oldest key has waited
+ * for the max buffer time.  Concurrent loads of the same key share a single lookup, and loaded values can be kept in a
+ * bounded cache.
+ *
+ * Create a loader using {@link BatchedLoaderBuilder}.
+ * @param <K> Type of key
+ * @param <V> Type of value
+ */
+@Slf4j
+public class BatchedLoader<K, V> {
+
+    private final BatchLoader<K, V> batchLoader;
+    private final ResultCache<K, V> resultCache;
+    private final Map<K, CompletableFuture<V>> inFlightLoads = new ConcurrentHashMap<>();
+    private final BatchRequestsFactory<LoadRequest<K, V>> factory;
+    private volatile boolean shutDown;
+
+    private BatchedLoader(BatchLoader<K, V> batchLoader,
+                          ResultCache<K, V> resultCache,
+                          BatchRequestsFactory.BatchRequestsFactoryBuilder<LoadRequest<K, V>> factoryBuilder) {
+        this.batchLoader = batchLoader;
+        this.resultCache = resultCache;
+        this.factory = factoryBuilder.build(writer -> this::loadBatch);
+    }
+
+    /**
+     * @param key A non-null key to look up
+     * @return A future that completes with the key's value (or null if it wasn't found), or completes exceptionally if
+     *         the bulk lookup failed or the loader was shut down first.
+     */
+    public CompletableFuture<V> load(K key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Need a non-null key");
+        }
+        if (resultCache != null) {
+            ResultCache.Entry<V> cached = resultCache.get(key);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached.value);
+            }
+        }
+        CompletableFuture<V> newLoad = new CompletableFuture<>();
+        CompletableFuture<V> inFlightLoad = inFlightLoads.putIfAbsent(key, newLoad);
+        if (inFlightLoad != null) {
+            return inFlightLoad;
+        }
+        // A lookup of the key may have finished between the cache check and registering this load.  It cached the
+        // value before leaving the in-flight map, so the value is in the cache now.
+        if (resultCache != null) {
+            ResultCache.Entry<V> cached = resultCache.get(key);
+            if (cached != null) {
+                inFlightLoads.remove(key, newLoad);
+                newLoad.complete(cached.value);
+                return newLoad;
+            }
+        }
+        // Checked after registering the load, so that either this or shutdown fails it if the two race
+        if (shutDown) {
+            inFlightLoads.remove(key, newLoad);
+            newLoad.completeExceptionally(new IllegalStateException("The loader was shut down"));
+            return newLoad;
+        }
+        factory.getBatchSubmitter().put(new LoadRequest<>(key, newLoad));
+        return newLoad;
+    }
+
+    /**
+     * Remove a key from the cache, so that the next load looks it up again.  Has no effect on a lookup that is
+     * already in flight.
+     */
+    public void invalidate(K key) {
+        if (resultCache != null) {
+            resultCache.invalidate(key);
+        }
+    }
+
+    /**
+     * @return The number of keys being looked up or waiting to be.
+     */
+    public int getNumInFlightLoads() {
+        return inFlightLoads.size();
+    }
+
+    /**
+     * Stop looking up keys.  See {@link BatchRequestsFactory#shutdown(long)}.  Loads that haven't completed by then,
+     * and loads started afterwards, complete exceptionally with an {@link IllegalStateException}.
+     */
+    public boolean shutdown(long graceTimeMs) throws InterruptedException {
+        shutDown = true;
+        try {
+            return factory.shutdown(graceTimeMs);
+        } finally {
+            IllegalStateException cause = new IllegalStateException("The loader was shut down before the key was loaded");
+            for (Map.Entry<K, CompletableFuture<V>> load : inFlightLoads.entrySet()) {
+                inFlightLoads.remove(load.getKey(), load.getValue());
+                load.getValue().completeExceptionally(cause);
+            }
+        }
+    }
+
+    private void loadBatch(Collection<LoadRequest<K, V>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Set<K> keys = new LinkedHashSet<>();
+        for (LoadRequest<K, V> request : batch) {
+            keys.add(request.key);
+        }
+        Map<K, V> values;
+        try {
+            values = batchLoader.load(new ArrayList<>(keys));
+        } catch (RuntimeException e) {
+            log.warn("Bulk lookup of {} keys failed", keys.size(), e);
+            for (LoadRequest<K, V> request : batch) {
+                inFlightLoads.remove(request.key, request.future);
+                request.future.completeExceptionally(e);
+            }
+            return;
+        }
+        for (LoadRequest<K, V> request : batch) {
+            V value = values == null ? null : values.get(request.key);
+            // Cache before leaving the in-flight map, so a load that misses the cache and then finds no lookup in
+            // flight finds the value when it checks the cache again
+            if (resultCache != null) {
+                resultCache.put(request.key, value);
+            }
+            inFlightLoads.remove(request.key, request.future);
+            request.future.complete(value);
+        }
+    }
+
+    static class LoadRequest<K, V> {
+        final K key;
+        final CompletableFuture<V> future;
+
+        LoadRequest(K key, CompletableFuture<V> future) {
+            this.key = key;
+            this.future = future;
+        }
+    }
+
+    /**
+     * A builder with the required parameters as constructor arguments and the optional parameter as builder setters.
+     * @param <K> Type of key
+     * @param <V> Type of value
+     */
+    public static class BatchedLoaderBuilder<K, V> {
+        private final BatchLoader<K, V> builderBatchLoader;
+        private final BatchRequestsFactory.BatchRequestsFactoryBuilder<LoadRequest<K, V>> builderFactoryBuilder;
+        private int builderMaxCacheSize;
+        private long builderCacheTtlMs;
+
+        public BatchedLoaderBuilder(BatchLoader<K, V> batchLoader) {
+            this.builderBatchLoader = batchLoader;
+            // The writer is replaced by the loader's own when the factory is built
+            this.builderFactoryBuilder = new BatchRequestsFactory.BatchRequestsFactoryBuilder<>(batch -> { });
+        }
+
+        /**
+         * @param numQueues See {@link BatchRequestsFactory.BatchRequestsFactoryBuilder#withNumQueues(int)}
+         * @return {@link BatchedLoaderBuilder}
+         */
+        public BatchedLoaderBuilder<K, V> withNumQueues(int numQueues) {
+            builderFactoryBuilder.withNumQueues(numQueues);
+            return this;
+        }
+
+        /**
+         * @param numPollingWorkersPerQueue See
+         *        {@link BatchRequestsFactory.BatchRequestsFactoryBuilder#withNumPollingWorkersPerQueue(int)}
+         * @return {@link BatchedLoaderBuilder}
+         */
+        public BatchedLoaderBuilder<K, V> withNumPollingWorkersPerQueue(int numPollingWorkersPerQueue) {
+            builderFactoryBuilder.withNumPollingWorkersPerQueue(numPollingWorkersPerQueue);
+            return this;
+        }
+
+        /**
+         * @param batchSize The maximum number of keys per bulk lookup.
+         *                  Defaults to {@link BatchRequestsFactory#DEFAULT_MAX_BATCH_SIZE}.
+         * @return {@link BatchedLoaderBuilder}
+         */
+        public BatchedLoaderBuilder<K, V> withBatchSize(int batchSize) {
+            builderFactoryBuilder.withBatchSize(batchSize);
+            return this;
+        }
+
+        /**
+         * @param maxBufferTimeMs The maximum time a key waits for its batch to fill.
+         *                        Defaults to {@link BatchRequestsFactory#DEFAULT_MAX_BUFFER_TIME_MS}.
+         * @return {@link BatchedLoaderBuilder}
+         */
+        public BatchedLoaderBuilder<K, V> withMaxBufferTimeMs(long maxBufferTimeMs) {
+            builderFactoryBuilder.withMaxBufferTimeMs(maxBufferTimeMs);
+            return this;
+        }
+
+        /**
+         * Keep loaded values in a cache, evicting the least recently used value when it is full.
+         * @param maxCacheSize The maximum number of cached values.  Defaults to no cache.
+         * @param cacheTtlMs How long a value is cached for.
+         * @return {@link BatchedLoaderBuilder}
+         */
+        public BatchedLoaderBuilder<K, V> withCache(int maxCacheSize, long cacheTtlMs) {
+            this.builderMaxCacheSize = maxCacheSize;
+            this.builderCacheTtlMs = cacheTtlMs;
+            return this;
+        }
+
+        /**
+         * @return {@link BatchedLoader} with the provided options.
+         */
+        public BatchedLoader<K, V> build() {
+            if (builderBatchLoader == null) {
+                throw new IllegalArgumentException("Need a non-null BatchLoader");
+            }
+            ResultCache<K, V> resultCache = null;
+            if (builderMaxCacheSize != 0 || builderCacheTtlMs != 0) {
+                resultCache = new ResultCache<>(builderMaxCacheSize, builderCacheTtlMs);
+            }
+            return new BatchedLoader<>(builderBatchLoader, resultCache, builderFactoryBuilder);
+        }
+    }
+}
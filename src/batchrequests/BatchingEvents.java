@@ -0,0 +1,92 @@
+package batchrequests;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Emits diagnostic events from the batching hot path.  When JDK Flight Recorder is available (JDK 11+, or 8u262+), the
+ * events are recorded as {@code batchrequests.*} JFR events, otherwise they are dropped.
+ *
+ * Callers should check {@link #isRecording()} before measuring anything for an event, so that the hot path only pays
+ * for a volatile read when no recording is running.
+ */
+@Slf4j
+abstract class BatchingEvents {
+
+    /** Only one in this many submits is recorded.  Value: {@value #SUBMIT_SAMPLE_INTERVAL} */
+    static final int SUBMIT_SAMPLE_INTERVAL = 64;
+
+    private static final BatchingEvents INSTANCE = load();
+
+    /**
+     * Why a poller stopped waiting and drained a batch.
+     */
+    enum FlushReason {
+        /** The queue held a full batch by count */
+        SIZE,
+        /** The queue held a full batch by weight */
+        WEIGHT,
+        /** The oldest request's buffer time or deadline was reached */
+        TIMEOUT,
+        /** The poller is shutting down and flushes whatever is left */
+        SHUTDOWN
+    }
+
+    static BatchingEvents get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return True if events may be recorded right now.
+     */
+    abstract boolean isRecording();
+
+    /**
+     * A request was added to a queue.  Only called for one in {@link #SUBMIT_SAMPLE_INTERVAL} requests.
+     * @param lockWaitNanos How long the submitter waited for the queue lock
+     */
+    abstract void submitted(int queueId, long lockWaitNanos);
+
+    /**
+     * A poller took a batch from its queue.
+     * @param lockWaitNanos How long the poller waited for the queue lock
+     * @param batchWaitNanos How long the poller waited for a batch, with the lock released
+     */
+    abstract void drained(int queueId, int batchSize, FlushReason flushReason, long lockWaitNanos, long batchWaitNanos);
+
+    /**
+     * A poller's call to the {@link BatchWriter} returned.
+     */
+    abstract void written(int queueId, int batchSize, boolean succeeded, long writeNanos);
+
+    private static BatchingEvents load() {
+        try {
+            Class.forName("jdk.jfr.FlightRecorder");
+            // Loaded by name, so that this class doesn't link against jdk.jfr on JDKs that don't have it
+            return (BatchingEvents) Class.forName("batchrequests.JfrBatchingEvents").getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.debug("Flight Recorder isn't available, batching events are disabled");
+            return new NoOpBatchingEvents();
+        }
+    }
+
+    private static class NoOpBatchingEvents extends BatchingEvents {
+
+        @Override
+        boolean isRecording() {
+            return false;
+        }
+
+        @Override
+        void submitted(int queueId, long lockWaitNanos) {
+        }
+
+        @Override
+        void drained(int queueId, int batchSize, FlushReason flushReason, long lockWaitNanos, long batchWaitNanos) {
+        }
+
+        @Override
+        void written(int queueId, int batchSize, boolean succeeded, long writeNanos) {
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package batchrequests;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Replays a trace of request arrival times against a modeled writer, on a virtual clock, to predict how batch size,
+ * max buffer time, smart batching and the number of queues and pollers would behave against real traffic, without
+ * waiting for it in real time.  Hours of traffic take as long to simulate as it takes to process their events.
+ * <pre>
+ *     SimulationReport report = new BatchingSimulator.BatchingSimulatorBuilder(WriteLatencyModel.linearMs(20, 0.1))
+ *             .withBatchSize(100)
+ *             .withMaxBufferTimeMs(50)
+ *             .build()
+ *             .run(BatchingSimulator.readTrace(Paths.get("arrivals.txt")));
+ * </pre>
+ * Requests are spread across queues round-robin like {@link BatchSubmitter}, and pollers decide when to send a partial
+ * batch with the same {@link FlushDecision} as the real pollers.  Lock contention, thread scheduling and
+ * {@link WaitStrategy} wake-up times aren't modeled, and every write succeeds.  This class is not thread-safe.
+ */
+@Getter
+public class BatchingSimulator {
+
+    private final WriteLatencyModel writeLatencyModel;
+    private final int batchSize;
+    private final long maxBufferTimeMs;
+    private final int numQueues;
+    private final int numPollingWorkersPerQueue;
+    private final boolean smartBatching;
+
+    private BatchingSimulator(WriteLatencyModel writeLatencyModel,
+                              int batchSize,
+                              long maxBufferTimeMs,
+                              int numQueues,
+                              int numPollingWorkersPerQueue,
+                              boolean smartBatching) {
+        if (writeLatencyModel == null) {
+            throw new IllegalArgumentException("Need a non-null WriteLatencyModel");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Need a positive batch size.  Got: " + batchSize);
+        }
+        if (maxBufferTimeMs < 1) {
+            throw new IllegalArgumentException("Need a positive max buffer time.  Got: " + maxBufferTimeMs);
+        }
+        if (numQueues < 1) {
+            throw new IllegalArgumentException("Need a positive number of queues.  Got: " + numQueues);
+        }
+        if (numPollingWorkersPerQueue < 1) {
+            throw new IllegalArgumentException("Need a positive number of polling workers per queue.  Got: "
+                    + numPollingWorkersPerQueue);
+        }
+        this.writeLatencyModel = writeLatencyModel;
+        this.batchSize = batchSize;
+        this.maxBufferTimeMs = maxBufferTimeMs;
+        this.numQueues = numQueues;
+        this.numPollingWorkersPerQueue = numPollingWorkersPerQueue;
+        this.smartBatching = smartBatching;
+    }
+
+    /**
+     * @param arrivalTimesNanos When each request arrives, in nanoseconds from any fixed origin.  Needn't be sorted.
+     * @return The batches and latencies the factory would have produced
+     */
+    public SimulationReport run(long[] arrivalTimesNanos) {
+        long[] arrivals = arrivalTimesNanos.clone();
+        Arrays.sort(arrivals);
+        return new Run(arrivals).execute();
+    }
+
+    /**
+     * Read a recorded trace with one arrival time per line, in milliseconds (fractions allowed) from any fixed origin.
+     * Blank lines and lines starting with {@code #} are skipped.
+     * @param path The trace file
+     * @return The arrival times in nanoseconds, for {@link #run(long[])}
+     * @throws IOException If the file can't be read
+     * @throws NumberFormatException If a line isn't a number
+     */
+    public static long[] readTrace(Path path) throws IOException {
+        double nanosPerMs = TimeUnit.MILLISECONDS.toNanos(1);
+        try (Stream<String> lines = Files.lines(path, StandardCharsets.UTF_8)) {
+            return lines.map(String::trim)
+                    .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                    .mapToLong(line -> (long) (Double.parseDouble(line) * nanosPerMs))
+                    .toArray();
+        }
+    }
+
+    /**
+     * The state of one simulation.  Arrivals are replayed in order, interleaved with the scheduled events, which run in
+     * time order and, at the same time, in the order they were scheduled.  Arrivals go before events at the same time.
+     */
+    private class Run {
+        private final long[] arrivals;
+        private final PriorityQueue<Event> events = new PriorityQueue<>();
+        private final List<SimulatedQueue> queues = new ArrayList<>(numQueues);
+        private final long maxBufferTimeNanos = TimeUnit.MILLISECONDS.toNanos(maxBufferTimeMs);
+        private final FlushDecision flushDecision = new FlushDecision(batchSize, maxBufferTimeNanos, smartBatching);
+        private final long[] latenciesNanos;
+        private int numWritten;
+        private int numBatches;
+        private long totalWriteNanos;
+        private long numEventsScheduled;
+        /** The virtual clock */
+        private long nowNanos;
+        private long lastWriteFinishedNanos;
+
+        private Run(long[] arrivals) {
+            this.arrivals = arrivals;
+            this.latenciesNanos = new long[arrivals.length];
+            for (int i = 0; i < numQueues; i++) {
+                SimulatedQueue queue = new SimulatedQueue();
+                for (int j = 0; j < numPollingWorkersPerQueue; j++) {
+                    SimulatedPoller poller = new SimulatedPoller(queue);
+                    queue.pollers.add(poller);
+                    // Like a real poller that finds its queue empty
+                    poller.waiting = true;
+                    poller.batchReadySize = 1;
+                }
+                queues.add(queue);
+            }
+        }
+
+        private SimulationReport execute() {
+            int nextArrival = 0;
+            while (nextArrival < arrivals.length || !events.isEmpty()) {
+                if (nextArrival < arrivals.length
+                        && (events.isEmpty() || arrivals[nextArrival] <= events.peek().atNanos)) {
+                    nowNanos = arrivals[nextArrival];
+                    arrive(queues.get(nextArrival % numQueues), nowNanos);
+                    nextArrival++;
+                } else {
+                    Event event = events.poll();
+                    nowNanos = event.atNanos;
+                    event.action.run();
+                }
+            }
+            Arrays.sort(latenciesNanos, 0, numWritten);
+            long simulatedNanos = arrivals.length == 0 ? 0 : lastWriteFinishedNanos - arrivals[0];
+            return new SimulationReport(numBatches, batchSize, Arrays.copyOf(latenciesNanos, numWritten),
+                    totalWriteNanos, simulatedNanos);
+        }
+
+        private void schedule(long atNanos, Runnable action) {
+            events.add(new Event(atNanos, numEventsScheduled++, action));
+        }
+
+        private void arrive(SimulatedQueue queue, long arrivalNanos) {
+            queue.arrivals.add(arrivalNanos);
+            wakeUp(queue, false);
+        }
+
+        /**
+         * Let the waiting pollers of the queue decide again, like signalling the queue's condition.
+         * @param always If false, only pollers that were waiting for the queue to reach their batch ready size
+         */
+        private void wakeUp(SimulatedQueue queue, boolean always) {
+            for (SimulatedPoller poller : queue.pollers) {
+                if (poller.waiting && (always || queue.arrivals.size() >= poller.batchReadySize)) {
+                    decide(poller);
+                }
+            }
+        }
+
+        /**
+         * Mirrors {@link PollingQueueTask}: send a batch, or wait until the poller should decide again.
+         */
+        private void decide(SimulatedPoller poller) {
+            SimulatedQueue queue = poller.queue;
+            // Any earlier wake-up is stale now
+            poller.numWaits++;
+            poller.waiting = false;
+            if (queue.arrivals.isEmpty()) {
+                await(poller, 1, Long.MAX_VALUE);
+                return;
+            }
+            if (queue.arrivals.size() >= batchSize) {
+                write(poller);
+                return;
+            }
+            long waitNanos = flushDecision.getWaitNanos(queue.numWritesInFlight, queue.arrivals.peek() + maxBufferTimeNanos,
+                    nowNanos, () -> true);
+            if (waitNanos == FlushDecision.FLUSH_NOW) {
+                write(poller);
+            } else {
+                await(poller, flushDecision.getBatchReadySize(queue.numWritesInFlight), nowNanos + waitNanos);
+            }
+        }
+
+        private void await(SimulatedPoller poller, int batchReadySize, long wakeUpNanos) {
+            poller.waiting = true;
+            poller.batchReadySize = batchReadySize;
+            if (wakeUpNanos == Long.MAX_VALUE) {
+                return;
+            }
+            long wait = poller.numWaits;
+            schedule(wakeUpNanos, () -> {
+                if (poller.waiting && poller.numWaits == wait) {
+                    decide(poller);
+                }
+            });
+        }
+
+        private void write(SimulatedPoller poller) {
+            SimulatedQueue queue = poller.queue;
+            int size = Math.min(queue.arrivals.size(), batchSize);
+            long[] batch = new long[size];
+            for (int i = 0; i < size; i++) {
+                batch[i] = queue.arrivals.poll();
+            }
+            long writeNanos = writeLatencyModel.getWriteNanos(size);
+            numBatches++;
+            totalWriteNanos += writeNanos;
+            queue.numWritesInFlight++;
+            schedule(nowNanos + writeNanos, () -> {
+                for (long arrivalNanos : batch) {
+                    latenciesNanos[numWritten++] = nowNanos - arrivalNanos;
+                }
+                queue.numWritesInFlight--;
+                lastWriteFinishedNanos = nowNanos;
+                if (smartBatching) {
+                    // A partial batch may have been growing while this one was written
+                    wakeUp(queue, true);
+                }
+                decide(poller);
+            });
+        }
+    }
+
+    /**
+     * A builder with every parameter optional, other than the {@link WriteLatencyModel}.  Defaults are the same as
+     * {@link BatchRequestsFactory.BatchRequestsFactoryBuilder}'s.
+     */
+    public static class BatchingSimulatorBuilder {
+        private final WriteLatencyModel builderWriteLatencyModel;
+        private int builderBatchSize = BatchRequestsFactory.DEFAULT_MAX_BATCH_SIZE;
+        private long builderMaxBufferTimeMs = BatchRequestsFactory.DEFAULT_MAX_BUFFER_TIME_MS;
+        private int builderNumQueues = BatchRequestsFactory.DEFAULT_NUM_QUEUES;
+        private int builderNumPollingWorkersPerQueue = BatchRequestsFactory.DEFAULT_NUM_WORKERS_PER_QUEUE;
+        private boolean builderSmartBatching;
+
+        /**
+         * @param writeLatencyModel How long each write takes
+         */
+        public BatchingSimulatorBuilder(WriteLatencyModel writeLatencyModel) {
+            this.builderWriteLatencyModel = writeLatencyModel;
+        }
+
+        /**
+         * @param batchSize See {@link BatchRequestsFactory.BatchRequestsFactoryBuilder#withBatchSize(int)}
+         * @return {@link BatchingSimulatorBuilder}
+         */
+        public BatchingSimulatorBuilder withBatchSize(int batchSize) {
+            this.builderBatchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param maxBufferTimeMs See {@link BatchRequestsFactory.BatchRequestsFactoryBuilder#withMaxBufferTimeMs(long)}
+         * @return {@link BatchingSimulatorBuilder}
+         */
+        public BatchingSimulatorBuilder withMaxBufferTimeMs(long maxBufferTimeMs) {
+            this.builderMaxBufferTimeMs = maxBufferTimeMs;
+            return this;
+        }
+
+        /**
+         * @param numQueues See {@link BatchRequestsFactory.BatchRequestsFactoryBuilder#withNumQueues(int)}
+         * @return {@link BatchingSimulatorBuilder}
+         */
+        public BatchingSimulatorBuilder withNumQueues(int numQueues) {
+            this.builderNumQueues = numQueues;
+            return this;
+        }
+
+        /**
+         * @param numPollingWorkersPerQueue See
+         *        {@link BatchRequestsFactory.BatchRequestsFactoryBuilder#withNumPollingWorkersPerQueue(int)}
+         * @return {@link BatchingSimulatorBuilder}
+         */
+        public BatchingSimulatorBuilder withNumPollingWorkersPerQueue(int numPollingWorkersPerQueue) {
+            this.builderNumPollingWorkersPerQueue = numPollingWorkersPerQueue;
+            return this;
+        }
+
+        /**
+         * @param smartBatching See {@link BatchRequestsFactory.BatchRequestsFactoryBuilder#withSmartBatching(boolean)}
+         * @return {@link BatchingSimulatorBuilder}
+         */
+        public BatchingSimulatorBuilder withSmartBatching(boolean smartBatching) {
+            this.builderSmartBatching = smartBatching;
+            return this;
+        }
+
+        /**
+         * @return {@link BatchingSimulator} with the provided options.
+         */
+        public BatchingSimulator build() {
+            return new BatchingSimulator(builderWriteLatencyModel, builderBatchSize, builderMaxBufferTimeMs,
+                    builderNumQueues, builderNumPollingWorkersPerQueue, builderSmartBatching);
+        }
+    }
+
+    private static class SimulatedQueue {
+        /** The arrival time of each queued request, oldest first */
+        private final ArrayDeque<Long> arrivals = new ArrayDeque<>();
+        private final List<SimulatedPoller> pollers = new ArrayList<>();
+        private int numWritesInFlight;
+    }
+
+    private static class SimulatedPoller {
+        private final SimulatedQueue queue;
+        private boolean waiting;
+        private int batchReadySize;
+        /** Identifies the current wait, so that the wake-ups of earlier waits are ignored */
+        private long numWaits;
+
+        private SimulatedPoller(SimulatedQueue queue) {
+            this.queue = queue;
+        }
+    }
+
+    private static class Event implements Comparable<Event> {
+        private final long atNanos;
+        private final long sequence;
+        private final Runnable action;
+
+        private Event(long atNanos, long sequence, Runnable action) {
+            this.atNanos = atNanos;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int byTime = Long.compare(atNanos, other.atNanos);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package batchrequests;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A Reactive Streams {@link Subscriber} that submits every item it receives to be batched.  Unlike calling
+ * {@link BatchSubmitter#put(Object)} directly, it only requests as many items from upstream as there is room for: at
+ * most {@link #getMaxOutstandingRequests()} items are buffered or being written at any time, and more are requested
+ * as batches are written.
+ *
+ * The subscriber has a {@link BatchRequestsFactory} of its own, so that it can account for every request in it:
+ * <pre>
+ *     BatchingSubscriber&lt;Request&gt; subscriber = new BatchingSubscriber&lt;&gt;(
+ *             new BatchRequestsFactory.BatchRequestsFactoryBuilder&lt;&gt;(batchWriter).withBatchSize(25), 100);
+ *     publisher.subscribe(subscriber);
+ * </pre>
+ * On Java 9 and later, use {@code org.reactivestreams.FlowAdapters#toFlowSubscriber} to subscribe to a
+ * {@code java.util.concurrent.Flow.Publisher}.
+ *
+ * This class requires the optional {@code org.reactivestreams:reactive-streams} dependency.
+ * @param <T> Type of request
+ */
+@Slf4j
+public class BatchingSubscriber<T> implements Subscriber<T> {
+
+    @Getter private final BatchRequestsFactory<T> factory;
+    @Getter private final int maxOutstandingRequests;
+    /**
+     * Completes once upstream has completed and every request received has been written, or completes exceptionally
+     * as soon as upstream fails.  Requests that were received before a failure are still written.
+     */
+    @Getter private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    private final AtomicReference<Subscription> subscription = new AtomicReference<>();
+    private final AtomicLong numOutstandingRequests = new AtomicLong();
+    private volatile boolean upstreamTerminated;
+
+    /**
+     * @param factoryBuilder A non-null builder for the factory that will batch the requests.  Its writer is wrapped to
+     *                       track when requests have been written.
+     * @param maxOutstandingRequests A positive number of requests that can be buffered or written at a time
+     */
+    public BatchingSubscriber(BatchRequestsFactory.BatchRequestsFactoryBuilder<T> factoryBuilder,
+                              int maxOutstandingRequests) {
+        if (factoryBuilder == null) {
+            throw new IllegalArgumentException("Need a non-null BatchRequestsFactoryBuilder");
+        }
+        if (maxOutstandingRequests < 1) {
+            throw new IllegalArgumentException("Need a positive number of outstanding requests.  Got: " + maxOutstandingRequests);
+        }
+        this.maxOutstandingRequests = maxOutstandingRequests;
+        this.factory = factoryBuilder.build(batchWriter -> batch -> write(batchWriter, batch));
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        if (subscription == null) {
+            throw new NullPointerException("Subscription must be non-null");
+        }
+        if (!this.subscription.compareAndSet(null, subscription)) {
+            // A subscriber can only be subscribed once (rule 2.5)
+            subscription.cancel();
+            return;
+        }
+        subscription.request(maxOutstandingRequests);
+    }
+
+    @Override
+    public void onNext(T item) {
+        if (item == null) {
+            throw new NullPointerException("Item must be non-null");
+        }
+        numOutstandingRequests.incrementAndGet();
+        factory.getBatchSubmitter().put(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (throwable == null) {
+            throw new NullPointerException("Throwable must be non-null");
+        }
+        upstreamTerminated = true;
+        log.warn("Upstream failed, the {} requests already received will still be written",
+                numOutstandingRequests.get(), throwable);
+        completion.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamTerminated = true;
+        if (numOutstandingRequests.get() == 0) {
+            completion.complete(null);
+        }
+    }
+
+    /**
+     * @return The number of requests that have been received but not written yet.
+     */
+    public long getNumOutstandingRequests() {
+        return numOutstandingRequests.get();
+    }
+
+    private void write(BatchWriter<T> batchWriter, Collection<T> batch) {
+        try {
+            batchWriter.write(batch);
+        } finally {
+            if (!batch.isEmpty()) {
+                onBatchWritten(batch.size());
+            }
+        }
+    }
+
+    private void onBatchWritten(int batchSize) {
+        long remaining = numOutstandingRequests.addAndGet(-batchSize);
+        if (upstreamTerminated) {
+            if (remaining == 0) {
+                completion.complete(null);
+            }
+            return;
+        }
+        // The written requests made room for as many new ones.  Requesting after upstream terminates is a no-op.
+        subscription.get().request(batchSize);
+    }
+}
@@ -0,0 +1,58 @@
+package batchrequests;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A batch that has been compressed by a {@link BatchCompressor}, as handed to a {@link CompressedBatchWriter}.  The
+ * compressed bytes are owned by the compressor and reused for the next batch, so they are only valid for the duration
+ * of the {@link CompressedBatchWriter#write(CompressedBatch)} call.
+ */
+public class CompressedBatch {
+
+    @Getter private final String encoding;
+    @Getter private final int recordCount;
+    @Getter private final long uncompressedByteSize;
+    private final ByteBuffer compressed;
+
+    CompressedBatch(String encoding, int recordCount, long uncompressedByteSize, ByteBuffer compressed) {
+        this.encoding = encoding;
+        this.recordCount = recordCount;
+        this.uncompressedByteSize = uncompressedByteSize;
+        this.compressed = compressed;
+    }
+
+    /**
+     * @return The number of compressed bytes.
+     */
+    public int getCompressedByteSize() {
+        return compressed.remaining();
+    }
+
+    /**
+     * @return A read-only view of the compressed bytes.
+     */
+    public ByteBuffer getCompressedBuffer() {
+        return compressed.duplicate();
+    }
+
+    /**
+     * Write all of the compressed bytes to the channel.
+     * @param channel The channel to write to.  Must be in blocking mode, see {@link EncodedBatch#writeTo}.
+     * @return The number of bytes written, which is always {@link #getCompressedByteSize()}.
+     * @throws IOException See {@link WritableByteChannel#write(ByteBuffer)}
+     * @throws IllegalArgumentException If the channel is in non-blocking mode
+     */
+    public long writeTo(WritableByteChannel channel) throws IOException {
+        EncodedBatch.requireBlocking(channel);
+        ByteBuffer buffer = getCompressedBuffer();
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        return written;
+    }
+}
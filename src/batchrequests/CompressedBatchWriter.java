@@ -0,0 +1,15 @@
+package batchrequests;
+
+/**
+ * The writer that will send a compressed batch to the desired source.  To be implemented by the client and wrapped in
+ * a {@link CompressingBatchWriter}.
+ */
+public interface CompressedBatchWriter {
+
+    /**
+     * Write the compressed batch to the desired source.
+     * Ensure that all exceptions (checked or unchecked) are caught and handled appropriately.
+     * @param batch The compressed batch.  Its bytes are only valid until this method returns.
+     */
+    void write(CompressedBatch batch);
+}
@@ -0,0 +1,123 @@
+package batchrequests;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link EncodedBatchWriter} that compresses each framed batch on the polling thread and passes it on to a
+ * {@link CompressedBatchWriter}.
+ *
+ * When a compressed-size target is set, this writer keeps a running estimate of the compression ratio so that the
+ * factory can cut batches by their uncompressed size (see {@link #getBatchWeightLimit()}) and land close to the
+ * target after compression.  The target is best-effort: a batch that compresses worse than the estimate is still
+ * sent, and the estimate adjusts for the following batches.
+ *
+ * {@link #close()} the writer once the factory has been shut down, to release the compressor's native state.
+ */
+@Slf4j
+public class CompressingBatchWriter implements EncodedBatchWriter, Closeable {
+
+    /** How much each batch moves the compression ratio estimate.  Value: {@value #RATIO_SMOOTHING_FACTOR} */
+    static final double RATIO_SMOOTHING_FACTOR = 0.2;
+
+    @Getter private final BatchCompressor compressor;
+    private final CompressedBatchWriter delegate;
+    @Getter private final long targetCompressedBytes;
+
+    /**
+     * Compressed size divided by uncompressed size, as {@link Double#doubleToLongBits(double) bits} so that concurrent
+     * polling threads can update it atomically.  Starts pessimistic and is refined with every batch.
+     */
+    private final AtomicLong compressionRatioBits = new AtomicLong(Double.doubleToLongBits(1.0));
+
+    /**
+     * Compress batches without targeting a compressed size.
+     */
+    public CompressingBatchWriter(BatchCompressor compressor, CompressedBatchWriter delegate) {
+        this(compressor, delegate, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param compressor A non-null compressor, e.g. {@link GzipBatchCompressor}
+     * @param delegate A non-null writer for the compressed batches
+     * @param targetCompressedBytes A positive compressed size to aim for when batches are cut by
+     *                              {@link #getBatchWeightLimit()}
+     */
+    public CompressingBatchWriter(BatchCompressor compressor, CompressedBatchWriter delegate, long targetCompressedBytes) {
+        if (compressor == null) {
+            throw new IllegalArgumentException("Need a non-null BatchCompressor");
+        }
+        if (delegate == null) {
+            throw new IllegalArgumentException("Need a non-null CompressedBatchWriter");
+        }
+        if (targetCompressedBytes < 1) {
+            throw new IllegalArgumentException("Need a positive target compressed size.  Got: " + targetCompressedBytes);
+        }
+        this.compressor = compressor;
+        this.delegate = delegate;
+        this.targetCompressedBytes = targetCompressedBytes;
+    }
+
+    @Override
+    public void write(EncodedBatch batch) {
+        if (batch.getRecordCount() == 0) {
+            return;
+        }
+        long uncompressedByteSize = batch.getByteSize();
+        CompressedBatch compressed = new CompressedBatch(compressor.getEncoding(), batch.getRecordCount(),
+                uncompressedByteSize, compressor.compress(batch.getFrameBuffers()));
+        if (uncompressedByteSize > 0) {
+            updateCompressionRatio((double) compressed.getCompressedByteSize() / uncompressedByteSize);
+        }
+        if (compressed.getCompressedByteSize() > targetCompressedBytes) {
+            log.debug("Compressed batch of {} bytes exceeded the target of {} bytes",
+                    compressed.getCompressedByteSize(), targetCompressedBytes);
+        }
+        delegate.write(compressed);
+    }
+
+    private void updateCompressionRatio(double batchRatio) {
+        long bits;
+        double updated;
+        do {
+            bits = compressionRatioBits.get();
+            double current = Double.longBitsToDouble(bits);
+            updated = current + RATIO_SMOOTHING_FACTOR * (batchRatio - current);
+        } while (!compressionRatioBits.compareAndSet(bits, Double.doubleToLongBits(updated)));
+    }
+
+    /**
+     * @return The current estimate of compressed size divided by uncompressed size.
+     */
+    public double getCompressionRatio() {
+        return Double.longBitsToDouble(compressionRatioBits.get());
+    }
+
+    /**
+     * @return The uncompressed number of bytes that is expected to compress to {@link #getTargetCompressedBytes()}.
+     */
+    public long getUncompressedByteTarget() {
+        double target = targetCompressedBytes / Math.max(getCompressionRatio(), Double.MIN_NORMAL);
+        return target >= Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(1L, (long) target);
+    }
+
+    /**
+     * @return A limit to pass to {@link BatchRequestsFactory.BatchRequestsFactoryBuilder#withBatchWeightLimit} so that
+     *         batches are cut at {@link #getUncompressedByteTarget()} framed bytes.
+     */
+    public BatchWeightLimit<EncodedRecord> getBatchWeightLimit() {
+        return new BatchWeightLimit<>(EncodedRecord::getFrameLength, this::getUncompressedByteTarget);
+    }
+
+    /**
+     * Close the compressor.  Must only be called once no batch is being written, e.g. after the factory has been shut
+     * down.
+     */
+    @Override
+    public void close() {
+        compressor.close();
+    }
+}
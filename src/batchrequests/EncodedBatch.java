@@ -0,0 +1,133 @@
+package batchrequests;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A zero-copy view of a batch of {@link EncodedRecord}s that is handed to an {@link EncodedBatchWriter}.  The views
+ * returned by this class point directly into the slabs the records were encoded into, so they are only valid for the
+ * duration of the {@link EncodedBatchWriter#write(EncodedBatch)} call.
+ */
+public class EncodedBatch {
+
+    private final List<EncodedRecord> records;
+
+    EncodedBatch(Collection<EncodedRecord> records) {
+        this.records = Collections.unmodifiableList(new ArrayList<>(records));
+    }
+
+    /**
+     * @return The number of records in the batch.
+     */
+    public int getRecordCount() {
+        return records.size();
+    }
+
+    /**
+     * @return The total number of encoded bytes in the batch, including framing.
+     */
+    public long getByteSize() {
+        long byteSize = 0;
+        for (EncodedRecord record : records) {
+            byteSize += record.getFrameLength();
+        }
+        return byteSize;
+    }
+
+    /**
+     * @return The records in the batch, in the order they were polled from the queue.
+     */
+    public List<EncodedRecord> getRecords() {
+        return records;
+    }
+
+    /**
+     * @return One read-only view per record without its framing, in the order they were polled from the queue.
+     */
+    public List<ByteBuffer> getRecordBuffers() {
+        List<ByteBuffer> buffers = new ArrayList<>(records.size());
+        for (EncodedRecord record : records) {
+            buffers.add(record.asReadOnlyBuffer());
+        }
+        return buffers;
+    }
+
+    /**
+     * Records that were encoded back to back into the same slab are merged into a single buffer, so a batch that was
+     * submitted and polled in order usually needs only one buffer per slab.
+     * @return Read-only views of the framed records, in order, ready to be sent with a gathering write.
+     */
+    public ByteBuffer[] getFrameBuffers() {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        int runStart = 0;
+        for (int i = 1; i <= records.size(); i++) {
+            if (i == records.size() || !records.get(i).follows(records.get(i - 1))) {
+                EncodedRecord first = records.get(runStart);
+                EncodedRecord last = records.get(i - 1);
+                ByteBuffer region = first.getSlab().getBuffer().asReadOnlyBuffer();
+                region.limit(last.getOffset() + last.getFrameLength()).position(first.getOffset());
+                buffers.add(region.slice());
+                runStart = i;
+            }
+        }
+        return buffers.toArray(new ByteBuffer[0]);
+    }
+
+    /**
+     * Write every framed record to the channel with gathering writes, without copying them first.
+     * @param channel The channel to write to, e.g. a {@link java.nio.channels.SocketChannel} or
+     *                {@link java.nio.channels.FileChannel}.  Must be in blocking mode, since a non-blocking channel
+     *                that can't take any more bytes would make this spin until it can.
+     * @return The number of bytes written, which is always {@link #getByteSize()}.
+     * @throws IOException See {@link GatheringByteChannel#write(ByteBuffer[])}
+     * @throws IllegalArgumentException If the channel is in non-blocking mode
+     */
+    public long writeTo(GatheringByteChannel channel) throws IOException {
+        requireBlocking(channel);
+        ByteBuffer[] buffers = getFrameBuffers();
+        long remaining = getByteSize();
+        long written = 0;
+        int firstUnwritten = 0;
+        while (written < remaining) {
+            written += channel.write(buffers, firstUnwritten, buffers.length - firstUnwritten);
+            while (firstUnwritten < buffers.length && !buffers[firstUnwritten].hasRemaining()) {
+                firstUnwritten++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * @throws IllegalArgumentException If the channel is a {@link SelectableChannel} in non-blocking mode
+     */
+    static void requireBlocking(Channel channel) {
+        if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking()) {
+            throw new IllegalArgumentException("Need a channel in blocking mode");
+        }
+    }
+
+    /**
+     * Return every record's region to its {@link SlabAllocator}.
+     */
+    void release() {
+        int runStart = 0;
+        // Records are released in runs that share an allocator so that each allocator lock is taken once per run
+        for (int i = 1; i <= records.size(); i++) {
+            if (i == records.size() || allocatorOf(i) != allocatorOf(runStart)) {
+                allocatorOf(runStart).release(records.subList(runStart, i));
+                runStart = i;
+            }
+        }
+    }
+
+    private SlabAllocator allocatorOf(int index) {
+        return records.get(index).getSlab().getAllocator();
+    }
+}
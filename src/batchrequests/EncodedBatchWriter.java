@@ -0,0 +1,33 @@
+package batchrequests;
+
+import java.util.Collection;
+
+/**
+ * A {@link BatchWriter} for requests that were encoded off-heap by an {@link EncodingBatchSubmitter}.  To be
+ * implemented by the client and injected in the {@link BatchRequestsFactory} in place of a regular
+ * {@link BatchWriter}.
+ */
+public interface EncodedBatchWriter extends BatchWriter<EncodedRecord> {
+
+    /**
+     * Write the collected batch to the desired source.
+     * Ensure that all exceptions (checked or unchecked) are caught and handled appropriately.
+     * @param batch A zero-copy view of the batch.  The view (and any buffer obtained from it) is only valid until
+     *              this method returns, after which the underlying memory is reused for new requests.
+     */
+    void write(EncodedBatch batch);
+
+    /**
+     * Wraps the records in an {@link EncodedBatch}, writes it with {@link #write(EncodedBatch)}, and then releases
+     * the records' memory whether or not the write succeeded.
+     */
+    @Override
+    default void write(Collection<EncodedRecord> batchRequests) {
+        EncodedBatch batch = new EncodedBatch(batchRequests);
+        try {
+            write(batch);
+        } finally {
+            batch.release();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package batchrequests;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A handle to a request that has been encoded into a slab owned by a {@link SlabAllocator}.  Only this small handle
+ * lives on the Java heap while the request is buffered; the encoded bytes stay in the slab until the batch that
+ * contains the request has been written.
+ *
+ * The region of a record is its frame: the request itself plus any delimiter added by its {@link RecordFraming}.
+ */
+public class EncodedRecord {
+
+    @Getter(AccessLevel.PACKAGE) private final SlabAllocator.Slab slab;
+    @Getter(AccessLevel.PACKAGE) private final int offset;
+    @Getter private final int frameLength;
+    @Getter(AccessLevel.PACKAGE) private final int payloadOffset;
+    @Getter private final int length;
+
+    /** Guarded by the lock of the {@link SlabAllocator} that owns {@link #slab} */
+    boolean released;
+
+    EncodedRecord(SlabAllocator.Slab slab, int offset, int frameLength, int payloadOffset, int length) {
+        this.slab = slab;
+        this.offset = offset;
+        this.frameLength = frameLength;
+        this.payloadOffset = payloadOffset;
+        this.length = length;
+    }
+
+    /**
+     * @return A read-only view of the encoded request, without its framing.  No bytes are copied, so the view is only
+     *         valid until the record is released (i.e. until the {@link EncodedBatchWriter} call that received it
+     *         returns).
+     */
+    public ByteBuffer asReadOnlyBuffer() {
+        return view(payloadOffset, length);
+    }
+
+    /**
+     * @return A read-only view of the whole frame, including the framing.  See {@link #asReadOnlyBuffer()}.
+     */
+    public ByteBuffer asReadOnlyFrameBuffer() {
+        return view(offset, frameLength);
+    }
+
+    /**
+     * @return True if this record's frame immediately follows the given record's frame in the same slab.
+     */
+    boolean follows(EncodedRecord previous) {
+        return previous.slab == slab && previous.offset + previous.frameLength == offset;
+    }
+
+    private ByteBuffer view(int from, int viewLength) {
+        ByteBuffer view = slab.getBuffer().asReadOnlyBuffer();
+        view.limit(from + viewLength).position(from);
+        return view.slice();
+    }
+}
@@ -0,0 +1,112 @@
+package batchrequests;
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+/**
+ * Submits requests to be batched after encoding them into off-heap slabs, so that buffered batches hold only small
+ * {@link EncodedRecord} handles on the heap.  This class is thread-safe.
+ *
+ * Use with a {@link BatchRequestsFactory} that was built with an {@link EncodedBatchWriter}:
+ * <pre>
+ *     BatchRequestsFactory&lt;EncodedRecord&gt; factory =
+ *             new BatchRequestsFactory.BatchRequestsFactoryBuilder&lt;&gt;(encodedBatchWriter).build();
+ *     EncodingBatchSubmitter&lt;Request&gt; submitter =
+ *             new EncodingBatchSubmitter&lt;&gt;(factory.getBatchSubmitter(), codec);
+ * </pre>
+ * @param <T> Type of record
+ */
+public class EncodingBatchSubmitter<T> {
+
+    private final BatchSubmitter<EncodedRecord> batchSubmitter;
+    private final RecordCodec<T> codec;
+    @Getter private final SlabAllocator slabAllocator;
+    @Getter private final RecordFraming framing;
+
+    /**
+     * Uses a {@link SlabAllocator} with the default slab settings and no framing.
+     */
+    public EncodingBatchSubmitter(BatchSubmitter<EncodedRecord> batchSubmitter, RecordCodec<T> codec) {
+        this(batchSubmitter, codec, new SlabAllocator());
+    }
+
+    /**
+     * Uses no framing.
+     */
+    public EncodingBatchSubmitter(BatchSubmitter<EncodedRecord> batchSubmitter,
+                                  RecordCodec<T> codec,
+                                  SlabAllocator slabAllocator) {
+        this(batchSubmitter, codec, slabAllocator, RecordFraming.NONE);
+    }
+
+    /**
+     * @param batchSubmitter A non-null submitter for a factory that was built with an {@link EncodedBatchWriter}
+     * @param codec A non-null codec to encode each request with
+     * @param slabAllocator A non-null allocator for the encoded bytes.  May be shared with other submitters.
+     * @param framing A non-null framing that is written around each request, so that the writer can send
+     *                {@link EncodedBatch#getFrameBuffers()} without re-serializing the batch
+     */
+    public EncodingBatchSubmitter(BatchSubmitter<EncodedRecord> batchSubmitter,
+                                  RecordCodec<T> codec,
+                                  SlabAllocator slabAllocator,
+                                  RecordFraming framing) {
+        if (batchSubmitter == null) {
+            throw new IllegalArgumentException("Need a non-null BatchSubmitter");
+        }
+        if (codec == null) {
+            throw new IllegalArgumentException("Need a non-null RecordCodec");
+        }
+        if (slabAllocator == null) {
+            throw new IllegalArgumentException("Need a non-null SlabAllocator");
+        }
+        if (framing == null) {
+            throw new IllegalArgumentException("Need a non-null RecordFraming");
+        }
+        this.batchSubmitter = batchSubmitter;
+        this.codec = codec;
+        this.slabAllocator = slabAllocator;
+        this.framing = framing;
+    }
+
+    /**
+     * @param requestItem A request to be encoded and collected into a batch.  The request object itself is not
+     *                    retained, so it may be reused by the caller once this method returns.
+     */
+    public void put(T requestItem) {
+        batchSubmitter.put(encode(requestItem));
+    }
+
+    /**
+     * Like {@link #put(Object)}, with a deadline of its own.  See {@link BatchSubmitter#put(Object, long)}.
+     */
+    public void put(T requestItem, long maxBufferTimeMs) {
+        if (maxBufferTimeMs < 1) {
+            throw new IllegalArgumentException("Need a positive max buffer time.  Got: " + maxBufferTimeMs);
+        }
+        batchSubmitter.put(encode(requestItem), maxBufferTimeMs);
+    }
+
+    private EncodedRecord encode(T requestItem) {
+        int length = codec.encodedLength(requestItem);
+        EncodedRecord record = slabAllocator.allocate(length, framing);
+        try {
+            ByteBuffer frame = record.getSlab().getBuffer().duplicate();
+            frame.limit(record.getOffset() + record.getFrameLength()).position(record.getOffset());
+            framing.writeHeader(frame, length);
+            ByteBuffer target = frame.slice();
+            target.limit(length);
+            codec.encode(requestItem, target);
+            if (target.hasRemaining()) {
+                throw new IllegalStateException("Codec declared " + length + " bytes but wrote " + target.position());
+            }
+            frame.position(frame.position() + length);
+            framing.writeTrailer(frame);
+        } catch (RuntimeException e) {
+            slabAllocator.release(Collections.singletonList(record));
+            throw e;
+        }
+        return record;
+    }
+}
@@ -0,0 +1,215 @@
+package batchrequests;
+
+import lombok.Getter;
+
+/**
+ * How an {@link EndpointPoolBatchWriter} picks endpoints and when it ejects them.  An endpoint is ejected after too
+ * many writes to it fail in a row, or once its recent write time is much slower than the median of the other
+ * endpoints.  An ejected endpoint gets no batches until its ejection time is up, which grows every time it is ejected.
+ *
+ * Create a policy using {@link EndpointPolicyBuilder}.
+ */
+@Getter
+public class EndpointPolicy {
+
+    /** Value: {@value #DEFAULT_MAX_ATTEMPTS} */
+    public static final int DEFAULT_MAX_ATTEMPTS = 1;
+
+    /** Value: {@value #DEFAULT_LATENCY_EWMA_WEIGHT} */
+    public static final double DEFAULT_LATENCY_EWMA_WEIGHT = 0.2;
+
+    /** Value: {@value #DEFAULT_CONSECUTIVE_FAILURES_TO_EJECT} */
+    public static final int DEFAULT_CONSECUTIVE_FAILURES_TO_EJECT = 5;
+
+    /** Value: {@value #DEFAULT_SLOW_LATENCY_FACTOR} */
+    public static final double DEFAULT_SLOW_LATENCY_FACTOR = 3.0;
+
+    /** Value: {@value #DEFAULT_MIN_SAMPLES} */
+    public static final int DEFAULT_MIN_SAMPLES = 20;
+
+    /** Value: {@value #DEFAULT_BASE_EJECTION_TIME_MS} */
+    public static final long DEFAULT_BASE_EJECTION_TIME_MS = 30_000L;
+
+    /** Value: {@value #DEFAULT_MAX_EJECTION_TIME_MS} */
+    public static final long DEFAULT_MAX_EJECTION_TIME_MS = 300_000L;
+
+    /** Value: {@value #DEFAULT_MAX_EJECTED_RATIO} */
+    public static final double DEFAULT_MAX_EJECTED_RATIO = 0.5;
+
+    private final EndpointSelection selection;
+    private final int maxAttempts;
+    private final double latencyEwmaWeight;
+    private final int consecutiveFailuresToEject;
+    private final double slowLatencyFactor;
+    private final int minSamples;
+    private final long baseEjectionTimeMs;
+    private final long maxEjectionTimeMs;
+    private final double maxEjectedRatio;
+
+    private EndpointPolicy(EndpointSelection selection,
+                           int maxAttempts,
+                           double latencyEwmaWeight,
+                           int consecutiveFailuresToEject,
+                           double slowLatencyFactor,
+                           int minSamples,
+                           long baseEjectionTimeMs,
+                           long maxEjectionTimeMs,
+                           double maxEjectedRatio) {
+        if (selection == null) {
+            throw new IllegalArgumentException("Need a non-null EndpointSelection");
+        }
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Need a positive max number of attempts.  Got: " + maxAttempts);
+        }
+        if (!(latencyEwmaWeight > 0 && latencyEwmaWeight <= 1)) {
+            throw new IllegalArgumentException("Need a latency EWMA weight in (0, 1].  Got: " + latencyEwmaWeight);
+        }
+        if (consecutiveFailuresToEject < 1) {
+            throw new IllegalArgumentException("Need a positive number of consecutive failures to eject.  Got: "
+                    + consecutiveFailuresToEject);
+        }
+        if (!(slowLatencyFactor > 1)) {
+            throw new IllegalArgumentException("Need a slow latency factor greater than 1.  Got: " + slowLatencyFactor);
+        }
+        if (minSamples < 1) {
+            throw new IllegalArgumentException("Need a positive number of min samples.  Got: " + minSamples);
+        }
+        if (baseEjectionTimeMs < 1) {
+            throw new IllegalArgumentException("Need a positive base ejection time.  Got: " + baseEjectionTimeMs);
+        }
+        if (maxEjectionTimeMs < baseEjectionTimeMs) {
+            throw new IllegalArgumentException("Need a max ejection time of at least the base ejection time.  Got: "
+                    + maxEjectionTimeMs);
+        }
+        if (!(maxEjectedRatio >= 0 && maxEjectedRatio < 1)) {
+            throw new IllegalArgumentException("Need a max ejected ratio in [0, 1).  Got: " + maxEjectedRatio);
+        }
+        this.selection = selection;
+        this.maxAttempts = maxAttempts;
+        this.latencyEwmaWeight = latencyEwmaWeight;
+        this.consecutiveFailuresToEject = consecutiveFailuresToEject;
+        this.slowLatencyFactor = slowLatencyFactor;
+        this.minSamples = minSamples;
+        this.baseEjectionTimeMs = baseEjectionTimeMs;
+        this.maxEjectionTimeMs = maxEjectionTimeMs;
+        this.maxEjectedRatio = maxEjectedRatio;
+    }
+
+    /**
+     * A builder with every parameter optional.
+     */
+    public static class EndpointPolicyBuilder {
+        private EndpointSelection builderSelection = EndpointSelection.ROUND_ROBIN;
+        private int builderMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+        private double builderLatencyEwmaWeight = DEFAULT_LATENCY_EWMA_WEIGHT;
+        private int builderConsecutiveFailuresToEject = DEFAULT_CONSECUTIVE_FAILURES_TO_EJECT;
+        private double builderSlowLatencyFactor = DEFAULT_SLOW_LATENCY_FACTOR;
+        private int builderMinSamples = DEFAULT_MIN_SAMPLES;
+        private long builderBaseEjectionTimeMs = DEFAULT_BASE_EJECTION_TIME_MS;
+        private long builderMaxEjectionTimeMs = DEFAULT_MAX_EJECTION_TIME_MS;
+        private double builderMaxEjectedRatio = DEFAULT_MAX_EJECTED_RATIO;
+
+        /**
+         * @param selection How to pick the endpoint for each batch.  Defaults to
+         *                  {@link EndpointSelection#ROUND_ROBIN}.
+         * @return {@link EndpointPolicyBuilder}
+         */
+        public EndpointPolicyBuilder withSelection(EndpointSelection selection) {
+            this.builderSelection = selection;
+            return this;
+        }
+
+        /**
+         * @param maxAttempts The number of endpoints a batch is sent to before giving up, if writes to them throw.
+         *                    More than one attempt requires an idempotent writer.
+         *                    Defaults to {@link #DEFAULT_MAX_ATTEMPTS}.
+         * @return {@link EndpointPolicyBuilder}
+         */
+        public EndpointPolicyBuilder withMaxAttempts(int maxAttempts) {
+            this.builderMaxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * @param latencyEwmaWeight The weight of the newest write time in each endpoint's moving average.  Higher
+         *                          weights react to slowdowns faster but are noisier.
+         *                          Defaults to {@link #DEFAULT_LATENCY_EWMA_WEIGHT}.
+         * @return {@link EndpointPolicyBuilder}
+         */
+        public EndpointPolicyBuilder withLatencyEwmaWeight(double latencyEwmaWeight) {
+            this.builderLatencyEwmaWeight = latencyEwmaWeight;
+            return this;
+        }
+
+        /**
+         * @param consecutiveFailuresToEject An endpoint is ejected once this many writes to it have thrown in a row.
+         *                                   Defaults to {@link #DEFAULT_CONSECUTIVE_FAILURES_TO_EJECT}.
+         * @return {@link EndpointPolicyBuilder}
+         */
+        public EndpointPolicyBuilder withConsecutiveFailuresToEject(int consecutiveFailuresToEject) {
+            this.builderConsecutiveFailuresToEject = consecutiveFailuresToEject;
+            return this;
+        }
+
+        /**
+         * @param slowLatencyFactor An endpoint is ejected once its average write time is this many times the median
+         *                          of the endpoints' average write times.  Use {@link Double#POSITIVE_INFINITY} to
+         *                          never eject slow endpoints.  Defaults to {@link #DEFAULT_SLOW_LATENCY_FACTOR}.
+         * @return {@link EndpointPolicyBuilder}
+         */
+        public EndpointPolicyBuilder withSlowLatencyFactor(double slowLatencyFactor) {
+            this.builderSlowLatencyFactor = slowLatencyFactor;
+            return this;
+        }
+
+        /**
+         * @param minSamples An endpoint's write time is only compared to the others once it has written this many
+         *                   batches since it was last ejected.  Defaults to {@link #DEFAULT_MIN_SAMPLES}.
+         * @return {@link EndpointPolicyBuilder}
+         */
+        public EndpointPolicyBuilder withMinSamples(int minSamples) {
+            this.builderMinSamples = minSamples;
+            return this;
+        }
+
+        /**
+         * @param baseEjectionTimeMs How long an endpoint is ejected for the first time.  Each later ejection lasts
+         *                           that much longer, up to {@link #withMaxEjectionTimeMs(long)}.
+         *                           Defaults to {@link #DEFAULT_BASE_EJECTION_TIME_MS}.
+         * @return {@link EndpointPolicyBuilder}
+         */
+        public EndpointPolicyBuilder withBaseEjectionTimeMs(long baseEjectionTimeMs) {
+            this.builderBaseEjectionTimeMs = baseEjectionTimeMs;
+            return this;
+        }
+
+        /**
+         * @param maxEjectionTimeMs The longest an endpoint is ejected for.
+         *                          Defaults to {@link #DEFAULT_MAX_EJECTION_TIME_MS}.
+         * @return {@link EndpointPolicyBuilder}
+         */
+        public EndpointPolicyBuilder withMaxEjectionTimeMs(long maxEjectionTimeMs) {
+            this.builderMaxEjectionTimeMs = maxEjectionTimeMs;
+            return this;
+        }
+
+        /**
+         * @param maxEjectedRatio The fraction of endpoints that may be ejected at once.  At least one endpoint is
+         *                        always left to write to.  Defaults to {@link #DEFAULT_MAX_EJECTED_RATIO}.
+         * @return {@link EndpointPolicyBuilder}
+         */
+        public EndpointPolicyBuilder withMaxEjectedRatio(double maxEjectedRatio) {
+            this.builderMaxEjectedRatio = maxEjectedRatio;
+            return this;
+        }
+
+        /**
+         * @return {@link EndpointPolicy} with the provided options.
+         */
+        public EndpointPolicy build() {
+            return new EndpointPolicy(builderSelection, builderMaxAttempts, builderLatencyEwmaWeight,
+                    builderConsecutiveFailuresToEject, builderSlowLatencyFactor, builderMinSamples,
+                    builderBaseEjectionTimeMs, builderMaxEjectionTimeMs, builderMaxEjectedRatio);
+        }
+    }
+}
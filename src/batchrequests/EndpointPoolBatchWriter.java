@@ -0,0 +1,291 @@
+package batchrequests;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link BatchWriter} that spreads batches across a pool of equivalent endpoints, with one writer per endpoint.  Each
+ * batch goes to the endpoint picked by the {@link EndpointPolicy}'s {@link EndpointSelection}, and endpoints whose
+ * writes keep throwing or have become much slower than the rest are ejected for a while, so that one bad endpoint
+ * doesn't hold up every poller.  Ejection is passive: it is only based on the batches the pool writes.
+ *
+ * Pass the pool to a {@link BatchRequestsFactory} like any other writer:
+ * <pre>
+ *     BatchRequestsFactory&lt;Request&gt; factory = new BatchRequestsFactory.BatchRequestsFactoryBuilder&lt;&gt;(
+ *             new EndpointPoolBatchWriter&lt;&gt;(endpointWriters, endpointPolicy)).build();
+ * </pre>
+ * Endpoint writers must throw when a write fails, instead of handling the exception themselves, or failures can't be
+ * detected.  Empty batches are not sent to any endpoint.
+ * @param <T> Type of request
+ */
+@Slf4j
+public class EndpointPoolBatchWriter<T> implements BatchWriter<T> {
+
+    @Getter private final EndpointPolicy endpointPolicy;
+    private final List<Endpoint<T>> endpoints;
+    private final int maxEjected;
+
+    // Guarded by this
+    private int nextEndpoint;
+    private int numEjected;
+
+    /**
+     * @param endpointWriters A non-empty list of non-null writers, one per endpoint
+     * @param endpointPolicy A non-null {@link EndpointPolicy}
+     */
+    public EndpointPoolBatchWriter(List<? extends BatchWriter<T>> endpointWriters, EndpointPolicy endpointPolicy) {
+        if (endpointWriters == null || endpointWriters.isEmpty()) {
+            throw new IllegalArgumentException("Need a non-empty list of endpoint writers");
+        }
+        if (endpointPolicy == null) {
+            throw new IllegalArgumentException("Need a non-null EndpointPolicy");
+        }
+        List<Endpoint<T>> endpoints = new ArrayList<>(endpointWriters.size());
+        for (BatchWriter<T> endpointWriter : endpointWriters) {
+            if (endpointWriter == null) {
+                throw new IllegalArgumentException("Need non-null endpoint writers");
+            }
+            endpoints.add(new Endpoint<>(endpointWriter));
+        }
+        this.endpoints = Collections.unmodifiableList(endpoints);
+        this.endpointPolicy = endpointPolicy;
+        this.maxEjected = Math.min((int) (endpoints.size() * endpointPolicy.getMaxEjectedRatio()), endpoints.size() - 1);
+    }
+
+    @Override
+    public void write(Collection<T> batchRequests) {
+        if (batchRequests.isEmpty()) {
+            return;
+        }
+        boolean[] tried = new boolean[endpoints.size()];
+        RuntimeException failure = null;
+        for (int attempt = 0; attempt < endpointPolicy.getMaxAttempts(); attempt++) {
+            int index = startWrite(tried, batchRequests.size());
+            if (index < 0) {
+                break;
+            }
+            tried[index] = true;
+            long startNanos = System.nanoTime();
+            try {
+                endpoints.get(index).writer.write(batchRequests);
+                finishWrite(index, batchRequests.size(), System.nanoTime() - startNanos, true);
+                return;
+            } catch (RuntimeException e) {
+                finishWrite(index, batchRequests.size(), System.nanoTime() - startNanos, false);
+                log.warn("Write of {} requests to endpoint {} failed", batchRequests.size(), index, e);
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * @return The number of endpoints in the pool.
+     */
+    public int getNumEndpoints() {
+        return endpoints.size();
+    }
+
+    /**
+     * @return True if the endpoint is ejected and isn't getting any batches.
+     */
+    public synchronized boolean isEjected(int endpoint) {
+        return isEjected(endpoints.get(endpoint), System.nanoTime());
+    }
+
+    /**
+     * @return The number of times the endpoint has been ejected.
+     */
+    public synchronized int getNumEjections(int endpoint) {
+        return endpoints.get(endpoint).numEjections;
+    }
+
+    /**
+     * @return The number of requests the endpoint is writing.
+     */
+    public synchronized int getNumOutstandingRequests(int endpoint) {
+        return endpoints.get(endpoint).numOutstandingRequests;
+    }
+
+    /**
+     * @return The endpoint's moving average write time, in milliseconds, or 0 if it hasn't written a batch since it
+     *         was last ejected.
+     */
+    public synchronized double getLatencyEwmaMs(int endpoint) {
+        return endpoints.get(endpoint).latencyEwmaNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Pick an endpoint that hasn't been tried yet and count the batch as outstanding on it.
+     * @return The endpoint's index, or -1 if every endpoint that isn't ejected has been tried
+     */
+    private synchronized int startWrite(boolean[] tried, int batchSize) {
+        long nowNanos = System.nanoTime();
+        int numEndpoints = endpoints.size();
+        int start = nextEndpoint;
+        nextEndpoint = (nextEndpoint + 1) % numEndpoints;
+        int best = -1;
+        double bestScore = Double.MAX_VALUE;
+        // Only computed if an endpoint has no write time of its own
+        double unsampledLatencyNanos = -1;
+        for (int i = 0; i < numEndpoints; i++) {
+            int index = (start + i) % numEndpoints;
+            Endpoint<T> endpoint = endpoints.get(index);
+            if (tried[index] || isEjected(endpoint, nowNanos)) {
+                continue;
+            }
+            if (unsampledLatencyNanos < 0 && endpoint.numSamples == 0
+                    && endpointPolicy.getSelection() == EndpointSelection.EWMA_LATENCY) {
+                unsampledLatencyNanos = getUnsampledLatencyNanos();
+            }
+            double score = score(endpoint, unsampledLatencyNanos);
+            if (score < bestScore) {
+                best = index;
+                bestScore = score;
+            }
+        }
+        if (best >= 0) {
+            Endpoint<T> endpoint = endpoints.get(best);
+            endpoint.numOutstandingBatches++;
+            endpoint.numOutstandingRequests += batchSize;
+        }
+        return best;
+    }
+
+    /**
+     * Must be called while holding this.
+     * @param unsampledLatencyNanos The write time to assume for an endpoint that hasn't written a batch yet, see
+     *                              {@link #getUnsampledLatencyNanos()}
+     * @return Lower is better.  Ties go to the endpoint whose turn it is.
+     */
+    private double score(Endpoint<T> endpoint, double unsampledLatencyNanos) {
+        switch (endpointPolicy.getSelection()) {
+            case LEAST_OUTSTANDING:
+                return endpoint.numOutstandingRequests;
+            case EWMA_LATENCY:
+                double latencyNanos = endpoint.numSamples == 0 ? unsampledLatencyNanos : endpoint.latencyEwmaNanos;
+                return latencyNanos * (endpoint.numOutstandingBatches + 1);
+            default:
+                return 0;
+        }
+    }
+
+    private synchronized void finishWrite(int index, int batchSize, long latencyNanos, boolean succeeded) {
+        Endpoint<T> endpoint = endpoints.get(index);
+        endpoint.numOutstandingBatches--;
+        endpoint.numOutstandingRequests -= batchSize;
+        if (isEjected(endpoint, System.nanoTime())) {
+            // Written before the endpoint was ejected, so it says nothing new about it
+            return;
+        }
+        if (!succeeded) {
+            endpoint.numConsecutiveFailures++;
+            if (endpoint.numConsecutiveFailures >= endpointPolicy.getConsecutiveFailuresToEject()) {
+                eject(index, endpoint.numConsecutiveFailures + " consecutive failed writes");
+            }
+            return;
+        }
+        endpoint.numConsecutiveFailures = 0;
+        endpoint.numSamples++;
+        endpoint.latencyEwmaNanos = endpoint.numSamples == 1 ? latencyNanos
+                : endpoint.latencyEwmaNanos + endpointPolicy.getLatencyEwmaWeight() * (latencyNanos - endpoint.latencyEwmaNanos);
+        if (endpoint.numSamples >= endpointPolicy.getMinSamples()) {
+            double medianNanos = getMedianLatencyEwmaNanos(endpoint, endpointPolicy.getMinSamples());
+            if (medianNanos > 0 && endpoint.latencyEwmaNanos > endpointPolicy.getSlowLatencyFactor() * medianNanos) {
+                eject(index, String.format("a %.1fms average write time against a %.1fms median",
+                        endpoint.latencyEwmaNanos / 1e6, medianNanos / 1e6));
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding this.
+     * @return The write time to score an endpoint that hasn't written a batch yet with: the median average write time
+     *         of the endpoints that have, or 1ns if none have, so that its score still grows with its outstanding
+     *         batches.
+     */
+    private double getUnsampledLatencyNanos() {
+        return Math.max(getMedianLatencyEwmaNanos(null, 1), 1);
+    }
+
+    /**
+     * Must be called while holding this.
+     * @param excluded An endpoint to leave out, or null
+     * @param minSamples How many writes an endpoint needs to be counted
+     * @return The median average write time of the other endpoints that aren't ejected and have enough samples, or 0
+     *         if there are none.
+     */
+    private double getMedianLatencyEwmaNanos(Endpoint<T> excluded, long minSamples) {
+        long nowNanos = System.nanoTime();
+        double[] latencies = new double[endpoints.size()];
+        int count = 0;
+        for (Endpoint<T> other : endpoints) {
+            if (other != excluded && other.numSamples >= minSamples && !isEjected(other, nowNanos)) {
+                latencies[count++] = other.latencyEwmaNanos;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        Arrays.sort(latencies, 0, count);
+        return count % 2 == 1 ? latencies[count / 2] : (latencies[count / 2 - 1] + latencies[count / 2]) / 2;
+    }
+
+    /**
+     * Must be called while holding this.
+     */
+    private void eject(int index, String reason) {
+        if (numEjected >= maxEjected) {
+            log.warn("Endpoint {} has {}, but {} endpoints are already ejected", index, reason, numEjected);
+            return;
+        }
+        Endpoint<T> endpoint = endpoints.get(index);
+        endpoint.numEjections++;
+        long ejectionTimeMs = Math.min(endpointPolicy.getBaseEjectionTimeMs() * endpoint.numEjections,
+                endpointPolicy.getMaxEjectionTimeMs());
+        endpoint.ejectedUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ejectionTimeMs);
+        endpoint.ejected = true;
+        numEjected++;
+        log.warn("Ejecting endpoint {} for {}ms after {}", index, ejectionTimeMs, reason);
+    }
+
+    /**
+     * Must be called while holding this.  Returns an endpoint whose ejection time is up to the pool, with a clean slate.
+     */
+    private boolean isEjected(Endpoint<T> endpoint, long nowNanos) {
+        if (endpoint.ejected && nowNanos - endpoint.ejectedUntilNanos >= 0) {
+            endpoint.ejected = false;
+            endpoint.numConsecutiveFailures = 0;
+            endpoint.numSamples = 0;
+            endpoint.latencyEwmaNanos = 0;
+            numEjected--;
+        }
+        return endpoint.ejected;
+    }
+
+    /**
+     * The state of one endpoint.  Guarded by the pool.
+     */
+    private static class Endpoint<T> {
+        private final BatchWriter<T> writer;
+        private int numOutstandingBatches;
+        private int numOutstandingRequests;
+        private int numConsecutiveFailures;
+        private long numSamples;
+        private double latencyEwmaNanos;
+        private boolean ejected;
+        private long ejectedUntilNanos;
+        private int numEjections;
+
+        private Endpoint(BatchWriter<T> writer) {
+            this.writer = writer;
+        }
+    }
+}
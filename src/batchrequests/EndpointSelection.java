@@ -0,0 +1,21 @@
+package batchrequests;
+
+/**
+ * How an {@link EndpointPoolBatchWriter} picks the endpoint to send each batch to.  Ejected endpoints are never picked.
+ */
+public enum EndpointSelection {
+
+    /** Endpoints take turns. */
+    ROUND_ROBIN,
+
+    /** The endpoint with the fewest requests being written, with ties broken by taking turns. */
+    LEAST_OUTSTANDING,
+
+    /**
+     * The endpoint with the lowest recent write time (an exponentially weighted moving average), scaled by one more
+     * than the number of batches it is writing so that a fast endpoint isn't overloaded.  An endpoint that hasn't
+     * written a batch yet, e.g. because it was just returned to the pool after an ejection, is assumed to take the
+     * median write time of the others, so that it gets its share of batches without every poller piling onto it.
+     */
+    EWMA_LATENCY
+}
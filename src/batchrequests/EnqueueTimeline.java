@@ -0,0 +1,175 @@
+package batchrequests;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records when requests were added to a queue so that a poller can flush a partial batch exactly when its oldest
+ * request has been buffered for long enough, or when a request with a tighter deadline is due.
+ *
+ * To keep this cheap, requests are not timestamped individually.  Requests added within
+ * {@link #SEGMENT_SPAN_NANOS} of each other share a segment, which keeps the enqueue time of its first request and the
+ * earliest explicit deadline of any of its requests.  The reported age of the oldest request may therefore be up to
+ * one segment span too old, which only ever makes a flush slightly early.
+ *
+ * Segments are kept in a ring of primitive arrays.  Requests usually leave in FIFO order, but those held back by a
+ * {@link KeyOrdering} can be left behind, see {@link #recordDequeue(int, int)}.  This class is not thread-safe; it is
+ * guarded by the lock of the {@link QueueAndLock} that owns it.
+ */
+class EnqueueTimeline {
+
+    /** The deadline of a request that has no deadline of its own */
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    /** Value: 1ms */
+    static final long SEGMENT_SPAN_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] segmentStartNanos = new long[INITIAL_CAPACITY];
+    private long[] segmentDeadlineNanos = new long[INITIAL_CAPACITY];
+    private int[] segmentCounts = new int[INITIAL_CAPACITY];
+    private int head;
+    private int numSegments;
+    private int numSegmentsWithDeadline;
+
+    /**
+     * @param nowNanos The {@link System#nanoTime()} at which the request was added
+     * @param deadlineNanos The time by which the request should be flushed, or {@link #NO_DEADLINE}
+     */
+    void recordEnqueue(long nowNanos, long deadlineNanos) {
+        if (numSegments > 0) {
+            int tail = index(numSegments - 1);
+            if (nowNanos - segmentStartNanos[tail] < SEGMENT_SPAN_NANOS) {
+                segmentCounts[tail]++;
+                if (deadlineNanos < segmentDeadlineNanos[tail]) {
+                    if (segmentDeadlineNanos[tail] == NO_DEADLINE) {
+                        numSegmentsWithDeadline++;
+                    }
+                    segmentDeadlineNanos[tail] = deadlineNanos;
+                }
+                return;
+            }
+        }
+        if (numSegments == segmentCounts.length) {
+            grow();
+        }
+        int tail = index(numSegments);
+        segmentStartNanos[tail] = nowNanos;
+        segmentDeadlineNanos[tail] = deadlineNanos;
+        segmentCounts[tail] = 1;
+        numSegments++;
+        if (deadlineNanos != NO_DEADLINE) {
+            numSegmentsWithDeadline++;
+        }
+    }
+
+    /**
+     * @param count The number of requests that were removed from the head of the queue
+     */
+    void recordDequeue(int count) {
+        while (count > 0 && numSegments > 0) {
+            int taken = Math.min(count, segmentCounts[head]);
+            segmentCounts[head] -= taken;
+            count -= taken;
+            if (segmentCounts[head] == 0) {
+                if (segmentDeadlineNanos[head] != NO_DEADLINE) {
+                    numSegmentsWithDeadline--;
+                }
+                head = index(1);
+                numSegments--;
+            }
+        }
+    }
+
+    /**
+     * Like {@link #recordDequeue(int)}, for requests that were removed from behind requests that stay in the queue, so
+     * that those keep their enqueue time.  A segment keeps its enqueue time and deadline until all of its requests are
+     * gone, which again only ever makes a flush early.
+     * @param offset The number of requests ahead of the removed ones that stay in the queue
+     * @param count The number of requests that were removed
+     */
+    void recordDequeue(int offset, int count) {
+        if (offset == 0) {
+            recordDequeue(count);
+            return;
+        }
+        int segment = 0;
+        while (segment < numSegments && offset >= segmentCounts[index(segment)]) {
+            offset -= segmentCounts[index(segment)];
+            segment++;
+        }
+        // Take the requests out of the segments from there on, and close the gaps left by emptied segments
+        int kept = segment;
+        for (; segment < numSegments; segment++) {
+            int i = index(segment);
+            if (count == 0 && kept == segment) {
+                return;
+            }
+            int taken = Math.min(count, segmentCounts[i] - offset);
+            segmentCounts[i] -= taken;
+            count -= taken;
+            offset = 0;
+            if (segmentCounts[i] == 0) {
+                if (segmentDeadlineNanos[i] != NO_DEADLINE) {
+                    numSegmentsWithDeadline--;
+                }
+                continue;
+            }
+            int keptIndex = index(kept);
+            segmentStartNanos[keptIndex] = segmentStartNanos[i];
+            segmentDeadlineNanos[keptIndex] = segmentDeadlineNanos[i];
+            segmentCounts[keptIndex] = segmentCounts[i];
+            kept++;
+        }
+        numSegments = kept;
+    }
+
+    /**
+     * @return True if no recorded requests are left in the queue.  Requests that were added to the queue directly
+     *         (without going through a {@link BatchSubmitter}) are not recorded.
+     */
+    boolean isEmpty() {
+        return numSegments == 0;
+    }
+
+    /**
+     * @return The enqueue time of the oldest recorded request.  Must not be called when {@link #isEmpty()}.
+     */
+    long getOldestEnqueueNanos() {
+        return segmentStartNanos[head];
+    }
+
+    /**
+     * @return The earliest explicit deadline of any recorded request, or {@link #NO_DEADLINE} if there is none.
+     */
+    long getEarliestDeadlineNanos() {
+        if (numSegmentsWithDeadline == 0) {
+            return NO_DEADLINE;
+        }
+        long earliest = NO_DEADLINE;
+        for (int i = 0; i < numSegments; i++) {
+            earliest = Math.min(earliest, segmentDeadlineNanos[index(i)]);
+        }
+        return earliest;
+    }
+
+    private int index(int offsetFromHead) {
+        return (head + offsetFromHead) % segmentCounts.length;
+    }
+
+    private void grow() {
+        int newCapacity = segmentCounts.length * 2;
+        long[] newStarts = new long[newCapacity];
+        long[] newDeadlines = new long[newCapacity];
+        int[] newCounts = new int[newCapacity];
+        for (int i = 0; i < numSegments; i++) {
+            newStarts[i] = segmentStartNanos[index(i)];
+            newDeadlines[i] = segmentDeadlineNanos[index(i)];
+            newCounts[i] = segmentCounts[index(i)];
+        }
+        segmentStartNanos = newStarts;
+        segmentDeadlineNanos = newDeadlines;
+        segmentCounts = newCounts;
+        head = 0;
+    }
+}
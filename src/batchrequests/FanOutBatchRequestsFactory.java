@@ -0,0 +1,125 @@
+package batchrequests;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches the same requests for several writers, e.g. a primary store and an analytics sink, while buffering each
+ * request only once.  Each {@link FanOutSink} reads the shared buffer at its own pace, with its own batch size, buffer
+ * time and number of in-flight batches, and a request is released once every sink has written it.  A sink that falls
+ * too far behind either holds up submitting or skips requests, depending on its {@link FanOutSink.LagPolicy}, so that
+ * it doesn't hold up the other sinks indefinitely.  This class is thread-safe.
+ * @param <T> Type of request
+ */
+@Slf4j
+public class FanOutBatchRequestsFactory<T> {
+
+    @Getter private final List<FanOutSink<T>> sinks;
+    private final FanOutLog<T> fanOutLog = new FanOutLog<>();
+    private final List<FanOutLog<T>.Cursor> cursors = new ArrayList<>();
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+
+    /**
+     * @param sinks A non-null, non-empty list of sinks
+     */
+    public FanOutBatchRequestsFactory(List<FanOutSink<T>> sinks) {
+        if (sinks == null || sinks.isEmpty()) {
+            throw new IllegalArgumentException("Need a non-null, non-empty list of sinks");
+        }
+        this.sinks = Collections.unmodifiableList(new ArrayList<>(sinks));
+        for (FanOutSink<T> sink : this.sinks) {
+            FanOutLog<T>.Cursor cursor = fanOutLog.addCursor(sink);
+            cursors.add(cursor);
+            for (int i = 0; i < sink.getMaxInFlightBatches(); i++) {
+                executorService.submit(() -> pollSink(sink, cursor));
+            }
+        }
+        log.info("Initialized fan-out to {} sinks", sinks.size());
+    }
+
+    /**
+     * @param requestItem A request to be written to every sink.  Waits while a sink with
+     *                    {@link FanOutSink.LagPolicy#BLOCK} is too far behind.
+     * @throws IllegalStateException If interrupted while waiting, or after {@link #shutdown(long)}
+     */
+    public void put(T requestItem) {
+        try {
+            fanOutLog.append(requestItem);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a sink to catch up", e);
+        }
+    }
+
+    /**
+     * @param sinkIndex The index of the sink in {@link #getSinks()}
+     * @return The number of submitted requests the sink hasn't read yet.
+     */
+    public long getLag(int sinkIndex) {
+        return fanOutLog.getUnread(cursors.get(sinkIndex));
+    }
+
+    /**
+     * @param sinkIndex The index of the sink in {@link #getSinks()}
+     * @return The number of requests the sink skipped because it was too far behind.
+     */
+    public long getNumSkipped(int sinkIndex) {
+        return fanOutLog.getNumSkipped(cursors.get(sinkIndex));
+    }
+
+    /**
+     * @return The number of requests that haven't been written to every sink yet, apart from those that a
+     *         {@link FanOutSink.LagPolicy#SKIP} sink is still writing but is more than its max lag behind on.
+     */
+    public long getNumBuffered() {
+        return fanOutLog.getNumBuffered();
+    }
+
+    /**
+     * Stop accepting requests, and write everything that is left to every sink.
+     * @param graceTimeMs The time to wait for the sinks to finish.  Sinks that take longer are interrupted.
+     * @return True if every sink finished within the grace time
+     * @throws InterruptedException If interrupted while waiting for the sinks to finish
+     */
+    public boolean shutdown(long graceTimeMs) throws InterruptedException {
+        fanOutLog.close();
+        executorService.shutdown();
+        if (executorService.awaitTermination(graceTimeMs, TimeUnit.MILLISECONDS)) {
+            return true;
+        }
+        log.warn("Sinks did not finish within {}ms, interrupting them", graceTimeMs);
+        executorService.shutdownNow();
+        return false;
+    }
+
+    private void pollSink(FanOutSink<T> sink, FanOutLog<T>.Cursor cursor) {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<T> batch = new LinkedList<>();
+            long batchStart;
+            try {
+                batchStart = fanOutLog.awaitBatch(cursor, batch);
+            } catch (InterruptedException e) {
+                log.warn("Waiting for a batch was interrupted, stopping sink poller", e);
+                return;
+            }
+            if (batchStart < 0) {
+                return;
+            }
+            try {
+                sink.getBatchWriter().write(batch);
+            } catch (Exception e) {
+                log.warn("Unexpected exception in sink poller.  Make sure your batch writer handles all RuntimeExceptions", e);
+            } finally {
+                fanOutLog.complete(cursor, batchStart);
+            }
+        }
+    }
+}
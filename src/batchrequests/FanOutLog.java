@@ -0,0 +1,277 @@
+package batchrequests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The buffer shared by the sinks of a {@link FanOutBatchRequestsFactory}.  Every request is appended once, and each
+ * sink reads it through a {@link Cursor} of its own.  A request is released once every sink has written it (or
+ * skipped it), i.e. once it is behind the oldest unfinished batch of every sink.
+ *
+ * Requests are kept in a ring that grows as needed, and are addressed by a sequence number that only increases.  So
+ * that a sink whose writes hang can't make the ring grow without bound, a {@link FanOutSink.LagPolicy#BLOCK} sink's
+ * lag counts the requests it is still writing as well as those it hasn't read, and a
+ * {@link FanOutSink.LagPolicy#SKIP} sink only keeps its max lag of requests in the ring: batches it is writing hold
+ * their own copy of their requests, so older ones are released even if they haven't been written yet.
+ */
+class FanOutLog<T> {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Signalled when a sink reads or writes requests, for submitters waiting on a {@link FanOutSink.LagPolicy#BLOCK}
+     * sink
+     */
+    private final Condition lagReduced = lock.newCondition();
+    private final List<Cursor> cursors = new ArrayList<>();
+
+    // Guarded by lock
+    private Object[] items = new Object[INITIAL_CAPACITY];
+    private long[] enqueueNanos = new long[INITIAL_CAPACITY];
+    /** The sequence number of the next request to be appended */
+    private long headSequence;
+    /** The sequence number of the oldest request that hasn't been released */
+    private long tailSequence;
+    private boolean closed;
+
+    /**
+     * One sink's position in the log.  Guarded by the log's lock.
+     */
+    class Cursor {
+        private final FanOutSink<T> sink;
+        private final Condition dataAvailable = lock.newCondition();
+        /** The sequence number of the next request the sink will read */
+        private long readSequence;
+        /** The first sequence number of each batch the sink is writing */
+        private final TreeSet<Long> inFlightBatchStarts = new TreeSet<>();
+        private long numSkipped;
+
+        private Cursor(FanOutSink<T> sink) {
+            this.sink = sink;
+        }
+
+        private long getUnread() {
+            return headSequence - readSequence;
+        }
+
+        /**
+         * @return The sequence number of the oldest request the sink hasn't finished writing.
+         */
+        private long getUnwrittenSequence() {
+            return inFlightBatchStarts.isEmpty() ? readSequence : inFlightBatchStarts.first();
+        }
+
+        private long getReleasableSequence() {
+            if (sink.getLagPolicy() == FanOutSink.LagPolicy.SKIP) {
+                return Math.max(getUnwrittenSequence(), headSequence - sink.getMaxLag());
+            }
+            return getUnwrittenSequence();
+        }
+    }
+
+    Cursor addCursor(FanOutSink<T> sink) {
+        lock.lock();
+        try {
+            Cursor cursor = new Cursor(sink);
+            cursor.readSequence = headSequence;
+            cursors.add(cursor);
+            return cursor;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append a request for every sink to read.  Waits while a {@link FanOutSink.LagPolicy#BLOCK} sink is too far
+     * behind, and makes {@link FanOutSink.LagPolicy#SKIP} sinks that are too far behind skip their oldest requests.
+     * @throws InterruptedException If interrupted while waiting for a sink to catch up
+     * @throws IllegalStateException If the log was closed
+     */
+    void append(T item) throws InterruptedException {
+        lock.lock();
+        try {
+            while (!closed && isBlockingSinkTooFarBehind()) {
+                lagReduced.await();
+            }
+            if (closed) {
+                throw new IllegalStateException("Can't submit requests after shutting down");
+            }
+            for (Cursor cursor : cursors) {
+                long excess = cursor.getUnread() - cursor.sink.getMaxLag() + 1;
+                if (excess > 0) {
+                    cursor.readSequence += excess;
+                    cursor.numSkipped += excess;
+                }
+            }
+            releaseWrittenRequests();
+            if (headSequence - tailSequence == items.length) {
+                grow();
+            }
+            int index = indexOf(headSequence);
+            items[index] = item;
+            enqueueNanos[index] = System.nanoTime();
+            headSequence++;
+            for (Cursor cursor : cursors) {
+                long unread = cursor.getUnread();
+                // The first request starts the sink's buffer time, and a full batch should go out right away
+                if (unread == 1 || unread == cursor.sink.getBatchSize()) {
+                    cursor.dataAvailable.signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until the cursor has a full batch to read, or its oldest unread request has waited for the sink's max
+     * buffer time, then read a batch.  Once the log is closed, whatever is left is read without waiting.
+     * @param batch The list to add the batch's requests to
+     * @return The first sequence number of the batch, to pass to {@link #complete(Cursor, long)}, or -1 if the log is
+     *         closed and the cursor has read everything.
+     * @throws InterruptedException If interrupted while waiting
+     */
+    @SuppressWarnings("unchecked")
+    long awaitBatch(Cursor cursor, List<T> batch) throws InterruptedException {
+        long maxBufferTimeNanos = TimeUnit.MILLISECONDS.toNanos(cursor.sink.getMaxBufferTimeMs());
+        lock.lock();
+        try {
+            while (true) {
+                long unread = cursor.getUnread();
+                if (unread == 0) {
+                    if (closed) {
+                        return -1;
+                    }
+                    cursor.dataAvailable.await();
+                    continue;
+                }
+                long remainingNanos = enqueueNanos[indexOf(cursor.readSequence)] + maxBufferTimeNanos - System.nanoTime();
+                if (unread >= cursor.sink.getBatchSize() || remainingNanos <= 0 || closed) {
+                    break;
+                }
+                cursor.dataAvailable.awaitNanos(remainingNanos);
+            }
+            long start = cursor.readSequence;
+            int batchSize = (int) Math.min(cursor.getUnread(), cursor.sink.getBatchSize());
+            for (int i = 0; i < batchSize; i++) {
+                batch.add((T) items[indexOf(start + i)]);
+            }
+            cursor.readSequence += batchSize;
+            cursor.inFlightBatchStarts.add(start);
+            lagReduced.signalAll();
+            return start;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Mark a batch returned by {@link #awaitBatch(Cursor, List)} as written.
+     */
+    void complete(Cursor cursor, long batchStart) {
+        lock.lock();
+        try {
+            cursor.inFlightBatchStarts.remove(batchStart);
+            releaseWrittenRequests();
+            lagReduced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting requests, and let the cursors read whatever is left without waiting for full batches.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            lagReduced.signalAll();
+            for (Cursor cursor : cursors) {
+                cursor.dataAvailable.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getUnread(Cursor cursor) {
+        lock.lock();
+        try {
+            return cursor.getUnread();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getNumSkipped(Cursor cursor) {
+        lock.lock();
+        try {
+            return cursor.numSkipped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of requests that haven't been released yet.
+     */
+    long getNumBuffered() {
+        lock.lock();
+        try {
+            return headSequence - tailSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must be called while holding the lock.
+     */
+    private boolean isBlockingSinkTooFarBehind() {
+        for (Cursor cursor : cursors) {
+            // Requests that are being written count too, since they can't be released until they have been written
+            if (cursor.sink.getLagPolicy() == FanOutSink.LagPolicy.BLOCK
+                    && headSequence - cursor.getUnwrittenSequence() >= cursor.sink.getMaxLag()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Must be called while holding the lock.
+     */
+    private void releaseWrittenRequests() {
+        long releasable = headSequence;
+        for (Cursor cursor : cursors) {
+            releasable = Math.min(releasable, cursor.getReleasableSequence());
+        }
+        for (; tailSequence < releasable; tailSequence++) {
+            items[indexOf(tailSequence)] = null;
+        }
+    }
+
+    /**
+     * Must be called while holding the lock.
+     */
+    private void grow() {
+        Object[] newItems = new Object[items.length * 2];
+        long[] newEnqueueNanos = new long[items.length * 2];
+        for (long sequence = tailSequence; sequence < headSequence; sequence++) {
+            newItems[(int) (sequence & (newItems.length - 1))] = items[indexOf(sequence)];
+            newEnqueueNanos[(int) (sequence & (newItems.length - 1))] = enqueueNanos[indexOf(sequence)];
+        }
+        items = newItems;
+        enqueueNanos = newEnqueueNanos;
+    }
+
+    private int indexOf(long sequence) {
+        return (int) (sequence & (items.length - 1));
+    }
+}
@@ -0,0 +1,145 @@
+package batchrequests;
+
+import lombok.Getter;
+
+/**
+ * One of the writers of a {@link FanOutBatchRequestsFactory}, with batch settings of its own.
+ *
+ * Create a sink using {@link FanOutSinkBuilder}.
+ * @param <T> Type of request
+ */
+@Getter
+public class FanOutSink<T> {
+
+    /**
+     * What happens when a sink falls {@link #getMaxLag()} requests behind.
+     */
+    public enum LagPolicy {
+        /**
+         * Submitting waits until the sink catches up, so the sink never misses a request.  Requests that the sink is
+         * still writing count towards its lag.
+         */
+        BLOCK,
+        /**
+         * The sink skips its oldest unread requests, so submitting and the other sinks are never held up.  Requests
+         * that the sink is already writing are never skipped.
+         */
+        SKIP
+    }
+
+    /** Value: {@value #DEFAULT_MAX_IN_FLIGHT_BATCHES} */
+    public static final int DEFAULT_MAX_IN_FLIGHT_BATCHES = 1;
+
+    /** Value: {@value #DEFAULT_MAX_LAG} */
+    public static final int DEFAULT_MAX_LAG = 100_000;
+
+    private final BatchWriter<T> batchWriter;
+    private final int batchSize;
+    private final long maxBufferTimeMs;
+    private final int maxInFlightBatches;
+    private final int maxLag;
+    private final LagPolicy lagPolicy;
+
+    private FanOutSink(BatchWriter<T> batchWriter,
+                       int batchSize,
+                       long maxBufferTimeMs,
+                       int maxInFlightBatches,
+                       int maxLag,
+                       LagPolicy lagPolicy) {
+        if (batchWriter == null) {
+            throw new IllegalArgumentException("Need a non-null BatchWriter");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Need a positive batch size.  Got: " + batchSize);
+        }
+        if (maxBufferTimeMs < 1) {
+            throw new IllegalArgumentException("Need a positive max buffer time.  Got: " + maxBufferTimeMs);
+        }
+        if (maxInFlightBatches < 1) {
+            throw new IllegalArgumentException("Need a positive number of in-flight batches.  Got: " + maxInFlightBatches);
+        }
+        if (maxLag < batchSize) {
+            throw new IllegalArgumentException("Need a max lag of at least the batch size (" + batchSize + ").  Got: "
+                    + maxLag);
+        }
+        if (lagPolicy == null) {
+            throw new IllegalArgumentException("Need a non-null LagPolicy");
+        }
+        this.batchWriter = batchWriter;
+        this.batchSize = batchSize;
+        this.maxBufferTimeMs = maxBufferTimeMs;
+        this.maxInFlightBatches = maxInFlightBatches;
+        this.maxLag = maxLag;
+        this.lagPolicy = lagPolicy;
+    }
+
+    /**
+     * A builder with the required parameters as constructor arguments and the optional parameter as builder setters.
+     * @param <T> Type of request
+     */
+    public static class FanOutSinkBuilder<T> {
+        private final BatchWriter<T> builderBatchWriter;
+        private int builderBatchSize = BatchRequestsFactory.DEFAULT_MAX_BATCH_SIZE;
+        private long builderMaxBufferTimeMs = BatchRequestsFactory.DEFAULT_MAX_BUFFER_TIME_MS;
+        private int builderMaxInFlightBatches = DEFAULT_MAX_IN_FLIGHT_BATCHES;
+        private int builderMaxLag = DEFAULT_MAX_LAG;
+        private LagPolicy builderLagPolicy = LagPolicy.BLOCK;
+
+        public FanOutSinkBuilder(BatchWriter<T> batchWriter) {
+            this.builderBatchWriter = batchWriter;
+        }
+
+        /**
+         * @param batchSize The maximum number of requests per batch for this sink.
+         *                  Defaults to {@link BatchRequestsFactory#DEFAULT_MAX_BATCH_SIZE}.
+         * @return {@link FanOutSinkBuilder}
+         */
+        public FanOutSinkBuilder<T> withBatchSize(int batchSize) {
+            this.builderBatchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param maxBufferTimeMs The maximum time to wait for a batch of this sink to fill.
+         *                        Defaults to {@link BatchRequestsFactory#DEFAULT_MAX_BUFFER_TIME_MS}.
+         * @return {@link FanOutSinkBuilder}
+         */
+        public FanOutSinkBuilder<T> withMaxBufferTimeMs(long maxBufferTimeMs) {
+            this.builderMaxBufferTimeMs = maxBufferTimeMs;
+            return this;
+        }
+
+        /**
+         * @param maxInFlightBatches The number of batches this sink may be writing at the same time, each on its own
+         *                           thread.  With more than one, batches are read in order but can finish writing in
+         *                           any order, so the sink may write a request before an earlier one.
+         *                           Defaults to {@link #DEFAULT_MAX_IN_FLIGHT_BATCHES}.
+         * @return {@link FanOutSinkBuilder}
+         */
+        public FanOutSinkBuilder<T> withMaxInFlightBatches(int maxInFlightBatches) {
+            this.builderMaxInFlightBatches = maxInFlightBatches;
+            return this;
+        }
+
+        /**
+         * @param maxLag How many submitted requests the sink may have left to read (or, with {@link LagPolicy#BLOCK},
+         *               left to read or still be writing) before the lag policy applies.
+         *               Defaults to {@link #DEFAULT_MAX_LAG}.
+         * @param lagPolicy What to do once the sink falls that far behind.  Defaults to {@link LagPolicy#BLOCK}.
+         * @return {@link FanOutSinkBuilder}
+         */
+        public FanOutSinkBuilder<T> withMaxLag(int maxLag, LagPolicy lagPolicy) {
+            this.builderMaxLag = maxLag;
+            this.builderLagPolicy = lagPolicy;
+            return this;
+        }
+
+        /**
+         * @return {@link FanOutSink} with the provided options.
+         */
+        public FanOutSink<T> build() {
+            return new FanOutSink<>(builderBatchWriter, builderBatchSize, builderMaxBufferTimeMs,
+                    builderMaxInFlightBatches, builderMaxLag, builderLagPolicy);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package batchrequests;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Decides when a poller sends a partial batch, given the state of its queue and the current time.  Kept apart from the
+ * locking and waiting in {@link PollingQueueTask} so that it can be tested with made-up times, and so that
+ * {@link BatchingSimulator} makes the same decisions as the real pollers.
+ */
+class FlushDecision {
+
+    /** Returned by {@link #getWaitNanos} when the batch should be sent right away. */
+    static final long FLUSH_NOW = 0;
+
+    private final int maxBatchSize;
+    private final long maxBufferTimeNanos;
+    private final boolean smartBatching;
+
+    FlushDecision(int maxBatchSize, long maxBufferTimeNanos, boolean smartBatching) {
+        this.maxBatchSize = maxBatchSize;
+        this.maxBufferTimeNanos = maxBufferTimeNanos;
+        this.smartBatching = smartBatching;
+    }
+
+    /**
+     * Only for a queue that isn't empty and doesn't hold a full batch.
+     * @param numWritesInFlight The number of batches from the queue being written, only tracked with smart batching
+     * @param flushDeadlineNanos When the oldest request (or the one with the earliest deadline) is due
+     * @param nowNanos The current time, on the same clock as the deadline
+     * @param hasSendableRequest Whether any queued request can be sent now.  Only called when needed.
+     * @return {@link #FLUSH_NOW}, or how long to wait before deciding again
+     */
+    long getWaitNanos(int numWritesInFlight, long flushDeadlineNanos, long nowNanos, BooleanSupplier hasSendableRequest) {
+        // With smart batching, batches only grow while an earlier batch is being written
+        if (isWriterIdle(numWritesInFlight) && hasSendableRequest.getAsBoolean()) {
+            return FLUSH_NOW;
+        }
+        long remainingNanos = flushDeadlineNanos - nowNanos;
+        if (remainingNanos > 0) {
+            return remainingNanos;
+        }
+        // Requests whose key groups are being written by another task can't be sent yet, so wait for that write to
+        // finish instead of polling the queue in a loop
+        return hasSendableRequest.getAsBoolean() ? FLUSH_NOW : maxBufferTimeNanos;
+    }
+
+    /**
+     * @return The queue size at which a waiting poller should decide again.  An idle writer should get the next
+     *         request right away.
+     */
+    int getBatchReadySize(int numWritesInFlight) {
+        return isWriterIdle(numWritesInFlight) ? 1 : maxBatchSize;
+    }
+
+    private boolean isWriterIdle(int numWritesInFlight) {
+        return smartBatching && numWritesInFlight == 0;
+    }
+}
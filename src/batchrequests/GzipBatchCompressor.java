@@ -0,0 +1,168 @@
+package batchrequests;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A {@link BatchCompressor} that produces gzip output with the JDK's {@link Deflater}.  Deflaters are pooled and reused
+ * by whichever polling thread is compressing, and each polling thread keeps its own output buffer, so steady-state
+ * compression doesn't allocate.  Deflaters hold native memory until they are ended, so {@link #close()} the compressor
+ * once nothing is being compressed anymore.  This class is thread-safe.
+ */
+public class GzipBatchCompressor implements BatchCompressor {
+
+    /** Value: {@value #ENCODING} */
+    public static final String ENCODING = "gzip";
+
+    private static final int SCRATCH_BUFFER_SIZE = 8 * 1024;
+    private static final int GZIP_HEADER_LENGTH = 10;
+    private static final int GZIP_TRAILER_LENGTH = 8;
+
+    private final int level;
+    /** Deflaters that aren't compressing a batch.  There are never more than the number of concurrent compressions. */
+    private final Queue<DeflaterState> idleDeflaters = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Output> outputs = ThreadLocal.withInitial(Output::new);
+    private volatile boolean closed;
+
+    public GzipBatchCompressor() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level A {@link Deflater} compression level, from {@link Deflater#BEST_SPEED} to
+     *              {@link Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public GzipBatchCompressor(int level) {
+        if ((level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Need a valid Deflater compression level.  Got: " + level);
+        }
+        this.level = level;
+    }
+
+    @Override
+    public String getEncoding() {
+        return ENCODING;
+    }
+
+    @Override
+    public ByteBuffer compress(ByteBuffer[] input) {
+        if (closed) {
+            throw new IllegalStateException("The compressor was closed");
+        }
+        DeflaterState state = idleDeflaters.poll();
+        if (state == null) {
+            state = new DeflaterState();
+        }
+        try {
+            return compress(input, state, outputs.get());
+        } finally {
+            idleDeflaters.add(state);
+            // Closed while this batch was being compressed, so end the deflater that close() couldn't see
+            if (closed) {
+                endIdleDeflaters();
+            }
+        }
+    }
+
+    /**
+     * End every pooled {@link Deflater}, releasing its native memory.  Must only be called once no batch is being
+     * compressed, e.g. after the factory has been shut down.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        endIdleDeflaters();
+    }
+
+    private void endIdleDeflaters() {
+        DeflaterState state;
+        while ((state = idleDeflaters.poll()) != null) {
+            state.deflater.end();
+        }
+    }
+
+    private static ByteBuffer compress(ByteBuffer[] input, DeflaterState state, Output output) {
+        Deflater deflater = state.deflater;
+        deflater.reset();
+        state.crc.reset();
+        output.length = 0;
+
+        output.ensureCapacity(GZIP_HEADER_LENGTH);
+        // Magic number, CM = deflate, no flags, no mtime, no extra flags, unknown OS
+        byte[] header = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+        System.arraycopy(header, 0, output.bytes, 0, GZIP_HEADER_LENGTH);
+        output.length = GZIP_HEADER_LENGTH;
+
+        long uncompressedLength = 0;
+        for (ByteBuffer buffer : input) {
+            while (buffer.hasRemaining()) {
+                // Deflater only accepts arrays before Java 11, so direct buffers go through the scratch array
+                int chunk = Math.min(buffer.remaining(), state.scratch.length);
+                buffer.get(state.scratch, 0, chunk);
+                state.crc.update(state.scratch, 0, chunk);
+                uncompressedLength += chunk;
+                deflater.setInput(state.scratch, 0, chunk);
+                while (!deflater.needsInput()) {
+                    output.deflateFrom(deflater);
+                }
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            output.deflateFrom(deflater);
+        }
+
+        output.ensureCapacity(GZIP_TRAILER_LENGTH);
+        output.writeIntLittleEndian((int) state.crc.getValue());
+        output.writeIntLittleEndian((int) uncompressedLength);
+        return ByteBuffer.wrap(output.bytes, 0, output.length).asReadOnlyBuffer();
+    }
+
+    /**
+     * A {@link Deflater} and its buffers, used by one polling thread at a time.
+     */
+    private class DeflaterState {
+        private final Deflater deflater = new Deflater(level, true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] scratch = new byte[SCRATCH_BUFFER_SIZE];
+    }
+
+    /**
+     * The output buffer owned by a single polling thread, which stays valid until the thread's next batch.
+     */
+    private static class Output {
+        private byte[] bytes = new byte[SCRATCH_BUFFER_SIZE];
+        private int length;
+
+        private void deflateFrom(Deflater deflater) {
+            ensureCapacity(1);
+            length += deflater.deflate(bytes, length, bytes.length - length);
+        }
+
+        private void writeIntLittleEndian(int value) {
+            for (int i = 0; i < 4; i++) {
+                bytes[length++] = (byte) (value >>> (8 * i));
+            }
+        }
+
+        /**
+         * Grows the array (by doubling) so that it has at least the given amount of free space.  The array is kept
+         * for the next batch, so it settles at the size of the largest compressed batch.
+         */
+        private void ensureCapacity(int freeBytes) {
+            if (bytes.length - length >= freeBytes) {
+                return;
+            }
+            int newLength = bytes.length;
+            while (newLength - length < freeBytes) {
+                newLength *= 2;
+            }
+            byte[] grown = new byte[newLength];
+            System.arraycopy(bytes, 0, grown, 0, length);
+            bytes = grown;
+        }
+    }
+}
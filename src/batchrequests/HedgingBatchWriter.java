@@ -0,0 +1,177 @@
+package batchrequests;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link BatchWriter} that cuts tail latency by sending a slow batch a second time through the same writer.  Once a
+ * write has taken longer than the {@link HedgingPolicy}'s percentile of recent write times, the batch is sent again,
+ * and whichever write returns first without throwing wins.  The other write is cancelled by interrupting it.
+ *
+ * Because a batch may be written twice, the wrapped writer must be idempotent.  It should also respond to interrupts,
+ * and throw instead of swallowing exceptions, so that a failed write doesn't win.  Don't wrap an
+ * {@link EncodedBatchWriter}: its records are released when either write returns, while the other may still be
+ * reading them.
+ *
+ * The writes run on a thread pool of the writer's own, so close the writer once the factory has been shut down.
+ * @param <T> Type of request
+ */
+@Slf4j
+public class HedgingBatchWriter<T> implements BatchWriter<T>, Closeable {
+
+    private final BatchWriter<T> delegate;
+    @Getter private final HedgingPolicy hedgingPolicy;
+    @Getter(AccessLevel.PACKAGE) private final LatencyTracker latencyTracker;
+    private final ExecutorService executorService;
+    private final AtomicLong numHedges = new AtomicLong();
+    private final AtomicLong numHedgeWins = new AtomicLong();
+    // Guarded by this
+    private double hedgeBudget;
+
+    /**
+     * @param delegate A non-null writer to send each batch through, up to twice
+     * @param hedgingPolicy A non-null {@link HedgingPolicy}
+     */
+    public HedgingBatchWriter(BatchWriter<T> delegate, HedgingPolicy hedgingPolicy) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Need a non-null BatchWriter");
+        }
+        if (hedgingPolicy == null) {
+            throw new IllegalArgumentException("Need a non-null HedgingPolicy");
+        }
+        this.delegate = delegate;
+        this.hedgingPolicy = hedgingPolicy;
+        this.latencyTracker = new LatencyTracker(hedgingPolicy.getLatencyPercentile(),
+                hedgingPolicy.getSampleWindowSize(), hedgingPolicy.getMinSamples());
+        this.executorService = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "batchrequests-hedged-write");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void write(Collection<T> batchRequests) {
+        if (executorService.isShutdown()) {
+            throw new IllegalStateException("Can't write batches after the writer was closed");
+        }
+        if (batchRequests.isEmpty()) {
+            delegate.write(batchRequests);
+            return;
+        }
+        Collection<T> batch = Collections.unmodifiableList(new ArrayList<>(batchRequests));
+        earnHedgeBudget();
+        CompletionService<Long> attempts = new ExecutorCompletionService<>(executorService);
+        long startNanos = System.nanoTime();
+        Future<Long> primary = attempts.submit(() -> timedWrite(batch));
+        Future<Long> hedge = null;
+        try {
+            long hedgeDelayNanos = latencyTracker.getPercentileNanos();
+            Future<Long> first = hedgeDelayNanos == LatencyTracker.NOT_ENOUGH_SAMPLES
+                    ? attempts.take() : attempts.poll(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+            if (first == null && spendHedgeBudget()) {
+                numHedges.incrementAndGet();
+                hedge = attempts.submit(() -> timedWrite(batch));
+            }
+            if (first == null) {
+                first = attempts.take();
+            }
+            Future<Long> winner = first;
+            long latencyNanos;
+            try {
+                latencyNanos = first.get();
+            } catch (ExecutionException e) {
+                if (hedge == null) {
+                    throw e;
+                }
+                log.warn("One of two writes of a hedged batch failed, waiting for the other", e.getCause());
+                winner = attempts.take();
+                latencyNanos = winner.get();
+            }
+            if (winner == hedge) {
+                numHedgeWins.incrementAndGet();
+                // Record how long the cancelled primary had taken rather than the hedge's shorter write, or the hedge
+                // delay would keep drifting down as hedges win
+                if (!primary.isDone()) {
+                    latencyNanos = System.nanoTime() - startNanos;
+                }
+            }
+            latencyTracker.record(latencyNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing a batch", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * @return The number of batches that were sent a second time.
+     */
+    public long getNumHedges() {
+        return numHedges.get();
+    }
+
+    /**
+     * @return The number of hedged batches whose second write returned first.
+     */
+    public long getNumHedgeWins() {
+        return numHedgeWins.get();
+    }
+
+    /**
+     * Stop the threads that run the writes.  Must only be called once no batch is being written, e.g. after the
+     * factory has been shut down.
+     */
+    @Override
+    public void close() {
+        executorService.shutdown();
+    }
+
+    private long timedWrite(Collection<T> batch) {
+        long startNanos = System.nanoTime();
+        delegate.write(batch);
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Every write earns a fraction of a hedge, so at most that fraction of writes are hedged over time.
+     */
+    private synchronized void earnHedgeBudget() {
+        hedgeBudget = Math.min(hedgeBudget + hedgingPolicy.getMaxHedgeRatio(), hedgingPolicy.getMaxHedgeBurst());
+    }
+
+    private synchronized boolean spendHedgeBudget() {
+        if (hedgeBudget < 1) {
+            return false;
+        }
+        hedgeBudget--;
+        return true;
+    }
+}
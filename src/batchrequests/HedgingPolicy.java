@@ -0,0 +1,131 @@
+package batchrequests;
+
+import lombok.Getter;
+
+/**
+ * When a {@link HedgingBatchWriter} sends a batch a second time.  A batch is hedged once its write has taken longer
+ * than a percentile of recent write times, as long as the hedge budget allows it.
+ *
+ * Create a policy using {@link HedgingPolicyBuilder}.
+ */
+@Getter
+public class HedgingPolicy {
+
+    /** Value: {@value #DEFAULT_LATENCY_PERCENTILE} */
+    public static final double DEFAULT_LATENCY_PERCENTILE = 95.0;
+
+    /** Value: {@value #DEFAULT_MAX_HEDGE_RATIO} */
+    public static final double DEFAULT_MAX_HEDGE_RATIO = 0.05;
+
+    /** Value: {@value #DEFAULT_MAX_HEDGE_BURST} */
+    public static final int DEFAULT_MAX_HEDGE_BURST = 10;
+
+    /** Value: {@value #DEFAULT_SAMPLE_WINDOW_SIZE} */
+    public static final int DEFAULT_SAMPLE_WINDOW_SIZE = 1000;
+
+    /** Value: {@value #DEFAULT_MIN_SAMPLES} */
+    public static final int DEFAULT_MIN_SAMPLES = 100;
+
+    private final double latencyPercentile;
+    private final double maxHedgeRatio;
+    private final int maxHedgeBurst;
+    private final int sampleWindowSize;
+    private final int minSamples;
+
+    private HedgingPolicy(double latencyPercentile,
+                          double maxHedgeRatio,
+                          int maxHedgeBurst,
+                          int sampleWindowSize,
+                          int minSamples) {
+        if (!(latencyPercentile > 0 && latencyPercentile < 100)) {
+            throw new IllegalArgumentException("Need a latency percentile between 0 and 100.  Got: " + latencyPercentile);
+        }
+        if (!(maxHedgeRatio > 0 && maxHedgeRatio <= 1)) {
+            throw new IllegalArgumentException("Need a max hedge ratio in (0, 1].  Got: " + maxHedgeRatio);
+        }
+        if (maxHedgeBurst < 1) {
+            throw new IllegalArgumentException("Need a positive max hedge burst.  Got: " + maxHedgeBurst);
+        }
+        if (sampleWindowSize < 1) {
+            throw new IllegalArgumentException("Need a positive sample window size.  Got: " + sampleWindowSize);
+        }
+        if (minSamples < 1 || minSamples > sampleWindowSize) {
+            throw new IllegalArgumentException("Need a positive number of min samples, up to the sample window size.  Got: "
+                    + minSamples);
+        }
+        this.latencyPercentile = latencyPercentile;
+        this.maxHedgeRatio = maxHedgeRatio;
+        this.maxHedgeBurst = maxHedgeBurst;
+        this.sampleWindowSize = sampleWindowSize;
+        this.minSamples = minSamples;
+    }
+
+    /**
+     * A builder with every parameter optional.
+     */
+    public static class HedgingPolicyBuilder {
+        private double builderLatencyPercentile = DEFAULT_LATENCY_PERCENTILE;
+        private double builderMaxHedgeRatio = DEFAULT_MAX_HEDGE_RATIO;
+        private int builderMaxHedgeBurst = DEFAULT_MAX_HEDGE_BURST;
+        private int builderSampleWindowSize = DEFAULT_SAMPLE_WINDOW_SIZE;
+        private int builderMinSamples = DEFAULT_MIN_SAMPLES;
+
+        /**
+         * @param latencyPercentile A batch is hedged once its write has taken longer than this percentile of recent
+         *                          write times.  Defaults to {@link #DEFAULT_LATENCY_PERCENTILE}.
+         * @return {@link HedgingPolicyBuilder}
+         */
+        public HedgingPolicyBuilder withLatencyPercentile(double latencyPercentile) {
+            this.builderLatencyPercentile = latencyPercentile;
+            return this;
+        }
+
+        /**
+         * @param maxHedgeRatio The fraction of writes that may be hedged, which caps the extra load on the downstream
+         *                      service.  Defaults to {@link #DEFAULT_MAX_HEDGE_RATIO}.
+         * @return {@link HedgingPolicyBuilder}
+         */
+        public HedgingPolicyBuilder withMaxHedgeRatio(double maxHedgeRatio) {
+            this.builderMaxHedgeRatio = maxHedgeRatio;
+            return this;
+        }
+
+        /**
+         * @param maxHedgeBurst The number of hedges that unused budget can add up to, e.g. when several writes are
+         *                      slow at once after a quiet period.  Defaults to {@link #DEFAULT_MAX_HEDGE_BURST}.
+         * @return {@link HedgingPolicyBuilder}
+         */
+        public HedgingPolicyBuilder withMaxHedgeBurst(int maxHedgeBurst) {
+            this.builderMaxHedgeBurst = maxHedgeBurst;
+            return this;
+        }
+
+        /**
+         * @param sampleWindowSize The number of recent write times the percentile is computed from.
+         *                         Defaults to {@link #DEFAULT_SAMPLE_WINDOW_SIZE}.
+         * @return {@link HedgingPolicyBuilder}
+         */
+        public HedgingPolicyBuilder withSampleWindowSize(int sampleWindowSize) {
+            this.builderSampleWindowSize = sampleWindowSize;
+            return this;
+        }
+
+        /**
+         * @param minSamples No batch is hedged until this many write times have been observed.
+         *                   Defaults to {@link #DEFAULT_MIN_SAMPLES}.
+         * @return {@link HedgingPolicyBuilder}
+         */
+        public HedgingPolicyBuilder withMinSamples(int minSamples) {
+            this.builderMinSamples = minSamples;
+            return this;
+        }
+
+        /**
+         * @return {@link HedgingPolicy} with the provided options.
+         */
+        public HedgingPolicy build() {
+            return new HedgingPolicy(builderLatencyPercentile, builderMaxHedgeRatio, builderMaxHedgeBurst,
+                    builderSampleWindowSize, builderMinSamples);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package batchrequests;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.Timespan;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Records {@link BatchingEvents} as JDK Flight Recorder events.  Only loaded by {@link BatchingEvents} when
+ * {@code jdk.jfr} is available.
+ */
+class JfrBatchingEvents extends BatchingEvents implements FlightRecorderListener {
+
+    // Guarded by itself
+    private final Set<Recording> runningRecordings = Collections.newSetFromMap(new IdentityHashMap<>());
+    private volatile boolean recording;
+
+    JfrBatchingEvents() {
+        FlightRecorder.addListener(this);
+        // The listener only hears about later changes, so pick up recordings that are already running, e.g. one
+        // started with -XX:StartFlightRecording.  Checked first so that this doesn't start the recorder itself.
+        if (FlightRecorder.isInitialized()) {
+            for (Recording running : FlightRecorder.getFlightRecorder().getRecordings()) {
+                recordingStateChanged(running);
+            }
+        }
+    }
+
+    @Override
+    public void recordingStateChanged(Recording recording) {
+        synchronized (runningRecordings) {
+            if (recording.getState() == RecordingState.RUNNING) {
+                runningRecordings.add(recording);
+            } else {
+                runningRecordings.remove(recording);
+            }
+            this.recording = !runningRecordings.isEmpty();
+        }
+    }
+
+    @Override
+    boolean isRecording() {
+        return recording;
+    }
+
+    @Override
+    void submitted(int queueId, long lockWaitNanos) {
+        SubmitEvent event = new SubmitEvent();
+        if (event.isEnabled()) {
+            event.queueId = queueId;
+            event.lockWait = lockWaitNanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    void drained(int queueId, int batchSize, FlushReason flushReason, long lockWaitNanos, long batchWaitNanos) {
+        DrainEvent event = new DrainEvent();
+        if (event.isEnabled()) {
+            event.queueId = queueId;
+            event.batchSize = batchSize;
+            event.flushReason = flushReason.name();
+            event.lockWait = lockWaitNanos;
+            event.batchWait = batchWaitNanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    void written(int queueId, int batchSize, boolean succeeded, long writeNanos) {
+        WriteEvent event = new WriteEvent();
+        if (event.isEnabled()) {
+            event.queueId = queueId;
+            event.batchSize = batchSize;
+            event.succeeded = succeeded;
+            event.writeTime = writeNanos;
+            event.commit();
+        }
+    }
+
+    @Name("batchrequests.Submit")
+    @Label("Batch Request Submit")
+    @Category("Batch Requests")
+    @Description("A sampled request added to a queue")
+    static class SubmitEvent extends Event {
+        @Label("Queue Id")
+        int queueId;
+
+        @Label("Lock Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        long lockWait;
+    }
+
+    @Name("batchrequests.Drain")
+    @Label("Batch Drain")
+    @Category("Batch Requests")
+    @Description("A poller took a batch from its queue")
+    static class DrainEvent extends Event {
+        @Label("Queue Id")
+        int queueId;
+
+        @Label("Batch Size")
+        int batchSize;
+
+        @Label("Flush Reason")
+        String flushReason;
+
+        @Label("Lock Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        long lockWait;
+
+        @Label("Batch Wait")
+        @Description("Time spent waiting for a full batch or a deadline, with the lock released")
+        @Timespan(Timespan.NANOSECONDS)
+        long batchWait;
+    }
+
+    @Name("batchrequests.Write")
+    @Label("Batch Write")
+    @Category("Batch Requests")
+    @Description("A call to the BatchWriter")
+    static class WriteEvent extends Event {
+        @Label("Queue Id")
+        int queueId;
+
+        @Label("Batch Size")
+        int batchSize;
+
+        @Label("Succeeded")
+        boolean succeeded;
+
+        @Label("Write Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long writeTime;
+    }
+}
@@ -0,0 +1,17 @@
+package batchrequests;
+
+/**
+ * Gets the key that a request is ordered by, e.g. the id of the entity it updates.  To be implemented by the client
+ * when requests with the same key must be written in the order they were submitted (see {@link KeyOrdering}).
+ * @param <T> Type of the request.
+ */
+@FunctionalInterface
+public interface KeyExtractor<T> {
+
+    /**
+     * @param request The request to get the key of.  Must be cheap to call, since it is called while holding a queue
+     *                lock.
+     * @return The request's key.  Keys are compared by {@link Object#hashCode()}, and null is a valid key.
+     */
+    Object extractKey(T request);
+}
@@ -0,0 +1,59 @@
+package batchrequests;
+
+import lombok.Getter;
+
+import java.util.Objects;
+
+/**
+ * Keeps requests with the same key in the order they were submitted, while requests with unrelated keys are still
+ * written in parallel.  Keys are hashed into key groups, every key group is routed to a single queue, and a key group
+ * can only be in one batch that is being written at a time.  A poller skips requests whose key group is already being
+ * written by another poller, so they go out in a later batch, after the earlier one has been written.
+ *
+ * A request that is held back this way can wait longer than the max buffer time, since it can't be sent before the
+ * batch that blocks it has been written, however long that write takes.  It keeps its own enqueue time though, so once
+ * the write is done it is sent within what is left of its max buffer time, if any.
+ *
+ * Because keys are routed to queues by hash, queues can't be added or removed while ordering is enabled.
+ * @param <T> Type of the request that will be ordered.
+ */
+public class KeyOrdering<T> {
+
+    /** Value: {@value #DEFAULT_NUM_KEY_GROUPS} */
+    public static final int DEFAULT_NUM_KEY_GROUPS = 1024;
+
+    @Getter private final KeyExtractor<T> keyExtractor;
+    @Getter private final int numKeyGroups;
+
+    /**
+     * Uses {@link #DEFAULT_NUM_KEY_GROUPS} key groups.
+     */
+    public KeyOrdering(KeyExtractor<T> keyExtractor) {
+        this(keyExtractor, DEFAULT_NUM_KEY_GROUPS);
+    }
+
+    /**
+     * @param keyExtractor A non-null {@link KeyExtractor} for each request
+     * @param numKeyGroups A positive number of key groups.  Unrelated keys that share a key group are ordered with
+     *                     each other too, so fewer groups means less parallelism.
+     */
+    public KeyOrdering(KeyExtractor<T> keyExtractor, int numKeyGroups) {
+        if (keyExtractor == null) {
+            throw new IllegalArgumentException("Need a non-null KeyExtractor");
+        }
+        if (numKeyGroups < 1) {
+            throw new IllegalArgumentException("Need a positive number of key groups.  Got: " + numKeyGroups);
+        }
+        this.keyExtractor = keyExtractor;
+        this.numKeyGroups = numKeyGroups;
+    }
+
+    /**
+     * @return The key group of the request, between 0 (inclusive) and {@link #getNumKeyGroups()} (exclusive).
+     */
+    int keyGroupOf(T request) {
+        int hash = Objects.hashCode(keyExtractor.extractKey(request));
+        // Spread the high bits, since key groups are taken modulo a (usually) small number
+        return Math.floorMod(hash ^ (hash >>> 16), numKeyGroups);
+    }
+}
@@ -0,0 +1,51 @@
+package batchrequests;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latencies in a ring and computes a percentile of them.  The percentile is only recomputed
+ * after a tenth of the window has been replaced, so that recording stays cheap.  This class is thread-safe.
+ */
+class LatencyTracker {
+
+    /** Returned by {@link #getPercentileNanos()} until enough latencies have been recorded */
+    static final long NOT_ENOUGH_SAMPLES = -1L;
+
+    private final double percentile;
+    private final int minSamples;
+    private final int refreshInterval;
+    private final long[] samples;
+    private int numSamples;
+    private int nextIndex;
+    private int samplesSinceRefresh;
+    private long percentileNanos = NOT_ENOUGH_SAMPLES;
+
+    LatencyTracker(double percentile, int windowSize, int minSamples) {
+        this.percentile = percentile;
+        this.minSamples = minSamples;
+        this.refreshInterval = Math.max(1, windowSize / 10);
+        this.samples = new long[windowSize];
+    }
+
+    synchronized void record(long latencyNanos) {
+        samples[nextIndex] = latencyNanos;
+        nextIndex = (nextIndex + 1) % samples.length;
+        numSamples = Math.min(numSamples + 1, samples.length);
+        samplesSinceRefresh++;
+        if (numSamples >= minSamples
+                && (percentileNanos == NOT_ENOUGH_SAMPLES || samplesSinceRefresh >= refreshInterval)) {
+            long[] sorted = Arrays.copyOf(samples, numSamples);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percentile / 100 * numSamples) - 1;
+            percentileNanos = sorted[Math.max(0, Math.min(rank, numSamples - 1))];
+            samplesSinceRefresh = 0;
+        }
+    }
+
+    /**
+     * @return The percentile of the recent latencies, or {@link #NOT_ENOUGH_SAMPLES}.
+     */
+    synchronized long getPercentileNanos() {
+        return percentileNanos;
+    }
+}
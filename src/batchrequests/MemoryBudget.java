@@ -0,0 +1,49 @@
+package batchrequests;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The bytes that every {@link SpillingQueue} of a factory may buffer in memory, shared between the queues.  This class
+ * is thread-safe.
+ */
+class MemoryBudget {
+
+    @Getter private final long maxBytes;
+    private final AtomicLong numBytes = new AtomicLong();
+
+    MemoryBudget(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return True if the bytes fit in the budget and were reserved
+     */
+    boolean tryReserve(long bytes) {
+        while (true) {
+            long current = numBytes.get();
+            if (current + bytes > maxBytes) {
+                return false;
+            }
+            if (numBytes.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reserve the bytes even if they don't fit, e.g. for a request that has to be read back to make progress.
+     */
+    void reserve(long bytes) {
+        numBytes.addAndGet(bytes);
+    }
+
+    void release(long bytes) {
+        numBytes.addAndGet(-bytes);
+    }
+
+    long getNumBytes() {
+        return numBytes.get();
+    }
+}
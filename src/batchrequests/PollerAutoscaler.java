@@ -0,0 +1,86 @@
+package batchrequests;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Periodically grows and shrinks the number of pollers of each queue of a {@link BatchRequestsFactory} according to an
+ * {@link AutoscalingPolicy}.  Runs on the factory's scheduler thread, so it doesn't need to be thread-safe, but
+ * pollers are added and removed through the factory, so that a worker whose queue was removed or shut down since it
+ * was looked up is left alone.
+ * @param <T> The request type
+ */
+@Slf4j
+class PollerAutoscaler<T> implements Runnable {
+
+    private final BatchRequestsFactory<T> factory;
+    private final AutoscalingPolicy policy;
+    private final int scaleUpQueueDepth;
+    private final long scaleUpWaitTimeMs;
+
+    /** When each worker's queue was first seen empty since the last scaling action, in milliseconds */
+    private final Map<PollingQueueWorker<T>, Long> idleSinceMs = new IdentityHashMap<>();
+
+    PollerAutoscaler(BatchRequestsFactory<T> factory, AutoscalingPolicy policy) {
+        this.factory = factory;
+        this.policy = policy;
+        this.scaleUpQueueDepth = policy.getScaleUpQueueDepth() != null
+                ? policy.getScaleUpQueueDepth() : 4 * factory.getBatchSize();
+        this.scaleUpWaitTimeMs = policy.getScaleUpWaitTimeMs() != null
+                ? policy.getScaleUpWaitTimeMs() : 2 * factory.getMaxBufferTimeMs();
+    }
+
+    @Override
+    public void run() {
+        try {
+            List<PollingQueueWorker<T>> workers = factory.getPollingQueueWorkers();
+            idleSinceMs.keySet().retainAll(workers);
+            long nowMs = System.currentTimeMillis();
+            for (PollingQueueWorker<T> worker : workers) {
+                check(worker, nowMs);
+            }
+        } catch (Exception e) {
+            // Never let an exception cancel the scheduled check
+            log.warn("Unexpected exception while autoscaling pollers", e);
+        }
+    }
+
+    private void check(PollingQueueWorker<T> worker, long nowMs) {
+        QueueAndLock<T> queueAndLock = worker.getQueueAndLock();
+        int depth;
+        queueAndLock.getLock().lock();
+        try {
+            depth = queueAndLock.getQueue().size();
+        } finally {
+            queueAndLock.getLock().unlock();
+        }
+        int numPollers = worker.getNumPollingThreads();
+
+        boolean backedUp = depth >= scaleUpQueueDepth || queueAndLock.getOldestRequestAgeMs() >= scaleUpWaitTimeMs;
+        if (backedUp) {
+            idleSinceMs.remove(worker);
+            if (numPollers < policy.getMaxPollersPerQueue()) {
+                if (factory.addPollingWorker(worker)) {
+                    log.info("Queue depth is {}, scaled up to {} pollers", depth, numPollers + 1);
+                }
+            }
+        } else if (depth == 0) {
+            Long idleSince = idleSinceMs.get(worker);
+            if (idleSince == null) {
+                idleSinceMs.put(worker, nowMs);
+            } else if (nowMs - idleSince >= policy.getScaleDownIdleTimeMs()
+                    && numPollers > policy.getMinPollersPerQueue()) {
+                if (factory.removePollingWorker(worker)) {
+                    log.info("Queue has been idle for {}ms, scaled down to {} pollers", nowMs - idleSince, numPollers - 1);
+                }
+                // Wait another full idle period before removing the next one
+                idleSinceMs.put(worker, nowMs);
+            }
+        } else {
+            idleSinceMs.remove(worker);
+        }
+    }
+}
@@ -1,17 +1,18 @@
 package batchrequests;
 
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * The long-running task that will continuously batch requests and submit the batch for writing.
  */
-@RequiredArgsConstructor
 @Slf4j
 class PollingQueueTask<T> extends Thread {
     /**
@@ -23,62 +24,355 @@ class PollingQueueTask<T> extends Thread {
      *   I'm currently optimizing for cost (reducing the number of calls) instead of performance.
      */
 
+    private final QueueAndLock<T> queueAndLock;
     private final Queue<T> sharedQueue;
     private final Lock sharedQueueLock;
     private final BatchWriter<T> batchWriter;
     private final int maxBatchSize;
     private final long maxBufferTimeMs;
-    private boolean shouldContinueProcessing = true;
+    private final BatchWeightLimit<T> batchWeightLimit;
+    private final KeyOrdering<T> keyOrdering;
+    private final boolean smartBatching;
+    private final WaitStrategy waitStrategy;
+    private final long idleTimeoutMs;
+    private final FlushDecision flushDecision;
+    /** The list every batch is drained into, or null to drain each batch into a new list.  Only used by the task. */
+    private final List<T> reusedBatch;
+    /** The queue's {@link QueueAndLock#getPollerGeneration()} when this task started.  Only used by the task. */
+    private int pollerGeneration;
+    private volatile boolean shouldContinueProcessing = true;
+
+    PollingQueueTask(Queue<T> sharedQueue,
+                     ReentrantLock sharedQueueLock,
+                     BatchWriter<T> batchWriter,
+                     int maxBatchSize,
+                     long maxBufferTimeMs) {
+        this(new QueueAndLock<>(sharedQueue, sharedQueueLock), batchWriter, maxBatchSize, maxBufferTimeMs);
+    }
+
+    /**
+     * Batches are also cut by the queue's {@link QueueAndLock#getBatchWeightLimit()}, and requests are ordered by its
+     * {@link QueueAndLock#getKeyOrdering()}, if it has them.
+     */
+    PollingQueueTask(QueueAndLock<T> queueAndLock,
+                     BatchWriter<T> batchWriter,
+                     int maxBatchSize,
+                     long maxBufferTimeMs) {
+        this(queueAndLock, batchWriter, maxBatchSize, maxBufferTimeMs, false, WaitStrategy.blocking(), 0, false);
+    }
+
+    /**
+     * @param smartBatching If true, a partial batch is sent as soon as no other task is writing a batch from the
+     *                      queue, instead of waiting for {@link #maxBufferTimeMs}.  Should be the same for every task
+     *                      polling the queue.
+     * @param waitStrategy How to wait for the queue to fill up
+     * @param idleTimeoutMs Once the queue has been empty for this long, every task polling it stops until the next
+     *                      request arrives (see {@link QueueAndLock#stopPollersWhileIdle()}), or 0 to never stop
+     * @param batchReuse If true, every batch is drained into the same list, which is cleared once it has been written,
+     *                   so the writer must not keep a reference to the batch
+     */
+    PollingQueueTask(QueueAndLock<T> queueAndLock,
+                     BatchWriter<T> batchWriter,
+                     int maxBatchSize,
+                     long maxBufferTimeMs,
+                     boolean smartBatching,
+                     WaitStrategy waitStrategy,
+                     long idleTimeoutMs,
+                     boolean batchReuse) {
+        this.queueAndLock = queueAndLock;
+        this.sharedQueue = queueAndLock.getQueue();
+        this.sharedQueueLock = queueAndLock.getLock();
+        this.batchWriter = batchWriter;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBufferTimeMs = maxBufferTimeMs;
+        this.batchWeightLimit = queueAndLock.getBatchWeightLimit();
+        this.keyOrdering = queueAndLock.getKeyOrdering();
+        this.smartBatching = smartBatching;
+        this.waitStrategy = waitStrategy;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.flushDecision = new FlushDecision(maxBatchSize, TimeUnit.MILLISECONDS.toNanos(maxBufferTimeMs),
+                smartBatching);
+        this.reusedBatch = batchReuse ? new ArrayList<>() : null;
+    }
 
     /**
      * Run the batch processing, which batches requests in the queue and submits them when the {@link #maxBatchSize}
-     * is reached, or when it has waited too long for a batch (defined by {@link #maxBatchSize}).
+     * (or the {@link #batchWeightLimit}) is reached, or when the oldest request in the queue has waited for
+     * {@link #maxBufferTimeMs} (or a request's own deadline is due, see {@link BatchSubmitter#put(Object, long)}).
      */
     @Override
     public void run() {
         log.info("Polling starting");
-        while (!Thread.currentThread().isInterrupted() && shouldContinueProcessing) {
+        sharedQueueLock.lock();
+        try {
+            pollerGeneration = queueAndLock.getPollerGeneration();
+            if (queueAndLock.isPollersIdle()) {
+                // Started after the queue went idle, so the next request will start new tasks instead
+                shouldContinueProcessing = false;
+            }
+        } finally {
+            sharedQueueLock.unlock();
+        }
+        // Always poll at least once, so that a task that is shut down before it starts still flushes a batch
+        do {
             try {
-                List<T> batch = new LinkedList<>();
+                List<T> batch = reusedBatch == null ? new ArrayList<>() : reusedBatch;
+                BatchingEvents events = BatchingEvents.get();
+                boolean recording = events.isRecording();
+                long lockStartNanos = recording ? System.nanoTime() : 0;
                 sharedQueueLock.lock();
-                // If the buffer has more items than the batch size, we take enough to fill the batch
-                if (sharedQueue.size() >= maxBatchSize) {
-                    for (int i = 0; i < maxBatchSize; i++) {
-                        batch.add(sharedQueue.poll());
+                try {
+                    long lockWaitNanos = recording ? System.nanoTime() - lockStartNanos : 0;
+                    // If the buffer doesn't have enough items to fill a batch, we wait until it does or until the
+                    // oldest request is due, and take whatever is in the queue to prevent staleness.
+                    if (!isFullBatchAvailable()) {
+                        awaitFullBatchOrDeadline();
                     }
+                    BatchingEvents.FlushReason flushReason = recording ? getFlushReason() : null;
+                    long batchWaitNanos = recording ? System.nanoTime() - lockStartNanos - lockWaitNanos : 0;
+                    drainBatch(batch);
+                    startWrite(batch);
+                    if (recording) {
+                        events.drained(queueAndLock.getQueueId(), batch.size(), flushReason, lockWaitNanos,
+                                batchWaitNanos);
+                    }
+                } finally {
                     sharedQueueLock.unlock();
-                // Otherwise, we wait for the pre-configured amount of time and take whatever is in the queue
-                // to prevent staleness.
-                } else {
-                    sharedQueueLock.unlock();
+                }
+                // The writer is only called with requests, e.g. not when the task stops while the queue is empty
+                if (!batch.isEmpty()) {
                     try {
-                        // TODO: Is there a more testable way of doing this?
-                        // We can't reliably test if we stop when this thread is interrupted during the sleep
-                        // We can't reliably test if we stop this thread outside of the sleep
-                        Thread.sleep(maxBufferTimeMs);
-                    } catch (InterruptedException e) {
-                        // We can interrupt the thread here too, but because we may want to shutdown for other reasons,
-                        // we'll follow these docs and manage the thread lifecycle ourselves:
-                        // https://docs.oracle.com/javase/8/docs/technotes/guides/concurrency/threadPrimitiveDeprecation.html
-                        shouldContinueProcessing = false;
-                        log.warn("Thread.sleep was interrupted, flushing last batch and killing poller", e);
+                        write(batch, events);
+                    } finally {
+                        finishWrite(batch);
                     }
-                    sharedQueueLock.lock();
-                    int toTake = Math.min(sharedQueue.size(), maxBatchSize);
-                    for (int i = 0; i < toTake; i++) {
-                        batch.add(sharedQueue.remove());
-                    }
-                    sharedQueueLock.unlock();
                 }
-                batchWriter.write(batch);
             } catch (Exception e) {
                 log.warn("Unexpected exception in polling task.  Make sure your batch writer handles all RuntimeExceptions", e);
+            } finally {
+                if (reusedBatch != null) {
+                    reusedBatch.clear();
+                }
+            }
+        } while (!Thread.currentThread().isInterrupted() && shouldContinueProcessing);
+    }
+
+    private void write(List<T> batch, BatchingEvents events) {
+        if (!events.isRecording()) {
+            batchWriter.write(batch);
+            return;
+        }
+        long startNanos = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            batchWriter.write(batch);
+            succeeded = true;
+        } finally {
+            events.written(queueAndLock.getQueueId(), batch.size(), succeeded, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #sharedQueueLock}, right before draining a batch.
+     */
+    private BatchingEvents.FlushReason getFlushReason() {
+        if (queueAndLock.getNumSendable() >= maxBatchSize) {
+            return BatchingEvents.FlushReason.SIZE;
+        }
+        if (isFullBatchAvailable()) {
+            return BatchingEvents.FlushReason.WEIGHT;
+        }
+        return shouldContinueProcessing ? BatchingEvents.FlushReason.TIMEOUT : BatchingEvents.FlushReason.SHUTDOWN;
+    }
+
+    /**
+     * Must be called while holding {@link #sharedQueueLock}.  The lock is released while waiting.  When to stop waiting
+     * is up to {@link FlushDecision}, which is tested and simulated without threads or real time.
+     */
+    private void awaitFullBatchOrDeadline() {
+        long maxBufferTimeNanos = TimeUnit.MILLISECONDS.toNanos(maxBufferTimeMs);
+        // Requests that were added to the queue directly have no enqueue time, so they get a full buffer time
+        long defaultFlushNanos = System.nanoTime() + maxBufferTimeNanos;
+        boolean queueWasEmpty = false;
+        long idleSinceNanos = 0;
+        try {
+            while (shouldContinueProcessing && !isFullBatchAvailable()) {
+                if (queueAndLock.getPollerGeneration() != pollerGeneration) {
+                    // Every task polling the queue was stopped while it was idle, see awaitRequest
+                    shouldContinueProcessing = false;
+                    return;
+                }
+                if (sharedQueue.isEmpty()) {
+                    if (!queueWasEmpty) {
+                        queueWasEmpty = true;
+                        idleSinceNanos = System.nanoTime();
+                    }
+                    long waitStartNanos = System.nanoTime();
+                    awaitRequest(idleSinceNanos);
+                    // A request added to the queue directly arrived during the wait, so it is due no later than this
+                    defaultFlushNanos = waitStartNanos + maxBufferTimeNanos;
+                    continue;
+                }
+                int numWritesInFlight = queueAndLock.getNumWritesInFlight();
+                long waitNanos = flushDecision.getWaitNanos(numWritesInFlight,
+                        queueAndLock.getFlushDeadlineNanos(maxBufferTimeNanos, defaultFlushNanos), System.nanoTime(),
+                        this::hasSendableRequest);
+                if (waitNanos == FlushDecision.FLUSH_NOW) {
+                    return;
+                }
+                queueAndLock.awaitBatchReady(flushDecision.getBatchReadySize(numWritesInFlight), waitNanos,
+                        waitStrategy);
             }
+        } catch (InterruptedException e) {
+            // We can interrupt the thread here too, but because we may want to shutdown for other reasons,
+            // we'll follow these docs and manage the thread lifecycle ourselves:
+            // https://docs.oracle.com/javase/8/docs/technotes/guides/concurrency/threadPrimitiveDeprecation.html
+            shouldContinueProcessing = false;
+            log.warn("Waiting for a batch was interrupted, flushing last batch and killing poller", e);
         }
     }
 
+    /**
+     * Must be called while holding {@link #sharedQueueLock}, while the queue is empty.  Waits for the next request, or,
+     * once the queue has been idle for {@link #idleTimeoutMs}, stops every task polling it.  Returns early if the task
+     * is woken up for any other reason, so callers should re-check the queue.
+     *
+     * Waits with the {@link #waitStrategy}, so that the first request after the queue was empty is noticed as quickly
+     * as a full batch is.  Requests added to the queue directly don't signal it, so the wait is capped at
+     * {@link #maxBufferTimeMs} to notice them in time.
+     * @param idleSinceNanos When this task found the queue empty
+     * @throws InterruptedException If the waiting thread is interrupted
+     */
+    private void awaitRequest(long idleSinceNanos) throws InterruptedException {
+        long maxBufferTimeNanos = TimeUnit.MILLISECONDS.toNanos(maxBufferTimeMs);
+        if (idleTimeoutMs == 0) {
+            queueAndLock.awaitBatchReady(1, maxBufferTimeNanos, waitStrategy);
+            return;
+        }
+        long remainingNanos = idleSinceNanos + TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs) - System.nanoTime();
+        if (remainingNanos > 0) {
+            queueAndLock.awaitBatchReady(1, Math.min(remainingNanos, maxBufferTimeNanos), waitStrategy);
+        } else if (queueAndLock.stopPollersWhileIdle()) {
+            log.info("Queue {} was idle for {}ms, stopping its pollers until the next request",
+                    queueAndLock.getQueueId(), idleTimeoutMs);
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #sharedQueueLock}.
+     * @return True if the queue holds at least one batch's worth of requests that can be sent, by count or by weight.
+     */
+    private boolean isFullBatchAvailable() {
+        return queueAndLock.getNumSendable() >= maxBatchSize || queueAndLock.isFullByWeight();
+    }
+
+    /**
+     * Must be called while holding {@link #sharedQueueLock}.  Moves requests from the head of the queue into the batch
+     * until the queue is empty or the batch is full by count or by weight.  Requests whose key group is being written
+     * by another task are left in the queue.
+     */
+    private void drainBatch(List<T> batch) {
+        if (batchWeightLimit == null && keyOrdering == null) {
+            int toTake = Math.min(sharedQueue.size(), maxBatchSize);
+            for (int i = 0; i < toTake; i++) {
+                batch.add(sharedQueue.remove());
+            }
+            queueAndLock.getEnqueueTimeline().recordDequeue(toTake);
+            queueAndLock.recordDequeue(batch);
+            return;
+        }
+        long maxBatchWeight = batchWeightLimit == null ? Long.MAX_VALUE : batchWeightLimit.getMaxBatchWeight();
+        // Stop as soon as every sendable request has been taken, instead of scanning the blocked ones behind them
+        int numToTake = Math.min(queueAndLock.getNumSendable(), maxBatchSize);
+        long weight = 0;
+        // Skipped requests keep their place in the timeline, so that they are still flushed by their own enqueue time
+        // once their key group is released.  Each run of requests taken from behind the same skipped ones is recorded
+        // at once.
+        int numSkipped = 0;
+        int runOffset = 0;
+        int runLength = 0;
+        EnqueueTimeline enqueueTimeline = queueAndLock.getEnqueueTimeline();
+        Iterator<T> iterator = sharedQueue.iterator();
+        while (iterator.hasNext() && batch.size() < numToTake) {
+            T request = iterator.next();
+            // Every request of a blocked key group is skipped, so the requests of each key stay in order
+            if (!queueAndLock.isSendable(request)) {
+                numSkipped++;
+                continue;
+            }
+            long requestWeight = weigh(request);
+            // A request heavier than the limit is still sent, just on its own
+            if (!batch.isEmpty() && weight + requestWeight > maxBatchWeight) {
+                break;
+            }
+            if (runLength > 0 && runOffset != numSkipped) {
+                enqueueTimeline.recordDequeue(runOffset, runLength);
+                runLength = 0;
+            }
+            runOffset = numSkipped;
+            runLength++;
+            weight += requestWeight;
+            batch.add(request);
+            iterator.remove();
+        }
+        if (runLength > 0) {
+            enqueueTimeline.recordDequeue(runOffset, runLength);
+        }
+        queueAndLock.recordDequeue(batch);
+    }
+
+    private long weigh(T request) {
+        return batchWeightLimit == null ? 0 : batchWeightLimit.getWeigher().weigh(request);
+    }
+
+    /**
+     * Must be called while holding {@link #sharedQueueLock}.
+     * @return True if the queue holds a request that isn't blocked by a batch that is being written.
+     */
+    private boolean hasSendableRequest() {
+        return queueAndLock.getNumSendable() > 0;
+    }
+
+    /**
+     * Must be called while holding {@link #sharedQueueLock}, right after draining the batch.
+     */
+    private void startWrite(List<T> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (smartBatching) {
+            queueAndLock.setNumWritesInFlight(queueAndLock.getNumWritesInFlight() + 1);
+        }
+        queueAndLock.markInFlight(batch);
+    }
+
+    /**
+     * Once the batch has been written, let other tasks send the requests that were blocked by it, or the partial
+     * batch that was growing while it was written.
+     */
+    private void finishWrite(List<T> batch) {
+        if (batch.isEmpty() || (!smartBatching && keyOrdering == null)) {
+            return;
+        }
+        sharedQueueLock.lock();
+        try {
+            if (smartBatching) {
+                queueAndLock.setNumWritesInFlight(queueAndLock.getNumWritesInFlight() - 1);
+            }
+            queueAndLock.clearInFlight(batch);
+            queueAndLock.wakeUpPollers();
+        } finally {
+            sharedQueueLock.unlock();
+        }
+    }
+
+    /**
+     * Stop polling once the current batch (or, if the task is waiting for a batch, whatever is in the queue) has been
+     * written.
+     */
     public void shutdown() {
         this.shouldContinueProcessing = false;
+        queueAndLock.wakeUpPollers();
     }
 
     public boolean isShutdown() {
@@ -1,14 +1,18 @@
 package batchrequests;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -21,22 +25,48 @@ class PollingQueueWorker<T> {
 
     @Getter private final QueueAndLock<T> queueAndLock;
     private final ExecutorService executorService;
-    private final List<Future> taskFutures;
     @Getter private final BatchWriter<T> batchWriter;
     @Getter private final int batchSize;
-    @Getter private final int numPollingThreads;
     @Getter private final long maxBufferTimeMs;
+    @Getter private final boolean smartBatching;
+    @Getter private final WaitStrategy waitStrategy;
+    @Getter private final long idleTimeoutMs;
+    @Getter private final boolean batchReuse;
+
+    /** The running tasks and their futures, in the order they were started.  Guarded by this. */
+    @Getter(AccessLevel.NONE) private final List<PollingQueueTask<T>> tasks = new ArrayList<>();
+    @Getter(AccessLevel.NONE) private final List<Future> taskFutures = new ArrayList<>();
+    /** Guarded by this */
+    @Getter(AccessLevel.NONE) private boolean shutDown;
 
     public PollingQueueWorker(QueueAndLock<T> queueAndLock,
                               BatchWriter<T> batchWriter,
                               int batchSize,
                               int numPollingThreads,
                               long maxBufferTimeMs) {
+        this(new PollingQueueWorkerBuilder<>(queueAndLock, batchWriter, batchSize)
+                .setNumPollingThreads(numPollingThreads)
+                .setMaxBufferTime(maxBufferTimeMs));
+    }
+
+    /**
+     * @param options Every option, including those that are only set through {@link PollingQueueWorkerBuilder}
+     */
+    PollingQueueWorker(PollingQueueWorkerBuilder<T> options) {
+        QueueAndLock<T> queueAndLock = options.builderQueueAndLock;
+        int batchSize = options.builderBatchSize;
+        int numPollingThreads = options.builderNumPollingThreads;
+        long maxBufferTimeMs = options.builderMaxBufferTimeMs;
+        WaitStrategy waitStrategy = options.builderWaitStrategy;
+        long idleTimeoutMs = options.builderIdleTimeoutMs;
         this.queueAndLock = queueAndLock;
-        this.batchWriter = batchWriter;
+        this.batchWriter = options.builderBatchWriter;
         this.batchSize = batchSize;
-        this.numPollingThreads = numPollingThreads;
         this.maxBufferTimeMs = maxBufferTimeMs;
+        this.smartBatching = options.builderSmartBatching;
+        this.waitStrategy = waitStrategy;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.batchReuse = options.builderBatchReuse;
         if (batchSize < 1) {
             throw new IllegalArgumentException("Batch size must be positive.  Got: " + batchSize);
         }
@@ -46,17 +76,101 @@ class PollingQueueWorker<T> {
         if (maxBufferTimeMs < 1) {
             throw new IllegalArgumentException("Max buffer time must be positive. Got: " + maxBufferTimeMs);
         }
-        List<Future> taskFutures = new ArrayList<>(numPollingThreads);
+        if (waitStrategy == null) {
+            throw new IllegalArgumentException("Wait strategy must be non-null");
+        }
+        if (idleTimeoutMs < 0) {
+            throw new IllegalArgumentException("Idle timeout must not be negative. Got: " + idleTimeoutMs);
+        }
         // We could have used executors more traditionally (by submitting poll tasks), but this would have required
-        // some infinite loop doing that anyways.
-        this.executorService = Executors.newFixedThreadPool(numPollingThreads);
-        for (int i = 0; i < numPollingThreads; i++) {
-            Future future = executorService.submit(
-                    new PollingQueueTask<T>(queueAndLock.getQueue(), queueAndLock.getLock(), batchWriter, batchSize, maxBufferTimeMs));
-            taskFutures.add(future);
-        }
-        this.taskFutures = Collections.unmodifiableList(taskFutures);
-        log.info("Polling subtasks are running");
+        // some infinite loop doing that anyways.  Each task occupies a thread for as long as it runs, so the pool
+        // grows and shrinks with the number of polling threads.  Pollers that stop while idle give their threads
+        // back after the same idle timeout.
+        this.executorService = idleTimeoutMs == 0 ? Executors.newCachedThreadPool()
+                : new ThreadPoolExecutor(0, Integer.MAX_VALUE, idleTimeoutMs, TimeUnit.MILLISECONDS,
+                        new SynchronousQueue<>());
+        boolean startIdle = false;
+        if (idleTimeoutMs > 0) {
+            queueAndLock.setPollerStarter(this::restartPollingThreads);
+            startIdle = queueAndLock.stopPollersWhileIdle();
+        }
+        synchronized (this) {
+            for (int i = 0; i < numPollingThreads; i++) {
+                PollingQueueTask<T> task = newTask();
+                tasks.add(task);
+                // The tasks are started by the first request
+                taskFutures.add(startIdle ? CompletableFuture.completedFuture(null) : executorService.submit(task));
+            }
+        }
+        log.info(startIdle ? "Polling subtasks will start on the first request" : "Polling subtasks are running");
+    }
+
+    /**
+     * Start one more task polling the queue, unless the worker has been shut down.
+     * @return True if a task was started
+     */
+    public synchronized boolean addPollingThread() {
+        if (shutDown) {
+            return false;
+        }
+        PollingQueueTask<T> task = newTask();
+        taskFutures.add(executorService.submit(task));
+        tasks.add(task);
+        return true;
+    }
+
+    /**
+     * Replace every task with a new one, after they stopped because the queue was idle.
+     */
+    private synchronized void restartPollingThreads() {
+        if (shutDown) {
+            log.warn("Got a request after the polling tasks were shut down, it will not be written");
+            return;
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            PollingQueueTask<T> task = newTask();
+            tasks.set(i, task);
+            taskFutures.set(i, executorService.submit(task));
+        }
+    }
+
+    private PollingQueueTask<T> newTask() {
+        return new PollingQueueTask<>(queueAndLock, batchWriter, batchSize, maxBufferTimeMs, smartBatching, waitStrategy,
+                idleTimeoutMs, batchReuse);
+    }
+
+    /**
+     * Gracefully stop the most recently started task.  It writes whatever batch it is working on before stopping, so no
+     * requests are lost.  The last task can't be removed, since nothing would poll the queue anymore.
+     * @return True if a task was stopped
+     */
+    public synchronized boolean removePollingThread() {
+        if (tasks.size() <= 1) {
+            return false;
+        }
+        tasks.remove(tasks.size() - 1).shutdown();
+        taskFutures.remove(taskFutures.size() - 1);
+        return true;
+    }
+
+    /**
+     * @return The number of tasks currently polling the queue.
+     */
+    public synchronized int getNumPollingThreads() {
+        return tasks.size();
+    }
+
+    /**
+     * @return The number of tasks that are running, which is 0 while the tasks are stopped because the queue is idle.
+     */
+    public synchronized int getNumRunningPollingThreads() {
+        int numRunning = 0;
+        for (Future future : taskFutures) {
+            if (!future.isDone()) {
+                numRunning++;
+            }
+        }
+        return numRunning;
     }
 
     /**
@@ -66,18 +180,44 @@ class PollingQueueWorker<T> {
      * @throws InterruptedException See {@link ExecutorService#awaitTermination(long, TimeUnit)}
      */
     public boolean shutdown(long graceTimeMs) throws InterruptedException {
+        synchronized (this) {
+            shutDown = true;
+        }
         // This stops the executor from accepting any new tasks (which it shouldn't be)
         this.executorService.shutdown();
         // We have to actually cancel the tasks so that they stop running
-        for (Future f : taskFutures) {
+        for (Future f : getTaskFutures()) {
             f.cancel(true);
         }
         return this.executorService.awaitTermination(graceTimeMs, TimeUnit.MILLISECONDS);
 
     }
 
-    public List<Future> getTaskFutures() {
-        return this.taskFutures;
+    /**
+     * Stop the tasks from polling for more requests, but let each of them finish writing its current batch first.  If
+     * they haven't finished within the grace time, they are cancelled like in {@link #shutdown(long)}.
+     * @param graceTimeMs The time to wait for all tasks to finish in milliseconds
+     * @return True if every task finished within the grace time
+     * @throws InterruptedException See {@link ExecutorService#awaitTermination(long, TimeUnit)}
+     */
+    public boolean drainAndShutdown(long graceTimeMs) throws InterruptedException {
+        this.executorService.shutdown();
+        synchronized (this) {
+            shutDown = true;
+            for (PollingQueueTask<T> task : tasks) {
+                task.shutdown();
+            }
+        }
+        if (this.executorService.awaitTermination(graceTimeMs, TimeUnit.MILLISECONDS)) {
+            return true;
+        }
+        log.warn("Polling tasks did not finish within {}ms, cancelling them", graceTimeMs);
+        shutdown(0);
+        return false;
+    }
+
+    public synchronized List<Future> getTaskFutures() {
+        return Collections.unmodifiableList(new ArrayList<>(this.taskFutures));
     }
 
     public static class PollingQueueWorkerBuilder<T> {
@@ -86,6 +226,10 @@ class PollingQueueWorker<T> {
         private final int builderBatchSize;
         private int builderNumPollingThreads = 1;
         private long builderMaxBufferTimeMs = 1000L;
+        private boolean builderSmartBatching;
+        private WaitStrategy builderWaitStrategy = WaitStrategy.blocking();
+        private long builderIdleTimeoutMs;
+        private boolean builderBatchReuse;
 
         public PollingQueueWorkerBuilder(QueueAndLock<T> queueAndLock,
                                          BatchWriter<T> batchWriter,
@@ -95,7 +239,7 @@ class PollingQueueWorker<T> {
             this.builderBatchSize = batchSize;
         }
 
-        public PollingQueueWorkerBuilder<T> setMaxBufferTime(int maxBufferTimeMs) {
+        public PollingQueueWorkerBuilder<T> setMaxBufferTime(long maxBufferTimeMs) {
             this.builderMaxBufferTimeMs = maxBufferTimeMs;
             return this;
         }
@@ -105,9 +249,28 @@ class PollingQueueWorker<T> {
             return this;
         }
 
+        public PollingQueueWorkerBuilder<T> setSmartBatching(boolean smartBatching) {
+            this.builderSmartBatching = smartBatching;
+            return this;
+        }
+
+        public PollingQueueWorkerBuilder<T> setWaitStrategy(WaitStrategy waitStrategy) {
+            this.builderWaitStrategy = waitStrategy;
+            return this;
+        }
+
+        public PollingQueueWorkerBuilder<T> setIdleTimeoutMs(long idleTimeoutMs) {
+            this.builderIdleTimeoutMs = idleTimeoutMs;
+            return this;
+        }
+
+        public PollingQueueWorkerBuilder<T> setBatchReuse(boolean batchReuse) {
+            this.builderBatchReuse = batchReuse;
+            return this;
+        }
+
         public PollingQueueWorker<T> build() {
-            return new PollingQueueWorker<>(builderQueueAndLock, builderBatchWriter, builderBatchSize,
-                builderNumPollingThreads, builderMaxBufferTimeMs);
+            return new PollingQueueWorker<>(this);
         }
     }
 }
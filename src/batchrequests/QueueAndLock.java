@@ -1,9 +1,16 @@
 package batchrequests;
 
+import lombok.AccessLevel;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -15,11 +22,368 @@ import java.util.concurrent.locks.ReentrantLock;
  * If/when performance matters, this class
  * should not be used, and the lock-free implementation of ConcurrentLinkedQueue should be used instead.
  *
+ * Requests added through {@link #enqueue(Object, long)} are also recorded in an {@link EnqueueTimeline} and, with a
+ * {@link BatchWeightLimit}, weighed.  With a {@link KeyOrdering}, they are also counted per key group, so that the
+ * requests that can be sent right away are known without scanning the queue.  Pollers waiting on
+ * {@link #awaitBatchReady(int, long)} are woken up once a full batch of them, by count or by weight, is available or a
+ * request with its own deadline arrives.  How pollers wait is up to their {@link WaitStrategy}.
+ *
  * @param <T> The type of object that the queue will hold
  */
-@RequiredArgsConstructor
 @Getter
 public class QueueAndLock<T> {
+    private static final AtomicInteger NEXT_QUEUE_ID = new AtomicInteger();
+
     private final Queue<T> queue;
     private final ReentrantLock lock;
+    @Getter(AccessLevel.PACKAGE) private final EnqueueTimeline enqueueTimeline = new EnqueueTimeline();
+    @Getter(AccessLevel.NONE) private final Condition batchReady;
+    /** The key groups in batches that are being written, see {@link KeyOrdering}.  Guarded by {@link #lock}. */
+    @Getter(AccessLevel.NONE) private final BitSet inFlightKeyGroups = new BitSet();
+    /** The number of batches from this queue that are being written.  Guarded by {@link #lock}. */
+    @Getter(AccessLevel.PACKAGE) @Setter(AccessLevel.PACKAGE) private int numWritesInFlight;
+    /** An optional limit on the weight of each batch taken from this queue, or null to only limit by count */
+    @Getter(AccessLevel.PACKAGE) private final BatchWeightLimit<T> batchWeightLimit;
+    /** An optional ordering of the requests with the same key, or null to send requests in any order */
+    @Getter(AccessLevel.PACKAGE) private final KeyOrdering<T> keyOrdering;
+    /** The number and weight of the queued requests in each key group, if requests are ordered by key */
+    @Getter(AccessLevel.NONE) private final int[] keyGroupCounts;
+    @Getter(AccessLevel.NONE) private final long[] keyGroupWeights;
+    /**
+     * The number of queued requests whose key group isn't being written, if requests are ordered by key.  Guarded by
+     * {@link #lock}.
+     */
+    @Getter(AccessLevel.NONE) private int sendableCount;
+    /**
+     * The total weight of the queued requests whose key group isn't being written, see {@link #batchWeightLimit}.
+     * Guarded by {@link #lock}.
+     */
+    @Getter(AccessLevel.NONE) private long sendableWeight;
+    /** Identifies the queue in diagnostics, e.g. Flight Recorder events */
+    private final int queueId = NEXT_QUEUE_ID.getAndIncrement();
+
+    /** The queue size at which waiting pollers are signalled.  Guarded by {@link #lock}. */
+    @Getter(AccessLevel.NONE) private int batchReadySize = Integer.MAX_VALUE;
+    /**
+     * Counts the times waiting pollers were signalled, so that pollers that don't wait on {@link #batchReady} can tell
+     * they were signalled without holding {@link #lock}.  Only changed while holding {@link #lock}.
+     */
+    @Getter(AccessLevel.NONE) private volatile int numSignals;
+    /** True while the pollers are stopped because the queue was idle.  Guarded by {@link #lock}. */
+    @Getter(AccessLevel.PACKAGE) private boolean pollersIdle;
+    /**
+     * Incremented whenever the pollers are stopped because the queue was idle, so that every poller started before
+     * then knows to stop.  Guarded by {@link #lock}.
+     */
+    @Getter(AccessLevel.PACKAGE) private int pollerGeneration;
+    /** Starts the pollers again once a request arrives while they are stopped, or null if they never stop */
+    @Getter(AccessLevel.NONE) private volatile Runnable pollerStarter;
+
+    public QueueAndLock(Queue<T> queue, ReentrantLock lock) {
+        this(queue, lock, null, null);
+    }
+
+    /**
+     * Only requests added through {@link #enqueue(Object, long)} are weighed and counted per key group.
+     * @param batchWeightLimit An optional limit on the weight of each batch, or null to only limit by count
+     * @param keyOrdering An optional ordering, or null to send requests in any order
+     */
+    QueueAndLock(Queue<T> queue, ReentrantLock lock, BatchWeightLimit<T> batchWeightLimit, KeyOrdering<T> keyOrdering) {
+        this.queue = queue;
+        this.lock = lock;
+        this.batchWeightLimit = batchWeightLimit;
+        this.keyOrdering = keyOrdering;
+        this.keyGroupCounts = keyOrdering == null ? null : new int[keyOrdering.getNumKeyGroups()];
+        this.keyGroupWeights = keyOrdering == null ? null : new long[keyOrdering.getNumKeyGroups()];
+        this.batchReady = lock.newCondition();
+    }
+
+    /**
+     * Must be called while holding {@link #lock}.  If this returns true, call {@link #startPollers()} once the lock has
+     * been released.
+     * @param item The request to add
+     * @param deadlineNanos The {@link System#nanoTime()} by which the request should be flushed, or
+     *                      {@link EnqueueTimeline#NO_DEADLINE} to use the poller's max buffer time
+     * @return True if the pollers were stopped because the queue was idle, and need to be started again
+     */
+    boolean enqueue(T item, long deadlineNanos) {
+        queue.add(item);
+        enqueueTimeline.recordEnqueue(System.nanoTime(), deadlineNanos);
+        long weight = weigh(item);
+        if (keyOrdering == null) {
+            sendableWeight += weight;
+        } else {
+            int keyGroup = keyOrdering.keyGroupOf(item);
+            keyGroupCounts[keyGroup]++;
+            keyGroupWeights[keyGroup] += weight;
+            if (!inFlightKeyGroups.get(keyGroup)) {
+                sendableCount++;
+                sendableWeight += weight;
+            }
+        }
+        if (getNumSendable() >= batchReadySize || isFullByWeight() || deadlineNanos != EnqueueTimeline.NO_DEADLINE) {
+            signalPollers();
+        }
+        if (pollersIdle) {
+            pollersIdle = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param pollerStarter Starts the pollers again once a request arrives after {@link #stopPollersWhileIdle()}
+     */
+    void setPollerStarter(Runnable pollerStarter) {
+        this.pollerStarter = pollerStarter;
+    }
+
+    /**
+     * Let the pollers stop until the next request arrives, unless the queue isn't empty or nothing can start them
+     * again.  Pollers started before this call see a new {@link #getPollerGeneration()} and stop.
+     * @return True if the pollers should stop
+     */
+    boolean stopPollersWhileIdle() {
+        lock.lock();
+        try {
+            if (!queue.isEmpty() || pollerStarter == null) {
+                return false;
+            }
+            pollersIdle = true;
+            pollerGeneration++;
+            signalPollers();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Start the pollers after {@link #enqueue(Object, long)} found them stopped.  Must not be called while holding
+     * {@link #lock}.
+     */
+    void startPollers() {
+        pollerStarter.run();
+    }
+
+    /**
+     * Must be called while holding {@link #lock}.  Waits until the queue may hold a full batch, a request with its own
+     * deadline arrives, or the timeout elapses, whichever comes first.  Spurious wake-ups are possible, so callers
+     * should re-check the queue.
+     * @param batchSize The queue size at which to wake up
+     * @param timeoutNanos The maximum time to wait
+     * @throws InterruptedException If the waiting thread is interrupted
+     */
+    void awaitBatchReady(int batchSize, long timeoutNanos) throws InterruptedException {
+        batchReadySize = batchSize;
+        batchReady.awaitNanos(timeoutNanos);
+    }
+
+    /**
+     * Like {@link #awaitBatchReady(int, long)}, but unless the strategy is {@link WaitStrategy#blocking()}, the lock is
+     * released and the poller checks for a signal in between calls to the strategy's
+     * {@link WaitStrategy.IdleAction}.  Must be called while holding {@link #lock} exactly once.
+     * @param batchSize The queue size at which to wake up
+     * @param timeoutNanos The maximum time to wait
+     * @param waitStrategy How to wait
+     * @throws InterruptedException If the waiting thread is interrupted
+     */
+    void awaitBatchReady(int batchSize, long timeoutNanos, WaitStrategy waitStrategy) throws InterruptedException {
+        if (waitStrategy.isBlocking()) {
+            awaitBatchReady(batchSize, timeoutNanos);
+            return;
+        }
+        WaitStrategy.IdleAction idleAction = waitStrategy.getIdleAction();
+        batchReadySize = batchSize;
+        int signalsBeforeWait = numSignals;
+        long deadlineNanos = System.nanoTime() + timeoutNanos;
+        lock.unlock();
+        try {
+            for (int attempt = 0; numSignals == signalsBeforeWait; attempt++) {
+                long remainingNanos = deadlineNanos - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    return;
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                idleAction.idle(attempt, remainingNanos);
+            }
+        } finally {
+            lock.lock();
+        }
+    }
+
+    /**
+     * Wake up every poller waiting on {@link #awaitBatchReady(int, long)}, e.g. so that it notices it was shut down.
+     */
+    void wakeUpPollers() {
+        lock.lock();
+        try {
+            signalPollers();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #lock}.
+     */
+    private void signalPollers() {
+        numSignals++;
+        batchReady.signalAll();
+    }
+
+    /**
+     * Move every request in this queue to the given queue, e.g. when this queue is being retired.  Requests keep their
+     * order, but their buffer time starts over in the new queue.
+     * @param target The queue to move requests to
+     * @return The number of requests moved
+     */
+    int transferTo(QueueAndLock<T> target) {
+        boolean targetPollersStopped = false;
+        lock.lock();
+        try {
+            target.getLock().lock();
+            try {
+                int count = queue.size();
+                T item;
+                while ((item = queue.poll()) != null) {
+                    targetPollersStopped |= target.enqueue(item, EnqueueTimeline.NO_DEADLINE);
+                }
+                enqueueTimeline.recordDequeue(count);
+                sendableCount = 0;
+                sendableWeight = 0;
+                if (keyOrdering != null) {
+                    Arrays.fill(keyGroupCounts, 0);
+                    Arrays.fill(keyGroupWeights, 0);
+                }
+                return count;
+            } finally {
+                target.getLock().unlock();
+            }
+        } finally {
+            lock.unlock();
+            if (targetPollersStopped) {
+                target.startPollers();
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #lock}.  Where the requests were in the queue is up to the caller to record in
+     * the {@link #enqueueTimeline}.
+     * @param batch The requests that were just removed from the queue, none of which may be in a key group that is
+     *              being written
+     */
+    void recordDequeue(List<T> batch) {
+        if (batchWeightLimit == null && keyOrdering == null) {
+            return;
+        }
+        for (T item : batch) {
+            long weight = weigh(item);
+            sendableWeight -= weight;
+            if (keyOrdering != null) {
+                int keyGroup = keyOrdering.keyGroupOf(item);
+                keyGroupCounts[keyGroup]--;
+                keyGroupWeights[keyGroup] -= weight;
+                sendableCount--;
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #lock}, right after draining a batch.  The queued requests in the batch's
+     * key groups can't be sent until {@link #clearInFlight(List)} is called.
+     * @param batch The batch that is about to be written
+     */
+    void markInFlight(List<T> batch) {
+        if (keyOrdering == null) {
+            return;
+        }
+        for (T item : batch) {
+            int keyGroup = keyOrdering.keyGroupOf(item);
+            if (!inFlightKeyGroups.get(keyGroup)) {
+                inFlightKeyGroups.set(keyGroup);
+                sendableCount -= keyGroupCounts[keyGroup];
+                sendableWeight -= keyGroupWeights[keyGroup];
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #lock}, once a batch passed to {@link #markInFlight(List)} has been written.
+     * @param batch The batch that was written
+     */
+    void clearInFlight(List<T> batch) {
+        if (keyOrdering == null) {
+            return;
+        }
+        for (T item : batch) {
+            int keyGroup = keyOrdering.keyGroupOf(item);
+            if (inFlightKeyGroups.get(keyGroup)) {
+                inFlightKeyGroups.clear(keyGroup);
+                sendableCount += keyGroupCounts[keyGroup];
+                sendableWeight += keyGroupWeights[keyGroup];
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #lock}.
+     * @return False if the request's key group is in a batch that is being written.
+     */
+    boolean isSendable(T item) {
+        return keyOrdering == null || !inFlightKeyGroups.get(keyOrdering.keyGroupOf(item));
+    }
+
+    /**
+     * Must be called while holding {@link #lock}.
+     * @return The number of queued requests that can be sent now, i.e. whose key group isn't being written.
+     */
+    int getNumSendable() {
+        return keyOrdering == null ? queue.size() : sendableCount;
+    }
+
+    /**
+     * Must be called while holding {@link #lock}.
+     * @return True if the requests that can be sent now weigh at least a full batch.
+     */
+    boolean isFullByWeight() {
+        return batchWeightLimit != null && sendableWeight >= batchWeightLimit.getMaxBatchWeight();
+    }
+
+    private long weigh(T item) {
+        return batchWeightLimit == null ? 0 : batchWeightLimit.getWeigher().weigh(item);
+    }
+
+    /**
+     * Must be called while holding {@link #lock}.
+     * @param maxBufferTimeNanos How long a request without a deadline of its own may be buffered
+     * @param defaultFlushNanos When to flush if the timeline has no requests, e.g. because they were added to the
+     *                          queue directly
+     * @return The {@link System#nanoTime()} at which the queue should be flushed even if the batch isn't full.
+     */
+    long getFlushDeadlineNanos(long maxBufferTimeNanos, long defaultFlushNanos) {
+        if (enqueueTimeline.isEmpty()) {
+            return defaultFlushNanos;
+        }
+        return Math.min(enqueueTimeline.getOldestEnqueueNanos() + maxBufferTimeNanos,
+                enqueueTimeline.getEarliestDeadlineNanos());
+    }
+
+    /**
+     * @return How long the oldest request in the queue has been waiting, in milliseconds, or 0 if the queue is empty.
+     */
+    public long getOldestRequestAgeMs() {
+        lock.lock();
+        try {
+            if (enqueueTimeline.isEmpty()) {
+                return 0;
+            }
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - enqueueTimeline.getOldestEnqueueNanos());
+        } finally {
+            lock.unlock();
+        }
+    }
 }
@@ -0,0 +1,26 @@
+package batchrequests;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Serializes a request into bytes so that it can be buffered outside of the Java heap.  To be implemented by the
+ * client and passed to an {@link EncodingBatchSubmitter}.  To spill requests to disk, implement {@link SpillCodec}
+ * instead.
+ * @param <T> Type of the request that will be encoded.
+ */
+public interface RecordCodec<T> {
+
+    /**
+     * @param record The request that will be encoded.
+     * @return The exact number of bytes that {@link #encode(Object, ByteBuffer)} will write for the request.
+     */
+    int encodedLength(T record);
+
+    /**
+     * Write the request into the target buffer.  The target has exactly {@link #encodedLength(Object)} bytes
+     * remaining, and all of them must be written.
+     * @param record The request to encode.
+     * @param target The region reserved for the request.  Must not be retained after this method returns.
+     */
+    void encode(T record, ByteBuffer target);
+}
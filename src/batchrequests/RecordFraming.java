@@ -0,0 +1,56 @@
+package batchrequests;
+
+import java.nio.ByteBuffer;
+
+/**
+ * How each encoded request is delimited from the next one.  The frame is written into the slab together with the
+ * request when it is submitted, so an {@link EncodedBatch} can be sent as-is without re-serializing the batch.
+ */
+public enum RecordFraming {
+
+    /** Requests are written back to back with nothing in between. */
+    NONE(0, 0),
+
+    /** Each request is preceded by its length as a 4-byte big-endian int. */
+    LENGTH_PREFIXED(4, 0),
+
+    /**
+     * Each request is followed by a {@code '\n'}.  The {@link RecordCodec} is responsible for not writing newlines
+     * inside of a request.
+     */
+    NEWLINE_DELIMITED(0, 1);
+
+    private final int headerLength;
+    private final int trailerLength;
+
+    RecordFraming(int headerLength, int trailerLength) {
+        this.headerLength = headerLength;
+        this.trailerLength = trailerLength;
+    }
+
+    /**
+     * @return The number of bytes written before each request.
+     */
+    public int getHeaderLength() {
+        return headerLength;
+    }
+
+    /**
+     * @return The number of bytes written after each request.
+     */
+    public int getTrailerLength() {
+        return trailerLength;
+    }
+
+    void writeHeader(ByteBuffer frame, int payloadLength) {
+        if (this == LENGTH_PREFIXED) {
+            frame.putInt(payloadLength);
+        }
+    }
+
+    void writeTrailer(ByteBuffer frame) {
+        if (this == NEWLINE_DELIMITED) {
+            frame.put((byte) '\n');
+        }
+    }
+}
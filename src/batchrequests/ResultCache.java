@@ -0,0 +1,78 @@
+package batchrequests;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded cache of loaded values, which evicts the least recently used entry when it is full and treats entries as
+ * absent once they are older than the time to live.  Values that were loaded as null are cached too.  This class is
+ * thread-safe.
+ */
+class ResultCache<K, V> {
+
+    private final long ttlNanos;
+    private final Map<K, Entry<V>> entries;
+
+    /**
+     * @param maxSize A positive maximum number of entries
+     * @param ttlMs A positive time after which an entry expires
+     */
+    ResultCache(int maxSize, long ttlMs) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Need a positive max cache size.  Got: " + maxSize);
+        }
+        if (ttlMs < 1) {
+            throw new IllegalArgumentException("Need a positive cache time to live.  Got: " + ttlMs);
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return The cached entry for the key, or null if there is none or it has expired.
+     */
+    synchronized Entry<V> get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.cachedAtNanos >= ttlNanos) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    synchronized void put(K key, V value) {
+        entries.put(key, new Entry<>(value, System.nanoTime()));
+    }
+
+    synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * @return The number of entries, including ones that have expired but haven't been evicted yet.
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    static class Entry<V> {
+        final V value;
+        final long cachedAtNanos;
+
+        Entry(V value, long cachedAtNanos) {
+            this.value = value;
+            this.cachedAtNanos = cachedAtNanos;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package batchrequests;
+
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of a {@link BatchingSimulator} run.  Latency is measured from a request's arrival until the write of its
+ * batch finishes.
+ */
+public class SimulationReport {
+
+    private static final double NANOS_PER_MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /** The number of requests in the trace. */
+    @Getter private final int numRequests;
+    /** The number of batches written. */
+    @Getter private final int numBatches;
+    private final int maxBatchSize;
+    /** Sorted */
+    private final long[] latenciesNanos;
+    private final long totalWriteNanos;
+    private final long simulatedNanos;
+
+    SimulationReport(int numBatches, int maxBatchSize, long[] sortedLatenciesNanos, long totalWriteNanos,
+                     long simulatedNanos) {
+        this.numRequests = sortedLatenciesNanos.length;
+        this.numBatches = numBatches;
+        this.maxBatchSize = maxBatchSize;
+        this.latenciesNanos = sortedLatenciesNanos;
+        this.totalWriteNanos = totalWriteNanos;
+        this.simulatedNanos = simulatedNanos;
+    }
+
+    /**
+     * @return The average number of requests per batch, or 0 if nothing was written.
+     */
+    public double getMeanBatchSize() {
+        return numBatches == 0 ? 0 : (double) numRequests / numBatches;
+    }
+
+    /**
+     * @return The average batch size as a fraction of the max batch size.
+     */
+    public double getMeanFillRatio() {
+        return getMeanBatchSize() / maxBatchSize;
+    }
+
+    /**
+     * @param percentile A percentile in (0, 100]
+     * @return The latency at the percentile, in milliseconds, or 0 if there were no requests.
+     */
+    public double getLatencyPercentileMs(double percentile) {
+        if (!(percentile > 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Need a percentile in (0, 100].  Got: " + percentile);
+        }
+        if (latenciesNanos.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * latenciesNanos.length) - 1;
+        return latenciesNanos[Math.max(0, Math.min(rank, latenciesNanos.length - 1))] / NANOS_PER_MS;
+    }
+
+    /**
+     * @return The sum of every write's time, in milliseconds, e.g. to estimate the cost of the writer.
+     */
+    public double getTotalWriteTimeMs() {
+        return totalWriteNanos / NANOS_PER_MS;
+    }
+
+    /**
+     * @return The simulated time from the first arrival until the last write finished, in milliseconds.
+     */
+    public double getSimulatedTimeMs() {
+        return simulatedNanos / NANOS_PER_MS;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d requests in %d batches (mean size %.1f, fill %.0f%%), latency p50 %.1fms p99 %.1fms "
+                        + "max %.1fms, write time %.1fms over %.1fms",
+                numRequests, numBatches, getMeanBatchSize(), getMeanFillRatio() * 100, getLatencyPercentileMs(50),
+                getLatencyPercentileMs(99), getLatencyPercentileMs(100), getTotalWriteTimeMs(), getSimulatedTimeMs());
+    }
+}
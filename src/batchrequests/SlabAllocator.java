@@ -0,0 +1,166 @@
+package batchrequests;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+
+/**
+ * Hands out regions of large direct {@link ByteBuffer} slabs to encoded requests.  Requests are appended to the
+ * current slab until it is full, and a slab is recycled once every request in it has been released.  This keeps the
+ * buffered bytes out of the Java heap (and out of the old generation) no matter how large the batches grow.
+ *
+ * This class is thread-safe.
+ */
+@Slf4j
+public class SlabAllocator {
+
+    /** Value: {@value #DEFAULT_SLAB_SIZE_BYTES} */
+    public static final int DEFAULT_SLAB_SIZE_BYTES = 64 * 1024;
+
+    /** Value: {@value #DEFAULT_MAX_POOLED_SLABS} */
+    public static final int DEFAULT_MAX_POOLED_SLABS = 16;
+
+    @Getter private final int slabSizeBytes;
+    @Getter private final int maxPooledSlabs;
+
+    private final Deque<Slab> pooledSlabs = new ArrayDeque<>();
+    private Slab currentSlab;
+    private long bytesInUse;
+
+    public SlabAllocator() {
+        this(DEFAULT_SLAB_SIZE_BYTES, DEFAULT_MAX_POOLED_SLABS);
+    }
+
+    /**
+     * @param slabSizeBytes A positive size for each slab.  Requests larger than this get a dedicated slab.
+     * @param maxPooledSlabs A non-negative number of empty slabs to keep for reuse instead of letting them be collected.
+     */
+    public SlabAllocator(int slabSizeBytes, int maxPooledSlabs) {
+        if (slabSizeBytes < 1) {
+            throw new IllegalArgumentException("Need a positive slab size.  Got: " + slabSizeBytes);
+        }
+        if (maxPooledSlabs < 0) {
+            throw new IllegalArgumentException("Need a non-negative number of pooled slabs.  Got: " + maxPooledSlabs);
+        }
+        this.slabSizeBytes = slabSizeBytes;
+        this.maxPooledSlabs = maxPooledSlabs;
+    }
+
+    /**
+     * Reserve a region for a request of the given length, without any framing.
+     * @param length A non-negative number of bytes.
+     * @return A record whose region is exclusively owned by the caller until it is released.
+     */
+    EncodedRecord allocate(int length) {
+        return allocate(length, RecordFraming.NONE);
+    }
+
+    /**
+     * Reserve a region for a request of the given length plus its framing.
+     * @param length A non-negative number of bytes for the request itself.
+     * @param framing The framing that will be written around the request.
+     * @return A record whose region is exclusively owned by the caller until it is released.
+     */
+    synchronized EncodedRecord allocate(int length, RecordFraming framing) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Need a non-negative length.  Got: " + length);
+        }
+        int frameLength = framing.getHeaderLength() + length + framing.getTrailerLength();
+        if (frameLength > slabSizeBytes) {
+            // Oversized requests get a slab of their own that is never pooled
+            Slab oversized = new Slab(this, ByteBuffer.allocateDirect(frameLength));
+            oversized.sealed = true;
+            return reserve(oversized, frameLength, framing.getHeaderLength(), length);
+        }
+        if (currentSlab == null || currentSlab.getBuffer().capacity() - currentSlab.writePosition < frameLength) {
+            // The current slab still has live records (otherwise it would have been rewound), so it is recycled
+            // when the last of them is released
+            if (currentSlab != null) {
+                currentSlab.sealed = true;
+            }
+            currentSlab = pooledSlabs.isEmpty() ? new Slab(this, ByteBuffer.allocateDirect(slabSizeBytes)) : pooledSlabs.pop();
+        }
+        return reserve(currentSlab, frameLength, framing.getHeaderLength(), length);
+    }
+
+    /**
+     * Release the regions of the given records so that their slabs can be reused.  Releasing a record more than once
+     * has no effect.
+     */
+    synchronized void release(Collection<EncodedRecord> records) {
+        for (EncodedRecord record : records) {
+            if (record.released) {
+                continue;
+            }
+            record.released = true;
+            bytesInUse -= record.getFrameLength();
+            Slab slab = record.getSlab();
+            slab.liveRecords--;
+            recycleIfUnused(slab);
+        }
+    }
+
+    /**
+     * @return The number of bytes held by records that have not been released yet.
+     */
+    public synchronized long getBytesInUse() {
+        return bytesInUse;
+    }
+
+    /**
+     * @return The number of empty slabs waiting to be reused.
+     */
+    public synchronized int getNumPooledSlabs() {
+        return pooledSlabs.size();
+    }
+
+    private EncodedRecord reserve(Slab slab, int frameLength, int headerLength, int length) {
+        int offset = slab.writePosition;
+        EncodedRecord record = new EncodedRecord(slab, offset, frameLength, offset + headerLength, length);
+        slab.writePosition += frameLength;
+        slab.liveRecords++;
+        bytesInUse += frameLength;
+        return record;
+    }
+
+    private void recycleIfUnused(Slab slab) {
+        if (slab.liveRecords > 0) {
+            return;
+        }
+        if (slab == currentSlab) {
+            // Nothing references the current slab anymore, so we can start writing from the beginning again
+            slab.writePosition = 0;
+            return;
+        }
+        if (!slab.sealed) {
+            return;
+        }
+        if (slab.getBuffer().capacity() == slabSizeBytes && pooledSlabs.size() < maxPooledSlabs) {
+            slab.writePosition = 0;
+            slab.sealed = false;
+            pooledSlabs.push(slab);
+        } else {
+            log.debug("Dropping slab of {} bytes", slab.getBuffer().capacity());
+        }
+    }
+
+    /**
+     * A single direct buffer that records are appended to.  All mutable fields are guarded by the allocator lock.
+     */
+    static class Slab {
+        @Getter private final SlabAllocator allocator;
+        @Getter private final ByteBuffer buffer;
+        private int writePosition;
+        private int liveRecords;
+        private boolean sealed;
+
+        Slab(SlabAllocator allocator, ByteBuffer buffer) {
+            this.allocator = allocator;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package batchrequests;
+
+import lombok.Getter;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Submits requests to be batched without allocating them.  A fixed number of mutable request slots are created up
+ * front, and a producer claims a free slot, fills it in place and publishes it.  Once the batch holding the slot has
+ * been written, the slot is free to be claimed again.  This class is thread-safe.
+ * <pre>
+ *     SlotBatchSubmitter&lt;Event&gt; submitter = new SlotBatchSubmitter&lt;&gt;(
+ *             new BatchRequestsFactory.BatchRequestsFactoryBuilder&lt;&gt;(batchWriter), 1024, Event::new);
+ *     Event event = submitter.claim();
+ *     event.setValue(value);
+ *     submitter.publish(event);
+ * </pre>
+ * The {@link BatchWriter} receives the slots themselves, so it must not keep a reference to them (or to the batch)
+ * after {@link BatchWriter#write(Collection)} returns, which also lets the factory reuse each batch.  Producers block in
+ * {@link #claim()} while every slot is buffered or being written, which also bounds how many requests can be buffered.
+ * Once the submitter is shut down, slots can no longer be claimed.
+ *
+ * The submitter has a {@link BatchRequestsFactory} of its own, whose queues are sized so that they never grow.  Slots
+ * can't be spilled to disk, so the factory builder must not have a
+ * {@link BatchRequestsFactory.BatchRequestsFactoryBuilder#withSpillPolicy(SpillPolicy) spill policy}.
+ * @param <T> Type of request slot
+ */
+public class SlotBatchSubmitter<T> {
+
+    private static final byte FREE = 0;
+    private static final byte CLAIMED = 1;
+    private static final byte PUBLISHED = 2;
+
+    @Getter private final BatchRequestsFactory<T> factory;
+    private final Map<T, Integer> slotIndexes;
+    private final Object[] slots;
+    /** The indexes of the slots in the batch being written, by polling thread. */
+    private final ThreadLocal<int[]> batchIndexes = ThreadLocal.withInitial(() -> new int[0]);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFreed = lock.newCondition();
+    /** The state of each slot, by index.  Guarded by {@link #lock}. */
+    private final byte[] slotStates;
+    /** A stack of the indexes of the free slots.  Guarded by {@link #lock}. */
+    private final int[] freeSlots;
+    /** Guarded by {@link #lock}. */
+    private int numFreeSlots;
+    /** Guarded by {@link #lock}. */
+    private boolean shutDown;
+
+    /**
+     * @param factoryBuilder A non-null builder for the factory that will batch the requests, without a spill policy.
+     *                       Its writer is wrapped to free the slots once they have been written, and its batches
+     *                       are reused (see
+     *                       {@link BatchRequestsFactory.BatchRequestsFactoryBuilder#withBatchReuse(boolean)}).
+     * @param numSlots A positive number of slots to create
+     * @param slotFactory Creates each slot.  Must return a distinct, non-null object every time it is called.
+     */
+    public SlotBatchSubmitter(BatchRequestsFactory.BatchRequestsFactoryBuilder<T> factoryBuilder,
+                              int numSlots,
+                              Supplier<T> slotFactory) {
+        if (factoryBuilder == null) {
+            throw new IllegalArgumentException("Need a non-null BatchRequestsFactoryBuilder");
+        }
+        if (factoryBuilder.hasSpillPolicy()) {
+            throw new IllegalArgumentException("Slots can't be spilled, so the factory builder can't have a spill policy");
+        }
+        if (numSlots < 1) {
+            throw new IllegalArgumentException("Need a positive number of slots.  Got: " + numSlots);
+        }
+        if (slotFactory == null) {
+            throw new IllegalArgumentException("Need a non-null slot factory");
+        }
+        this.slots = new Object[numSlots];
+        this.slotIndexes = new IdentityHashMap<>(numSlots);
+        this.slotStates = new byte[numSlots];
+        this.freeSlots = new int[numSlots];
+        for (int i = 0; i < numSlots; i++) {
+            T slot = slotFactory.get();
+            if (slot == null || slotIndexes.put(slot, i) != null) {
+                throw new IllegalArgumentException("Slot factory must return a distinct, non-null slot every time");
+            }
+            slots[i] = slot;
+            // Hand out the lowest slots first
+            freeSlots[i] = numSlots - 1 - i;
+        }
+        this.numFreeSlots = numSlots;
+        this.factory = factoryBuilder.withBatchReuse(true).build(batchWriter -> batch -> write(batchWriter, batch),
+                () -> new ArrayDeque<>(numSlots));
+    }
+
+    /**
+     * Wait for a free slot and claim it.  The slot still holds whatever it was last filled with.
+     * @return A slot to fill in and then {@link #publish(Object)}
+     * @throws InterruptedException If interrupted while waiting for a slot to be freed
+     * @throws IllegalStateException If the submitter is shut down, including while waiting
+     */
+    public T claim() throws InterruptedException {
+        lock.lock();
+        try {
+            checkNotShutDown();
+            while (numFreeSlots == 0) {
+                slotFreed.await();
+                checkNotShutDown();
+            }
+            return claimFreeSlot();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Like {@link #claim()}, without waiting.
+     * @return A slot to fill in and then {@link #publish(Object)}, or null if every slot is buffered or being written
+     * @throws IllegalStateException If the submitter is shut down
+     */
+    public T tryClaim() {
+        lock.lock();
+        try {
+            checkNotShutDown();
+            return numFreeSlots == 0 ? null : claimFreeSlot();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Submit a claimed slot to be batched.  The slot must not be changed until it is claimed again.
+     * @param slot A slot returned by {@link #claim()} or {@link #tryClaim()}
+     * @throws IllegalArgumentException If the slot wasn't created by this submitter
+     * @throws IllegalStateException If the slot isn't claimed, e.g. because it was already published
+     */
+    public void publish(T slot) {
+        int index = indexOf(slot);
+        lock.lock();
+        try {
+            if (slotStates[index] != CLAIMED) {
+                throw new IllegalStateException("Slot " + index + " must be claimed before it is published");
+            }
+            slotStates[index] = PUBLISHED;
+        } finally {
+            lock.unlock();
+        }
+        factory.getBatchSubmitter().put(slot);
+    }
+
+    /**
+     * Give back a claimed slot without publishing it.
+     * @param slot A slot returned by {@link #claim()} or {@link #tryClaim()}
+     * @throws IllegalArgumentException If the slot wasn't created by this submitter
+     * @throws IllegalStateException If the slot isn't claimed
+     */
+    public void abandon(T slot) {
+        int index = indexOf(slot);
+        lock.lock();
+        try {
+            if (slotStates[index] != CLAIMED) {
+                throw new IllegalStateException("Slot " + index + " must be claimed before it is abandoned");
+            }
+            freeSlot(index);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of slots.
+     */
+    public int getNumSlots() {
+        return slots.length;
+    }
+
+    /**
+     * @return The number of slots that can be claimed right away.
+     */
+    public int getNumFreeSlots() {
+        lock.lock();
+        try {
+            return numFreeSlots;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop batching.  See {@link BatchRequestsFactory#shutdown(long)}.  Slots that are still queued afterwards are
+     * never freed, so producers waiting in {@link #claim()} fail instead of waiting for them.
+     */
+    public boolean shutdown(long graceTimeMs) throws InterruptedException {
+        lock.lock();
+        try {
+            shutDown = true;
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return factory.shutdown(graceTimeMs);
+    }
+
+    private void write(BatchWriter<T> batchWriter, Collection<T> batch) {
+        if (batch.isEmpty()) {
+            batchWriter.write(batch);
+            return;
+        }
+        // Taken before writing, since the writer may change the batch
+        int[] indexes = batchIndexes.get();
+        if (indexes.length < batch.size()) {
+            indexes = new int[batch.size()];
+            batchIndexes.set(indexes);
+        }
+        int numIndexes = 0;
+        for (T slot : batch) {
+            indexes[numIndexes++] = slotIndexes.get(slot);
+        }
+        try {
+            batchWriter.write(batch);
+        } finally {
+            release(indexes, numIndexes);
+        }
+    }
+
+    private void release(int[] indexes, int numIndexes) {
+        lock.lock();
+        try {
+            for (int i = 0; i < numIndexes; i++) {
+                freeSlot(indexes[i]);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #lock}.
+     */
+    private void checkNotShutDown() {
+        if (shutDown) {
+            throw new IllegalStateException("Slots can't be claimed after the submitter is shut down");
+        }
+    }
+
+    /**
+     * Must be called while holding {@link #lock}.
+     */
+    @SuppressWarnings("unchecked")
+    private T claimFreeSlot() {
+        int index = freeSlots[--numFreeSlots];
+        slotStates[index] = CLAIMED;
+        return (T) slots[index];
+    }
+
+    /**
+     * Must be called while holding {@link #lock}.
+     */
+    private void freeSlot(int index) {
+        slotStates[index] = FREE;
+        freeSlots[numFreeSlots++] = index;
+        slotFreed.signal();
+    }
+
+    private int indexOf(T slot) {
+        Integer index = slot == null ? null : slotIndexes.get(slot);
+        if (index == null) {
+            throw new IllegalArgumentException("Need a slot that was created by this submitter");
+        }
+        return index;
+    }
+}
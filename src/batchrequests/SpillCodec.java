@@ -0,0 +1,18 @@
+package batchrequests;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link RecordCodec} that can also read requests back, so that they can be spilled to disk and written later.  To
+ * be implemented by the client and passed to a {@link SpillPolicy}.
+ * @param <T> Type of the request that will be encoded.
+ */
+public interface SpillCodec<T> extends RecordCodec<T> {
+
+    /**
+     * Read back a request written by {@link #encode(Object, ByteBuffer)}.
+     * @param source Exactly the bytes written for the request.  Must not be retained after this method returns.
+     * @return The decoded request
+     */
+    T decode(ByteBuffer source);
+}
@@ -0,0 +1,133 @@
+package batchrequests;
+
+import lombok.Getter;
+
+import java.nio.file.Path;
+
+/**
+ * When and where a {@link BatchRequestsFactory} spills buffered requests to disk.  Requests are weighed as they are
+ * submitted, and once the requests buffered in memory by every queue of the factory weigh more than the memory
+ * budget, each queue appends new requests to segment files in the spill directory instead.  Spilled requests are read
+ * back in order as the writer catches up, so a long downstream outage fills the disk rather than the heap.
+ *
+ * Disk usage isn't bounded, and spilled requests are lost if the process stops before they are written.
+ *
+ * Create a policy using {@link SpillPolicyBuilder}.
+ * @param <T> Type of request
+ */
+@Getter
+public class SpillPolicy<T> {
+
+    /** Value: {@value #DEFAULT_MEMORY_BUDGET_BYTES} */
+    public static final long DEFAULT_MEMORY_BUDGET_BYTES = 64L * 1024 * 1024;
+
+    /** Value: {@value #DEFAULT_SEGMENT_SIZE_BYTES} */
+    public static final long DEFAULT_SEGMENT_SIZE_BYTES = 64L * 1024 * 1024;
+
+    /** Value: {@value #DEFAULT_IO_BUFFER_SIZE_BYTES} */
+    public static final int DEFAULT_IO_BUFFER_SIZE_BYTES = 64 * 1024;
+
+    private final Weigher<T> weigher;
+    private final SpillCodec<T> codec;
+    private final Path directory;
+    private final long memoryBudgetBytes;
+    private final long segmentSizeBytes;
+    private final int ioBufferSizeBytes;
+
+    private SpillPolicy(Weigher<T> weigher,
+                        SpillCodec<T> codec,
+                        Path directory,
+                        long memoryBudgetBytes,
+                        long segmentSizeBytes,
+                        int ioBufferSizeBytes) {
+        if (weigher == null) {
+            throw new IllegalArgumentException("Need a non-null Weigher");
+        }
+        if (codec == null) {
+            throw new IllegalArgumentException("Need a non-null SpillCodec");
+        }
+        if (directory == null) {
+            throw new IllegalArgumentException("Need a non-null spill directory");
+        }
+        if (memoryBudgetBytes < 1) {
+            throw new IllegalArgumentException("Need a positive memory budget.  Got: " + memoryBudgetBytes);
+        }
+        if (segmentSizeBytes < 1) {
+            throw new IllegalArgumentException("Need a positive segment size.  Got: " + segmentSizeBytes);
+        }
+        if (ioBufferSizeBytes < 1) {
+            throw new IllegalArgumentException("Need a positive IO buffer size.  Got: " + ioBufferSizeBytes);
+        }
+        this.weigher = weigher;
+        this.codec = codec;
+        this.directory = directory;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.segmentSizeBytes = segmentSizeBytes;
+        this.ioBufferSizeBytes = ioBufferSizeBytes;
+    }
+
+    /**
+     * A builder with every parameter optional, other than those of the constructor.
+     * @param <T> Type of request
+     */
+    public static class SpillPolicyBuilder<T> {
+        private final Weigher<T> builderWeigher;
+        private final SpillCodec<T> builderCodec;
+        private final Path builderDirectory;
+        private long builderMemoryBudgetBytes = DEFAULT_MEMORY_BUDGET_BYTES;
+        private long builderSegmentSizeBytes = DEFAULT_SEGMENT_SIZE_BYTES;
+        private int builderIoBufferSizeBytes = DEFAULT_IO_BUFFER_SIZE_BYTES;
+
+        /**
+         * @param weigher Estimates the heap size of each request in bytes.  Must return the same weight every time it
+         *                is called with the same request.
+         * @param codec Writes requests to disk and reads them back.
+         * @param directory An existing directory to create segment files in
+         */
+        public SpillPolicyBuilder(Weigher<T> weigher, SpillCodec<T> codec, Path directory) {
+            this.builderWeigher = weigher;
+            this.builderCodec = codec;
+            this.builderDirectory = directory;
+        }
+
+        /**
+         * @param memoryBudgetBytes The total weight of the requests that the factory's queues buffer in memory before
+         *                          they start spilling.  Defaults to {@link #DEFAULT_MEMORY_BUDGET_BYTES}.
+         * @return {@link SpillPolicyBuilder}
+         */
+        public SpillPolicyBuilder<T> withMemoryBudgetBytes(long memoryBudgetBytes) {
+            this.builderMemoryBudgetBytes = memoryBudgetBytes;
+            return this;
+        }
+
+        /**
+         * @param segmentSizeBytes A new segment file is started once the current one is this large.  Segments are
+         *                         deleted once every request in them has been read back.
+         *                         Defaults to {@link #DEFAULT_SEGMENT_SIZE_BYTES}.
+         * @return {@link SpillPolicyBuilder}
+         */
+        public SpillPolicyBuilder<T> withSegmentSizeBytes(long segmentSizeBytes) {
+            this.builderSegmentSizeBytes = segmentSizeBytes;
+            return this;
+        }
+
+        /**
+         * @param ioBufferSizeBytes The size of each queue's write buffer and read buffer, so that segments are written
+         *                          and read in large sequential chunks.
+         *                          Defaults to {@link #DEFAULT_IO_BUFFER_SIZE_BYTES}.
+         * @return {@link SpillPolicyBuilder}
+         */
+        public SpillPolicyBuilder<T> withIoBufferSizeBytes(int ioBufferSizeBytes) {
+            this.builderIoBufferSizeBytes = ioBufferSizeBytes;
+            return this;
+        }
+
+        /**
+         * @return {@link SpillPolicy} with the provided options.
+         */
+        public SpillPolicy<T> build() {
+            return new SpillPolicy<>(builderWeigher, builderCodec, builderDirectory, builderMemoryBudgetBytes,
+                    builderSegmentSizeBytes, builderIoBufferSizeBytes);
+        }
+    }
+}
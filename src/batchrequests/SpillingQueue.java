@@ -0,0 +1,358 @@
+package batchrequests;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * A queue that keeps requests in memory while they fit in a {@link MemoryBudget} shared with the other queues of the
+ * factory, and appends them to segment files on disk once they don't.  After the first request is spilled, every
+ * later request is spilled too until the spilled ones have been read back, so requests always leave the queue in the
+ * order they were added.  Spilled requests are read back from the head of the disk as room frees up in the budget, and
+ * at least one at a time whenever nothing is left in memory.
+ *
+ * Segments hold length-prefixed records, each with the request's weight, and are only ever appended to and read from
+ * start to end, through a write buffer and a read buffer.  A segment is deleted once it has been read back.
+ *
+ * Like {@link java.util.LinkedList}, this class isn't thread-safe, and is guarded by the lock of its
+ * {@link QueueAndLock}.  {@link #iterator()} only covers the requests in memory, which all come before the spilled ones.
+ * @param <T> Type of request
+ */
+@Slf4j
+class SpillingQueue<T> extends AbstractQueue<T> implements Closeable {
+
+    /** The encoded length and the weight of each record */
+    private static final int RECORD_HEADER_BYTES = Integer.BYTES + Long.BYTES;
+
+    private final SpillPolicy<T> spillPolicy;
+    private final MemoryBudget memoryBudget;
+    private final ArrayDeque<T> inMemory = new ArrayDeque<>();
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    /** Records appended to the last segment that haven't been written to its file yet */
+    private final ByteBuffer writeBuffer;
+    /** Bytes read ahead from the first segment, in read mode */
+    private final ByteBuffer readBuffer;
+
+    /** The weight of the requests in memory, all of which is reserved from {@link #memoryBudget}. */
+    @Getter private long numBytesInMemory;
+    /** The number of requests on disk. */
+    @Getter private int numSpilled;
+    /** The number of requests that have been spilled since the queue was created. */
+    @Getter private long totalSpilled;
+
+    SpillingQueue(SpillPolicy<T> spillPolicy, MemoryBudget memoryBudget) {
+        this.spillPolicy = spillPolicy;
+        this.memoryBudget = memoryBudget;
+        int bufferSize = Math.max(spillPolicy.getIoBufferSizeBytes(), RECORD_HEADER_BYTES);
+        this.writeBuffer = ByteBuffer.allocateDirect(bufferSize);
+        this.readBuffer = ByteBuffer.allocateDirect(bufferSize);
+        this.readBuffer.limit(0);
+    }
+
+    @Override
+    public boolean offer(T request) {
+        if (request == null) {
+            throw new NullPointerException("Can't queue a null request");
+        }
+        long weight = spillPolicy.getWeigher().weigh(request);
+        if (numSpilled == 0 && memoryBudget.tryReserve(weight)) {
+            inMemory.add(request);
+            numBytesInMemory += weight;
+        } else {
+            spill(request, weight);
+        }
+        return true;
+    }
+
+    @Override
+    public T poll() {
+        readBack();
+        T request = inMemory.poll();
+        if (request != null) {
+            release(request);
+        }
+        return request;
+    }
+
+    @Override
+    public T peek() {
+        readBack();
+        return inMemory.peek();
+    }
+
+    @Override
+    public int size() {
+        return inMemory.size() + numSpilled;
+    }
+
+    /**
+     * Reads back spilled requests first if there is room for them in memory.
+     * @return An iterator over the requests in memory, which supports {@link Iterator#remove()}.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        readBack();
+        Iterator<T> delegate = inMemory.iterator();
+        return new Iterator<T>() {
+            private T last;
+
+            @Override
+            public boolean hasNext() {
+                return delegate.hasNext();
+            }
+
+            @Override
+            public T next() {
+                last = delegate.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                delegate.remove();
+                release(last);
+                last = null;
+            }
+        };
+    }
+
+    /**
+     * Drop every request, including those on disk, and delete the segment files.
+     */
+    @Override
+    public void clear() {
+        inMemory.clear();
+        memoryBudget.release(numBytesInMemory);
+        numBytesInMemory = 0;
+        while (!segments.isEmpty()) {
+            deleteSegment(segments.poll());
+        }
+        writeBuffer.clear();
+        readBuffer.clear().limit(0);
+        numSpilled = 0;
+    }
+
+    /**
+     * Like {@link #clear()}, logging any requests that are dropped.
+     */
+    @Override
+    public void close() {
+        if (!isEmpty()) {
+            log.warn("Dropping {} requests, {} of which are spilled to disk", size(), numSpilled);
+        }
+        clear();
+    }
+
+    private void release(T request) {
+        long weight = spillPolicy.getWeigher().weigh(request);
+        memoryBudget.release(weight);
+        numBytesInMemory -= weight;
+    }
+
+    private void spill(T request, long weight) {
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.numBytes >= spillPolicy.getSegmentSizeBytes()) {
+            flushWrites();
+            segment = newSegment();
+        }
+        int length = spillPolicy.getCodec().encodedLength(request);
+        int recordBytes = RECORD_HEADER_BYTES + length;
+        if (writeBuffer.remaining() < recordBytes) {
+            flushWrites();
+        }
+        // A record that doesn't fit in the write buffer is written on its own
+        ByteBuffer target = recordBytes <= writeBuffer.capacity() ? writeBuffer : ByteBuffer.allocate(recordBytes);
+        int start = target.position();
+        try {
+            target.putInt(length).putLong(weight);
+            ByteBuffer region = target.slice();
+            region.limit(length);
+            spillPolicy.getCodec().encode(request, region);
+        } catch (RuntimeException e) {
+            // Leave out the partial record
+            target.position(start);
+            throw e;
+        }
+        target.position(start + recordBytes);
+        if (target != writeBuffer) {
+            target.flip();
+            write(segment, target);
+        }
+        segment.numBytes += recordBytes;
+        segment.numRecords++;
+        numSpilled++;
+        totalSpilled++;
+    }
+
+    /**
+     * Move spilled requests into memory while they fit in the budget, and at least one if memory is empty.
+     */
+    private void readBack() {
+        while (numSpilled > 0) {
+            boolean mustRead = inMemory.isEmpty();
+            if (!mustRead && memoryBudget.getNumBytes() >= memoryBudget.getMaxBytes()) {
+                return;
+            }
+            Segment segment = segments.peekFirst();
+            if (segment == segments.peekLast()) {
+                // Records still in the write buffer belong to the segment being read
+                flushWrites();
+            }
+            fillReadBuffer(segment, RECORD_HEADER_BYTES);
+            long weight = readBuffer.getLong(readBuffer.position() + Integer.BYTES);
+            if (mustRead) {
+                memoryBudget.reserve(weight);
+            } else if (!memoryBudget.tryReserve(weight)) {
+                return;
+            }
+            T request;
+            try {
+                request = readRecord(segment);
+            } catch (RuntimeException e) {
+                memoryBudget.release(weight);
+                throw e;
+            }
+            inMemory.add(request);
+            numBytesInMemory += weight;
+        }
+    }
+
+    /**
+     * The record's header must be in {@link #readBuffer}.  The record is consumed even if it can't be read or decoded,
+     * so that one bad record doesn't block the rest of the queue.
+     */
+    private T readRecord(Segment segment) {
+        try {
+            int length = readBuffer.getInt();
+            readBuffer.getLong();
+            ByteBuffer source;
+            if (length <= readBuffer.capacity()) {
+                fillReadBuffer(segment, length);
+                source = readBuffer.slice();
+                source.limit(length);
+                readBuffer.position(readBuffer.position() + length);
+            } else {
+                source = ByteBuffer.allocate(length);
+                source.put(readBuffer);
+                read(segment, source);
+                source.flip();
+            }
+            return spillPolicy.getCodec().decode(source);
+        } finally {
+            numSpilled--;
+            if (--segment.numRecords == 0) {
+                deleteSegment(segments.poll());
+                readBuffer.clear().limit(0);
+            }
+        }
+    }
+
+    /**
+     * Read ahead from the segment until {@link #readBuffer} has at least the given number of bytes remaining.
+     */
+    private void fillReadBuffer(Segment segment, int numBytes) {
+        if (readBuffer.remaining() >= numBytes) {
+            return;
+        }
+        readBuffer.compact();
+        try {
+            while (readBuffer.position() < numBytes) {
+                int numRead = segment.channel.read(readBuffer, segment.readPosition);
+                if (numRead < 0) {
+                    throw new IOException("Segment " + segment.path + " ended in the middle of a record");
+                }
+                segment.readPosition += numRead;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't read spilled requests", e);
+        } finally {
+            readBuffer.flip();
+        }
+    }
+
+    private void read(Segment segment, ByteBuffer target) {
+        try {
+            while (target.hasRemaining()) {
+                int numRead = segment.channel.read(target, segment.readPosition);
+                if (numRead < 0) {
+                    throw new IOException("Segment " + segment.path + " ended in the middle of a record");
+                }
+                segment.readPosition += numRead;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't read spilled requests", e);
+        }
+    }
+
+    private void flushWrites() {
+        if (writeBuffer.position() == 0) {
+            return;
+        }
+        writeBuffer.flip();
+        try {
+            write(segments.peekLast(), writeBuffer);
+        } finally {
+            writeBuffer.clear();
+        }
+    }
+
+    private void write(Segment segment, ByteBuffer source) {
+        try {
+            while (source.hasRemaining()) {
+                segment.channel.write(source);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't spill requests to " + segment.path, e);
+        }
+    }
+
+    private Segment newSegment() {
+        try {
+            Path path = Files.createTempFile(spillPolicy.getDirectory(), "batchrequests-", ".spill");
+            Segment segment = new Segment(path, FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            segments.add(segment);
+            log.debug("Spilling requests to {}", path);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't create a segment in " + spillPolicy.getDirectory(), e);
+        }
+    }
+
+    private void deleteSegment(Segment segment) {
+        try {
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            log.warn("Couldn't delete segment {}", segment.path, e);
+        }
+    }
+
+    /**
+     * A file of spilled records.  Records are appended at the end of the file and read from {@link #readPosition}.
+     */
+    private static class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        /** Including the records still in the write buffer */
+        private long numBytes;
+        /** The number of records that haven't been read back */
+        private int numRecords;
+        private long readPosition;
+
+        private Segment(Path path, FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package batchrequests;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How an idle poller waits for its queue to fill up.  Blocking (the default) uses the least CPU, but a poller that is
+ * woken up by a submitter may take tens of microseconds to get going again.  The other strategies never give up the
+ * poller's thread to wait on the queue, and trade CPU for a shorter wake-up time instead:
+ * <ul>
+ *     <li>{@link #busySpin()} keeps checking the queue, and is only suitable when each poller has a core to itself</li>
+ *     <li>{@link #spinThenYield(int)} spins for a while, then lets other threads run between checks</li>
+ *     <li>{@link #parkWithBackoff(long, long)} sleeps between checks, for longer and longer up to a limit</li>
+ * </ul>
+ * Whichever strategy is used, the poller still sends partial batches after the max buffer time.  A poller whose queue
+ * is empty waits the same way, so that the first request after a quiet spell is noticed just as quickly.  The cost is
+ * that {@link #busySpin()} and {@link #spinThenYield(int)} keep their cores busy for as long as the queue is empty.  To
+ * bound that, set {@link BatchRequestsFactory.BatchRequestsFactoryBuilder#withIdleTimeoutMs(long)}: once the queue has
+ * been empty that long, its pollers stop, and the next request has to start them again.
+ */
+public final class WaitStrategy {
+
+    /** Value: {@value #DEFAULT_SPIN_TRIES} */
+    public static final int DEFAULT_SPIN_TRIES = 100;
+
+    /** Value: {@value #DEFAULT_MIN_PARK_NANOS} */
+    public static final long DEFAULT_MIN_PARK_NANOS = 1_000L;
+
+    /** Value: {@value #DEFAULT_MAX_PARK_NANOS} */
+    public static final long DEFAULT_MAX_PARK_NANOS = 1_000_000L;
+
+    private static final WaitStrategy BLOCKING = new WaitStrategy("blocking", null);
+
+    private static final WaitStrategy BUSY_SPIN = new WaitStrategy("busySpin", (attempt, remainingNanos) -> {
+        // Nothing to do, the queue is checked again right away
+    });
+
+    private final String name;
+    /** What the poller does between checks of the queue, or null if it waits on the queue's condition instead */
+    @Getter(AccessLevel.PACKAGE) private final IdleAction idleAction;
+
+    private WaitStrategy(String name, IdleAction idleAction) {
+        this.name = name;
+        this.idleAction = idleAction;
+    }
+
+    /**
+     * @return A strategy where the poller waits on a condition until a submitter signals it.  This is the default.
+     */
+    public static WaitStrategy blocking() {
+        return BLOCKING;
+    }
+
+    /**
+     * @return A strategy where the poller checks the queue in a loop without ever giving up its core.
+     */
+    public static WaitStrategy busySpin() {
+        return BUSY_SPIN;
+    }
+
+    /**
+     * Uses {@link #DEFAULT_SPIN_TRIES}.
+     */
+    public static WaitStrategy spinThenYield() {
+        return spinThenYield(DEFAULT_SPIN_TRIES);
+    }
+
+    /**
+     * @param spinTries How many times to check the queue in a loop before calling {@link Thread#yield()} between checks
+     * @return A strategy that spins, then yields
+     */
+    public static WaitStrategy spinThenYield(int spinTries) {
+        if (spinTries < 0) {
+            throw new IllegalArgumentException("Need a non-negative number of spin tries.  Got: " + spinTries);
+        }
+        return new WaitStrategy("spinThenYield(" + spinTries + ")", (attempt, remainingNanos) -> {
+            if (attempt >= spinTries) {
+                Thread.yield();
+            }
+        });
+    }
+
+    /**
+     * Uses {@link #DEFAULT_MIN_PARK_NANOS} and {@link #DEFAULT_MAX_PARK_NANOS}.
+     */
+    public static WaitStrategy parkWithBackoff() {
+        return parkWithBackoff(DEFAULT_MIN_PARK_NANOS, DEFAULT_MAX_PARK_NANOS);
+    }
+
+    /**
+     * @param minParkNanos How long to park the poller after the first check of the queue
+     * @param maxParkNanos The longest the poller is parked for.  The park time doubles after every check until it
+     *                     reaches this, which also bounds how long the poller takes to notice new requests.
+     * @return A strategy that parks for longer and longer between checks
+     */
+    public static WaitStrategy parkWithBackoff(long minParkNanos, long maxParkNanos) {
+        if (minParkNanos < 1) {
+            throw new IllegalArgumentException("Need a positive min park time.  Got: " + minParkNanos);
+        }
+        if (maxParkNanos < minParkNanos) {
+            throw new IllegalArgumentException("Need a max park time of at least " + minParkNanos + ".  Got: "
+                    + maxParkNanos);
+        }
+        String name = "parkWithBackoff(" + TimeUnit.NANOSECONDS.toMicros(minParkNanos) + "us, "
+                + TimeUnit.NANOSECONDS.toMicros(maxParkNanos) + "us)";
+        return new WaitStrategy(name, (attempt, remainingNanos) -> {
+            // Shifting by more than the number of leading zeros would overflow
+            int shift = Math.min(attempt, Long.numberOfLeadingZeros(minParkNanos) - 1);
+            long parkNanos = Math.min(minParkNanos << shift, maxParkNanos);
+            LockSupport.parkNanos(Math.min(parkNanos, remainingNanos));
+        });
+    }
+
+    /**
+     * @return True if the poller should wait on the queue's condition, in which case there is no
+     *         {@link #getIdleAction()}.
+     */
+    boolean isBlocking() {
+        return idleAction == null;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * What a poller that doesn't block does between checks of the queue, without holding the queue's lock.
+     */
+    @FunctionalInterface
+    interface IdleAction {
+        /**
+         * @param attempt How many times the poller has already checked the queue during this wait, starting at 0
+         * @param remainingNanos How long until the poller stops waiting.  Always positive.
+         */
+        void idle(int attempt, long remainingNanos);
+    }
+}
@@ -0,0 +1,16 @@
+package batchrequests;
+
+/**
+ * Estimates the size of a request, e.g. its serialized size in bytes.  To be implemented by the client when batches
+ * should be cut by size rather than only by the number of requests.
+ * @param <T> Type of the request that will be weighed.
+ */
+@FunctionalInterface
+public interface Weigher<T> {
+
+    /**
+     * @param request The request to weigh.  Must be cheap to call, since it is called while holding a queue lock.
+     * @return A non-negative weight for the request, the same every time the request is weighed.
+     */
+    long weigh(T request);
+}
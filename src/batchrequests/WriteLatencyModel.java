@@ -0,0 +1,39 @@
+package batchrequests;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long a {@link BatchWriter} takes to write a batch, for {@link BatchingSimulator}.  To be implemented by the client
+ * when neither {@link #fixedMs(double)} nor {@link #linearMs(double, double)} fits their writer, e.g. to sample
+ * recorded write times.
+ */
+@FunctionalInterface
+public interface WriteLatencyModel {
+
+    /**
+     * @param batchSize The number of requests in the batch
+     * @return A non-negative write time, in nanoseconds
+     */
+    long getWriteNanos(int batchSize);
+
+    /**
+     * @param writeMs The time every write takes, in milliseconds
+     * @return A model where batch size doesn't matter
+     */
+    static WriteLatencyModel fixedMs(double writeMs) {
+        return linearMs(writeMs, 0);
+    }
+
+    /**
+     * @param baseMs The time every write takes, in milliseconds, e.g. a round trip
+     * @param perRequestMs The time each request in the batch adds, in milliseconds
+     * @return A model where write time grows with batch size
+     */
+    static WriteLatencyModel linearMs(double baseMs, double perRequestMs) {
+        if (!(baseMs >= 0) || !(perRequestMs >= 0)) {
+            throw new IllegalArgumentException("Need non-negative write times.  Got: " + baseMs + ", " + perRequestMs);
+        }
+        double nanosPerMs = TimeUnit.MILLISECONDS.toNanos(1);
+        return batchSize -> (long) ((baseMs + perRequestMs * batchSize) * nanosPerMs);
+    }
+}
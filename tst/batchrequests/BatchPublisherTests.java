@@ -0,0 +1,138 @@
+package batchrequests;
+
+import batchrequests.util.Await;
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+public class BatchPublisherTests {
+
+    /**
+     * Records every signal, and only requests when told to.
+     */
+    private static class RecordingSubscriber<R> implements Subscriber<R> {
+        private volatile Subscription subscription;
+        private final List<R> results = new CopyOnWriteArrayList<>();
+        private volatile Throwable error;
+        private volatile boolean completed;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(R result) {
+            results.add(result);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            this.error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            this.completed = true;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenNullBatchOperation_thenFailure() {
+        new BatchPublisher<Integer, Integer>(null);
+    }
+
+    @Test
+    public void write_whenNoDemand_thenWaitsUntilResultIsRequested() throws Exception {
+        BatchPublisher<Integer, Integer> publisher = new BatchPublisher<>(batch -> batch.stream().mapToInt(i -> i).sum());
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+
+        CompletableFuture<Void> write = CompletableFuture.runAsync(() -> publisher.write(Arrays.asList(1, 2, 3)));
+        Thread.sleep(50);
+        Assert.assertFalse(write.isDone());
+        Assert.assertTrue(subscriber.results.isEmpty());
+
+        subscriber.subscription.request(1);
+        write.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(Collections.singletonList(6), subscriber.results);
+    }
+
+    @Test
+    public void write_whenEmptyBatch_thenNothingIsPublished() {
+        BatchPublisher<Integer, List<Integer>> publisher = BatchPublisher.ofBatches();
+        RecordingSubscriber<List<Integer>> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        publisher.write(Collections.emptyList());
+        publisher.write(Collections.singletonList(7));
+        Assert.assertEquals(Collections.singletonList(Collections.singletonList(7)), subscriber.results);
+    }
+
+    @Test
+    public void write_whenCancelled_thenResultIsDroppedWithoutWaiting() {
+        BatchPublisher<Integer, List<Integer>> publisher = BatchPublisher.ofBatches();
+        RecordingSubscriber<List<Integer>> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.cancel();
+        publisher.write(Collections.singletonList(1));
+        Assert.assertTrue(subscriber.results.isEmpty());
+    }
+
+    @Test
+    public void subscribe_whenAlreadySubscribed_thenSecondSubscriberFails() {
+        BatchPublisher<Integer, List<Integer>> publisher = BatchPublisher.ofBatches();
+        RecordingSubscriber<List<Integer>> first = new RecordingSubscriber<>();
+        RecordingSubscriber<List<Integer>> second = new RecordingSubscriber<>();
+        publisher.subscribe(first);
+        publisher.subscribe(second);
+        Assert.assertNull(first.error);
+        Assert.assertTrue(second.error instanceof IllegalStateException);
+    }
+
+    @Test
+    public void request_whenNonPositive_thenSubscriberFails() {
+        BatchPublisher<Integer, List<Integer>> publisher = BatchPublisher.ofBatches();
+        RecordingSubscriber<List<Integer>> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0);
+        Assert.assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void complete_thenSubscriberIsCompleted() {
+        BatchPublisher<Integer, List<Integer>> publisher = BatchPublisher.ofBatches();
+        RecordingSubscriber<List<Integer>> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        publisher.complete();
+        Assert.assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void write_whenUsedAsFactoryWriter_thenResultsArePublishedInPipeline() throws Exception {
+        BatchPublisher<Integer, Integer> publisher = new BatchPublisher<>(List::size);
+        RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        BatchRequestsFactory<Integer> factory = new BatchRequestsFactory.BatchRequestsFactoryBuilder<>(publisher)
+                .withBatchSize(5)
+                .withMaxBufferTimeMs(10)
+                .build();
+        for (int i = 0; i < 10; i++) {
+            factory.getBatchSubmitter().put(i);
+        }
+        Await.awaitTrue(() -> subscriber.results.stream().mapToInt(i -> i).sum() >= 10);
+        Assert.assertEquals(10, subscriber.results.stream().mapToInt(i -> i).sum());
+        Assert.assertTrue(factory.shutdown(10_000));
+        publisher.complete();
+        Assert.assertTrue(subscriber.completed);
+    }
+}
@@ -1,5 +1,9 @@
 package batchrequests;
 
+import batchrequests.util.DummyBatchWriter;
+import batchrequests.util.DummyRequest;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -7,7 +11,10 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class BatchRequestsFactoryTest {
 
@@ -33,6 +40,19 @@ public class BatchRequestsFactoryTest {
         Assert.assertNotEquals(null, factory.getBatchWriter());
     }
 
+    @Test
+    public void test_builderWithIdleTimeout_thenPollersStartOnFirstRequest() throws Exception {
+        BatchRequestsFactory<Integer> factory = new BatchRequestsFactory.BatchRequestsFactoryBuilder<Integer>(batch -> { })
+                .withIdleTimeoutMs(60_000)
+                .build();
+        Assert.assertEquals(60_000, factory.getIdleTimeoutMs());
+        PollingQueueWorker<Integer> worker = factory.getPollingQueueWorkers().get(0);
+        Assert.assertEquals(0, worker.getNumRunningPollingThreads());
+        factory.getBatchSubmitter().put(1);
+        Assert.assertEquals(1, worker.getNumRunningPollingThreads());
+        Assert.assertEquals(true, factory.shutdown(10_000));
+    }
+
     @Test
     public void test_builderWithNumQueuesOption() {
         BatchRequestsFactory factory = new BatchRequestsFactory.BatchRequestsFactoryBuilder(mockWriter)
@@ -83,4 +103,85 @@ public class BatchRequestsFactoryTest {
     public void test_constructorInvalidBufferTime_thenFailure() {
         new BatchRequestsFactory(mockWriter, new ArrayList(Collections.singletonList(new LinkedList())), 1, 1, 0);
     }
+
+    @Test
+    public void test_addQueue_thenSubmitterUsesNewQueue() throws Exception {
+        BatchWriter<Integer> writer = batch -> { };
+        BatchRequestsFactory<Integer> factory = new BatchRequestsFactory.BatchRequestsFactoryBuilder<>(writer)
+                .withMaxBufferTimeMs(60_000)
+                .withBatchSize(100)
+                .build();
+        factory.addQueue();
+        Assert.assertEquals(2, factory.getQueueAndLocks().size());
+        Assert.assertEquals(1, factory.getNumPollingWorkers(1));
+        for (int i = 0; i < 4; i++) {
+            factory.getBatchSubmitter().put(i);
+        }
+        Assert.assertEquals(2, factory.getQueueAndLocks().get(1).getQueue().size());
+        Assert.assertTrue(factory.shutdown(10_000));
+    }
+
+    @Test
+    public void test_removeQueue_thenNoRequestsAreLost() throws Exception {
+        DummyBatchWriter writer = new DummyBatchWriter(false);
+        BatchRequestsFactory<DummyRequest> factory = new BatchRequestsFactory.BatchRequestsFactoryBuilder<>(writer)
+                .withNumQueues(2)
+                .withMaxBufferTimeMs(60_000)
+                .withBatchSize(100)
+                .build();
+        for (int i = 0; i < 10; i++) {
+            factory.getBatchSubmitter().put(new DummyRequest(i, new CompletableFuture<>()));
+        }
+        factory.removeQueue(10_000);
+        Assert.assertEquals(1, factory.getQueueAndLocks().size());
+        // The retired queue's requests are either flushed by its poller or moved to the remaining queue, and new
+        // requests all go to the remaining queue
+        for (int i = 10; i < 15; i++) {
+            factory.getBatchSubmitter().put(new DummyRequest(i, new CompletableFuture<>()));
+        }
+
+        // Shutting down flushes what is left in the remaining queue
+        Assert.assertTrue(factory.shutdown(10_000));
+        List<Integer> written = writer.getBatchesWritten().stream().flatMap(List::stream).collect(Collectors.toList());
+        MatcherAssert.assertThat(written, Matchers.containsInAnyOrder(IntStream.range(0, 15).boxed().toArray()));
+    }
+
+    @Test
+    public void test_addAndRemovePollingWorkerAfterItsQueueWasRemoved_thenSkipped() throws Exception {
+        BatchWriter<Integer> writer = batch -> { };
+        BatchRequestsFactory<Integer> factory = new BatchRequestsFactory.BatchRequestsFactoryBuilder<>(writer)
+                .withNumQueues(2)
+                .withNumPollingWorkersPerQueue(2)
+                .build();
+        PollingQueueWorker<Integer> retiredWorker = factory.getPollingQueueWorkers().get(1);
+        factory.removeQueue(10_000);
+
+        Assert.assertFalse(factory.addPollingWorker(retiredWorker));
+        Assert.assertFalse(factory.removePollingWorker(retiredWorker));
+        Assert.assertEquals(2, retiredWorker.getNumPollingThreads());
+        Assert.assertTrue(factory.shutdown(10_000));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void test_removeLastQueue_thenFailure() throws Exception {
+        BatchWriter<Integer> writer = batch -> { };
+        BatchRequestsFactory<Integer> factory = new BatchRequestsFactory.BatchRequestsFactoryBuilder<>(writer).build();
+        factory.removeQueue(0);
+    }
+
+    @Test
+    public void test_addAndRemovePollingWorkers() throws Exception {
+        BatchWriter<Integer> writer = batch -> { };
+        BatchRequestsFactory<Integer> factory = new BatchRequestsFactory.BatchRequestsFactoryBuilder<>(writer)
+                .withNumPollingWorkersPerQueue(2)
+                .build();
+        factory.addPollingWorker(0);
+        Assert.assertEquals(3, factory.getNumPollingWorkers(0));
+        Assert.assertTrue(factory.removePollingWorker(0));
+        Assert.assertTrue(factory.removePollingWorker(0));
+        // The last poller of a queue is never removed
+        Assert.assertFalse(factory.removePollingWorker(0));
+        Assert.assertEquals(1, factory.getNumPollingWorkers(0));
+        Assert.assertTrue(factory.shutdown(10_000));
+    }
 }
\ No newline at end of file
@@ -57,6 +57,24 @@ public class BatchSubmitterTests {
         Assert.assertEquals(2, queueAndLock2.getQueue().size());
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void put_whenNonPositiveMaxBufferTime_thenExceptionThrown() {
+        List<QueueAndLock<Integer>> queueAndLocks = Collections.singletonList(new QueueAndLock<>(new LinkedList<>(), new ReentrantLock()));
+        new BatchSubmitter<>(queueAndLocks).put(1, 0);
+    }
+
+    @Test
+    public void put_whenMaxBufferTimeGiven_thenQueueRecordsDeadline() {
+        QueueAndLock<Integer> queueAndLock = new QueueAndLock<>(new LinkedList<>(), new ReentrantLock());
+        BatchSubmitter<Integer> submitter = new BatchSubmitter<>(Collections.singletonList(queueAndLock));
+        long before = System.nanoTime();
+        submitter.put(1);
+        submitter.put(2, 50);
+        Assert.assertEquals(2, queueAndLock.getQueue().size());
+        long flushDeadline = queueAndLock.getFlushDeadlineNanos(TimeUnit.SECONDS.toNanos(60), Long.MAX_VALUE);
+        MatcherAssert.assertThat(flushDeadline - before, Matchers.lessThan(TimeUnit.SECONDS.toNanos(1)));
+    }
+
     @RequiredArgsConstructor
     @Getter
     private class PutRunnable<T> implements Runnable {
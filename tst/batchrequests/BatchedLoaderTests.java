@@ -0,0 +1,208 @@
+package batchrequests;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class BatchedLoaderTests {
+
+    private final List<List<Integer>> lookups = new CopyOnWriteArrayList<>();
+    private BatchedLoader<Integer, String> loader;
+
+    /**
+     * Finds every even key.
+     */
+    private Map<Integer, String> lookUp(Collection<Integer> keys) {
+        lookups.add(new ArrayList<>(keys));
+        Map<Integer, String> values = new HashMap<>();
+        for (Integer key : keys) {
+            if (key % 2 == 0) {
+                values.put(key, "value-" + key);
+            }
+        }
+        return values;
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (loader != null) {
+            Assert.assertTrue(loader.shutdown(10_000));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenNullBatchLoader_thenFailure() {
+        new BatchedLoader.BatchedLoaderBuilder<Integer, String>(null).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenCacheWithoutTtl_thenFailure() {
+        new BatchedLoader.BatchedLoaderBuilder<Integer, String>(this::lookUp).withCache(10, 0).build();
+    }
+
+    @Test
+    public void load_whenBatchFills_thenKeysAreLookedUpTogether() throws Exception {
+        loader = new BatchedLoader.BatchedLoaderBuilder<Integer, String>(this::lookUp)
+                .withBatchSize(3)
+                .withMaxBufferTimeMs(60_000)
+                .build();
+        CompletableFuture<String> zero = loader.load(0);
+        CompletableFuture<String> one = loader.load(1);
+        CompletableFuture<String> two = loader.load(2);
+
+        Assert.assertEquals("value-0", zero.get(10, TimeUnit.SECONDS));
+        Assert.assertNull(one.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals("value-2", two.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, lookups.size());
+        MatcherAssert.assertThat(lookups.get(0), Matchers.contains(0, 1, 2));
+        Assert.assertEquals(0, loader.getNumInFlightLoads());
+    }
+
+    @Test
+    public void load_whenSameKeyIsInFlight_thenLookupIsShared() throws Exception {
+        loader = new BatchedLoader.BatchedLoaderBuilder<Integer, String>(this::lookUp)
+                .withBatchSize(2)
+                .withMaxBufferTimeMs(60_000)
+                .build();
+        CompletableFuture<String> first = loader.load(4);
+        CompletableFuture<String> second = loader.load(4);
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, loader.getNumInFlightLoads());
+
+        loader.load(6);
+        Assert.assertEquals("value-4", first.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, lookups.size());
+        MatcherAssert.assertThat(lookups.get(0), Matchers.contains(4, 6));
+    }
+
+    @Test
+    public void load_whenCached_thenNoLookup() throws Exception {
+        loader = new BatchedLoader.BatchedLoaderBuilder<Integer, String>(this::lookUp)
+                .withMaxBufferTimeMs(10)
+                .withCache(10, 60_000)
+                .build();
+        Assert.assertEquals("value-8", loader.load(8).get(10, TimeUnit.SECONDS));
+        Assert.assertNull(loader.load(9).get(10, TimeUnit.SECONDS));
+        int numLookups = lookups.size();
+
+        CompletableFuture<String> cached = loader.load(8);
+        Assert.assertTrue(cached.isDone());
+        Assert.assertEquals("value-8", cached.get());
+        // Values that weren't found are cached too
+        Assert.assertTrue(loader.load(9).isDone());
+        Assert.assertEquals(numLookups, lookups.size());
+
+        loader.invalidate(8);
+        Assert.assertEquals("value-8", loader.load(8).get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(numLookups + 1, lookups.size());
+    }
+
+    @Test
+    public void load_whenLoadedConcurrentlyWithCache_thenEachKeyIsLookedUpOnce() throws Exception {
+        loader = new BatchedLoader.BatchedLoaderBuilder<Integer, String>(this::lookUp)
+                .withMaxBufferTimeMs(1)
+                .withCache(1000, 60_000)
+                .build();
+        int numKeys = 200;
+        int numThreads = 4;
+        for (int key = 0; key < numKeys; key++) {
+            int loadedKey = key;
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < numThreads; i++) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+                        // Keep loading while the lookup finishes, so that some loads race with it
+                        for (int j = 0; j < 100; j++) {
+                            loader.load(loadedKey).get(10, TimeUnit.SECONDS);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join(10_000);
+            }
+        }
+        Assert.assertEquals(numKeys, lookups.size());
+    }
+
+    @Test
+    public void load_whenLookupFails_thenEveryFutureInBatchFails() throws Exception {
+        loader = new BatchedLoader.BatchedLoaderBuilder<Integer, String>(keys -> {
+            throw new IllegalStateException("lookup failed");
+        })
+                .withBatchSize(2)
+                .withMaxBufferTimeMs(60_000)
+                .build();
+        CompletableFuture<String> first = loader.load(1);
+        CompletableFuture<String> second = loader.load(2);
+        for (CompletableFuture<String> future : Arrays.asList(first, second)) {
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                Assert.fail("Expected the load to fail");
+            } catch (ExecutionException e) {
+                Assert.assertEquals("lookup failed", e.getCause().getMessage());
+            }
+        }
+        Assert.assertEquals(0, loader.getNumInFlightLoads());
+    }
+
+    @Test
+    public void shutdown_whenLookupDoesNotFinishInTime_thenPendingLoadsFail() throws Exception {
+        CountDownLatch lookupStarted = new CountDownLatch(1);
+        CountDownLatch releaseLookup = new CountDownLatch(1);
+        loader = new BatchedLoader.BatchedLoaderBuilder<Integer, String>(keys -> {
+            lookupStarted.countDown();
+            // Keep going when the poller is interrupted by the shutdown, like a lookup that ignores interrupts
+            while (releaseLookup.getCount() > 0) {
+                try {
+                    releaseLookup.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // Ignored
+                }
+            }
+            return Collections.emptyMap();
+        })
+                .withBatchSize(1)
+                .build();
+        CompletableFuture<String> pending = loader.load(1);
+        Assert.assertTrue(lookupStarted.await(10, TimeUnit.SECONDS));
+
+        try {
+            Assert.assertFalse(loader.shutdown(10));
+            CompletableFuture<String> afterShutdown = loader.load(2);
+            for (CompletableFuture<String> future : Arrays.asList(pending, afterShutdown)) {
+                try {
+                    future.get(10, TimeUnit.SECONDS);
+                    Assert.fail("Expected the load to fail");
+                } catch (ExecutionException e) {
+                    MatcherAssert.assertThat(e.getCause(), Matchers.instanceOf(IllegalStateException.class));
+                }
+            }
+            Assert.assertEquals(0, loader.getNumInFlightLoads());
+        } finally {
+            releaseLookup.countDown();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package batchrequests;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class BatchingEventsTests {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void get_whenNoRecording_thenNotRecording() {
+        Assert.assertFalse(BatchingEvents.get().isRecording());
+    }
+
+    @Test
+    public void new_whenRecordingIsAlreadyRunning_thenRecording() {
+        Assume.assumeTrue(BatchingEvents.get() instanceof JfrBatchingEvents);
+        try (Recording recording = new Recording()) {
+            recording.start();
+            JfrBatchingEvents events = new JfrBatchingEvents();
+            try {
+                Assert.assertTrue(events.isRecording());
+                recording.stop();
+                Assert.assertFalse(events.isRecording());
+            } finally {
+                FlightRecorder.removeListener(events);
+            }
+        }
+    }
+
+    @Test
+    public void recording_whenBatchesAreWritten_thenEventsAreRecorded() throws Exception {
+        Assume.assumeTrue(BatchingEvents.get() instanceof JfrBatchingEvents);
+        Path file = temporaryFolder.newFile("batching.jfr").toPath();
+        try (Recording recording = new Recording()) {
+            recording.enable("batchrequests.Submit");
+            recording.enable("batchrequests.Drain");
+            recording.enable("batchrequests.Write");
+            recording.start();
+            Assert.assertTrue(BatchingEvents.get().isRecording());
+
+            CountDownLatch fullBatchWritten = new CountDownLatch(1);
+            BatchRequestsFactory<Integer> factory = new BatchRequestsFactory.BatchRequestsFactoryBuilder<Integer>(batch -> {
+                if (batch.size() == BatchingEvents.SUBMIT_SAMPLE_INTERVAL) {
+                    fullBatchWritten.countDown();
+                }
+            })
+                    .withBatchSize(BatchingEvents.SUBMIT_SAMPLE_INTERVAL)
+                    .withMaxBufferTimeMs(60_000)
+                    .build();
+            for (int i = 0; i < BatchingEvents.SUBMIT_SAMPLE_INTERVAL; i++) {
+                factory.getBatchSubmitter().put(i);
+            }
+            Assert.assertTrue(fullBatchWritten.await(10, TimeUnit.SECONDS));
+            Assert.assertTrue(factory.shutdown(10_000));
+            recording.stop();
+            recording.dump(file);
+        }
+        Assert.assertFalse(BatchingEvents.get().isRecording());
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        List<RecordedEvent> submits = eventsNamed(events, "batchrequests.Submit");
+        Assert.assertEquals(1, submits.size());
+        List<RecordedEvent> fullDrains = eventsNamed(events, "batchrequests.Drain").stream()
+                .filter(event -> event.getInt("batchSize") == BatchingEvents.SUBMIT_SAMPLE_INTERVAL)
+                .collect(Collectors.toList());
+        Assert.assertEquals(1, fullDrains.size());
+        Assert.assertEquals("SIZE", fullDrains.get(0).getString("flushReason"));
+        Assert.assertEquals(submits.get(0).getInt("queueId"), fullDrains.get(0).getInt("queueId"));
+        Assert.assertTrue(eventsNamed(events, "batchrequests.Write").stream()
+                .anyMatch(event -> event.getInt("batchSize") == BatchingEvents.SUBMIT_SAMPLE_INTERVAL
+                        && event.getBoolean("succeeded")));
+    }
+
+    private static List<RecordedEvent> eventsNamed(List<RecordedEvent> events, String name) {
+        return events.stream().filter(event -> event.getEventType().getName().equals(name)).collect(Collectors.toList());
+    }
+}
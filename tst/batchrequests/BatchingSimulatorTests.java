@@ -0,0 +1,110 @@
+package batchrequests;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+public class BatchingSimulatorTests {
+
+    private static final double DELTA = 1e-9;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * @return One arrival every intervalMs, starting at 0
+     */
+    private static long[] arrivals(int numRequests, long intervalMs) {
+        return LongStream.range(0, numRequests).map(i -> TimeUnit.MILLISECONDS.toNanos(i * intervalMs)).toArray();
+    }
+
+    private static BatchingSimulator.BatchingSimulatorBuilder simulator(double writeMs) {
+        return new BatchingSimulator.BatchingSimulatorBuilder(WriteLatencyModel.fixedMs(writeMs))
+                .withBatchSize(10)
+                .withMaxBufferTimeMs(20);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenNonPositiveBatchSize_thenFailure() {
+        simulator(1).withBatchSize(0).build();
+    }
+
+    @Test
+    public void run_whenTrafficFillsBatches_thenEveryBatchIsFull() {
+        SimulationReport report = simulator(1).withMaxBufferTimeMs(1_000).build().run(arrivals(1_000, 1));
+        Assert.assertEquals(1_000, report.getNumRequests());
+        Assert.assertEquals(100, report.getNumBatches());
+        Assert.assertEquals(1.0, report.getMeanFillRatio(), DELTA);
+        // The first request of each batch waits for the other nine, then for the write
+        Assert.assertEquals(10, report.getLatencyPercentileMs(100), DELTA);
+        Assert.assertEquals(5, report.getLatencyPercentileMs(50), DELTA);
+        Assert.assertEquals(1, report.getLatencyPercentileMs(0.1), DELTA);
+        Assert.assertEquals(100, report.getTotalWriteTimeMs(), DELTA);
+        Assert.assertEquals(1_000, report.getSimulatedTimeMs(), DELTA);
+    }
+
+    @Test
+    public void run_whenTrafficIsSparse_thenBatchesAreSentAtTheMaxBufferTime() {
+        SimulationReport report = simulator(1).build().run(arrivals(10, 100));
+        Assert.assertEquals(10, report.getNumBatches());
+        Assert.assertEquals(0.1, report.getMeanFillRatio(), DELTA);
+        Assert.assertEquals(21, report.getLatencyPercentileMs(1), DELTA);
+        Assert.assertEquals(21, report.getLatencyPercentileMs(100), DELTA);
+    }
+
+    @Test
+    public void run_whenSmartBatchingAndTrafficIsSparse_thenRequestsAreSentRightAway() {
+        SimulationReport report = simulator(1).withSmartBatching(true).build().run(arrivals(10, 100));
+        Assert.assertEquals(10, report.getNumBatches());
+        Assert.assertEquals(1, report.getLatencyPercentileMs(100), DELTA);
+    }
+
+    @Test
+    public void run_whenSmartBatchingAndBurst_thenBatchesGrowWhileWriting() {
+        long[] burst = new long[100];
+        SimulationReport report = simulator(10).withBatchSize(25).withSmartBatching(true).build().run(burst);
+        // The first request is sent on its own, and the rest pile up behind its write
+        Assert.assertEquals(5, report.getNumBatches());
+        Assert.assertEquals(10, report.getLatencyPercentileMs(1), DELTA);
+        Assert.assertEquals(50, report.getLatencyPercentileMs(100), DELTA);
+    }
+
+    @Test
+    public void run_whenMorePollers_thenSlowWritesOverlap() {
+        long[] burst = new long[100];
+        SimulationReport onePoller = simulator(10).build().run(burst);
+        SimulationReport twoPollers = simulator(10).withNumPollingWorkersPerQueue(2).build().run(burst);
+        Assert.assertEquals(100, onePoller.getLatencyPercentileMs(100), DELTA);
+        Assert.assertEquals(50, twoPollers.getLatencyPercentileMs(100), DELTA);
+        Assert.assertEquals(onePoller.getTotalWriteTimeMs(), twoPollers.getTotalWriteTimeMs(), DELTA);
+    }
+
+    @Test
+    public void run_whenMoreQueues_thenRequestsAreSpreadRoundRobin() {
+        SimulationReport report = simulator(1).withMaxBufferTimeMs(1_000).withNumQueues(2).build().run(arrivals(20, 1));
+        Assert.assertEquals(2, report.getNumBatches());
+        Assert.assertEquals(1.0, report.getMeanFillRatio(), DELTA);
+    }
+
+    @Test
+    public void run_whenNoRequests_thenEmptyReport() {
+        SimulationReport report = simulator(1).build().run(new long[0]);
+        Assert.assertEquals(0, report.getNumBatches());
+        Assert.assertEquals(0, report.getLatencyPercentileMs(99), DELTA);
+    }
+
+    @Test
+    public void readTrace_whenCommentsAndBlankLines_thenTheyAreSkipped() throws Exception {
+        Path trace = folder.newFile("trace.txt").toPath();
+        Files.write(trace, Arrays.asList("# arrival ms", "0", "", "1.5", " 20 "), StandardCharsets.UTF_8);
+        Assert.assertArrayEquals(new long[] {0, 1_500_000, 20_000_000}, BatchingSimulator.readTrace(trace));
+    }
+}
@@ -0,0 +1,95 @@
+package batchrequests;
+
+import batchrequests.util.Await;
+import batchrequests.util.RangePublisher;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+public class BatchingSubscriberTests {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenNonPositiveOutstandingRequests_thenFailure() {
+        new BatchingSubscriber<>(new BatchRequestsFactory.BatchRequestsFactoryBuilder<Integer>(batch -> { }), 0);
+    }
+
+    @Test
+    public void onNext_whenWriterIsBlocked_thenOnlyMaxOutstandingRequestsAreRequested() throws Exception {
+        CountDownLatch writerBlocked = new CountDownLatch(1);
+        CountDownLatch releaseWriter = new CountDownLatch(1);
+        List<Integer> written = Collections.synchronizedList(new ArrayList<>());
+        BatchWriter<Integer> writer = batch -> {
+            writerBlocked.countDown();
+            try {
+                releaseWriter.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            written.addAll(batch);
+        };
+        BatchingSubscriber<Integer> subscriber = new BatchingSubscriber<>(
+                new BatchRequestsFactory.BatchRequestsFactoryBuilder<>(writer).withBatchSize(2).withMaxBufferTimeMs(10), 4);
+        RangePublisher publisher = new RangePublisher(100);
+        publisher.subscribe(subscriber);
+
+        Assert.assertTrue(writerBlocked.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(4, publisher.getTotalRequested().get());
+        Assert.assertEquals(4, subscriber.getNumOutstandingRequests());
+
+        releaseWriter.countDown();
+        subscriber.getCompletion().get(10, TimeUnit.SECONDS);
+        MatcherAssert.assertThat(written, Matchers.containsInAnyOrder(IntStream.range(0, 100).boxed().toArray()));
+        Assert.assertEquals(0, subscriber.getNumOutstandingRequests());
+        Assert.assertTrue(subscriber.getFactory().shutdown(10_000));
+    }
+
+    @Test
+    public void onSubscribe_whenAlreadySubscribed_thenSecondSubscriptionIsCancelled() throws Exception {
+        BatchingSubscriber<Integer> subscriber = new BatchingSubscriber<>(
+                new BatchRequestsFactory.BatchRequestsFactoryBuilder<Integer>(batch -> { }), 4);
+        RangePublisher first = new RangePublisher(0);
+        first.subscribe(subscriber);
+        RangePublisher second = new RangePublisher(10);
+        second.subscribe(subscriber);
+        Assert.assertTrue(second.isCancelled());
+        Assert.assertEquals(0, second.getTotalRequested().get());
+        Assert.assertTrue(subscriber.getFactory().shutdown(10_000));
+    }
+
+    @Test
+    public void onError_thenCompletionFailsButReceivedRequestsAreWritten() throws Exception {
+        List<Integer> written = Collections.synchronizedList(new ArrayList<>());
+        BatchingSubscriber<Integer> subscriber = new BatchingSubscriber<>(
+                new BatchRequestsFactory.BatchRequestsFactoryBuilder<Integer>(written::addAll).withMaxBufferTimeMs(10), 4);
+        subscriber.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        subscriber.onNext(1);
+        subscriber.onError(new RuntimeException("upstream failed"));
+        try {
+            subscriber.getCompletion().get(10, TimeUnit.SECONDS);
+            Assert.fail("Expected the completion to fail");
+        } catch (ExecutionException e) {
+            Assert.assertEquals("upstream failed", e.getCause().getMessage());
+        }
+        Await.awaitTrue(() -> subscriber.getNumOutstandingRequests() == 0);
+        Assert.assertEquals(Collections.singletonList(1), written);
+        Assert.assertTrue(subscriber.getFactory().shutdown(10_000));
+    }
+}
@@ -0,0 +1,83 @@
+package batchrequests;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class CompressingBatchWriterTests {
+
+    /** Encodes each request as the given number of 'a's, which compresses very well */
+    private static final RecordCodec<Integer> REPEATED_BYTE_CODEC = new RecordCodec<Integer>() {
+        @Override
+        public int encodedLength(Integer record) {
+            return record;
+        }
+
+        @Override
+        public void encode(Integer record, ByteBuffer target) {
+            while (target.hasRemaining()) {
+                target.put((byte) 'a');
+            }
+        }
+    };
+
+    private static EncodedBatch encode(Integer... lengths) {
+        Queue<EncodedRecord> queue = new LinkedList<>();
+        QueueAndLock<EncodedRecord> queueAndLock = new QueueAndLock<>(queue, new ReentrantLock());
+        EncodingBatchSubmitter<Integer> submitter = new EncodingBatchSubmitter<>(
+                new BatchSubmitter<>(Arrays.asList(queueAndLock)), REPEATED_BYTE_CODEC);
+        for (Integer length : lengths) {
+            submitter.put(length);
+        }
+        return new EncodedBatch(queue);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenNonPositiveTarget_thenFailure() {
+        new CompressingBatchWriter(new GzipBatchCompressor(), Mockito.mock(CompressedBatchWriter.class), 0);
+    }
+
+    @Test
+    public void write_whenBatchIsWritten_thenDelegateReceivesCompressedBatch() {
+        CompressedBatchWriter delegate = Mockito.mock(CompressedBatchWriter.class);
+        CompressingBatchWriter writer = new CompressingBatchWriter(new GzipBatchCompressor(), delegate);
+        writer.write(encode(1000, 1000));
+
+        ArgumentCaptor<CompressedBatch> captor = ArgumentCaptor.forClass(CompressedBatch.class);
+        Mockito.verify(delegate).write(captor.capture());
+        CompressedBatch batch = captor.getValue();
+        Assert.assertEquals("gzip", batch.getEncoding());
+        Assert.assertEquals(2, batch.getRecordCount());
+        Assert.assertEquals(2000, batch.getUncompressedByteSize());
+        Assert.assertTrue(batch.getCompressedByteSize() < 2000);
+    }
+
+    @Test
+    public void write_whenBatchIsEmpty_thenDelegateIsNotCalled() {
+        CompressedBatchWriter delegate = Mockito.mock(CompressedBatchWriter.class);
+        new CompressingBatchWriter(new GzipBatchCompressor(), delegate).write(encode());
+        Mockito.verifyZeroInteractions(delegate);
+    }
+
+    @Test
+    public void getBatchWeightLimit_whenBatchesCompressWell_thenUncompressedTargetGrows() {
+        CompressingBatchWriter writer = new CompressingBatchWriter(new GzipBatchCompressor(),
+                Mockito.mock(CompressedBatchWriter.class), 1000);
+        BatchWeightLimit<EncodedRecord> limit = writer.getBatchWeightLimit();
+        // Before anything is compressed, assume no compression at all
+        Assert.assertEquals(1000, limit.getMaxBatchWeight());
+
+        for (int i = 0; i < 20; i++) {
+            writer.write(encode(10_000));
+        }
+        Assert.assertTrue("Ratio was " + writer.getCompressionRatio(), writer.getCompressionRatio() < 0.1);
+        Assert.assertTrue(limit.getMaxBatchWeight() > 10_000);
+    }
+}
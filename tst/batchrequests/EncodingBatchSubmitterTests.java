@@ -0,0 +1,186 @@
+package batchrequests;
+
+import batchrequests.util.Await;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class EncodingBatchSubmitterTests {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final RecordCodec<String> UTF8_CODEC = new RecordCodec<String>() {
+        @Override
+        public int encodedLength(String record) {
+            return record.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        @Override
+        public void encode(String record, ByteBuffer target) {
+            target.put(record.getBytes(StandardCharsets.UTF_8));
+        }
+    };
+
+    private static String decode(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenNullCodec_thenFailure() {
+        QueueAndLock<EncodedRecord> queueAndLock = new QueueAndLock<>(new LinkedList<>(), new ReentrantLock());
+        new EncodingBatchSubmitter<String>(new BatchSubmitter<>(Collections.singletonList(queueAndLock)), null);
+    }
+
+    @Test
+    public void put_whenEncoded_thenQueueHoldsOffHeapRecord() {
+        QueueAndLock<EncodedRecord> queueAndLock = new QueueAndLock<>(new LinkedList<>(), new ReentrantLock());
+        EncodingBatchSubmitter<String> submitter =
+                new EncodingBatchSubmitter<>(new BatchSubmitter<>(Collections.singletonList(queueAndLock)), UTF8_CODEC);
+        submitter.put("hello");
+
+        EncodedRecord record = queueAndLock.getQueue().peek();
+        Assert.assertEquals(5, record.getLength());
+        Assert.assertTrue(record.getSlab().getBuffer().isDirect());
+        Assert.assertEquals("hello", decode(record.asReadOnlyBuffer()));
+        Assert.assertEquals(5, submitter.getSlabAllocator().getBytesInUse());
+    }
+
+    @Test
+    public void put_whenCodecWritesTooFewBytes_thenRecordIsReleasedAndExceptionThrown() {
+        QueueAndLock<EncodedRecord> queueAndLock = new QueueAndLock<>(new LinkedList<>(), new ReentrantLock());
+        RecordCodec<String> badCodec = new RecordCodec<String>() {
+            @Override
+            public int encodedLength(String record) {
+                return 10;
+            }
+
+            @Override
+            public void encode(String record, ByteBuffer target) {
+                target.put((byte) 1);
+            }
+        };
+        EncodingBatchSubmitter<String> submitter =
+                new EncodingBatchSubmitter<>(new BatchSubmitter<>(Collections.singletonList(queueAndLock)), badCodec);
+        try {
+            submitter.put("hello");
+            Assert.fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertEquals(0, submitter.getSlabAllocator().getBytesInUse());
+        Assert.assertEquals(0, queueAndLock.getQueue().size());
+    }
+
+    @Test
+    public void put_whenLengthPrefixed_thenFramesAreCoalescedAndPayloadsExcludeFraming() {
+        QueueAndLock<EncodedRecord> queueAndLock = new QueueAndLock<>(new LinkedList<>(), new ReentrantLock());
+        EncodingBatchSubmitter<String> submitter = new EncodingBatchSubmitter<>(
+                new BatchSubmitter<>(Collections.singletonList(queueAndLock)), UTF8_CODEC, new SlabAllocator(),
+                RecordFraming.LENGTH_PREFIXED);
+        submitter.put("ab");
+        submitter.put("cde");
+
+        EncodedBatch batch = new EncodedBatch(queueAndLock.getQueue());
+        Assert.assertEquals(2, batch.getRecordCount());
+        Assert.assertEquals(13, batch.getByteSize());
+        Assert.assertEquals("ab", decode(batch.getRecordBuffers().get(0)));
+        Assert.assertEquals("cde", decode(batch.getRecordBuffers().get(1)));
+
+        ByteBuffer[] frames = batch.getFrameBuffers();
+        Assert.assertEquals(1, frames.length);
+        ByteBuffer frame = frames[0];
+        Assert.assertEquals(2, frame.getInt());
+        Assert.assertEquals("ab", decode((ByteBuffer) frame.slice().limit(2)));
+        frame.position(frame.position() + 2);
+        Assert.assertEquals(3, frame.getInt());
+        Assert.assertEquals("cde", decode(frame));
+    }
+
+    @Test
+    public void writeTo_whenNewlineDelimited_thenChannelReceivesEveryFrame() throws Exception {
+        QueueAndLock<EncodedRecord> queueAndLock = new QueueAndLock<>(new LinkedList<>(), new ReentrantLock());
+        // A tiny slab forces the batch to span two slabs: "one\ntwo\n" fills the first one
+        EncodingBatchSubmitter<String> submitter = new EncodingBatchSubmitter<>(
+                new BatchSubmitter<>(Collections.singletonList(queueAndLock)), UTF8_CODEC, new SlabAllocator(8, 0),
+                RecordFraming.NEWLINE_DELIMITED);
+        submitter.put("one");
+        submitter.put("two");
+        submitter.put("three");
+
+        EncodedBatch batch = new EncodedBatch(queueAndLock.getQueue());
+        Assert.assertEquals(2, batch.getFrameBuffers().length);
+        File file = temporaryFolder.newFile();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            Assert.assertEquals(batch.getByteSize(), batch.writeTo(channel));
+        }
+        Assert.assertEquals("one\ntwo\nthree\n", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void writeTo_whenChannelIsNonBlocking_thenFailure() throws Exception {
+        QueueAndLock<EncodedRecord> queueAndLock = new QueueAndLock<>(new LinkedList<>(), new ReentrantLock());
+        EncodingBatchSubmitter<String> submitter = new EncodingBatchSubmitter<>(
+                new BatchSubmitter<>(Collections.singletonList(queueAndLock)), UTF8_CODEC);
+        submitter.put("one");
+
+        Pipe pipe = Pipe.open();
+        try {
+            pipe.sink().configureBlocking(false);
+            new EncodedBatch(queueAndLock.getQueue()).writeTo(pipe.sink());
+        } finally {
+            pipe.sink().close();
+            pipe.source().close();
+        }
+    }
+
+    @Test
+    public void put_whenWrittenThroughFactory_thenWriterSeesRecordsAndMemoryIsReleased() throws Exception {
+        int numRecords = 7;
+        List<String> written = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(numRecords);
+        EncodedBatchWriter writer = batch -> {
+            for (ByteBuffer buffer : batch.getRecordBuffers()) {
+                written.add(decode(buffer));
+                latch.countDown();
+            }
+        };
+        BatchRequestsFactory<EncodedRecord> factory = new BatchRequestsFactory.BatchRequestsFactoryBuilder<>(writer)
+                .withBatchSize(3)
+                .withMaxBufferTimeMs(10)
+                .build();
+        EncodingBatchSubmitter<String> submitter = new EncodingBatchSubmitter<>(factory.getBatchSubmitter(), UTF8_CODEC,
+                new SlabAllocator(16, 2));
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < numRecords; i++) {
+            expected.add("record-" + i);
+            submitter.put("record-" + i);
+        }
+
+        Assert.assertEquals("Expected writes to occur within a reasonable amount of time",
+                true, latch.await(10, TimeUnit.SECONDS));
+        MatcherAssert.assertThat(written, Matchers.containsInAnyOrder(expected.toArray()));
+        // The release happens right after the write returns, so give it a moment
+        Await.awaitTrue(() -> submitter.getSlabAllocator().getBytesInUse() == 0);
+    }
+}
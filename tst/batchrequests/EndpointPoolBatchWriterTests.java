@@ -0,0 +1,253 @@
+package batchrequests;
+
+import batchrequests.util.Await;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EndpointPoolBatchWriterTests {
+
+    private static final List<Integer> BATCH = Arrays.asList(1, 2, 3);
+
+    private static class CountingWriter implements BatchWriter<Integer> {
+        final AtomicInteger numWrites = new AtomicInteger();
+        volatile boolean failing;
+        volatile long sleepMs;
+        volatile CountDownLatch gate;
+
+        @Override
+        public void write(Collection<Integer> batch) {
+            numWrites.incrementAndGet();
+            if (gate != null) {
+                try {
+                    gate.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (sleepMs > 0) {
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failing) {
+                throw new IllegalStateException("Endpoint is down");
+            }
+        }
+    }
+
+    private static EndpointPolicy.EndpointPolicyBuilder policy() {
+        return new EndpointPolicy.EndpointPolicyBuilder();
+    }
+
+    private static void writeIgnoringFailures(EndpointPoolBatchWriter<Integer> pool, int numBatches) {
+        for (int i = 0; i < numBatches; i++) {
+            try {
+                pool.write(BATCH);
+            } catch (IllegalStateException e) {
+                // expected for failing endpoints
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenNoEndpoints_thenFailure() {
+        new EndpointPoolBatchWriter<Integer>(Collections.emptyList(), policy().build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void policy_whenSlowLatencyFactorIsNotGreaterThanOne_thenFailure() {
+        policy().withSlowLatencyFactor(1).build();
+    }
+
+    @Test
+    public void write_whenRoundRobin_thenEndpointsTakeTurns() {
+        CountingWriter a = new CountingWriter();
+        CountingWriter b = new CountingWriter();
+        CountingWriter c = new CountingWriter();
+        EndpointPoolBatchWriter<Integer> pool = new EndpointPoolBatchWriter<>(Arrays.asList(a, b, c), policy().build());
+        for (int i = 0; i < 30; i++) {
+            pool.write(BATCH);
+        }
+        Assert.assertEquals(10, a.numWrites.get());
+        Assert.assertEquals(10, b.numWrites.get());
+        Assert.assertEquals(10, c.numWrites.get());
+    }
+
+    @Test
+    public void write_whenEmptyBatch_thenNoEndpointIsCalled() {
+        CountingWriter a = new CountingWriter();
+        EndpointPoolBatchWriter<Integer> pool = new EndpointPoolBatchWriter<>(Collections.singletonList(a),
+                policy().build());
+        pool.write(Collections.emptyList());
+        Assert.assertEquals(0, a.numWrites.get());
+    }
+
+    @Test
+    public void write_whenLeastOutstanding_thenBusyEndpointIsAvoided() throws Exception {
+        CountDownLatch writeStarted = new CountDownLatch(1);
+        CountDownLatch releaseWrite = new CountDownLatch(1);
+        BatchWriter<Integer> blocked = batch -> {
+            writeStarted.countDown();
+            try {
+                releaseWrite.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        CountingWriter free = new CountingWriter();
+        EndpointPoolBatchWriter<Integer> pool = new EndpointPoolBatchWriter<>(Arrays.asList(blocked, free),
+                policy().withSelection(EndpointSelection.LEAST_OUTSTANDING).build());
+        Thread thread = new Thread(() -> pool.write(BATCH));
+        thread.start();
+        Assert.assertEquals(true, writeStarted.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(3, pool.getNumOutstandingRequests(0));
+
+        for (int i = 0; i < 5; i++) {
+            pool.write(BATCH);
+        }
+        releaseWrite.countDown();
+        thread.join(10_000);
+        Assert.assertEquals(5, free.numWrites.get());
+        Assert.assertEquals(0, pool.getNumOutstandingRequests(0));
+    }
+
+    @Test
+    public void write_whenEwmaLatency_thenFastEndpointGetsMostBatches() {
+        CountingWriter slow = new CountingWriter();
+        slow.sleepMs = 5;
+        CountingWriter fast = new CountingWriter();
+        EndpointPoolBatchWriter<Integer> pool = new EndpointPoolBatchWriter<>(Arrays.asList(slow, fast),
+                policy().withSelection(EndpointSelection.EWMA_LATENCY)
+                        .withSlowLatencyFactor(Double.POSITIVE_INFINITY)
+                        .build());
+        for (int i = 0; i < 50; i++) {
+            pool.write(BATCH);
+        }
+        // Each endpoint is tried once, and then the fast one should win every time
+        Assert.assertEquals(1, slow.numWrites.get());
+        Assert.assertEquals(49, fast.numWrites.get());
+        Assert.assertTrue(pool.getLatencyEwmaMs(0) > pool.getLatencyEwmaMs(1));
+    }
+
+    @Test
+    public void write_whenEndpointKeepsFailing_thenItIsEjectedAndLaterReturned() throws Exception {
+        CountingWriter failing = new CountingWriter();
+        failing.failing = true;
+        CountingWriter healthy = new CountingWriter();
+        EndpointPoolBatchWriter<Integer> pool = new EndpointPoolBatchWriter<>(Arrays.asList(failing, healthy),
+                policy().withConsecutiveFailuresToEject(3).withBaseEjectionTimeMs(200).build());
+        writeIgnoringFailures(pool, 6);
+        Assert.assertTrue(pool.isEjected(0));
+        Assert.assertEquals(1, pool.getNumEjections(0));
+
+        for (int i = 0; i < 10; i++) {
+            pool.write(BATCH);
+        }
+        Assert.assertEquals(3, failing.numWrites.get());
+
+        failing.failing = false;
+        Thread.sleep(300);
+        Assert.assertFalse(pool.isEjected(0));
+        for (int i = 0; i < 10; i++) {
+            pool.write(BATCH);
+        }
+        Assert.assertEquals(8, failing.numWrites.get());
+    }
+
+    @Test
+    public void write_whenEwmaLatencyAndEndpointIsReturned_thenConcurrentBatchesDoNotAllGoToIt() throws Exception {
+        CountingWriter returning = new CountingWriter();
+        returning.failing = true;
+        CountingWriter other1 = new CountingWriter();
+        CountingWriter other2 = new CountingWriter();
+        EndpointPoolBatchWriter<Integer> pool = new EndpointPoolBatchWriter<>(Arrays.asList(returning, other1, other2),
+                policy().withSelection(EndpointSelection.EWMA_LATENCY)
+                        .withConsecutiveFailuresToEject(1)
+                        .withBaseEjectionTimeMs(200)
+                        .build());
+        // Without write times, the first batch goes to the first endpoint, which fails and is ejected
+        writeIgnoringFailures(pool, 1);
+        Assert.assertTrue(pool.isEjected(0));
+        for (int i = 0; i < 6; i++) {
+            pool.write(BATCH);
+        }
+        returning.failing = false;
+        Thread.sleep(300);
+        Assert.assertFalse(pool.isEjected(0));
+
+        // Keep every batch outstanding while the pollers pick endpoints
+        CountDownLatch releaseWrites = new CountDownLatch(1);
+        for (CountingWriter writer : Arrays.asList(returning, other1, other2)) {
+            writer.gate = releaseWrites;
+        }
+        int numWritesBefore = returning.numWrites.get();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> pool.write(BATCH));
+            thread.start();
+            threads.add(thread);
+        }
+        Await.awaitTrue(() -> pool.getNumOutstandingRequests(0) + pool.getNumOutstandingRequests(1)
+                + pool.getNumOutstandingRequests(2) == 4 * BATCH.size());
+        MatcherAssert.assertThat(returning.numWrites.get() - numWritesBefore, Matchers.lessThanOrEqualTo(2));
+        releaseWrites.countDown();
+        for (Thread thread : threads) {
+            thread.join(10_000);
+        }
+    }
+
+    @Test
+    public void write_whenEndpointIsMuchSlowerThanTheOthers_thenItIsEjected() {
+        CountingWriter slow = new CountingWriter();
+        slow.sleepMs = 20;
+        CountingWriter fast1 = new CountingWriter();
+        CountingWriter fast2 = new CountingWriter();
+        EndpointPoolBatchWriter<Integer> pool = new EndpointPoolBatchWriter<>(Arrays.asList(slow, fast1, fast2),
+                policy().withMinSamples(3).build());
+        for (int i = 0; i < 30; i++) {
+            pool.write(BATCH);
+        }
+        Assert.assertTrue(pool.isEjected(0));
+        // Ejected as soon as every endpoint had enough samples to be compared, instead of getting every third batch
+        Assert.assertEquals(4, slow.numWrites.get());
+    }
+
+    @Test
+    public void write_whenMoreAttemptsAreAllowed_thenFailedBatchGoesToAnotherEndpoint() {
+        CountingWriter failing = new CountingWriter();
+        failing.failing = true;
+        CountingWriter healthy = new CountingWriter();
+        EndpointPoolBatchWriter<Integer> pool = new EndpointPoolBatchWriter<>(Arrays.asList(failing, healthy),
+                policy().withMaxAttempts(2).build());
+        for (int i = 0; i < 4; i++) {
+            pool.write(BATCH);
+        }
+        Assert.assertEquals(4, healthy.numWrites.get());
+    }
+
+    @Test
+    public void write_whenEveryEndpointFails_thenAtLeastOneIsKept() {
+        CountingWriter a = new CountingWriter();
+        a.failing = true;
+        CountingWriter b = new CountingWriter();
+        b.failing = true;
+        EndpointPoolBatchWriter<Integer> pool = new EndpointPoolBatchWriter<>(Arrays.asList(a, b),
+                policy().withConsecutiveFailuresToEject(1).withMaxEjectedRatio(0.99).build());
+        writeIgnoringFailures(pool, 10);
+        Assert.assertTrue(pool.isEjected(0) != pool.isEjected(1));
+        Assert.assertEquals(10, a.numWrites.get() + b.numWrites.get());
+    }
+}
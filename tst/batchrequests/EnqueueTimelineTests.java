@@ -0,0 +1,87 @@
+package batchrequests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EnqueueTimelineTests {
+
+    private static final long SPAN = EnqueueTimeline.SEGMENT_SPAN_NANOS;
+
+    @Test
+    public void recordEnqueue_whenWithinOneSpan_thenSharesSegmentWithOldestTime() {
+        EnqueueTimeline timeline = new EnqueueTimeline();
+        Assert.assertTrue(timeline.isEmpty());
+        timeline.recordEnqueue(100, EnqueueTimeline.NO_DEADLINE);
+        timeline.recordEnqueue(100 + SPAN - 1, EnqueueTimeline.NO_DEADLINE);
+        Assert.assertEquals(100, timeline.getOldestEnqueueNanos());
+
+        // Both requests are in the first segment, so it only goes away once both are dequeued
+        timeline.recordDequeue(1);
+        Assert.assertFalse(timeline.isEmpty());
+        timeline.recordDequeue(1);
+        Assert.assertTrue(timeline.isEmpty());
+    }
+
+    @Test
+    public void recordDequeue_whenSpanningSegments_thenOldestMovesForward() {
+        EnqueueTimeline timeline = new EnqueueTimeline();
+        for (int i = 0; i < 100; i++) {
+            timeline.recordEnqueue(i * SPAN, EnqueueTimeline.NO_DEADLINE);
+        }
+        timeline.recordDequeue(40);
+        Assert.assertEquals(40 * SPAN, timeline.getOldestEnqueueNanos());
+        // Dequeuing more than was recorded (e.g. requests added to the queue directly) empties the timeline
+        timeline.recordDequeue(1000);
+        Assert.assertTrue(timeline.isEmpty());
+    }
+
+    @Test
+    public void getEarliestDeadlineNanos_whenExplicitDeadlines_thenEarliestRemainingIsReturned() {
+        EnqueueTimeline timeline = new EnqueueTimeline();
+        Assert.assertEquals(EnqueueTimeline.NO_DEADLINE, timeline.getEarliestDeadlineNanos());
+        timeline.recordEnqueue(0, 500);
+        timeline.recordEnqueue(SPAN, EnqueueTimeline.NO_DEADLINE);
+        timeline.recordEnqueue(2 * SPAN, 900);
+        timeline.recordEnqueue(2 * SPAN, 700);
+        Assert.assertEquals(500, timeline.getEarliestDeadlineNanos());
+
+        timeline.recordDequeue(1);
+        Assert.assertEquals(700, timeline.getEarliestDeadlineNanos());
+        timeline.recordDequeue(3);
+        Assert.assertEquals(EnqueueTimeline.NO_DEADLINE, timeline.getEarliestDeadlineNanos());
+    }
+
+    @Test
+    public void recordDequeue_whenTakenFromBehindRemainingRequests_thenTheyKeepTheirEnqueueTime() {
+        EnqueueTimeline timeline = new EnqueueTimeline();
+        for (int i = 0; i < 5; i++) {
+            timeline.recordEnqueue(i * SPAN, EnqueueTimeline.NO_DEADLINE);
+        }
+        // Take the 2nd and 3rd requests, then the 5th, leaving the 1st and 4th
+        timeline.recordDequeue(1, 2);
+        timeline.recordDequeue(2, 1);
+        Assert.assertEquals(0, timeline.getOldestEnqueueNanos());
+        timeline.recordDequeue(1);
+        Assert.assertEquals(3 * SPAN, timeline.getOldestEnqueueNanos());
+        timeline.recordDequeue(1);
+        Assert.assertTrue(timeline.isEmpty());
+    }
+
+    @Test
+    public void recordEnqueue_whenRingWrapsAndGrows_thenOrderIsKept() {
+        EnqueueTimeline timeline = new EnqueueTimeline();
+        long now = 0;
+        // Move the head around the ring before growing it
+        for (int i = 0; i < 10; i++) {
+            timeline.recordEnqueue(now += SPAN, EnqueueTimeline.NO_DEADLINE);
+        }
+        timeline.recordDequeue(10);
+        long firstRemaining = now + SPAN;
+        for (int i = 0; i < 50; i++) {
+            timeline.recordEnqueue(now += SPAN, EnqueueTimeline.NO_DEADLINE);
+        }
+        Assert.assertEquals(firstRemaining, timeline.getOldestEnqueueNanos());
+        timeline.recordDequeue(49);
+        Assert.assertEquals(now, timeline.getOldestEnqueueNanos());
+    }
+}
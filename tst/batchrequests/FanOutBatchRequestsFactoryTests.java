@@ -0,0 +1,169 @@
+package batchrequests;
+
+import batchrequests.util.Await;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+public class FanOutBatchRequestsFactoryTests {
+
+    /**
+     * Records every batch, and blocks the writes until released.
+     */
+    private static class GatedWriter implements BatchWriter<Integer> {
+        private final List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch gate;
+
+        GatedWriter(boolean open) {
+            this.gate = new CountDownLatch(open ? 0 : 1);
+        }
+
+        @Override
+        public void write(Collection<Integer> batch) {
+            try {
+                gate.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            batches.add(new ArrayList<>(batch));
+        }
+
+        void open() {
+            gate.countDown();
+        }
+
+        List<Integer> getWritten() {
+            List<Integer> written = new ArrayList<>();
+            synchronized (batches) {
+                batches.forEach(written::addAll);
+            }
+            return written;
+        }
+    }
+
+    private static Object[] range(int end) {
+        return IntStream.range(0, end).boxed().toArray();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenNoSinks_thenFailure() {
+        new FanOutBatchRequestsFactory<Integer>(Collections.emptyList());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenMaxLagBelowBatchSize_thenFailure() {
+        new FanOutSink.FanOutSinkBuilder<Integer>(batch -> { })
+                .withBatchSize(10)
+                .withMaxLag(5, FanOutSink.LagPolicy.SKIP)
+                .build();
+    }
+
+    @Test
+    public void put_thenEverySinkGetsEveryRequestInItsOwnBatchSize() throws Exception {
+        GatedWriter primary = new GatedWriter(true);
+        GatedWriter analytics = new GatedWriter(true);
+        FanOutBatchRequestsFactory<Integer> factory = new FanOutBatchRequestsFactory<>(Arrays.asList(
+                new FanOutSink.FanOutSinkBuilder<>(primary).withBatchSize(2).withMaxBufferTimeMs(60_000).build(),
+                new FanOutSink.FanOutSinkBuilder<>(analytics).withBatchSize(5).withMaxBufferTimeMs(60_000).build()));
+        for (int i = 0; i < 10; i++) {
+            factory.put(i);
+        }
+        Await.awaitTrue(() -> primary.getWritten().size() == 10 && analytics.getWritten().size() == 10);
+        Assert.assertEquals(Arrays.asList(0, 1), primary.batches.get(0));
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4), analytics.batches.get(0));
+        Await.awaitTrue(() -> factory.getNumBuffered() == 0);
+        Assert.assertTrue(factory.shutdown(10_000));
+    }
+
+    @Test
+    public void put_whenOneSinkIsSlow_thenRequestsAreReleasedOnlyAfterItWritesThem() throws Exception {
+        GatedWriter fast = new GatedWriter(true);
+        GatedWriter slow = new GatedWriter(false);
+        FanOutBatchRequestsFactory<Integer> factory = new FanOutBatchRequestsFactory<>(Arrays.asList(
+                new FanOutSink.FanOutSinkBuilder<>(fast).withBatchSize(2).build(),
+                new FanOutSink.FanOutSinkBuilder<>(slow).withBatchSize(2).build()));
+        for (int i = 0; i < 4; i++) {
+            factory.put(i);
+        }
+        Await.awaitTrue(() -> fast.getWritten().size() == 4);
+        Assert.assertEquals(4, factory.getNumBuffered());
+
+        slow.open();
+        Await.awaitTrue(() -> factory.getNumBuffered() == 0);
+        MatcherAssert.assertThat(slow.getWritten(), Matchers.contains(range(4)));
+        Assert.assertTrue(factory.shutdown(10_000));
+    }
+
+    @Test
+    public void put_whenSkippingSinkFallsBehind_thenItSkipsWithoutHoldingUpOthers() throws Exception {
+        GatedWriter fast = new GatedWriter(true);
+        GatedWriter slow = new GatedWriter(false);
+        FanOutBatchRequestsFactory<Integer> factory = new FanOutBatchRequestsFactory<>(Arrays.asList(
+                new FanOutSink.FanOutSinkBuilder<>(fast).withBatchSize(2).build(),
+                new FanOutSink.FanOutSinkBuilder<>(slow).withBatchSize(2).withMaxLag(4, FanOutSink.LagPolicy.SKIP).build()));
+        factory.put(0);
+        factory.put(1);
+        // Wait for the slow sink to be stuck writing its first batch
+        Await.awaitTrue(() -> factory.getLag(1) == 0);
+        for (int i = 2; i < 20; i++) {
+            factory.put(i);
+        }
+        Await.awaitTrue(() -> fast.getWritten().size() == 20);
+        Assert.assertEquals(4, factory.getLag(1));
+        Assert.assertEquals(14, factory.getNumSkipped(1));
+        // The batch stuck being written is no longer kept, so the buffer stays within the max lag
+        Assert.assertEquals(4, factory.getNumBuffered());
+
+        slow.open();
+        Assert.assertTrue(factory.shutdown(10_000));
+        MatcherAssert.assertThat(slow.getWritten(), Matchers.contains(0, 1, 16, 17, 18, 19));
+        Assert.assertEquals(0, factory.getNumBuffered());
+    }
+
+    @Test
+    public void put_whenBlockingSinkFallsBehind_thenSubmittingWaits() throws Exception {
+        GatedWriter slow = new GatedWriter(false);
+        FanOutBatchRequestsFactory<Integer> factory = new FanOutBatchRequestsFactory<>(Collections.singletonList(
+                new FanOutSink.FanOutSinkBuilder<>(slow).withBatchSize(2).withMaxLag(2, FanOutSink.LagPolicy.BLOCK).build()));
+        factory.put(0);
+        factory.put(1);
+        Await.awaitTrue(() -> factory.getLag(0) == 0);
+        // The batch being written already holds the whole max lag
+        CompletableFuture<Void> blockedPut = CompletableFuture.runAsync(() -> factory.put(2));
+        Thread.sleep(50);
+        Assert.assertFalse(blockedPut.isDone());
+
+        slow.open();
+        blockedPut.get(10, TimeUnit.SECONDS);
+        Assert.assertTrue(factory.shutdown(10_000));
+        MatcherAssert.assertThat(slow.getWritten(), Matchers.contains(range(3)));
+    }
+
+    @Test
+    public void shutdown_thenPartialBatchesAreFlushedAndPutFails() throws Exception {
+        GatedWriter writer = new GatedWriter(true);
+        FanOutBatchRequestsFactory<Integer> factory = new FanOutBatchRequestsFactory<>(Collections.singletonList(
+                new FanOutSink.FanOutSinkBuilder<>(writer).withBatchSize(100).withMaxBufferTimeMs(60_000).build()));
+        factory.put(0);
+        factory.put(1);
+        Assert.assertTrue(factory.shutdown(10_000));
+        Assert.assertEquals(Arrays.asList(0, 1), writer.getWritten());
+        try {
+            factory.put(2);
+            Assert.fail("Expected put to fail after shutdown");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package batchrequests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.function.BooleanSupplier;
+
+public class FlushDecisionTests {
+
+    private static final int MAX_BATCH_SIZE = 10;
+    private static final long MAX_BUFFER_TIME_NANOS = 1_000;
+    private static final BooleanSupplier SENDABLE = () -> true;
+    private static final BooleanSupplier NOT_SENDABLE = () -> false;
+    private static final BooleanSupplier MUST_NOT_BE_CALLED = () -> {
+        throw new AssertionError("Whether a request can be sent shouldn't matter");
+    };
+
+    private static final FlushDecision DECISION = new FlushDecision(MAX_BATCH_SIZE, MAX_BUFFER_TIME_NANOS, false);
+    private static final FlushDecision SMART_DECISION = new FlushDecision(MAX_BATCH_SIZE, MAX_BUFFER_TIME_NANOS, true);
+
+    @Test
+    public void getWaitNanos_whenBeforeDeadline_thenWaitsUntilDeadline() {
+        Assert.assertEquals(300, DECISION.getWaitNanos(0, 1_000, 700, MUST_NOT_BE_CALLED));
+        Assert.assertEquals(MAX_BATCH_SIZE, DECISION.getBatchReadySize(0));
+    }
+
+    @Test
+    public void getWaitNanos_whenDeadlineHasPassed_thenFlushes() {
+        Assert.assertEquals(FlushDecision.FLUSH_NOW, DECISION.getWaitNanos(0, 1_000, 1_000, SENDABLE));
+        Assert.assertEquals(FlushDecision.FLUSH_NOW, DECISION.getWaitNanos(0, 1_000, 5_000, SENDABLE));
+    }
+
+    @Test
+    public void getWaitNanos_whenDeadlineHasPassedButNothingCanBeSent_thenWaitsForMaxBufferTime() {
+        Assert.assertEquals(MAX_BUFFER_TIME_NANOS, DECISION.getWaitNanos(0, 1_000, 5_000, NOT_SENDABLE));
+    }
+
+    @Test
+    public void getWaitNanos_whenSmartBatchingAndWriterIsIdle_thenFlushesBeforeDeadline() {
+        Assert.assertEquals(FlushDecision.FLUSH_NOW, SMART_DECISION.getWaitNanos(0, 1_000, 0, SENDABLE));
+        Assert.assertEquals(1, SMART_DECISION.getBatchReadySize(0));
+    }
+
+    @Test
+    public void getWaitNanos_whenSmartBatchingAndWriterIsBusy_thenWaitsUntilDeadline() {
+        Assert.assertEquals(1_000, SMART_DECISION.getWaitNanos(1, 1_000, 0, MUST_NOT_BE_CALLED));
+        Assert.assertEquals(MAX_BATCH_SIZE, SMART_DECISION.getBatchReadySize(1));
+    }
+}
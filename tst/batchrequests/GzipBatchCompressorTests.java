@@ -0,0 +1,89 @@
+package batchrequests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+public class GzipBatchCompressorTests {
+
+    private static byte[] gunzip(ByteBuffer compressed) throws IOException {
+        byte[] bytes = new byte[compressed.remaining()];
+        compressed.get(bytes);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            byte[] chunk = new byte[1024];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                out.write(chunk, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenInvalidLevel_thenFailure() {
+        new GzipBatchCompressor(42);
+    }
+
+    @Test
+    public void forEncoding_whenGzip_thenBuiltInCompressor() {
+        Assert.assertTrue(BatchCompressor.forEncoding("GZIP") instanceof GzipBatchCompressor);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void forEncoding_whenUnknown_thenFailure() {
+        BatchCompressor.forEncoding("no-such-encoding");
+    }
+
+    @Test
+    public void compress_whenSeveralBuffers_thenOutputIsValidGzipOfConcatenation() throws Exception {
+        ByteBuffer direct = ByteBuffer.allocateDirect(6);
+        direct.put("world\n".getBytes(StandardCharsets.UTF_8)).flip();
+        ByteBuffer[] input = {ByteBuffer.wrap("hello\n".getBytes(StandardCharsets.UTF_8)), direct};
+
+        ByteBuffer compressed = new GzipBatchCompressor().compress(input);
+        Assert.assertEquals("hello\nworld\n", new String(gunzip(compressed), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void compress_whenCalledRepeatedlyWithLargeInput_thenEachOutputIsIndependent() throws Exception {
+        GzipBatchCompressor compressor = new GzipBatchCompressor();
+        Random random = new Random(42);
+        for (int size : new int[] {100_000, 10, 0, 50_000}) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            ByteBuffer compressed = compressor.compress(new ByteBuffer[] {ByteBuffer.wrap(data)});
+            Assert.assertArrayEquals(data, gunzip(compressed));
+        }
+    }
+
+    @Test
+    public void compress_whenCalledFromSeveralThreadsAfterEachOther_thenOutputIsValid() throws Exception {
+        GzipBatchCompressor compressor = new GzipBatchCompressor();
+        ByteBuffer first = compressor.compress(new ByteBuffer[] {ByteBuffer.wrap(new byte[] {'a'})});
+        ByteBuffer[] second = new ByteBuffer[1];
+        Thread thread = new Thread(() ->
+                second[0] = compressor.compress(new ByteBuffer[] {ByteBuffer.wrap(new byte[] {'b'})}));
+        thread.start();
+        thread.join();
+        // The deflater is shared, but each thread's output stays valid until that thread's next batch
+        Assert.assertEquals("a", new String(gunzip(first), StandardCharsets.UTF_8));
+        Assert.assertEquals("b", new String(gunzip(second[0]), StandardCharsets.UTF_8));
+        compressor.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void compress_whenClosed_thenFailure() {
+        GzipBatchCompressor compressor = new GzipBatchCompressor();
+        compressor.compress(new ByteBuffer[] {ByteBuffer.wrap(new byte[] {'a'})});
+        compressor.close();
+        compressor.compress(new ByteBuffer[] {ByteBuffer.wrap(new byte[] {'a'})});
+    }
+}
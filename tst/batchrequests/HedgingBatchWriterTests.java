@@ -0,0 +1,149 @@
+package batchrequests;
+
+import batchrequests.util.Await;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HedgingBatchWriterTests {
+
+    private static final int NUM_WARMUP_WRITES = 5;
+
+    private static HedgingPolicy.HedgingPolicyBuilder warmedUpAfter(int numWrites) {
+        return new HedgingPolicy.HedgingPolicyBuilder()
+                .withSampleWindowSize(numWrites)
+                .withMinSamples(numWrites);
+    }
+
+    private static void warmUp(HedgingBatchWriter<Integer> writer) {
+        for (int i = 0; i < NUM_WARMUP_WRITES; i++) {
+            writer.write(Collections.singletonList(i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenPercentileOutOfRange_thenFailure() {
+        new HedgingPolicy.HedgingPolicyBuilder().withLatencyPercentile(100).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenMinSamplesAboveWindow_thenFailure() {
+        new HedgingPolicy.HedgingPolicyBuilder().withSampleWindowSize(10).withMinSamples(11).build();
+    }
+
+    @Test
+    public void latencyTracker_whenEnoughSamples_thenPercentileIsComputed() {
+        LatencyTracker tracker = new LatencyTracker(95, 100, 10);
+        for (int i = 1; i < 10; i++) {
+            tracker.record(i);
+        }
+        Assert.assertEquals(LatencyTracker.NOT_ENOUGH_SAMPLES, tracker.getPercentileNanos());
+        for (int i = 10; i <= 100; i++) {
+            tracker.record(i);
+        }
+        Assert.assertEquals(95, tracker.getPercentileNanos());
+    }
+
+    @Test
+    public void write_whenPrimaryIsSlow_thenHedgeWinsAndPrimaryIsCancelled() throws Exception {
+        AtomicInteger numCalls = new AtomicInteger();
+        AtomicBoolean primaryInterrupted = new AtomicBoolean();
+        CountDownLatch never = new CountDownLatch(1);
+        HedgingBatchWriter<Integer> writer = new HedgingBatchWriter<>(batch -> {
+            if (numCalls.incrementAndGet() == NUM_WARMUP_WRITES + 1) {
+                try {
+                    never.await(60, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    primaryInterrupted.set(true);
+                }
+            }
+        }, warmedUpAfter(NUM_WARMUP_WRITES).withMaxHedgeRatio(1).withMaxHedgeBurst(1).build());
+        warmUp(writer);
+
+        long startMs = System.currentTimeMillis();
+        writer.write(Collections.singletonList(42));
+        Assert.assertTrue(System.currentTimeMillis() - startMs < 10_000);
+        Assert.assertEquals(NUM_WARMUP_WRITES + 2, numCalls.get());
+        Assert.assertEquals(1, writer.getNumHedges());
+        Assert.assertEquals(1, writer.getNumHedgeWins());
+        Await.awaitTrue(primaryInterrupted::get);
+    }
+
+    @Test
+    public void write_whenHedgeWins_thenPrimaryLatencyIsRecorded() {
+        AtomicInteger numCalls = new AtomicInteger();
+        HedgingBatchWriter<Integer> writer = new HedgingBatchWriter<>(batch -> {
+            try {
+                if (numCalls.incrementAndGet() == NUM_WARMUP_WRITES + 1) {
+                    new CountDownLatch(1).await(60, TimeUnit.SECONDS);
+                } else {
+                    Thread.sleep(50);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, warmedUpAfter(NUM_WARMUP_WRITES).withMaxHedgeRatio(1).withMaxHedgeBurst(1).build());
+        warmUp(writer);
+
+        writer.write(Collections.singletonList(42));
+        Assert.assertEquals(1, writer.getNumHedgeWins());
+        // The primary had waited for the hedge delay and then the hedge's write, each of which took at least 50ms
+        MatcherAssert.assertThat(writer.getLatencyTracker().getPercentileNanos(),
+                Matchers.greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100)));
+        writer.close();
+    }
+
+    @Test
+    public void write_whenClosed_thenFailure() {
+        HedgingBatchWriter<Integer> writer = new HedgingBatchWriter<>(batch -> { },
+                new HedgingPolicy.HedgingPolicyBuilder().build());
+        writer.write(Collections.singletonList(1));
+        writer.close();
+        try {
+            writer.write(Collections.singletonList(2));
+            Assert.fail("Expected the write to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void write_whenHedgeBudgetIsSpent_thenNoHedge() {
+        AtomicInteger numCalls = new AtomicInteger();
+        HedgingBatchWriter<Integer> writer = new HedgingBatchWriter<>(batch -> {
+            if (numCalls.incrementAndGet() == NUM_WARMUP_WRITES + 1) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, warmedUpAfter(NUM_WARMUP_WRITES).withMaxHedgeRatio(0.01).build());
+        warmUp(writer);
+
+        writer.write(Collections.singletonList(42));
+        Assert.assertEquals(NUM_WARMUP_WRITES + 1, numCalls.get());
+        Assert.assertEquals(0, writer.getNumHedges());
+    }
+
+    @Test
+    public void write_whenPrimaryFailsBeforeHedgeDelay_thenExceptionIsThrown() {
+        HedgingBatchWriter<Integer> writer = new HedgingBatchWriter<>(batch -> {
+            throw new IllegalStateException("write failed");
+        }, new HedgingPolicy.HedgingPolicyBuilder().build());
+        try {
+            writer.write(Collections.singletonList(1));
+            Assert.fail("Expected the write to fail");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("write failed", e.getMessage());
+        }
+        Assert.assertEquals(0, writer.getNumHedges());
+    }
+}
@@ -0,0 +1,218 @@
+package batchrequests;
+
+import batchrequests.util.Await;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class KeyOrderingTests {
+
+    /** Requests look like "key:sequence" */
+    private static final KeyOrdering<String> BY_PREFIX = new KeyOrdering<>(request -> request.split(":")[0]);
+
+    private static void awaitSize(List<?> list, int size) throws InterruptedException {
+        Await.awaitTrue(() -> list.size() >= size);
+        Assert.assertEquals(size, list.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenNullKeyExtractor_thenFailure() {
+        new KeyOrdering<String>(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenNonPositiveKeyGroups_thenFailure() {
+        new KeyOrdering<String>(request -> request, 0);
+    }
+
+    @Test
+    public void keyGroupOf_thenWithinRangeAndStable() {
+        KeyOrdering<String> ordering = new KeyOrdering<>(request -> request.isEmpty() ? null : request, 7);
+        for (String key : new String[] {"", "a", "b", "some longer key", String.valueOf(Integer.MIN_VALUE)}) {
+            int keyGroup = ordering.keyGroupOf(key);
+            Assert.assertTrue(keyGroup >= 0 && keyGroup < 7);
+            Assert.assertEquals(keyGroup, ordering.keyGroupOf(key));
+        }
+    }
+
+    @Test
+    public void getNumSendable_whenKeyGroupIsInFlight_thenItsRequestsAreNotCounted() {
+        QueueAndLock<String> queueAndLock = new QueueAndLock<>(new LinkedList<>(), new ReentrantLock(),
+                new BatchWeightLimit<>(request -> 1, 2), BY_PREFIX);
+        queueAndLock.getLock().lock();
+        try {
+            for (String request : Arrays.asList("a:1", "a:2", "b:1")) {
+                queueAndLock.enqueue(request, EnqueueTimeline.NO_DEADLINE);
+            }
+            Assert.assertEquals(3, queueAndLock.getNumSendable());
+
+            List<String> batch = Collections.singletonList(queueAndLock.getQueue().poll());
+            queueAndLock.recordDequeue(batch);
+            queueAndLock.markInFlight(batch);
+            Assert.assertEquals(1, queueAndLock.getNumSendable());
+            Assert.assertEquals(false, queueAndLock.isSendable("a:2"));
+            Assert.assertEquals(false, queueAndLock.isFullByWeight());
+
+            queueAndLock.clearInFlight(batch);
+            Assert.assertEquals(2, queueAndLock.getNumSendable());
+            Assert.assertEquals(true, queueAndLock.isSendable("a:2"));
+            Assert.assertEquals(true, queueAndLock.isFullByWeight());
+        } finally {
+            queueAndLock.getLock().unlock();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void addQueue_whenOrdered_thenFailure() throws Exception {
+        BatchRequestsFactory<String> factory = new BatchRequestsFactory.BatchRequestsFactoryBuilder<String>(batch -> { })
+                .withKeyOrdering(BY_PREFIX)
+                .build();
+        try {
+            factory.addQueue();
+        } finally {
+            factory.shutdown(10_000);
+        }
+    }
+
+    @Test
+    public void write_whenKeyIsInFlight_thenLaterRequestWaitsButOtherKeysDoNot() throws Exception {
+        CountDownLatch firstWriteStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstWrite = new CountDownLatch(1);
+        List<String> written = Collections.synchronizedList(new ArrayList<>());
+        BatchRequestsFactory<String> factory = new BatchRequestsFactory.BatchRequestsFactoryBuilder<String>(batch -> {
+            if (batch.contains("a:1")) {
+                firstWriteStarted.countDown();
+                try {
+                    releaseFirstWrite.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            written.addAll(batch);
+        })
+                .withBatchSize(1)
+                .withNumPollingWorkersPerQueue(2)
+                .withMaxBufferTimeMs(10)
+                .withKeyOrdering(BY_PREFIX)
+                .build();
+
+        factory.getBatchSubmitter().put("a:1");
+        Assert.assertTrue(firstWriteStarted.await(10, TimeUnit.SECONDS));
+        factory.getBatchSubmitter().put("a:2");
+        factory.getBatchSubmitter().put("b:1");
+        // The second poller skips "a:2" while "a:1" is being written
+        awaitSize(written, 1);
+        Assert.assertEquals("b:1", written.get(0));
+        Thread.sleep(50);
+        Assert.assertEquals(1, written.size());
+
+        releaseFirstWrite.countDown();
+        awaitSize(written, 3);
+        Assert.assertEquals(Arrays.asList("b:1", "a:1", "a:2"), written);
+        Assert.assertTrue(factory.shutdown(10_000));
+    }
+
+    @Test
+    public void write_whenRequestIsHeldBackWhileYoungerOnesAreSent_thenItKeepsItsOwnBufferTime() throws Exception {
+        long maxBufferTimeMs = 500;
+        CountDownLatch firstWriteStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstWrite = new CountDownLatch(1);
+        CountDownLatch heldBackRequestWritten = new CountDownLatch(1);
+        List<String> written = Collections.synchronizedList(new ArrayList<>());
+        BatchRequestsFactory<String> factory = new BatchRequestsFactory.BatchRequestsFactoryBuilder<String>(batch -> {
+            if (batch.contains("a:1")) {
+                firstWriteStarted.countDown();
+                try {
+                    releaseFirstWrite.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (batch.contains("a:2")) {
+                heldBackRequestWritten.countDown();
+            }
+            written.addAll(batch);
+        })
+                .withNumQueues(1)
+                .withBatchSize(2)
+                .withNumPollingWorkersPerQueue(2)
+                .withMaxBufferTimeMs(maxBufferTimeMs)
+                .withKeyOrdering(BY_PREFIX)
+                .build();
+
+        factory.getBatchSubmitter().put("a:1");
+        factory.getBatchSubmitter().put("c:1");
+        Assert.assertTrue(firstWriteStarted.await(10, TimeUnit.SECONDS));
+        long heldBackPutNanos = System.nanoTime();
+        factory.getBatchSubmitter().put("a:2");
+        Thread.sleep(300);
+        // A full batch of younger requests is sent right away, skipping "a:2"
+        factory.getBatchSubmitter().put("b:1");
+        factory.getBatchSubmitter().put("b:2");
+        awaitSize(written, 2);
+        releaseFirstWrite.countDown();
+
+        Assert.assertTrue(heldBackRequestWritten.await(10, TimeUnit.SECONDS));
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - heldBackPutNanos);
+        Assert.assertTrue(factory.shutdown(10_000));
+        // The blocking write was released well within the max buffer time, so "a:2" is due by its own enqueue time,
+        // not by that of the younger requests sent ahead of it.  Allow plenty of slack for slow machines.
+        MatcherAssert.assertThat(waitedMs, Matchers.lessThan(maxBufferTimeMs + 150));
+    }
+
+    @Test
+    public void write_whenManyKeysAcrossQueuesAndPollers_thenEachKeyStaysInOrder() throws Exception {
+        int numKeys = 20;
+        int numRequestsPerKey = 50;
+        List<String> written = new ArrayList<>();
+        BatchRequestsFactory<String> factory = new BatchRequestsFactory.BatchRequestsFactoryBuilder<String>(batch -> {
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (written) {
+                written.addAll(batch);
+            }
+        })
+                .withNumQueues(4)
+                .withNumPollingWorkersPerQueue(4)
+                .withBatchSize(5)
+                .withMaxBufferTimeMs(5)
+                .withKeyOrdering(BY_PREFIX)
+                .build();
+        for (int sequence = 0; sequence < numRequestsPerKey; sequence++) {
+            for (int key = 0; key < numKeys; key++) {
+                factory.getBatchSubmitter().put(key + ":" + sequence);
+            }
+        }
+
+        Await.awaitTrue(() -> {
+            synchronized (written) {
+                return written.size() == numKeys * numRequestsPerKey;
+            }
+        });
+        Assert.assertTrue(factory.shutdown(10_000));
+        Assert.assertEquals(numKeys * numRequestsPerKey, written.size());
+        Map<String, Integer> lastSequence = new HashMap<>();
+        for (String request : written) {
+            String[] parts = request.split(":");
+            int sequence = Integer.parseInt(parts[1]);
+            Assert.assertEquals("Out of order: " + request, lastSequence.getOrDefault(parts[0], -1) + 1, sequence);
+            lastSequence.put(parts[0], sequence);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package batchrequests;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class PollerAutoscalerTests {
+
+    private BatchRequestsFactory<Integer> factory;
+
+    @After
+    public void teardown() throws Exception {
+        if (factory != null) {
+            factory.shutdown(10_000);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private BatchRequestsFactory<Integer> newFactory() {
+        // A long buffer time and large batches keep the requests in the queue for the duration of the test
+        factory = new BatchRequestsFactory.BatchRequestsFactoryBuilder<Integer>(Mockito.mock(BatchWriter.class))
+                .withBatchSize(1000)
+                .withMaxBufferTimeMs(60_000)
+                .build();
+        return factory;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_policyWithMaxBelowMin_thenFailure() {
+        new AutoscalingPolicy.AutoscalingPolicyBuilder()
+                .withMinPollersPerQueue(3)
+                .withMaxPollersPerQueue(2)
+                .build();
+    }
+
+    @Test
+    public void run_whenQueueIsDeep_thenScalesUpToMax() {
+        BatchRequestsFactory<Integer> factory = newFactory();
+        AutoscalingPolicy policy = new AutoscalingPolicy.AutoscalingPolicyBuilder()
+                .withScaleUpQueueDepth(5)
+                .withMaxPollersPerQueue(3)
+                .build();
+        PollerAutoscaler<Integer> autoscaler = new PollerAutoscaler<>(factory, policy);
+
+        autoscaler.run();
+        Assert.assertEquals(1, factory.getNumPollingWorkers(0));
+
+        for (int i = 0; i < 5; i++) {
+            factory.getBatchSubmitter().put(i);
+        }
+        autoscaler.run();
+        Assert.assertEquals(2, factory.getNumPollingWorkers(0));
+        autoscaler.run();
+        autoscaler.run();
+        Assert.assertEquals(3, factory.getNumPollingWorkers(0));
+    }
+
+    @Test
+    public void run_whenOldestRequestWaitedTooLong_thenScalesUp() throws Exception {
+        BatchRequestsFactory<Integer> factory = newFactory();
+        AutoscalingPolicy policy = new AutoscalingPolicy.AutoscalingPolicyBuilder()
+                .withScaleUpWaitTimeMs(5)
+                .build();
+        PollerAutoscaler<Integer> autoscaler = new PollerAutoscaler<>(factory, policy);
+        factory.getBatchSubmitter().put(1);
+        Thread.sleep(20);
+        autoscaler.run();
+        Assert.assertEquals(2, factory.getNumPollingWorkers(0));
+    }
+
+    @Test
+    public void run_whenQueueIsIdle_thenScalesDownToMin() throws Exception {
+        BatchRequestsFactory<Integer> factory = newFactory();
+        factory.addPollingWorker(0);
+        factory.addPollingWorker(0);
+        AutoscalingPolicy policy = new AutoscalingPolicy.AutoscalingPolicyBuilder()
+                .withMinPollersPerQueue(2)
+                .withScaleDownIdleTimeMs(1)
+                .build();
+        PollerAutoscaler<Integer> autoscaler = new PollerAutoscaler<>(factory, policy);
+
+        // The first check only notices that the queue is idle
+        autoscaler.run();
+        Assert.assertEquals(3, factory.getNumPollingWorkers(0));
+        Thread.sleep(5);
+        autoscaler.run();
+        Assert.assertEquals(2, factory.getNumPollingWorkers(0));
+        Thread.sleep(5);
+        autoscaler.run();
+        Assert.assertEquals(2, factory.getNumPollingWorkers(0));
+    }
+}
@@ -1,5 +1,6 @@
 package batchrequests;
 
+import batchrequests.util.Await;
 import org.hamcrest.Matchers;
 import org.hamcrest.junit.MatcherAssert;
 import org.junit.Assert;
@@ -8,7 +9,9 @@ import org.mockito.*;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
@@ -181,6 +184,22 @@ public class PollingQueueTaskTests {
         Assert.assertEquals(true, scaffold.pollingQueueTask.isShutdown());
     }
 
+    @Test
+    public void run_whenShutDownBeforeItStarts_thenQueuedRequestsAreStillWritten() throws Exception {
+        TestScaffold scaffold = setupTestWithWaitForTaskStart(1);
+        scaffold.pollingQueueTask = new PollingQueueTask<>(scaffold.queueForMockWriter, scaffold.lockForMockWriter,
+                scaffold.mockWriter, TestScaffold.MAX_BATCH_SIZE, 60_000);
+        scaffold.queueForMockWriter.addAll(Arrays.asList(1, 2));
+
+        // e.g. a factory that is drained right after it is built, before its pollers get a thread
+        scaffold.pollingQueueTask.shutdown();
+        scaffold.pollingQueueTask.run();
+
+        Mockito.verify(scaffold.mockWriter, Mockito.times(1)).write(Mockito.any());
+        MatcherAssert.assertThat(scaffold.mockWriterPerformWriteCaptor.getValue(), Matchers.contains(1, 2));
+        Assert.assertTrue(scaffold.queueForMockWriter.isEmpty());
+    }
+
     @Test
     public void run_whenBatchWriterThrowsRuntimeException_thenRunnableContinues() throws Exception {
         TestScaffold scaffold = setupTestWithWaitForTaskStart(1);
@@ -202,8 +221,8 @@ public class PollingQueueTaskTests {
             }
         }).when(scaffold.mockWriter).write(scaffold.mockWriterPerformWriteCaptor.capture());
 
-        // Start with a full batch so the worker immediately processes it
-        for (int i = 0; i < scaffold.MAX_BATCH_SIZE; i++) {
+        // Start with two full batches so the worker immediately processes them, since empty batches aren't written
+        for (int i = 0; i < 2 * scaffold.MAX_BATCH_SIZE; i++) {
             scaffold.queueForMockWriter.add(i);
         }
 
@@ -222,4 +241,249 @@ public class PollingQueueTaskTests {
 
         scaffold.pollingQueueTask.shutdown();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void run_whenBatchWeightLimitIsReached_thenBatchIsCutByWeight() throws Exception {
+        TestScaffold scaffold = setupTestWithWaitForTaskStart(3);
+        // Each value weighs itself, and a batch may weigh at most 10
+        QueueAndLock<Integer> queueAndLock = new QueueAndLock<>(scaffold.queueForMockWriter, scaffold.lockForMockWriter,
+                new BatchWeightLimit<>(value -> value, 10), null);
+        scaffold.pollingQueueTask = new PollingQueueTask<>(queueAndLock, scaffold.mockWriter, scaffold.MAX_BATCH_SIZE,
+                scaffold.BUFFER_TIME_MS);
+        BatchSubmitter<Integer> submitter = new BatchSubmitter<>(Collections.singletonList(queueAndLock));
+        for (int value : Arrays.asList(4, 5, 6, 20, 1)) {
+            submitter.put(value);
+        }
+
+        Thread thread = new Thread(scaffold.pollingQueueTask);
+        thread.start();
+
+        Assert.assertEquals("Expected write to occur within a reasonable amount of time",
+                true, scaffold.waitForWriteLatch.await(10, TimeUnit.SECONDS));
+        scaffold.pollingQueueTask.shutdown();
+
+        List<Collection<Integer>> capturedValues = scaffold.mockWriterPerformWriteCaptor.getAllValues();
+        MatcherAssert.assertThat("Error in captured values: " + capturedValues.toString(),
+                capturedValues.size(), Matchers.greaterThanOrEqualTo(3));
+        MatcherAssert.assertThat(capturedValues.get(0), Matchers.contains(4, 5));
+        MatcherAssert.assertThat(capturedValues.get(1), Matchers.contains(6));
+        // A request heavier than the limit is still written, on its own
+        MatcherAssert.assertThat(capturedValues.get(2), Matchers.contains(20));
+    }
+
+    @Test
+    public void run_whenBatchIsFullByWeight_thenItIsWrittenBeforeMaxBufferTime() throws Exception {
+        TestScaffold scaffold = setupTestWithWaitForTaskStart(1);
+        QueueAndLock<Integer> queueAndLock = new QueueAndLock<>(scaffold.queueForMockWriter, scaffold.lockForMockWriter,
+                new BatchWeightLimit<>(value -> value, 10), null);
+        long maxBufferTimeMs = 60_000;
+        scaffold.pollingQueueTask = new PollingQueueTask<>(queueAndLock, scaffold.mockWriter, 100, maxBufferTimeMs);
+        BatchSubmitter<Integer> submitter = new BatchSubmitter<>(Collections.singletonList(queueAndLock));
+
+        Thread thread = new Thread(scaffold.pollingQueueTask);
+        thread.start();
+        submitter.put(4);
+        submitter.put(6);
+
+        // Far less than the max buffer time, which would otherwise have to pass since the batch isn't full by count
+        Assert.assertEquals("Expected write to occur once the batch is full by weight",
+                true, scaffold.waitForWriteLatch.await(10, TimeUnit.SECONDS));
+        scaffold.pollingQueueTask.shutdown();
+        thread.interrupt();
+
+        MatcherAssert.assertThat(scaffold.mockWriterPerformWriteCaptor.getAllValues().get(0), Matchers.contains(4, 6));
+    }
+
+    @Test
+    public void run_whenRequestHasItsOwnDeadline_thenPartialBatchIsWrittenBeforeMaxBufferTime() throws Exception {
+        TestScaffold scaffold = setupTestWithWaitForTaskStart(1);
+        QueueAndLock<Integer> queueAndLock = new QueueAndLock<>(scaffold.queueForMockWriter, scaffold.lockForMockWriter);
+        long maxBufferTimeMs = 60_000;
+        scaffold.pollingQueueTask = new PollingQueueTask<>(queueAndLock, scaffold.mockWriter, scaffold.MAX_BATCH_SIZE,
+                maxBufferTimeMs);
+        BatchSubmitter<Integer> submitter = new BatchSubmitter<>(Collections.singletonList(queueAndLock));
+
+        Thread thread = new Thread(scaffold.pollingQueueTask);
+        thread.start();
+        submitter.put(1);
+        submitter.put(2, 10);
+
+        // Far less than the max buffer time, which would otherwise have to pass before a partial batch is written
+        Assert.assertEquals("Expected write to occur before the request's deadline",
+                true, scaffold.waitForWriteLatch.await(10, TimeUnit.SECONDS));
+        scaffold.pollingQueueTask.shutdown();
+        thread.interrupt();
+
+        MatcherAssert.assertThat(scaffold.mockWriterPerformWriteCaptor.getAllValues().get(0), Matchers.contains(1, 2));
+        Assert.assertEquals(0, queueAndLock.getOldestRequestAgeMs());
+    }
+
+    @Test
+    public void run_whenRequestIsAddedToTheQueueDirectlyWhileItIsEmpty_thenItIsWritten() throws Exception {
+        TestScaffold scaffold = setupTestWithWaitForTaskStart(1);
+        QueueAndLock<Integer> queueAndLock = new QueueAndLock<>(scaffold.queueForMockWriter, scaffold.lockForMockWriter);
+        scaffold.pollingQueueTask = new PollingQueueTask<>(queueAndLock, scaffold.mockWriter, scaffold.MAX_BATCH_SIZE,
+                100);
+        Thread thread = new Thread(scaffold.pollingQueueTask);
+        thread.start();
+        // Let the task find the queue empty first
+        Thread.sleep(20);
+
+        scaffold.lockForMockWriter.lock();
+        try {
+            scaffold.queueForMockWriter.add(1);
+        } finally {
+            scaffold.lockForMockWriter.unlock();
+        }
+
+        Assert.assertEquals("Expected write to occur within a reasonable amount of time",
+                true, scaffold.waitForWriteLatch.await(10, TimeUnit.SECONDS));
+        scaffold.pollingQueueTask.shutdown();
+        thread.join(10_000);
+        MatcherAssert.assertThat(scaffold.mockWriterPerformWriteCaptor.getValue(), Matchers.contains(1));
+    }
+
+    @Test
+    public void run_whenRequestArrivesAfterFlush_thenItWaitsNoLongerThanMaxBufferTime() throws Exception {
+        TestScaffold scaffold = setupTestWithWaitForTaskStart(1);
+        QueueAndLock<Integer> queueAndLock = new QueueAndLock<>(scaffold.queueForMockWriter, scaffold.lockForMockWriter);
+        long maxBufferTimeMs = 200;
+        scaffold.pollingQueueTask = new PollingQueueTask<>(queueAndLock, scaffold.mockWriter, scaffold.MAX_BATCH_SIZE,
+                maxBufferTimeMs);
+        BatchSubmitter<Integer> submitter = new BatchSubmitter<>(Collections.singletonList(queueAndLock));
+        // Only count non-empty writes
+        Mockito.doAnswer(invocationOnMock -> {
+            if (!((Collection) invocationOnMock.getArguments()[0]).isEmpty()) {
+                scaffold.waitForWriteLatch.countDown();
+            }
+            return null;
+        }).when(scaffold.mockWriter).write(Mockito.any());
+
+        Thread thread = new Thread(scaffold.pollingQueueTask);
+        thread.start();
+        long putNanos = System.nanoTime();
+        submitter.put(1);
+
+        Assert.assertEquals("Expected write to occur within a reasonable amount of time",
+                true, scaffold.waitForWriteLatch.await(10, TimeUnit.SECONDS));
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - putNanos);
+        scaffold.pollingQueueTask.shutdown();
+        thread.interrupt();
+        // The write should be driven by the request's age, not by the poller's own schedule (which could be almost
+        // twice as long).  Allow plenty of slack for slow machines.
+        MatcherAssert.assertThat(waitedMs, Matchers.lessThan(2 * maxBufferTimeMs - 20));
+    }
+
+    @Test
+    public void run_whenBatchReuse_thenEveryBatchIsWrittenFromTheSameList() throws Exception {
+        QueueAndLock<Integer> queueAndLock = new QueueAndLock<>(new LinkedList<>(), new ReentrantLock());
+        List<Collection<Integer>> batches = Collections.synchronizedList(new LinkedList<>());
+        List<Collection<Integer>> written = Collections.synchronizedList(new LinkedList<>());
+        CountDownLatch writeLatch = new CountDownLatch(2);
+        BatchWriter<Integer> writer = batch -> {
+            if (!batch.isEmpty()) {
+                batches.add(batch);
+                written.add(new LinkedList<>(batch));
+                writeLatch.countDown();
+            }
+        };
+        PollingQueueTask<Integer> task = new PollingQueueTask<>(queueAndLock, writer, 2, 60_000, false,
+                WaitStrategy.blocking(), 0, true);
+        BatchSubmitter<Integer> submitter = new BatchSubmitter<>(Collections.singletonList(queueAndLock));
+
+        Thread thread = new Thread(task);
+        thread.start();
+        submitter.put(1);
+        submitter.put(2);
+        submitter.put(3);
+        submitter.put(4);
+
+        Assert.assertEquals(true, writeLatch.await(10, TimeUnit.SECONDS));
+        task.shutdown();
+        thread.interrupt();
+        MatcherAssert.assertThat(written, Matchers.contains(Arrays.asList(1, 2), Arrays.asList(3, 4)));
+        Assert.assertSame(batches.get(0), batches.get(1));
+        // Cleared once it has been written
+        Await.awaitTrue(batches.get(0)::isEmpty);
+    }
+
+    @Test
+    public void run_whenSmartBatchingAndWriterIsIdle_thenPartialBatchIsWrittenWithoutWaitingForMaxBufferTime()
+            throws Exception {
+        QueueAndLock<Integer> queueAndLock = new QueueAndLock<>(new LinkedList<>(), new ReentrantLock());
+        List<Collection<Integer>> written = Collections.synchronizedList(new LinkedList<>());
+        CountDownLatch writeLatch = new CountDownLatch(1);
+        BatchWriter<Integer> writer = batch -> {
+            if (!batch.isEmpty()) {
+                written.add(new LinkedList<>(batch));
+                writeLatch.countDown();
+            }
+        };
+        PollingQueueTask<Integer> task = new PollingQueueTask<>(queueAndLock, writer, 100, 60_000, true,
+                WaitStrategy.blocking(), 0, false);
+        BatchSubmitter<Integer> submitter = new BatchSubmitter<>(Collections.singletonList(queueAndLock));
+
+        Thread thread = new Thread(task);
+        thread.start();
+        submitter.put(1);
+
+        // Far less than the max buffer time, which would otherwise have to pass before a partial batch is written
+        Assert.assertEquals("Expected write to occur before the max buffer time",
+                true, writeLatch.await(10, TimeUnit.SECONDS));
+        task.shutdown();
+        thread.interrupt();
+        MatcherAssert.assertThat(written.get(0), Matchers.contains(1));
+    }
+
+    @Test
+    public void run_whenSmartBatchingAndWriteIsInFlight_thenRequestsAreBatchedUntilItFinishes() throws Exception {
+        QueueAndLock<Integer> queueAndLock = new QueueAndLock<>(new LinkedList<>(), new ReentrantLock());
+        List<Collection<Integer>> written = Collections.synchronizedList(new LinkedList<>());
+        CountDownLatch firstWriteStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstWrite = new CountDownLatch(1);
+        CountDownLatch secondWriteLatch = new CountDownLatch(1);
+        BatchWriter<Integer> writer = batch -> {
+            if (batch.isEmpty()) {
+                return;
+            }
+            written.add(new LinkedList<>(batch));
+            if (batch.contains(1)) {
+                firstWriteStarted.countDown();
+                try {
+                    releaseFirstWrite.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                secondWriteLatch.countDown();
+            }
+        };
+        PollingQueueTask<Integer> task1 = new PollingQueueTask<>(queueAndLock, writer, 100, 60_000, true,
+                WaitStrategy.blocking(), 0, false);
+        PollingQueueTask<Integer> task2 = new PollingQueueTask<>(queueAndLock, writer, 100, 60_000, true,
+                WaitStrategy.blocking(), 0, false);
+        BatchSubmitter<Integer> submitter = new BatchSubmitter<>(Collections.singletonList(queueAndLock));
+
+        Thread thread1 = new Thread(task1);
+        Thread thread2 = new Thread(task2);
+        thread1.start();
+        thread2.start();
+        submitter.put(1);
+        Assert.assertEquals(true, firstWriteStarted.await(10, TimeUnit.SECONDS));
+        submitter.put(2);
+        submitter.put(3);
+
+        // The idle poller must not send a partial batch while the first one is still being written
+        Assert.assertEquals(false, secondWriteLatch.await(200, TimeUnit.MILLISECONDS));
+        releaseFirstWrite.countDown();
+        Assert.assertEquals("Expected write to occur once the first write finished",
+                true, secondWriteLatch.await(10, TimeUnit.SECONDS));
+        task1.shutdown();
+        task2.shutdown();
+        thread1.interrupt();
+        thread2.interrupt();
+
+        Assert.assertEquals(2, written.size());
+        MatcherAssert.assertThat(written.get(1), Matchers.contains(2, 3));
+    }
+}
@@ -1,5 +1,6 @@
 package batchrequests;
 
+import batchrequests.util.Await;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -7,6 +8,11 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -64,8 +70,10 @@ public class PollingQueueWorkerTests {
             return null;
         }).when(mockWriter).write(any());
 
-        // Start worker
-        PollingQueueWorker worker = new PollingQueueWorker(mockQueueAndLock, mockWriter, 1, numThreads, 100);
+        // Start worker with a request to write, since empty batches aren't written
+        QueueAndLock<Integer> queueAndLock =
+                new QueueAndLock<>(new LinkedList<>(Collections.singletonList(1)), new ReentrantLock());
+        PollingQueueWorker worker = new PollingQueueWorker(queueAndLock, mockWriter, 1, numThreads, 100);
 
         // Wait for task to start
         Assert.assertEquals("Expected for task to start within reasonable amount of time",
@@ -95,4 +103,73 @@ public class PollingQueueWorkerTests {
         Assert.assertEquals(456, worker.getMaxBufferTimeMs());
         Assert.assertEquals(7, worker.getNumPollingThreads());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void test_addAndRemovePollingThreads_thenFuturesFollow() throws Exception {
+        QueueAndLock<Integer> queueAndLock = new QueueAndLock<>(new LinkedList<>(), new ReentrantLock());
+        PollingQueueWorker<Integer> worker = new PollingQueueWorker<>(queueAndLock, batch -> { }, 1, 1, 100);
+        Assert.assertEquals(true, worker.addPollingThread());
+        Assert.assertEquals(2, worker.getNumPollingThreads());
+        Assert.assertEquals(2, worker.getTaskFutures().size());
+        Assert.assertEquals(true, worker.removePollingThread());
+        Assert.assertEquals(false, worker.removePollingThread());
+        Assert.assertEquals(1, worker.getTaskFutures().size());
+        Assert.assertEquals(true, worker.drainAndShutdown(10_000));
+    }
+
+    @Test
+    public void addPollingThread_whenShutDown_thenNoTaskIsStarted() throws Exception {
+        QueueAndLock<Integer> queueAndLock = new QueueAndLock<>(new LinkedList<>(), new ReentrantLock());
+        PollingQueueWorker<Integer> worker = new PollingQueueWorker<>(queueAndLock, batch -> { }, 1, 1, 100);
+        Assert.assertEquals(true, worker.drainAndShutdown(10_000));
+        Assert.assertEquals(false, worker.addPollingThread());
+        Assert.assertEquals(1, worker.getNumPollingThreads());
+    }
+
+    @Test
+    public void test_whenIdleTimeout_thenPollersStartOnFirstRequestAndStopWhileIdle() throws Exception {
+        QueueAndLock<Integer> queueAndLock = new QueueAndLock<>(new LinkedList<>(), new ReentrantLock());
+        BatchSubmitter<Integer> submitter = new BatchSubmitter<>(Collections.singletonList(queueAndLock));
+        List<Integer> written = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch firstWrite = new CountDownLatch(1);
+        CountDownLatch secondWrite = new CountDownLatch(2);
+        BatchWriter<Integer> writer = batch -> {
+            written.addAll(batch);
+            firstWrite.countDown();
+            secondWrite.countDown();
+        };
+        PollingQueueWorker<Integer> worker = new PollingQueueWorker.PollingQueueWorkerBuilder<>(queueAndLock, writer, 10)
+                .setMaxBufferTime(10)
+                .setNumPollingThreads(2)
+                .setIdleTimeoutMs(100)
+                .build();
+        Assert.assertEquals(2, worker.getNumPollingThreads());
+        Assert.assertEquals(0, worker.getNumRunningPollingThreads());
+
+        submitter.put(1);
+        Assert.assertEquals(true, firstWrite.await(10, TimeUnit.SECONDS));
+        waitForRunningPollingThreads(worker, 0);
+
+        // The next request starts the pollers again
+        submitter.put(2);
+        Assert.assertEquals(true, secondWrite.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList(1, 2), written);
+        Assert.assertEquals(2, worker.getNumPollingThreads());
+        waitForRunningPollingThreads(worker, 0);
+        Assert.assertEquals(true, worker.drainAndShutdown(10_000));
+    }
+
+    @Test
+    public void test_whenNoIdleTimeoutAndQueueIsEmpty_thenNothingIsWrittenAndPollersKeepRunning() throws Exception {
+        QueueAndLock<Integer> queueAndLock = new QueueAndLock<>(new LinkedList<>(), new ReentrantLock());
+        PollingQueueWorker<Integer> worker = new PollingQueueWorker<>(queueAndLock, mockWriter, 10, 1, 10);
+        Thread.sleep(100);
+        Mockito.verify(mockWriter, Mockito.never()).write(any());
+        Assert.assertEquals(1, worker.getNumRunningPollingThreads());
+        Assert.assertEquals(true, worker.drainAndShutdown(10_000));
+    }
+
+    private static void waitForRunningPollingThreads(PollingQueueWorker<?> worker, int numRunning) throws Exception {
+        Await.awaitTrue(() -> worker.getNumRunningPollingThreads() == numRunning);
+    }
+}
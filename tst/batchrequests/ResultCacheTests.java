@@ -0,0 +1,50 @@
+package batchrequests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResultCacheTests {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenNonPositiveMaxSize_thenFailure() {
+        new ResultCache<String, String>(0, 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenNonPositiveTtl_thenFailure() {
+        new ResultCache<String, String>(10, 0);
+    }
+
+    @Test
+    public void put_whenFull_thenLeastRecentlyUsedIsEvicted() {
+        ResultCache<String, Integer> cache = new ResultCache<>(2, 60_000);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        // Touch "a" so that "b" is the least recently used
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a").value);
+        cache.put("c", 3);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNull(cache.get("b"));
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void get_whenExpired_thenAbsent() throws Exception {
+        ResultCache<String, Integer> cache = new ResultCache<>(2, 1);
+        cache.put("a", 1);
+        Thread.sleep(5);
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void get_whenNullWasCached_thenEntryHoldsNull() {
+        ResultCache<String, Integer> cache = new ResultCache<>(2, 60_000);
+        cache.put("a", null);
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertNull(cache.get("a").value);
+        cache.invalidate("a");
+        Assert.assertNull(cache.get("a"));
+    }
+}
@@ -0,0 +1,80 @@
+package batchrequests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class SlabAllocatorTests {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenNonPositiveSlabSize_thenFailure() {
+        new SlabAllocator(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenNegativePooledSlabs_thenFailure() {
+        new SlabAllocator(1, -1);
+    }
+
+    @Test
+    public void allocate_whenRecordsFitInSlab_thenRecordsAreContiguous() {
+        SlabAllocator allocator = new SlabAllocator(16, 1);
+        EncodedRecord first = allocator.allocate(4);
+        EncodedRecord second = allocator.allocate(8);
+        Assert.assertSame(first.getSlab(), second.getSlab());
+        Assert.assertEquals(0, first.getOffset());
+        Assert.assertEquals(4, second.getOffset());
+        Assert.assertEquals(12, allocator.getBytesInUse());
+        Assert.assertTrue(first.getSlab().getBuffer().isDirect());
+    }
+
+    @Test
+    public void allocate_whenSlabIsFull_thenSealedSlabIsPooledAfterRelease() {
+        SlabAllocator allocator = new SlabAllocator(8, 1);
+        EncodedRecord first = allocator.allocate(6);
+        EncodedRecord second = allocator.allocate(6);
+        Assert.assertNotSame(first.getSlab(), second.getSlab());
+
+        allocator.release(Collections.singletonList(first));
+        Assert.assertEquals(1, allocator.getNumPooledSlabs());
+        Assert.assertEquals(6, allocator.getBytesInUse());
+
+        // The next slab switch should reuse the pooled slab instead of allocating a new one
+        EncodedRecord third = allocator.allocate(6);
+        Assert.assertSame(first.getSlab(), third.getSlab());
+        Assert.assertEquals(0, allocator.getNumPooledSlabs());
+    }
+
+    @Test
+    public void allocate_whenCurrentSlabIsEmptied_thenItIsRewound() {
+        SlabAllocator allocator = new SlabAllocator(8, 1);
+        EncodedRecord first = allocator.allocate(6);
+        allocator.release(Collections.singletonList(first));
+        EncodedRecord second = allocator.allocate(6);
+        Assert.assertSame(first.getSlab(), second.getSlab());
+        Assert.assertEquals(0, second.getOffset());
+    }
+
+    @Test
+    public void allocate_whenLargerThanSlab_thenDedicatedSlabIsNotPooled() {
+        SlabAllocator allocator = new SlabAllocator(8, 1);
+        EncodedRecord oversized = allocator.allocate(20);
+        Assert.assertEquals(20, oversized.getSlab().getBuffer().capacity());
+        allocator.release(Collections.singletonList(oversized));
+        Assert.assertEquals(0, allocator.getNumPooledSlabs());
+        Assert.assertEquals(0, allocator.getBytesInUse());
+    }
+
+    @Test
+    public void release_whenReleasedTwice_thenSecondReleaseIsIgnored() {
+        SlabAllocator allocator = new SlabAllocator(8, 1);
+        EncodedRecord first = allocator.allocate(2);
+        EncodedRecord second = allocator.allocate(2);
+        allocator.release(Arrays.asList(first, first));
+        Assert.assertEquals(2, allocator.getBytesInUse());
+        allocator.release(Collections.singletonList(second));
+        Assert.assertEquals(0, allocator.getBytesInUse());
+    }
+}
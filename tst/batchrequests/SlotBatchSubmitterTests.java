@@ -0,0 +1,196 @@
+package batchrequests;
+
+import batchrequests.util.Await;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SlotBatchSubmitterTests {
+
+    private static class Event {
+        int value;
+    }
+
+    private static BatchRequestsFactory.BatchRequestsFactoryBuilder<Event> builder(BatchWriter<Event> writer) {
+        return new BatchRequestsFactory.BatchRequestsFactoryBuilder<>(writer)
+                .withBatchSize(4)
+                .withMaxBufferTimeMs(10);
+    }
+
+    private static void waitForFreeSlots(SlotBatchSubmitter<Event> submitter, int numFreeSlots) throws Exception {
+        Await.awaitTrue(() -> submitter.getNumFreeSlots() >= numFreeSlots);
+        Assert.assertEquals(numFreeSlots, submitter.getNumFreeSlots());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenNonPositiveNumSlots_thenFailure() {
+        new SlotBatchSubmitter<>(builder(batch -> { }), 0, Event::new);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenSlotFactoryReusesSlots_thenFailure() {
+        Event event = new Event();
+        new SlotBatchSubmitter<>(builder(batch -> { }), 2, () -> event);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @SuppressWarnings("unchecked")
+    public void test_whenFactoryBuilderHasSpillPolicy_thenFailure() {
+        SpillPolicy<Event> spillPolicy = new SpillPolicy.SpillPolicyBuilder<Event>(event -> 4,
+                Mockito.mock(SpillCodec.class), Paths.get(System.getProperty("java.io.tmpdir"))).build();
+        new SlotBatchSubmitter<>(builder(batch -> { }).withSpillPolicy(spillPolicy), 2, Event::new);
+    }
+
+    @Test
+    public void publish_whenWriterChangesTheBatch_thenEverySlotIsStillFreed() throws Exception {
+        SlotBatchSubmitter<Event> submitter = new SlotBatchSubmitter<>(builder(Collection::clear), 4, Event::new);
+        for (int i = 0; i < 4; i++) {
+            submitter.publish(submitter.claim());
+        }
+        waitForFreeSlots(submitter, 4);
+        submitter.shutdown(10_000);
+    }
+
+    @Test
+    public void publish_whenWritten_thenWriterSeesFilledSlotsAndSlotsAreFreed() throws Exception {
+        int numEvents = 100;
+        List<Integer> written = Collections.synchronizedList(new ArrayList<>());
+        Set<Event> writtenSlots = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+        CountDownLatch latch = new CountDownLatch(numEvents);
+        SlotBatchSubmitter<Event> submitter = new SlotBatchSubmitter<>(builder(batch -> {
+            for (Event event : batch) {
+                written.add(event.value);
+                writtenSlots.add(event);
+                latch.countDown();
+            }
+        }), 8, Event::new);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < numEvents; i++) {
+            Event event = submitter.claim();
+            event.value = i;
+            submitter.publish(event);
+            expected.add(i);
+        }
+
+        Assert.assertEquals("Expected writes to occur within a reasonable amount of time",
+                true, latch.await(10, TimeUnit.SECONDS));
+        MatcherAssert.assertThat(written, Matchers.containsInAnyOrder(expected.toArray()));
+        // Far more events than slots were written, so the slots must have been reused
+        MatcherAssert.assertThat(writtenSlots.size(), Matchers.lessThanOrEqualTo(8));
+        waitForFreeSlots(submitter, 8);
+        submitter.shutdown(10_000);
+    }
+
+    @Test
+    public void claim_whenEverySlotIsInUse_thenWaitsForAWriteToFinish() throws Exception {
+        CountDownLatch releaseWrites = new CountDownLatch(1);
+        SlotBatchSubmitter<Event> submitter = new SlotBatchSubmitter<>(builder(batch -> {
+            if (!batch.isEmpty()) {
+                try {
+                    releaseWrites.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }), 2, Event::new);
+        submitter.publish(submitter.claim());
+        submitter.publish(submitter.claim());
+        Assert.assertNull(submitter.tryClaim());
+
+        CountDownLatch claimed = new CountDownLatch(1);
+        Thread claimer = new Thread(() -> {
+            try {
+                submitter.claim();
+                claimed.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        claimer.start();
+        Assert.assertEquals(false, claimed.await(100, TimeUnit.MILLISECONDS));
+        releaseWrites.countDown();
+        Assert.assertEquals(true, claimed.await(10, TimeUnit.SECONDS));
+        submitter.shutdown(10_000);
+    }
+
+    @Test
+    public void claim_whenShutDownWhileWaiting_thenFailure() throws Exception {
+        SlotBatchSubmitter<Event> submitter = new SlotBatchSubmitter<>(builder(batch -> { }), 1, Event::new);
+        submitter.claim();
+
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread claimer = new Thread(() -> {
+            try {
+                submitter.claim();
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        });
+        claimer.start();
+        Await.awaitTrue(() -> claimer.getState() == Thread.State.WAITING);
+        submitter.shutdown(10_000);
+        claimer.join(10_000);
+        MatcherAssert.assertThat(failure.get(), Matchers.instanceOf(IllegalStateException.class));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void tryClaim_whenShutDown_thenFailure() throws Exception {
+        SlotBatchSubmitter<Event> submitter = new SlotBatchSubmitter<>(builder(batch -> { }), 2, Event::new);
+        submitter.shutdown(10_000);
+        submitter.tryClaim();
+    }
+
+    @Test
+    public void publish_whenSlotWasAlreadyPublished_thenFailure() throws Exception {
+        CountDownLatch releaseWrites = new CountDownLatch(1);
+        SlotBatchSubmitter<Event> submitter = new SlotBatchSubmitter<>(builder(batch -> {
+            try {
+                releaseWrites.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }), 2, Event::new);
+        Event event = submitter.claim();
+        submitter.publish(event);
+        try {
+            submitter.publish(event);
+            Assert.fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        releaseWrites.countDown();
+        submitter.shutdown(10_000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void publish_whenSlotIsNotFromTheSubmitter_thenFailure() {
+        SlotBatchSubmitter<Event> submitter = new SlotBatchSubmitter<>(builder(batch -> { }), 2, Event::new);
+        submitter.publish(new Event());
+    }
+
+    @Test
+    public void abandon_whenClaimed_thenSlotIsFreedWithoutBeingWritten() throws Exception {
+        List<Event> written = Collections.synchronizedList(new ArrayList<>());
+        SlotBatchSubmitter<Event> submitter = new SlotBatchSubmitter<>(builder(written::addAll), 2, Event::new);
+        Event event = submitter.claim();
+        Assert.assertEquals(1, submitter.getNumFreeSlots());
+        submitter.abandon(event);
+        Assert.assertEquals(2, submitter.getNumFreeSlots());
+        submitter.shutdown(10_000);
+        Assert.assertEquals(0, written.size());
+    }
+}
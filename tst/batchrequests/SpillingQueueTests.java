@@ -0,0 +1,256 @@
+package batchrequests;
+
+import batchrequests.util.Await;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class SpillingQueueTests {
+
+    /** Every request weighs 100 bytes, whatever its encoded length */
+    private static final Weigher<String> WEIGHER = request -> 100;
+
+    private static final SpillCodec<String> CODEC = new SpillCodec<String>() {
+        @Override
+        public int encodedLength(String record) {
+            return record.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        @Override
+        public void encode(String record, ByteBuffer target) {
+            target.put(record.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String decode(ByteBuffer source) {
+            byte[] bytes = new byte[source.remaining()];
+            source.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SpillPolicy.SpillPolicyBuilder<String> policy() {
+        return new SpillPolicy.SpillPolicyBuilder<>(WEIGHER, CODEC, folder.getRoot().toPath())
+                .withMemoryBudgetBytes(250);
+    }
+
+    private static SpillingQueue<String> queue(SpillPolicy<String> policy) {
+        return new SpillingQueue<>(policy, new MemoryBudget(policy.getMemoryBudgetBytes()));
+    }
+
+    private static List<String> strings(int from, int to) {
+        return IntStream.range(from, to).mapToObj(i -> "request-" + i).collect(Collectors.toList());
+    }
+
+    private int numSegmentFiles() {
+        File[] files = folder.getRoot().listFiles();
+        return files == null ? 0 : files.length;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenNonPositiveMemoryBudget_thenFailure() {
+        policy().withMemoryBudgetBytes(0).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_whenNullCodec_thenFailure() {
+        new SpillPolicy.SpillPolicyBuilder<>(WEIGHER, null, folder.getRoot().toPath()).build();
+    }
+
+    @Test
+    public void offer_whenWithinBudget_thenNothingIsSpilled() {
+        SpillingQueue<String> queue = queue(policy().build());
+        queue.addAll(strings(0, 2));
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals(0, queue.getNumSpilled());
+        Assert.assertEquals(200, queue.getNumBytesInMemory());
+        Assert.assertEquals(0, numSegmentFiles());
+    }
+
+    @Test
+    public void poll_whenOverBudget_thenSpilledRequestsAreReadBackInOrder() {
+        // Small segments and buffers, so that records straddle reads and several segments are used
+        SpillingQueue<String> queue = queue(policy().withSegmentSizeBytes(64).withIoBufferSizeBytes(32).build());
+        List<String> requests = strings(0, 100);
+        queue.addAll(requests);
+        Assert.assertEquals(100, queue.size());
+        Assert.assertEquals(98, queue.getNumSpilled());
+        MatcherAssert.assertThat(numSegmentFiles(), Matchers.greaterThan(1));
+
+        List<String> polled = new ArrayList<>();
+        String request;
+        while ((request = queue.poll()) != null) {
+            polled.add(request);
+            MatcherAssert.assertThat(queue.getNumBytesInMemory(), Matchers.lessThanOrEqualTo(250L));
+        }
+        Assert.assertEquals(requests, polled);
+        Assert.assertEquals(0, queue.getNumBytesInMemory());
+        Assert.assertEquals(0, numSegmentFiles());
+    }
+
+    @Test
+    public void offer_whenRequestsAreSpilled_thenLaterRequestsAreSpilledUntilTheyAreReadBack() {
+        SpillingQueue<String> queue = queue(policy().build());
+        queue.addAll(strings(0, 3));
+        Assert.assertEquals("request-0", queue.poll());
+        // There is room in memory again, but this request has to stay behind the spilled one
+        queue.add("request-3");
+        Assert.assertEquals(2, queue.getNumSpilled());
+        List<String> polled = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            polled.add(queue.remove());
+        }
+        Assert.assertEquals(strings(1, 4), polled);
+    }
+
+    @Test
+    public void poll_whenRecordIsLargerThanTheIoBuffer_thenItIsReadBack() {
+        SpillingQueue<String> queue = queue(policy().withIoBufferSizeBytes(32).build());
+        String large = String.join("", Collections.nCopies(100, "large"));
+        queue.addAll(strings(0, 2));
+        queue.add(large);
+        queue.add("small");
+        Assert.assertEquals(2, queue.getNumSpilled());
+        Assert.assertEquals(strings(0, 2), IntStream.range(0, 2).mapToObj(i -> queue.poll()).collect(Collectors.toList()));
+        Assert.assertEquals(large, queue.poll());
+        Assert.assertEquals("small", queue.poll());
+    }
+
+    @Test
+    public void offer_whenBudgetIsShared_thenOtherQueuesSpill() {
+        SpillPolicy<String> policy = policy().build();
+        MemoryBudget memoryBudget = new MemoryBudget(policy.getMemoryBudgetBytes());
+        SpillingQueue<String> first = new SpillingQueue<>(policy, memoryBudget);
+        SpillingQueue<String> second = new SpillingQueue<>(policy, memoryBudget);
+        first.addAll(strings(0, 2));
+        second.add("other");
+        Assert.assertEquals(1, second.getNumSpilled());
+
+        // With nothing in memory, a spilled request is read back even though the budget is used up
+        Assert.assertEquals("other", second.poll());
+        Assert.assertEquals(200, memoryBudget.getNumBytes());
+    }
+
+    @Test
+    public void poll_whenDecodeFails_thenRecordIsDroppedAndCountsStayCorrect() {
+        SpillCodec<String> failingCodec = new SpillCodec<String>() {
+            @Override
+            public int encodedLength(String record) {
+                return CODEC.encodedLength(record);
+            }
+
+            @Override
+            public void encode(String record, ByteBuffer target) {
+                CODEC.encode(record, target);
+            }
+
+            @Override
+            public String decode(ByteBuffer source) {
+                String request = CODEC.decode(source);
+                if (request.equals("bad")) {
+                    throw new IllegalStateException("Can't decode " + request);
+                }
+                return request;
+            }
+        };
+        SpillPolicy<String> policy = new SpillPolicy.SpillPolicyBuilder<>(WEIGHER, failingCodec,
+                folder.getRoot().toPath()).withMemoryBudgetBytes(250).build();
+        MemoryBudget memoryBudget = new MemoryBudget(policy.getMemoryBudgetBytes());
+        SpillingQueue<String> queue = new SpillingQueue<>(policy, memoryBudget);
+        queue.addAll(strings(0, 2));
+        queue.add("bad");
+        queue.add("good");
+        Assert.assertEquals(2, queue.getNumSpilled());
+
+        // The bad record is read back as soon as there is room for it, and fails that poll
+        List<String> polled = new ArrayList<>();
+        int numFailures = 0;
+        while (!queue.isEmpty()) {
+            try {
+                polled.add(queue.poll());
+            } catch (IllegalStateException e) {
+                numFailures++;
+                Assert.assertEquals(queue.getNumBytesInMemory(), memoryBudget.getNumBytes());
+            }
+        }
+        Assert.assertEquals(1, numFailures);
+        Assert.assertEquals(Arrays.asList("request-0", "request-1", "good"), polled);
+        Assert.assertEquals(0, queue.size());
+        Assert.assertEquals(0, memoryBudget.getNumBytes());
+        Assert.assertEquals(0, numSegmentFiles());
+    }
+
+    @Test
+    public void iterator_whenRequestsAreRemoved_thenSpilledRequestsTakeTheirPlace() {
+        SpillingQueue<String> queue = queue(policy().build());
+        queue.addAll(strings(0, 4));
+        Iterator<String> iterator = queue.iterator();
+        Assert.assertEquals("request-0", iterator.next());
+        iterator.remove();
+        Assert.assertEquals(100, queue.getNumBytesInMemory());
+
+        // Iteration only covers the requests in memory, which now include a spilled one
+        List<String> iterated = new ArrayList<>(queue);
+        Assert.assertEquals(strings(1, 3), iterated);
+        Assert.assertEquals(1, queue.getNumSpilled());
+    }
+
+    @Test
+    public void clear_whenRequestsAreSpilled_thenSegmentsAreDeleted() {
+        SpillPolicy<String> policy = policy().build();
+        MemoryBudget memoryBudget = new MemoryBudget(policy.getMemoryBudgetBytes());
+        SpillingQueue<String> queue = new SpillingQueue<>(policy, memoryBudget);
+        queue.addAll(strings(0, 10));
+        Assert.assertEquals(1, numSegmentFiles());
+        queue.close();
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertEquals(0, memoryBudget.getNumBytes());
+        Assert.assertEquals(0, numSegmentFiles());
+    }
+
+    @Test
+    public void factory_whenWriterIsBlocked_thenRequestsAreSpilledAndWrittenInOrder() throws Exception {
+        CountDownLatch releaseWrites = new CountDownLatch(1);
+        List<String> written = Collections.synchronizedList(new ArrayList<>());
+        BatchRequestsFactory<String> factory = new BatchRequestsFactory.BatchRequestsFactoryBuilder<String>(batch -> {
+            try {
+                releaseWrites.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            written.addAll(batch);
+        }).withBatchSize(5).withMaxBufferTimeMs(10).withSpillPolicy(policy().build()).build();
+
+        List<String> requests = strings(0, 50);
+        for (String request : requests) {
+            factory.getBatchSubmitter().put(request);
+        }
+        SpillingQueue<String> queue = (SpillingQueue<String>) factory.getQueueAndLocks().get(0).getQueue();
+        MatcherAssert.assertThat(queue.getTotalSpilled(), Matchers.greaterThan(0L));
+        releaseWrites.countDown();
+
+        Await.awaitTrue(() -> written.size() >= requests.size());
+        Assert.assertEquals(requests, written);
+        Assert.assertTrue(factory.shutdown(10_000));
+        Assert.assertEquals(0, numSegmentFiles());
+    }
+}
@@ -0,0 +1,128 @@
+package batchrequests;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class WaitStrategyTests {
+
+    private static final List<WaitStrategy> STRATEGIES = Arrays.asList(WaitStrategy.blocking(),
+            WaitStrategy.busySpin(), WaitStrategy.spinThenYield(), WaitStrategy.parkWithBackoff());
+
+    @Test(expected = IllegalArgumentException.class)
+    public void spinThenYield_whenNegativeSpinTries_thenFailure() {
+        WaitStrategy.spinThenYield(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parkWithBackoff_whenMaxIsLessThanMin_thenFailure() {
+        WaitStrategy.parkWithBackoff(1000, 999);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void builder_whenNullWaitStrategy_thenFailure() {
+        new BatchRequestsFactory.BatchRequestsFactoryBuilder<Integer>(batch -> { })
+                .withWaitStrategy(null)
+                .build();
+    }
+
+    @Test
+    public void isBlocking_whenBlocking_thenThereIsNoIdleAction() {
+        Assert.assertTrue(WaitStrategy.blocking().isBlocking());
+        Assert.assertNull(WaitStrategy.blocking().getIdleAction());
+        Assert.assertFalse(WaitStrategy.busySpin().isBlocking());
+        Assert.assertNotNull(WaitStrategy.busySpin().getIdleAction());
+    }
+
+    @Test
+    public void idle_whenParkingForManyAttempts_thenParkTimeDoesNotOverflow() {
+        WaitStrategy strategy = WaitStrategy.parkWithBackoff(1, 1000);
+        long startNanos = System.nanoTime();
+        strategy.getIdleAction().idle(Integer.MAX_VALUE, TimeUnit.MILLISECONDS.toNanos(1));
+        MatcherAssert.assertThat(System.nanoTime() - startNanos, Matchers.lessThan(TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    @Test
+    public void run_whenQueueIsEmpty_thenPollerWaitsWithItsStrategy() throws Exception {
+        for (WaitStrategy strategy : Arrays.asList(WaitStrategy.blocking(), WaitStrategy.busySpin())) {
+            QueueAndLock<Integer> queueAndLock = new QueueAndLock<>(new LinkedList<>(), new ReentrantLock());
+            CountDownLatch latch = new CountDownLatch(1);
+            PollingQueueTask<Integer> task = new PollingQueueTask<>(queueAndLock, batch -> latch.countDown(), 10,
+                    60_000, false, strategy, 0, false);
+            Thread thread = new Thread(task);
+            thread.start();
+
+            // A blocking poller waits on the queue's condition, a spinning one keeps running
+            Thread.State expectedState = strategy.isBlocking() ? Thread.State.TIMED_WAITING : Thread.State.RUNNABLE;
+            Thread.sleep(50);
+            Assert.assertEquals("Expected an idle poller to wait with " + strategy, expectedState, thread.getState());
+
+            new BatchSubmitter<>(Collections.singletonList(queueAndLock)).put(1, 1);
+            Assert.assertEquals("Expected the poller to wake up with " + strategy,
+                    true, latch.await(10, TimeUnit.SECONDS));
+            task.shutdown();
+            thread.join(10_000);
+        }
+    }
+
+    @Test
+    public void put_whenBatchIsFull_thenEveryStrategyWakesUpThePollerBeforeMaxBufferTime() throws Exception {
+        for (WaitStrategy strategy : STRATEGIES) {
+            List<Collection<Integer>> written = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch latch = new CountDownLatch(1);
+            BatchRequestsFactory<Integer> factory = new BatchRequestsFactory.BatchRequestsFactoryBuilder<Integer>(
+                    batch -> {
+                        if (!batch.isEmpty()) {
+                            written.add(new ArrayList<>(batch));
+                            latch.countDown();
+                        }
+                    })
+                    .withBatchSize(3)
+                    .withMaxBufferTimeMs(60_000)
+                    .withWaitStrategy(strategy)
+                    .build();
+            Assert.assertSame(strategy, factory.getWaitStrategy());
+            for (int i = 0; i < 3; i++) {
+                factory.getBatchSubmitter().put(i);
+            }
+
+            Assert.assertEquals("Expected a full batch to be written with " + strategy,
+                    true, latch.await(10, TimeUnit.SECONDS));
+            MatcherAssert.assertThat(written.get(0), Matchers.contains(0, 1, 2));
+            Assert.assertEquals("Expected pollers to stop with " + strategy, true, factory.shutdown(10_000));
+        }
+    }
+
+    @Test
+    public void put_whenBatchIsPartial_thenEveryStrategyWritesItAfterMaxBufferTime() throws Exception {
+        for (WaitStrategy strategy : STRATEGIES) {
+            CountDownLatch latch = new CountDownLatch(1);
+            BatchRequestsFactory<Integer> factory = new BatchRequestsFactory.BatchRequestsFactoryBuilder<Integer>(
+                    batch -> {
+                        if (!batch.isEmpty()) {
+                            latch.countDown();
+                        }
+                    })
+                    .withBatchSize(100)
+                    .withMaxBufferTimeMs(20)
+                    .withWaitStrategy(strategy)
+                    .build();
+            factory.getBatchSubmitter().put(1);
+
+            Assert.assertEquals("Expected a partial batch to be written with " + strategy,
+                    true, latch.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals("Expected pollers to stop with " + strategy, true, factory.shutdown(10_000));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package batchrequests.load;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe histogram of latencies with a fixed memory footprint, so that a soak test can record every request.
+ * Buckets are log-linear, with 32 buckets per power of two, so percentiles are within about 3% of the real value.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int NUM_SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(Long.SIZE * NUM_SUB_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param latencyNanos A latency.  Negative latencies are recorded as 0.
+     */
+    public void record(long latencyNanos) {
+        long value = Math.max(0, latencyNanos);
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        maxNanos.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @param percentile A percentile in (0, 100]
+     * @return The upper bound of the bucket holding the percentile, capped at the largest latency recorded, or 0 if
+     *         nothing was recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    static int indexOf(long value) {
+        if (value < NUM_SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (NUM_SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * NUM_SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int index) {
+        if (index < NUM_SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / NUM_SUB_BUCKETS - 1;
+        long lowerBound = (long) (NUM_SUB_BUCKETS + index % NUM_SUB_BUCKETS) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,250 @@
+package batchrequests.load;
+
+import batchrequests.BatchRequestsFactory;
+import batchrequests.BatchSubmitter;
+import lombok.Getter;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the whole pipeline ({@link BatchSubmitter}, queues, pollers and a {@link StubBatchWriter}) with open-loop
+ * load, i.e. requests are sent on a schedule whether or not earlier ones have been written, and prints a capacity
+ * report for each configuration: a per-second timeline, the highest sustainable rate, the latency distribution, and
+ * heap and thread usage.  Run it with {@code mvn -Pload -DskipTests test -Dload.args="--rate=5000 ..."}.
+ *
+ * Latency is measured from when each request was scheduled to arrive, so a generator that falls behind shows up as
+ * latency instead of being hidden (coordinated omission).
+ */
+public class LoadGenerator {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final double NANOS_PER_MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final double BYTES_PER_MB = 1024 * 1024;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99, 100};
+
+    public static void main(String[] args) throws InterruptedException {
+        LoadOptions options;
+        try {
+            options = new LoadOptions(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LoadOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        for (LoadOptions.Configuration configuration : options.getConfigurations()) {
+            run(options, configuration, System.out);
+        }
+    }
+
+    /**
+     * Run one configuration and print its report.
+     * @return The outcome of the run
+     */
+    static Result run(LoadOptions options, LoadOptions.Configuration configuration, PrintStream out)
+            throws InterruptedException {
+        ArrivalSchedule schedule = new ArrivalSchedule(options.getRate(), options.getRampToRate(),
+                options.getDurationSeconds());
+        StubBatchWriter writer = new StubBatchWriter(options.getWriteLatency(), options.getErrorRate());
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        out.println("== " + configuration + " smartBatching=" + options.isSmartBatching() + " rate="
+                + options.getRate() + (options.getRampToRate() == options.getRate() ? "" : "->" + options.getRampToRate())
+                + "/s writeLatency=" + options.getWriteLatency() + " errorRate=" + options.getErrorRate() + " ==");
+        System.gc();
+        long heapAtStart = memory.getHeapMemoryUsage().getUsed();
+        int threadsAtStart = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+
+        BatchRequestsFactory<LoadRequest> factory = new BatchRequestsFactory.BatchRequestsFactoryBuilder<>(writer)
+                .withBatchSize(configuration.getBatchSize())
+                .withMaxBufferTimeMs(configuration.getMaxBufferTimeMs())
+                .withNumQueues(configuration.getNumQueues())
+                .withNumPollingWorkersPerQueue(configuration.getPollersPerQueue())
+                .withSmartBatching(options.isSmartBatching())
+                .build();
+        BatchSubmitter<LoadRequest> submitter = factory.getBatchSubmitter();
+
+        // Leave the producers time to start before the first arrival
+        long startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        AtomicLong numSubmitted = new AtomicLong();
+        List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < options.getProducers(); i++) {
+            int first = i;
+            Thread producer = new Thread(() -> {
+                for (long arrival = first; ; arrival += options.getProducers()) {
+                    long offsetNanos = schedule.getOffsetNanos(arrival);
+                    if (offsetNanos < 0) {
+                        return;
+                    }
+                    long intendedNanos = startNanos + offsetNanos;
+                    waitUntil(intendedNanos);
+                    submitter.put(new LoadRequest(intendedNanos));
+                    numSubmitted.incrementAndGet();
+                }
+            }, "load-producer-" + i);
+            producer.setDaemon(true);
+            producers.add(producer);
+            producer.start();
+        }
+
+        out.println(String.format("%8s %12s %12s %10s %10s %8s", "time(s)", "offered/s", "written/s", "backlog",
+                "heap(MB)", "threads"));
+        long numScheduled = schedule.getNumArrivals();
+        double sustainableRate = 0;
+        boolean backlogExceeded = false;
+        long peakHeap = 0;
+        long lastCompleted = 0;
+        long second = 0;
+        while (true) {
+            second++;
+            waitUntil(startNanos + second * NANOS_PER_SECOND);
+            long completed = writer.getNumWritten().get() + writer.getNumFailed().get();
+            double offeredRate = second > options.getDurationSeconds() ? 0
+                    : schedule.getCountBy(second) - schedule.getCountBy(second - 1);
+            long backlog = (long) Math.floor(schedule.getCountBy(second)) - completed;
+            long heap = memory.getHeapMemoryUsage().getUsed();
+            peakHeap = Math.max(peakHeap, heap);
+            out.println(String.format("%8d %12.0f %12d %10d %10.1f %8d", second, offeredRate, completed - lastCompleted,
+                    backlog, heap / BYTES_PER_MB, threads.getThreadCount()));
+            lastCompleted = completed;
+
+            if (second <= options.getDurationSeconds() && !backlogExceeded) {
+                if (backlog > options.getMaxBacklog()) {
+                    backlogExceeded = true;
+                } else {
+                    sustainableRate = Math.max(sustainableRate, offeredRate);
+                }
+            }
+            boolean drained = completed >= numScheduled;
+            if (second >= options.getDurationSeconds() && (drained
+                    || second >= options.getDurationSeconds() + options.getDrainSeconds())) {
+                break;
+            }
+        }
+        for (Thread producer : producers) {
+            producer.join(TimeUnit.SECONDS.toMillis(1));
+        }
+        int peakThreads = threads.getPeakThreadCount();
+        factory.shutdown(TimeUnit.SECONDS.toMillis(10));
+        System.gc();
+        long heapAtEnd = memory.getHeapMemoryUsage().getUsed();
+
+        Result result = new Result(numScheduled, numSubmitted.get(), writer, sustainableRate, backlogExceeded);
+        long numWritten = writer.getNumWritten().get();
+        out.println(String.format("Sent %d of %d scheduled requests; %d written and %d failed in %d batches (mean size"
+                        + " %.1f), %d left over", result.getNumSubmitted(), numScheduled, numWritten,
+                writer.getNumFailed().get(), writer.getNumBatches().get(), result.getMeanBatchSize(),
+                result.getNumLeftOver()));
+        out.println(String.format("Sustainable throughput: %.0f requests/s%s", sustainableRate, backlogExceeded
+                ? " (the backlog exceeded " + options.getMaxBacklog() + " at higher rates)"
+                : " (the backlog never exceeded " + options.getMaxBacklog() + ", so the limit is higher)"));
+        out.println(String.format("Write throughput: %.0f requests/s over %d seconds", numWritten / (double) second,
+                second));
+        StringBuilder cdf = new StringBuilder("Latency CDF from scheduled arrival to written (ms):");
+        for (double percentile : PERCENTILES) {
+            cdf.append(String.format(" p%s=%.2f", percentile == (long) percentile ? Long.toString((long) percentile)
+                    : Double.toString(percentile), writer.getLatencies().getPercentileNanos(percentile) / NANOS_PER_MS));
+        }
+        out.println(cdf);
+        out.println(String.format("Heap after GC: %.1f MB at start, %.1f MB at end (growth %.1f MB), peak %.1f MB used",
+                heapAtStart / BYTES_PER_MB, heapAtEnd / BYTES_PER_MB, (heapAtEnd - heapAtStart) / BYTES_PER_MB,
+                peakHeap / BYTES_PER_MB));
+        out.println(String.format("Threads: %d at start, %d peak, %d at end", threadsAtStart, peakThreads,
+                threads.getThreadCount()));
+        out.println();
+        return result;
+    }
+
+    /**
+     * Parks until close to the time, then spins, so that arrivals are sent on time.
+     */
+    private static void waitUntil(long nanos) {
+        long remainingNanos;
+        while ((remainingNanos = nanos - System.nanoTime()) > 0) {
+            if (remainingNanos > TimeUnit.MICROSECONDS.toNanos(100)) {
+                LockSupport.parkNanos(remainingNanos - TimeUnit.MICROSECONDS.toNanos(50));
+            }
+        }
+    }
+
+    /**
+     * Arrival times for a rate that changes linearly from the start rate to the end rate over the duration.
+     */
+    static class ArrivalSchedule {
+        private final double startRate;
+        private final double durationSeconds;
+        /** Half the rate's change per second */
+        private final double halfSlope;
+
+        ArrivalSchedule(double startRate, double endRate, long durationSeconds) {
+            this.startRate = startRate;
+            this.durationSeconds = durationSeconds;
+            this.halfSlope = (endRate - startRate) / (2 * durationSeconds);
+        }
+
+        /**
+         * @return The number of arrivals scheduled in the first given seconds, as a fraction.
+         */
+        double getCountBy(double seconds) {
+            double t = Math.min(Math.max(seconds, 0), durationSeconds);
+            return startRate * t + halfSlope * t * t;
+        }
+
+        long getNumArrivals() {
+            return (long) Math.ceil(getCountBy(durationSeconds));
+        }
+
+        /**
+         * @param arrival The index of an arrival, from 0
+         * @return When the arrival is scheduled, in nanoseconds from the start, or -1 if it is after the duration.
+         */
+        long getOffsetNanos(long arrival) {
+            if (arrival >= getNumArrivals()) {
+                return -1;
+            }
+            double seconds = halfSlope == 0 ? arrival / startRate
+                    : (-startRate + Math.sqrt(startRate * startRate + 4 * halfSlope * arrival)) / (2 * halfSlope);
+            return (long) (seconds * NANOS_PER_SECOND);
+        }
+    }
+
+    /**
+     * The outcome of one configuration.
+     */
+    @Getter
+    static class Result {
+        private final long numScheduled;
+        private final long numSubmitted;
+        private final StubBatchWriter writer;
+        private final double sustainableRate;
+        private final boolean backlogExceeded;
+
+        Result(long numScheduled, long numSubmitted, StubBatchWriter writer, double sustainableRate,
+               boolean backlogExceeded) {
+            this.numScheduled = numScheduled;
+            this.numSubmitted = numSubmitted;
+            this.writer = writer;
+            this.sustainableRate = sustainableRate;
+            this.backlogExceeded = backlogExceeded;
+        }
+
+        double getMeanBatchSize() {
+            long numBatches = writer.getNumBatches().get();
+            return numBatches == 0 ? 0 : (writer.getNumWritten().get() + writer.getNumFailed().get()) / (double) numBatches;
+        }
+
+        long getNumLeftOver() {
+            return numSubmitted - writer.getNumWritten().get() - writer.getNumFailed().get();
+        }
+    }
+}
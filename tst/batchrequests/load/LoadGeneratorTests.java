@@ -0,0 +1,72 @@
+package batchrequests.load;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+public class LoadGeneratorTests {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void options_whenUnknownOption_thenFailure() {
+        new LoadOptions("--batchSize=10");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void writer_whenUnknownLatencyDistribution_thenFailure() {
+        new StubBatchWriter("normal:5:1", 0);
+    }
+
+    @Test
+    public void options_whenFactorySettingsAreLists_thenEveryCombinationIsRun() {
+        LoadOptions options = new LoadOptions("--batchSizes=10,100", "--numQueues=1,2,4");
+        Assert.assertEquals(6, options.getConfigurations().size());
+        Assert.assertEquals(100, options.getConfigurations().get(5).getBatchSize());
+        Assert.assertEquals(4, options.getConfigurations().get(5).getNumQueues());
+    }
+
+    @Test
+    public void histogram_whenRecorded_thenPercentilesAreWithinABucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10_000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        Assert.assertEquals(10_000, histogram.getCount());
+        long p50 = histogram.getPercentileNanos(50);
+        Assert.assertTrue("p50 was " + p50, p50 >= 5_000_000 && p50 <= 5_000_000 * 1.04);
+        Assert.assertEquals(10_000_000, histogram.getPercentileNanos(100));
+        for (long value : new long[] {0, 31, 32, 1_000, 123_456_789}) {
+            int index = LatencyHistogram.indexOf(value);
+            Assert.assertTrue(LatencyHistogram.upperBoundOf(index) >= value);
+            Assert.assertTrue(index == 0 || LatencyHistogram.upperBoundOf(index - 1) < value);
+        }
+    }
+
+    @Test
+    public void schedule_whenRamping_thenArrivalsSpeedUp() {
+        LoadGenerator.ArrivalSchedule schedule = new LoadGenerator.ArrivalSchedule(100, 300, 10);
+        Assert.assertEquals(2_000, schedule.getNumArrivals());
+        Assert.assertEquals(100, schedule.getCountBy(1) - schedule.getCountBy(0), 10);
+        Assert.assertEquals(300, schedule.getCountBy(10) - schedule.getCountBy(9), 10);
+        Assert.assertEquals(0, schedule.getOffsetNanos(0));
+        Assert.assertEquals(TimeUnit.SECONDS.toNanos(5), schedule.getOffsetNanos(750), TimeUnit.MILLISECONDS.toNanos(1));
+        Assert.assertEquals(-1, schedule.getOffsetNanos(2_000));
+    }
+
+    @Test
+    public void run_whenRateIsSustainable_thenEveryRequestIsWritten() throws Exception {
+        LoadOptions options = new LoadOptions("--durationSeconds=1", "--rate=200", "--batchSizes=10",
+                "--maxBufferTimesMs=20", "--writeLatency=fixed:1");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        LoadGenerator.Result result = LoadGenerator.run(options, options.getConfigurations().get(0),
+                new PrintStream(output, true));
+        Assert.assertEquals(200, result.getNumScheduled());
+        Assert.assertEquals(200, result.getWriter().getNumWritten().get());
+        Assert.assertEquals(0, result.getNumLeftOver());
+        Assert.assertFalse(result.isBacklogExceeded());
+        Assert.assertEquals(200, result.getSustainableRate(), 1);
+        Assert.assertTrue(output.toString().contains("Latency CDF"));
+    }
+}
@@ -0,0 +1,142 @@
+package batchrequests.load;
+
+import batchrequests.BatchRequestsFactory;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The settings of a {@link LoadGenerator} run, parsed from {@code --name=value} arguments.  Factory settings take a
+ * comma-separated list of values, and every combination of them is run as a separate configuration.
+ */
+@Getter
+public class LoadOptions {
+
+    static final String USAGE = String.join(System.lineSeparator(),
+            "Options, as --name=value:",
+            "  durationSeconds     How long to send requests for, per configuration (default 60)",
+            "  rate                Requests per second (default 1000)",
+            "  rampToRate          Ramp linearly from rate to this many requests per second (default: constant rate)",
+            "  producers           Threads sending requests (default 1)",
+            "  batchSizes          Comma-separated batch sizes (default " + BatchRequestsFactory.DEFAULT_MAX_BATCH_SIZE + ")",
+            "  maxBufferTimesMs    Comma-separated max buffer times (default " + BatchRequestsFactory.DEFAULT_MAX_BUFFER_TIME_MS + ")",
+            "  numQueues           Comma-separated numbers of queues (default " + BatchRequestsFactory.DEFAULT_NUM_QUEUES + ")",
+            "  pollersPerQueue     Comma-separated numbers of pollers per queue (default " + BatchRequestsFactory.DEFAULT_NUM_WORKERS_PER_QUEUE + ")",
+            "  smartBatching       true or false (default false)",
+            "  writeLatency        fixed:MS, uniform:MIN:MAX or exponential:MEAN (default fixed:5)",
+            "  errorRate           Fraction of writes that fail (default 0)",
+            "  maxBacklog          Requests behind schedule at which a rate stops being sustainable (default 10000)",
+            "  drainSeconds        How long to wait for the backlog to clear after sending (default 10)");
+
+    private final long durationSeconds;
+    private final double rate;
+    private final double rampToRate;
+    private final int producers;
+    private final boolean smartBatching;
+    private final String writeLatency;
+    private final double errorRate;
+    private final long maxBacklog;
+    private final long drainSeconds;
+    private final List<Configuration> configurations;
+
+    /**
+     * @param args {@code --name=value} arguments, see {@link #USAGE}
+     * @throws IllegalArgumentException If an argument is unknown or invalid
+     */
+    public LoadOptions(String... args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Need arguments of the form --name=value.  Got: " + arg);
+            }
+            values.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        this.durationSeconds = Long.parseLong(remove(values, "durationSeconds", "60"));
+        this.rate = Double.parseDouble(remove(values, "rate", "1000"));
+        this.rampToRate = Double.parseDouble(remove(values, "rampToRate", Double.toString(rate)));
+        this.producers = Integer.parseInt(remove(values, "producers", "1"));
+        this.smartBatching = Boolean.parseBoolean(remove(values, "smartBatching", "false"));
+        this.writeLatency = remove(values, "writeLatency", "fixed:5");
+        this.errorRate = Double.parseDouble(remove(values, "errorRate", "0"));
+        this.maxBacklog = Long.parseLong(remove(values, "maxBacklog", "10000"));
+        this.drainSeconds = Long.parseLong(remove(values, "drainSeconds", "10"));
+
+        List<Long> batchSizes = parseList(remove(values, "batchSizes", "" + BatchRequestsFactory.DEFAULT_MAX_BATCH_SIZE));
+        List<Long> maxBufferTimesMs = parseList(remove(values, "maxBufferTimesMs",
+                "" + BatchRequestsFactory.DEFAULT_MAX_BUFFER_TIME_MS));
+        List<Long> numQueues = parseList(remove(values, "numQueues", "" + BatchRequestsFactory.DEFAULT_NUM_QUEUES));
+        List<Long> pollersPerQueue = parseList(remove(values, "pollersPerQueue",
+                "" + BatchRequestsFactory.DEFAULT_NUM_WORKERS_PER_QUEUE));
+        List<Configuration> configurations = new ArrayList<>();
+        for (long batchSize : batchSizes) {
+            for (long maxBufferTimeMs : maxBufferTimesMs) {
+                for (long queues : numQueues) {
+                    for (long pollers : pollersPerQueue) {
+                        configurations.add(new Configuration((int) batchSize, maxBufferTimeMs, (int) queues,
+                                (int) pollers));
+                    }
+                }
+            }
+        }
+        this.configurations = Collections.unmodifiableList(configurations);
+
+        if (!values.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options: " + values.keySet());
+        }
+        if (durationSeconds < 1) {
+            throw new IllegalArgumentException("Need a positive duration.  Got: " + durationSeconds);
+        }
+        if (!(rate > 0) || !(rampToRate > 0)) {
+            throw new IllegalArgumentException("Need positive rates.  Got: " + rate + ", " + rampToRate);
+        }
+        if (producers < 1) {
+            throw new IllegalArgumentException("Need a positive number of producers.  Got: " + producers);
+        }
+        if (drainSeconds < 0) {
+            throw new IllegalArgumentException("Need a non-negative drain time.  Got: " + drainSeconds);
+        }
+    }
+
+    /**
+     * Removes the value, so that only unknown options are left over.
+     */
+    private static String remove(Map<String, String> values, String name, String defaultValue) {
+        String value = values.remove(name);
+        return value == null ? defaultValue : value;
+    }
+
+    private static List<Long> parseList(String value) {
+        return Arrays.stream(value.split(",")).map(String::trim).map(Long::parseLong).collect(Collectors.toList());
+    }
+
+    /**
+     * One combination of factory settings.
+     */
+    @Getter
+    public static class Configuration {
+        private final int batchSize;
+        private final long maxBufferTimeMs;
+        private final int numQueues;
+        private final int pollersPerQueue;
+
+        Configuration(int batchSize, long maxBufferTimeMs, int numQueues, int pollersPerQueue) {
+            this.batchSize = batchSize;
+            this.maxBufferTimeMs = maxBufferTimeMs;
+            this.numQueues = numQueues;
+            this.pollersPerQueue = pollersPerQueue;
+        }
+
+        @Override
+        public String toString() {
+            return "batchSize=" + batchSize + " maxBufferTimeMs=" + maxBufferTimeMs + " numQueues=" + numQueues
+                    + " pollersPerQueue=" + pollersPerQueue;
+        }
+    }
+}
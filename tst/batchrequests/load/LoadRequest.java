@@ -0,0 +1,21 @@
+package batchrequests.load;
+
+import lombok.Getter;
+
+/**
+ * A request sent by the {@link LoadGenerator}.
+ */
+@Getter
+public class LoadRequest {
+
+    /**
+     * The {@link System#nanoTime()} at which the request was scheduled to arrive.  Latency is measured from here
+     * rather than from when it was submitted, so that a generator that falls behind doesn't hide the delay
+     * (coordinated omission).
+     */
+    private final long intendedNanos;
+
+    public LoadRequest(long intendedNanos) {
+        this.intendedNanos = intendedNanos;
+    }
+}
@@ -0,0 +1,96 @@
+package batchrequests.load;
+
+import batchrequests.BatchWriter;
+import lombok.Getter;
+
+import java.util.Collection;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A writer that takes as long as a latency distribution says and fails some of its writes, and records the latency of
+ * every request from when it was meant to arrive until its batch was written.
+ */
+@Getter
+public class StubBatchWriter implements BatchWriter<LoadRequest> {
+
+    private final String writeLatency;
+    private final double errorRate;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong numWritten = new AtomicLong();
+    private final AtomicLong numFailed = new AtomicLong();
+    private final AtomicLong numBatches = new AtomicLong();
+
+    private final Distribution distribution;
+    private final double[] parametersNanos;
+
+    /**
+     * @param writeLatency The time each write takes, in milliseconds: {@code fixed:MS}, {@code uniform:MIN:MAX} or
+     *                     {@code exponential:MEAN}
+     * @param errorRate The fraction of writes that throw, in [0, 1]
+     */
+    public StubBatchWriter(String writeLatency, double errorRate) {
+        String[] parts = writeLatency.split(":");
+        try {
+            this.distribution = Distribution.valueOf(parts[0].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Need a fixed, uniform or exponential write latency.  Got: " + writeLatency);
+        }
+        if (parts.length - 1 != distribution.numParameters) {
+            throw new IllegalArgumentException("Need " + distribution.numParameters + " parameters for a "
+                    + parts[0] + " write latency.  Got: " + writeLatency);
+        }
+        this.parametersNanos = new double[distribution.numParameters];
+        for (int i = 0; i < parametersNanos.length; i++) {
+            parametersNanos[i] = Double.parseDouble(parts[i + 1]) * TimeUnit.MILLISECONDS.toNanos(1);
+        }
+        if (!(errorRate >= 0 && errorRate <= 1)) {
+            throw new IllegalArgumentException("Need an error rate in [0, 1].  Got: " + errorRate);
+        }
+        this.writeLatency = writeLatency;
+        this.errorRate = errorRate;
+    }
+
+    @Override
+    public void write(Collection<LoadRequest> batch) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long deadlineNanos = System.nanoTime() + sampleLatencyNanos(random);
+        long remainingNanos;
+        while ((remainingNanos = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remainingNanos);
+        }
+        numBatches.incrementAndGet();
+        if (random.nextDouble() < errorRate) {
+            numFailed.addAndGet(batch.size());
+            throw new IllegalStateException("Simulated write failure");
+        }
+        long nowNanos = System.nanoTime();
+        for (LoadRequest request : batch) {
+            latencies.record(nowNanos - request.getIntendedNanos());
+        }
+        numWritten.addAndGet(batch.size());
+    }
+
+    private long sampleLatencyNanos(ThreadLocalRandom random) {
+        switch (distribution) {
+            case UNIFORM:
+                return (long) (parametersNanos[0] + random.nextDouble() * (parametersNanos[1] - parametersNanos[0]));
+            case EXPONENTIAL:
+                return (long) (-parametersNanos[0] * Math.log(1 - random.nextDouble()));
+            default:
+                return (long) parametersNanos[0];
+        }
+    }
+
+    private enum Distribution {
+        FIXED(1), UNIFORM(2), EXPONENTIAL(1);
+
+        private final int numParameters;
+
+        Distribution(int numParameters) {
+            this.numParameters = numParameters;
+        }
+    }
+}
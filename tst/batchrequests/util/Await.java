@@ -0,0 +1,33 @@
+package batchrequests.util;
+
+import org.junit.Assert;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Waits for something that happens on another thread, e.g. a poller writing a batch, instead of sleeping for a fixed
+ * time.
+ */
+public final class Await {
+
+    /** How long to wait before failing the test.  Value: {@value #TIMEOUT_MS} */
+    public static final long TIMEOUT_MS = 10_000;
+
+    private Await() {
+    }
+
+    /**
+     * Check the condition every millisecond until it holds, and fail the test if it still doesn't after
+     * {@link #TIMEOUT_MS}.
+     */
+    public static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() - deadlineNanos >= 0) {
+                Assert.fail("Condition still doesn't hold after " + TIMEOUT_MS + "ms");
+            }
+            Thread.sleep(1);
+        }
+    }
+}
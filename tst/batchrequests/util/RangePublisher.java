@@ -0,0 +1,57 @@
+package batchrequests.util;
+
+import lombok.Getter;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the integers from 0 (inclusive) to a given end (exclusive), honoring demand, then completes.  Items are
+ * emitted on whichever thread requests them.
+ */
+public class RangePublisher implements Publisher<Integer> {
+
+    private final int end;
+    @Getter private final AtomicLong totalRequested = new AtomicLong();
+    @Getter private volatile boolean cancelled;
+
+    public RangePublisher(int end) {
+        this.end = end;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super Integer> subscriber) {
+        subscriber.onSubscribe(new Subscription() {
+            private long demand;
+            private int next;
+            private boolean emitting;
+
+            @Override
+            public synchronized void request(long n) {
+                totalRequested.addAndGet(n);
+                demand += n;
+                // Requests made from within onNext are picked up by the loop that is already emitting
+                if (emitting) {
+                    return;
+                }
+                emitting = true;
+                while (demand > 0 && next < end && !cancelled) {
+                    demand--;
+                    subscriber.onNext(next++);
+                }
+                emitting = false;
+                if (next == end && !cancelled) {
+                    cancelled = true;
+                    subscriber.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+            }
+        });
+    }
+}